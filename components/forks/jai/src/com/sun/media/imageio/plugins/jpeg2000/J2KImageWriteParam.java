@@ -177,6 +177,14 @@ import javax.imageio.ImageWriteParam;
  *    box is written.  The default value is false.
  *    </td>
  * </tr> 
+ * <tr>
+ *    <td>numThreads</td>
+ *    <td>Specifies the number of threads used to code the tiles of the
+ *    image.  Tiles are only coded concurrently if the image has more than
+ *    one tile and this value is greater than 1.  The codestream is the same
+ *    whatever the number of threads.  The default value is 1.
+ *    </td>
+ * </tr>
  * </table>
  */
 public class J2KImageWriteParam extends ImageWriteParam {
@@ -243,6 +251,11 @@ public class J2KImageWriteParam extends ImageWriteParam {
      */
     private boolean writeCodeStreamOnly = false;
 
+    /** Specifies the number of threads used to code the tiles of the
+     *  image.  The default value is 1.
+     */
+    private int numThreads = 1;
+
     /**
      * Constructor which sets the <code>Locale</code>.
      *
@@ -491,4 +504,25 @@ public class J2KImageWriteParam extends ImageWriteParam {
     public boolean  getWriteCodeStreamOnly() {
         return writeCodeStreamOnly;
     }
+
+    /**
+     * Sets <code>numThreads</code>.
+     *
+     * @param value the number of threads used to code the tiles of the
+     *        image; values less than 1 are treated as 1.
+     * @see #getNumThreads()
+     */
+    public void setNumThreads(int value) {
+        numThreads = Math.max(1, value);
+    }
+
+    /**
+     * Gets <code>numThreads</code>.
+     *
+     * @return the number of threads used to code the tiles of the image.
+     * @see #setNumThreads(int)
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
 }
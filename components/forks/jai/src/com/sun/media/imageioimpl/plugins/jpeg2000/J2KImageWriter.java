@@ -105,7 +105,9 @@ import javax.imageio.stream.ImageOutputStream;
 import jj2000.j2k.codestream.writer.CodestreamWriter;
 import jj2000.j2k.codestream.writer.FileCodestreamWriter;
 import jj2000.j2k.codestream.writer.HeaderEncoder;
+import jj2000.j2k.entropy.encoder.CodedCBlkDataSrcEnc;
 import jj2000.j2k.entropy.encoder.EntropyCoder;
+import jj2000.j2k.entropy.encoder.ParallelTileEncoder;
 import jj2000.j2k.entropy.encoder.PostCompRateAllocator;
 import jj2000.j2k.fileformat.writer.FileFormatWriter;
 import jj2000.j2k.image.ImgDataConverter;
@@ -358,17 +360,34 @@ public class J2KImageWriter extends ImageWriter {
         ROIScaler rois = ROIScaler.createInstance(quant, j2kwparam);
 
         // Creates EntropyCoder
-        EntropyCoder ecoder =
-	    EntropyCoder.createInstance(rois, j2kwparam,
-		j2kwparam.getCodeBlockSize(),
-		j2kwparam.getPrecinctPartition(),
-		j2kwparam.getBypass(),
-		j2kwparam.getResetMQ(),
-		j2kwparam.getTerminateOnByte(),
-		j2kwparam.getCausalCXInfo(),
-		j2kwparam.getCodeSegSymbol(),
-		j2kwparam.getMethodForMQLengthCalc(),
-		j2kwparam.getMethodForMQTermination());
+        EntropyCoder ecoder = createEntropyCoder(rois, j2kwparam);
+
+        // If requested, code the tiles concurrently, each worker thread
+        // using its own copy of the encoding chain
+        int nThreads = 1;
+        if (param instanceof J2KImageWriteParam)
+            nThreads = ((J2KImageWriteParam)param).getNumThreads();
+        nThreads = Math.min(nThreads, imgtiler.getNumTiles());
+
+        ParallelTileEncoder tileEncoder = null;
+        if (nThreads > 1) {
+            EntropyCoder[] workers = new EntropyCoder[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                RenderedImageSrc src = writeRaster ?
+                    new RenderedImageSrc(raster, j2kwparam, this) :
+                    new RenderedImageSrc(input, j2kwparam, this);
+                Tiler tiler = new Tiler(src,refx,refy,trefx,trefy,tw,th);
+                ForwardWT wt = ForwardWT.createInstance(
+                    new ImgDataConverter(new ForwCompTransf(tiler, j2kwparam)),
+                    j2kwparam);
+                Quantizer q = Quantizer.createInstance(wt, j2kwparam);
+                workers[i] = createEntropyCoder(
+                    ROIScaler.createInstance(q, j2kwparam), j2kwparam);
+            }
+            tileEncoder = new ParallelTileEncoder(ecoder, workers);
+        }
+        CodedCBlkDataSrcEnc coded =
+            tileEncoder != null ? tileEncoder : (CodedCBlkDataSrcEnc)ecoder;
 
         // Rely on rate allocator to limit amount of data
         File tmpFile = File.createTempFile("jiio-", ".tmp");
@@ -381,7 +400,7 @@ public class J2KImageWriter extends ImageWriter {
         // Creates the rate allocator
         float rate = (float)j2kwparam.getEncodingRate();
         PostCompRateAllocator ralloc =
-            PostCompRateAllocator.createInstance(ecoder,
+            PostCompRateAllocator.createInstance(coded,
                                                  rate,
                                                  bwriter,
                                                  j2kwparam);
@@ -407,6 +426,10 @@ public class J2KImageWriter extends ImageWriter {
                 processWriteAborted();
                 return;
             } else throw e;
+        } finally {
+            // All data has been coded, the worker threads are not needed
+            if (tileEncoder != null)
+                tileEncoder.shutdown();
         }
 
         // Write header (final)
@@ -535,6 +558,23 @@ public class J2KImageWriter extends ImageWriter {
         return abortRequested();
     }
 
+    /**
+     * Creates the entropy coder at the end of an encoding chain.
+     */
+    private static EntropyCoder createEntropyCoder(ROIScaler rois,
+                                    J2KImageWriteParamJava j2kwparam) {
+        return EntropyCoder.createInstance(rois, j2kwparam,
+		j2kwparam.getCodeBlockSize(),
+		j2kwparam.getPrecinctPartition(),
+		j2kwparam.getBypass(),
+		j2kwparam.getResetMQ(),
+		j2kwparam.getTerminateOnByte(),
+		j2kwparam.getCausalCXInfo(),
+		j2kwparam.getCodeSegSymbol(),
+		j2kwparam.getMethodForMQLengthCalc(),
+		j2kwparam.getMethodForMQTermination());
+    }
+
     private void checkSampleModel(SampleModel sm) {
         int type = sm.getDataType();
 
@@ -1939,6 +1939,22 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             change[idx][3] = decSpec.dls.getMaxInTile(t)+1; // res. level end
             change[idx][4] = 0; // Component index start
             change[idx][5] = nc; // Component index end
+
+            // When the resolution level is the outermost loop of the
+            // progression, the packets of the resolution levels above the
+            // target one are all at the end of the tile and need not be
+            // read at all (the same holds for a single layer codestream in
+            // layer progression)
+            int prog = change[idx][0];
+            if (prog == RES_LY_COMP_POS_PROG ||
+                prog == RES_POS_COMP_LY_PROG ||
+                (prog == LY_RES_COMP_POS_PROG && nl == 1)) {
+                int maxRes = targetRes + decSpec.dls.getMaxInTile(t) -
+                    decSpec.dls.getMin();
+                if (maxRes+1 < change[idx][3]) {
+                    change[idx][3] = maxRes+1;
+                }
+            }
         } else {
             for(idx=0; idx<nChg; idx++){
                 change[idx][0] = pocSpec[idx][5];
@@ -0,0 +1,323 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package jj2000.j2k.entropy.encoder;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import jj2000.j2k.wavelet.analysis.*;
+import jj2000.j2k.image.*;
+
+/**
+ * This class entropy codes the tiles of an image concurrently. It wraps a
+ * number of independent encoding chains (tiler, component transform,
+ * wavelet transform, quantizer, ROI scaler and entropy coder) built over
+ * the same source image, and gives each of them whole tiles to code on a
+ * pool of worker threads.
+ *
+ * <P>The primary chain is never used for coding; it only answers the
+ * questions about the image, tile and subband geometry that the rate
+ * allocator and header encoder ask, so that tile changes made by them are
+ * cheap and do not interfere with the workers.
+ *
+ * <P>The code-blocks of all tiles are coded as soon as the first one is
+ * requested. The rate allocator keeps every coded code-block in memory
+ * anyway, so coding ahead of it does not increase the peak memory use by
+ * more than the working buffers of the extra chains.
+ *
+ * <P>The code-blocks of each tile are returned only once; requesting them
+ * again after a tile change returns no code-blocks.
+ *
+ * @see PostCompRateAllocator
+ * @see StdEntropyCoder
+ * */
+public class ParallelTileEncoder extends ImgDataAdapter
+    implements CodedCBlkDataSrcEnc {
+
+    /** The chain answering geometry queries */
+    private CodedCBlkDataSrcEnc src;
+
+    /** The chains that are not currently coding a tile */
+    private BlockingQueue<CodedCBlkDataSrcEnc> idle;
+
+    /** The number of worker chains */
+    private int nWorkers;
+
+    /** The threads on which tiles are coded, null until coding starts */
+    private ExecutorService executor;
+
+    /** The pending coded code-blocks of each tile, by component */
+    private Future<CBlkRateDistStats[][]>[] results;
+
+    /** The number of tiles whose code-blocks have been collected */
+    private int nCollected;
+
+    /** The coded code-blocks of the current tile, by component */
+    private CBlkRateDistStats[][] current;
+
+    /** The index of the next code-block to return, by component */
+    private int[] next;
+
+    /**
+     * Creates a new tile parallel encoder.
+     *
+     * @param src The chain used to answer geometry queries. It is not used
+     * to code any data.
+     *
+     * @param workers The chains used to code tiles. Each of them must be
+     * built over the same image and with the same parameters as 'src', and
+     * no two of them may share any stateful object.
+     * */
+    public ParallelTileEncoder(CodedCBlkDataSrcEnc src,
+                               CodedCBlkDataSrcEnc[] workers) {
+        super(src);
+        if (workers == null || workers.length == 0) {
+            throw new IllegalArgumentException("No worker encoders");
+        }
+        this.src = src;
+        nWorkers = workers.length;
+        idle = new LinkedBlockingQueue<CodedCBlkDataSrcEnc>();
+        for (int i=0; i<workers.length; i++) {
+            idle.add(workers[i]);
+        }
+        next = new int[src.getNumComps()];
+    }
+
+    /**
+     * Returns the next coded code-block in the current tile for the
+     * specified component. The first call codes all tiles of the image on
+     * the worker threads; this and subsequent calls then wait for the
+     * current tile to be ready.
+     *
+     * @param c The component for which to return the next code-block.
+     *
+     * @param ccb Ignored, as the returned code-blocks are created by the
+     * worker chains.
+     *
+     * @return The next coded code-block in the current tile for component
+     * 'c', or null if all code-blocks for the current tile have been
+     * returned.
+     *
+     * @see CodedCBlkDataSrcEnc#getNextCodeBlock
+     * */
+    public CBlkRateDistStats getNextCodeBlock(int c, CBlkRateDistStats ccb) {
+        if (current == null) {
+            current = collect(tIdx);
+        }
+        if (next[c] >= current[c].length) {
+            return null;
+        }
+        CBlkRateDistStats cblk = current[c][next[c]];
+        current[c][next[c]++] = null;
+        return cblk;
+    }
+
+    /**
+     * Changes the current tile, given the new indexes.
+     *
+     * @param x The horizontal index of the tile.
+     *
+     * @param y The vertical index of the new tile.
+     * */
+    public void setTile(int x, int y) {
+        super.setTile(x,y);
+        resetCurrent();
+    }
+
+    /**
+     * Advances to the next tile, in standard scan-line order.
+     * */
+    public void nextTile() {
+        super.nextTile();
+        resetCurrent();
+    }
+
+    /**
+     * Stops the worker threads. Tiles that are still being coded are
+     * abandoned. This method should be called once the rate allocator has
+     * been initialized, or if encoding fails; it is harmless to call it
+     * more than once.
+     * */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        results = null;
+        current = null;
+    }
+
+    // -- CodedCBlkDataSrcEnc and ForwWTDataProps API methods --
+
+    public int getPPX(int t, int c, int r) {
+        return src.getPPX(t,c,r);
+    }
+
+    public int getPPY(int t, int c, int r) {
+        return src.getPPY(t,c,r);
+    }
+
+    public boolean precinctPartitionUsed(int c, int t) {
+        return src.precinctPartitionUsed(c,t);
+    }
+
+    public boolean isReversible(int t, int c) {
+        return src.isReversible(t,c);
+    }
+
+    public SubbandAn getAnSubbandTree(int t, int c) {
+        return src.getAnSubbandTree(t,c);
+    }
+
+    public int getCbULX() {
+        return src.getCbULX();
+    }
+
+    public int getCbULY() {
+        return src.getCbULY();
+    }
+
+    // -- Helper methods --
+
+    /** Forgets the code-blocks of the previous current tile. */
+    private void resetCurrent() {
+        current = null;
+        for (int c=next.length-1; c>=0; c--) {
+            next[c] = 0;
+        }
+    }
+
+    /**
+     * Waits for the code-blocks of tile 't', starting the coding of all
+     * tiles if this has not been done yet.
+     * */
+    private CBlkRateDistStats[][] collect(int t) {
+        if (executor == null) {
+            start();
+        }
+        Future<CBlkRateDistStats[][]> result =
+            results == null ? null : results[t];
+        if (result == null) {
+            // Already returned or abandoned
+            return new CBlkRateDistStats[next.length][0];
+        }
+        results[t] = null;
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            shutdown();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while coding tile "+t);
+        } catch (ExecutionException e) {
+            shutdown();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            nCollected++;
+            if (results != null && nCollected == results.length) {
+                shutdown();
+            }
+        }
+    }
+
+    /** Submits the coding of every tile to the worker threads. */
+    private void start() {
+        executor = Executors.newFixedThreadPool(nWorkers, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread =
+                    new Thread(r, "ParallelTileEncoder-" + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int nt = getNumTiles();
+        int ntx = getNumTiles(null).x;
+        results = new Future[nt];
+        for (int t=0; t<nt; t++) {
+            results[t] = executor.submit(new TileTask(t % ntx, t / ntx));
+        }
+    }
+
+    /** Codes all code-blocks of one tile on one of the idle chains. */
+    private class TileTask implements Callable<CBlkRateDistStats[][]> {
+
+        private int x, y;
+
+        TileTask(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public CBlkRateDistStats[][] call() throws Exception {
+            CodedCBlkDataSrcEnc enc = idle.take();
+            try {
+                enc.setTile(x,y);
+                int t = enc.getTileIdx();
+                int nc = enc.getNumComps();
+                // Asking for the subband trees has the quantizer compute
+                // the per-subband parameters used by the entropy coder, as
+                // the rate allocator does for a sequential chain
+                for (int c=0; c<nc; c++) {
+                    enc.getAnSubbandTree(t,c);
+                }
+                CBlkRateDistStats[][] cblks = new CBlkRateDistStats[nc][];
+                ArrayList<CBlkRateDistStats> list =
+                    new ArrayList<CBlkRateDistStats>();
+                CBlkRateDistStats ccb;
+                for (int c=0; c<nc; c++) {
+                    list.clear();
+                    while ((ccb = enc.getNextCodeBlock(c,null)) != null) {
+                        list.add(ccb);
+                    }
+                    cblks[c] = list.toArray(new CBlkRateDistStats[list.size()]);
+                }
+                return cblks;
+            } finally {
+                idle.add(enc);
+            }
+        }
+    }
+}
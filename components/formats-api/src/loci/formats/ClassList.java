@@ -125,10 +125,12 @@ public class ClassList<T> {
       line = line.trim();
       if (line.equals("")) continue;
 
-      // load class
+      // load class; it is not initialized until it is first used, so that
+      // classes which are never instantiated cost as little as possible
       Class<? extends T> c = null;
       try {
-        Class<?> rawClass = Class.forName(line);
+        Class<?> rawClass =
+          Class.forName(line, false, ClassList.class.getClassLoader());
         c = cast(rawClass);
       }
       catch (ClassNotFoundException exc) {
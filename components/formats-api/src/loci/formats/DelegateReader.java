@@ -205,6 +205,16 @@ public abstract class DelegateReader extends FormatReader {
     return nativeReader.openBytes(no, buf, x, y, w, h);
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    if (useLegacy || (legacyReaderInitialized && !nativeReaderInitialized)) {
+      return legacyReader.openBytes(series, resolution, no, buf, x, y, w, h);
+    }
+    return nativeReader.openBytes(series, resolution, no, buf, x, y, w, h);
+  }
+
   /* @see IFormatReader#close(boolean) */
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
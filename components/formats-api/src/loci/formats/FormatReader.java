@@ -161,6 +161,14 @@ public abstract class FormatReader extends FormatHandler
    */
   protected boolean suffixSufficient = true;
 
+  /**
+   * Signatures, one of which must match the start of a file for it to be
+   * identified as an instance of this format (unless the suffix alone is
+   * sufficient), or null if the file contents cannot be ruled out this way.
+   * Used by {@link ImageReader} to avoid opening the file for each reader.
+   */
+  protected FormatSignature[] signatures;
+
   /** Whether this format supports multi-file datasets. */
   protected boolean hasCompanionFiles = false;
 
@@ -517,28 +525,19 @@ public abstract class FormatReader extends FormatHandler
       int scanlineWidth = getSizeX() + scanlinePad;
       if (isInterleaved()) {
         s.skipBytes(y * scanlineWidth * bpp * c);
-        for (int row=0; row<h; row++) {
-          s.skipBytes(x * bpp * c);
-          s.read(buf, row * w * bpp * c, w * bpp * c);
-          if (row < h - 1) {
-            // no need to skip bytes after reading final row
-            s.skipBytes(bpp * c * (scanlineWidth - w - x));
-          }
-        }
+        s.skipBytes(x * bpp * c);
+        s.readRows(buf, 0, w * bpp * c, h, scanlineWidth * bpp * c,
+          w * bpp * c);
       }
       else {
         for (int channel=0; channel<c; channel++) {
           s.skipBytes(y * scanlineWidth * bpp);
-          for (int row=0; row<h; row++) {
-            s.skipBytes(x * bpp);
-            s.read(buf, channel * w * h * bpp + row * w * bpp, w * bpp);
-            if (row < h - 1 || channel < c - 1) {
-              // no need to skip bytes after reading final row of final channel
-              s.skipBytes(bpp * (scanlineWidth - w - x));
-            }
-          }
+          s.skipBytes(x * bpp);
+          s.readRows(buf, channel * w * h * bpp, w * bpp, h,
+            scanlineWidth * bpp, w * bpp);
           if (channel < c - 1) {
             // no need to skip bytes after reading final channel
+            s.skipBytes(bpp * (scanlineWidth - w - x));
             s.skipBytes(scanlineWidth * bpp * (getSizeY() - y - h));
           }
         }
@@ -552,6 +551,71 @@ public abstract class FormatReader extends FormatHandler
     return new FilterMetadata(getMetadataStore(), isMetadataFiltered());
   }
 
+  /**
+   * Returns the index into the core metadata list of the given series and
+   * resolution.  Unlike {@link #seriesToCoreIndex(int)}, this does not use
+   * the current series and resolution, so it is safe to call from
+   * {@link #openBytes(int, int, int, byte[], int, int, int, int)}.
+   */
+  protected int getCoreIndex(int series, int resolution) {
+    FormatTools.assertId(currentId, true, 1);
+    int index = series;
+    if (!hasFlattenedResolutions()) {
+      index = 0;
+      for (int i=0; i<series && index < core.size(); i++) {
+        index += core.get(index).resolutionCount;
+      }
+    }
+    if (series < 0 || index >= core.size()) {
+      throw new IllegalArgumentException("Invalid series: " + series);
+    }
+    int resolutionCount =
+      hasFlattenedResolutions() ? 1 : core.get(index).resolutionCount;
+    if (resolution < 0 || resolution >= resolutionCount) {
+      throw new IllegalArgumentException("Invalid resolution: " + resolution);
+    }
+    return index + resolution;
+  }
+
+  /**
+   * Checks the plane number, sub-image and buffer size against the core
+   * metadata at the given index, as
+   * {@link FormatTools#checkPlaneParameters} does for the current series.
+   */
+  protected void checkPlaneParameters(int coreIndex, int no, int bufLength,
+    int x, int y, int w, int h) throws FormatException
+  {
+    CoreMetadata m = core.get(coreIndex);
+    if (no < 0 || no >= m.imageCount) {
+      throw new FormatException("Invalid image number: " + no +
+        " (core index=" + coreIndex + ", imageCount=" + m.imageCount + ")");
+    }
+    if (x < 0 || y < 0 || w < 0 || h < 0 || (x + w) > m.sizeX ||
+      (y + h) > m.sizeY)
+    {
+      throw new FormatException("Invalid tile size: x=" + x + ", y=" + y +
+        ", w=" + w + ", h=" + h);
+    }
+    int size = w * h * getRGBChannelCount(m) *
+      FormatTools.getBytesPerPixel(m.pixelType);
+    if (bufLength >= 0 && size > bufLength) {
+      throw new FormatException("Buffer too small (got " + bufLength +
+        ", expected " + size + ").");
+    }
+  }
+
+  /**
+   * Returns the number of channels in each plane described by the given
+   * core metadata.
+   */
+  protected static int getRGBChannelCount(CoreMetadata m) {
+    int sizeZT = m.sizeZ * m.sizeT;
+    if (sizeZT == 0) return 0;
+    int effSizeC = m.imageCount / sizeZT;
+    if (effSizeC == 0) return 0;
+    return m.sizeC / effSizeC;
+  }
+
   // -- IMetadataConfigurable API methods --
 
   /* (non-Javadoc)
@@ -885,6 +949,14 @@ public abstract class FormatReader extends FormatHandler
   public abstract byte[] openBytes(int no, byte[] buf, int x, int y,
     int w, int h) throws FormatException, IOException;
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int int) */
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
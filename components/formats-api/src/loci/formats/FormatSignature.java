@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+/**
+ * Describes bytes that must be present at the start of a file for it to be
+ * of a particular format, e.g. a magic string at a fixed offset.
+ *
+ * Signatures are declared by readers (see {@link FormatReader#signatures})
+ * so that {@link ImageReader} can rule out most readers for a file using a
+ * single header block, instead of letting each reader open the file and
+ * check its own header in turn.  A signature must therefore only reject
+ * files that the reader would also reject; it is always safe for a
+ * signature to match a file that the reader cannot read.
+ */
+public class FormatSignature {
+
+  // -- Constants --
+
+  /** Signature matching the header of any TIFF or BigTIFF file. */
+  public static final FormatSignature TIFF = tiff();
+
+  private static final int MAGIC = 0;
+  private static final int SEARCH = 1;
+  private static final int TIFF_TAG = 2;
+
+  // -- Fields --
+
+  private int type;
+  private long offset;
+  private int searchLength;
+  private byte[][] magic;
+  private int[] tags;
+
+  // -- Constructor --
+
+  private FormatSignature(int type) {
+    this.type = type;
+  }
+
+  // -- Static utility methods --
+
+  /**
+   * Creates a signature that matches if any of the given byte sequences is
+   * present at the given offset.
+   */
+  public static FormatSignature magic(long offset, byte[]... alternatives) {
+    FormatSignature s = new FormatSignature(MAGIC);
+    s.offset = offset;
+    s.magic = alternatives;
+    return s;
+  }
+
+  /**
+   * Creates a signature that matches if any of the given ASCII strings is
+   * present at the given offset.
+   */
+  public static FormatSignature magic(long offset, String... alternatives) {
+    byte[][] bytes = new byte[alternatives.length][];
+    for (int i=0; i<alternatives.length; i++) {
+      bytes[i] = getBytes(alternatives[i]);
+    }
+    return magic(offset, bytes);
+  }
+
+  /**
+   * Creates a signature that matches if the given ASCII string is present
+   * anywhere within the first <code>length</code> bytes of the file.
+   */
+  public static FormatSignature search(int length, String magic) {
+    FormatSignature s = new FormatSignature(SEARCH);
+    s.searchLength = length;
+    s.magic = new byte[][] {getBytes(magic)};
+    return s;
+  }
+
+  /**
+   * Creates a signature that matches TIFF and BigTIFF files whose first IFD
+   * contains at least one of the given tags.  If no tags are given, any TIFF
+   * or BigTIFF file will match.
+   */
+  public static FormatSignature tiff(int... tags) {
+    FormatSignature s = new FormatSignature(TIFF_TAG);
+    s.tags = tags;
+    return s;
+  }
+
+  // -- FormatSignature API methods --
+
+  /**
+   * Checks whether or not a file could match this signature.
+   *
+   * @param header the first bytes of the file; this may be shorter than
+   *   the file itself
+   * @param length the total length of the file in bytes
+   * @return false if the file definitely does not match this signature;
+   *   true if it matches, or if the header is too short to tell
+   */
+  public boolean matches(byte[] header, long length) {
+    switch (type) {
+      case MAGIC:
+        for (byte[] m : magic) {
+          if (offset + m.length > length) continue;
+          if (offset + m.length > header.length) return true;
+          if (regionMatches(header, (int) offset, m)) return true;
+        }
+        return false;
+      case SEARCH:
+        if (searchLength > header.length && length > header.length) {
+          return true;
+        }
+        int end = Math.min(searchLength, header.length) - magic[0].length;
+        for (int i=0; i<=end; i++) {
+          if (regionMatches(header, i, magic[0])) return true;
+        }
+        return false;
+      case TIFF_TAG:
+        return matchesTiff(header, length);
+    }
+    return true;
+  }
+
+  // -- Helper methods --
+
+  private boolean matchesTiff(byte[] header, long length) {
+    if (length < 4) return false;
+    if (header.length < 4) return true;
+
+    boolean little = header[0] == 'I' && header[1] == 'I';
+    boolean big = header[0] == 'M' && header[1] == 'M';
+    if (!little && !big) return false;
+    int magicNumber = (int) readValue(header, 2, 2, little);
+    boolean bigTiff = magicNumber == 43;
+    if (magicNumber != 42 && !bigTiff) return false;
+    if (tags == null || tags.length == 0) return true;
+
+    // look for the tags in the first IFD, if it is within the header
+    long ifdOffset = bigTiff ? readValue(header, 8, 8, little) :
+      readValue(header, 4, 4, little);
+    int countSize = bigTiff ? 8 : 2;
+    int entrySize = bigTiff ? 20 : 12;
+    if (ifdOffset < 0 || ifdOffset + countSize > header.length) return true;
+    long entries = readValue(header, (int) ifdOffset, countSize, little);
+    if (entries < 0 || entries > header.length ||
+      ifdOffset + countSize + entries * entrySize > header.length)
+    {
+      return true;
+    }
+
+    for (int i=0; i<entries; i++) {
+      int entry = (int) (ifdOffset + countSize + i * entrySize);
+      int tag = (int) readValue(header, entry, 2, little);
+      for (int t : tags) {
+        if (tag == t) return true;
+      }
+    }
+    return false;
+  }
+
+  private static long readValue(byte[] b, int off, int len, boolean little) {
+    if (off < 0 || off + len > b.length) return -1;
+    long value = 0;
+    for (int i=0; i<len; i++) {
+      int index = little ? off + len - i - 1 : off + i;
+      value = (value << 8) | (b[index] & 0xff);
+    }
+    return value;
+  }
+
+  private static boolean regionMatches(byte[] b, int off, byte[] magic) {
+    for (int i=0; i<magic.length; i++) {
+      if (b[off + i] != magic[i]) return false;
+    }
+    return true;
+  }
+
+  private static byte[] getBytes(String s) {
+    byte[] b = new byte[s.length()];
+    for (int i=0; i<b.length; i++) {
+      b[i] = (byte) s.charAt(i);
+    }
+    return b;
+  }
+
+}
@@ -992,6 +992,35 @@ public final class FormatTools {
     return true;
   }
 
+  /**
+   * Default implementation for
+   * {@link IFormatReader#openBytes(int, int, int, byte[], int, int, int, int)}.
+   *
+   * While holding the reader's lock, the reader is switched to the given
+   * series and resolution, the plane is read using
+   * {@link IFormatReader#openBytes(int, byte[], int, int, int, int)}, and the
+   * previous series and resolution are restored.  Concurrent calls are
+   * therefore safe, but are serialized.
+   */
+  public static byte[] openBytes(IFormatReader reader, int series,
+    int resolution, int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    synchronized (reader) {
+      int currentSeries = reader.getSeries();
+      int currentResolution = reader.getResolution();
+      try {
+        reader.setSeries(series);
+        reader.setResolution(resolution);
+        return reader.openBytes(no, buf, x, y, w, h);
+      }
+      finally {
+        reader.setSeries(currentSeries);
+        reader.setResolution(currentResolution);
+      }
+    }
+  }
+
   /**
    * Default implementation for {@link IFormatReader#openThumbBytes}.
    *
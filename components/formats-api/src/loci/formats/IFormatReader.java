@@ -293,6 +293,37 @@ public interface IFormatReader extends IFormatHandler, IMetadataConfigurable {
   byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
     throws FormatException, IOException;
 
+  /**
+   * Obtains a sub-image of the specified image plane from the given series
+   * and resolution into a pre-allocated byte array, without using or
+   * changing the current series and resolution.
+   *
+   * Once the reader has been initialized, this method may be called from
+   * several threads at once, so that a single reader can serve a thread
+   * pool.  Readers that can locate planes independently of the current
+   * series (e.g. {@link loci.formats.in.MinimalTiffReader}) read them
+   * without locking; other readers serialize calls, as described in
+   * {@link FormatTools#openBytes(IFormatReader, int, int, int, byte[], int,
+   * int, int, int)}.  Other threads must not change the current file,
+   * series or resolution while this method is in use.
+   *
+   * @param series the series index, as passed to {@link #setSeries(int)}.
+   * @param resolution the resolution index within the series, as passed to
+   *   {@link #setResolution(int)}.
+   * @param no the image index within the series.
+   * @param buf a pre-allocated buffer.
+   * @param x X coordinate of the upper-left corner of the sub-image
+   * @param y Y coordinate of the upper-left corner of the sub-image
+   * @param w width of the sub-image
+   * @param h height of the sub-image
+   * @return the pre-allocated buffer <code>buf</code> for convenience.
+   * @throws FormatException if there was a problem parsing the metadata of the
+   *   file.
+   * @throws IOException if there was a problem reading the file.
+   */
+  byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException;
+
   /**
    * Obtains the specified image plane (or sub-image thereof) in the reader's
    * native data structure. For most readers this is a byte array; however,
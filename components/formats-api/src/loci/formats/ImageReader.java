@@ -36,9 +36,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import loci.common.Location;
@@ -68,11 +71,26 @@ public class ImageReader implements IFormatReader {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(ImageReader.class);
 
+  /**
+   * Number of bytes read from the start of a file in order to check reader
+   * signatures (see {@link FormatReader#signatures}).
+   */
+  public static final int HEADER_BLOCK_SIZE = 65536;
+
   // -- Static fields --
 
   /** Default list of reader classes, for use with noargs constructor. */
   private static ClassList<IFormatReader> defaultClasses;
 
+  /**
+   * Whether or not each reader class relies on the default file name
+   * checks in FormatReader, i.e. does not override isThisType(String) or
+   * isThisType(String, boolean).
+   */
+  private static final Map<Class<? extends IFormatReader>, Boolean>
+    defaultNameChecks = Collections.synchronizedMap(
+      new HashMap<Class<? extends IFormatReader>, Boolean>());
+
   // -- Static utility methods --
 
   public static ClassList<IFormatReader> getDefaultReaderClasses() {
@@ -92,9 +110,34 @@ public class ImageReader implements IFormatReader {
 
   // -- Fields --
 
-  /** List of supported file format readers. */
+  /** List of supported file format reader classes. */
+  private Class<? extends IFormatReader>[] readerClasses;
+
+  /**
+   * List of supported file format readers; in lazy mode, entries are null
+   * until the corresponding reader is first needed.
+   */
   private IFormatReader[] readers;
 
+  /** Whether or not readers are only instantiated when first needed. */
+  private boolean lazy;
+
+  /**
+   * Precomputed suffixes of the reader classes, used to rule out readers
+   * that have not been instantiated; empty unless in lazy mode.
+   */
+  private ReaderSuffixIndex suffixIndex;
+
+  // settings applied to every reader, recorded so that they can also be
+  // applied to readers that are instantiated later on in lazy mode
+  private Boolean groupFiles;
+  private Boolean normalized;
+  private Boolean originalMetadataPopulated;
+  private Boolean metadataFiltered;
+  private Boolean flattenedResolutions;
+  private MetadataStore metadataStore;
+  private MetadataOptions metadataOptions;
+
   /**
    * Valid suffixes for this file format.
    * Populated the first time getSuffixes() is called.
@@ -121,24 +164,59 @@ public class ImageReader implements IFormatReader {
 
   /** Constructs a new ImageReader from the given list of reader classes. */
   public ImageReader(ClassList<IFormatReader> classList) {
-    // add readers to the list
-    List<IFormatReader> list = new ArrayList<IFormatReader>();
-    Class<? extends IFormatReader>[] c = classList.getClasses();
-    for (int i=0; i<c.length; i++) {
-      IFormatReader reader = null;
-      try {
-        reader = c[i].newInstance();
-      }
-      catch (IllegalAccessException exc) { }
-      catch (InstantiationException exc) { }
-      if (reader == null) {
-        LOGGER.error("{} cannot be instantiated.", c[i].getName());
-        continue;
+    this(classList, false);
+  }
+
+  /**
+   * Constructs a new ImageReader from the given list of reader classes.
+   *
+   * @param classList the reader classes, in order of detection priority
+   * @param lazy if true, each reader is only instantiated when it is first
+   *   needed (e.g. when it is asked whether it can read a file), instead of
+   *   all readers being instantiated up front.  Readers that require a
+   *   file suffix according to the precomputed
+   *   {@link ReaderSuffixIndex#getDefaultIndex() suffix index} are skipped
+   *   without being instantiated when a file name does not have one of
+   *   their suffixes.
+   */
+  public ImageReader(ClassList<IFormatReader> classList, boolean lazy) {
+    this(classList, lazy,
+      lazy ? ReaderSuffixIndex.getDefaultIndex() : new ReaderSuffixIndex());
+  }
+
+  /**
+   * Constructs a new ImageReader from the given list of reader classes, in
+   * which each reader is only instantiated when it is first needed.
+   *
+   * @param classList the reader classes, in order of detection priority
+   * @param suffixIndex the precomputed suffixes of the reader classes
+   * @see #ImageReader(ClassList, boolean)
+   */
+  public ImageReader(ClassList<IFormatReader> classList,
+    ReaderSuffixIndex suffixIndex)
+  {
+    this(classList, true, suffixIndex);
+  }
+
+  private ImageReader(ClassList<IFormatReader> classList, boolean lazy,
+    ReaderSuffixIndex suffixIndex)
+  {
+    this.lazy = lazy;
+    this.suffixIndex = suffixIndex;
+    readerClasses = classList.getClasses();
+    readers = new IFormatReader[readerClasses.length];
+    if (!lazy) {
+      // add readers to the list
+      int count = 0;
+      for (int i=0; i<readerClasses.length; i++) {
+        IFormatReader reader = createReader(readerClasses[i]);
+        if (reader == null) continue;
+        readerClasses[count] = readerClasses[i];
+        readers[count++] = reader;
       }
-      list.add(reader);
+      readerClasses = Arrays.copyOf(readerClasses, count);
+      readers = Arrays.copyOf(readers, count);
     }
-    readers = new IFormatReader[list.size()];
-    list.toArray(readers);
   }
 
   // -- ImageReader API methods --
@@ -181,8 +259,12 @@ public class ImageReader implements IFormatReader {
       // initialize file
       boolean success = false;
       if (!invalid) {
+        // the header block is only read if a reader declares signatures
+        HeaderBlock header =
+          allowOpen && !fake && !omero ? new HeaderBlock(id) : null;
+        Set<String> suffixMatches = suffixIndex.getMatchingReaders(id);
         for (int i=0; i<readers.length; i++) {
-          if (readers[i].isThisType(id, allowOpen)) {
+          if (isThisType(i, id, allowOpen, header, suffixMatches)) {
             current = i;
             currentId = id;
             success = true;
@@ -205,37 +287,49 @@ public class ImageReader implements IFormatReader {
 
   /** Gets the file format reader instance matching the given class. */
   public IFormatReader getReader(Class<? extends IFormatReader> c) {
-    for (int i=0; i<readers.length; i++) {
-      if (readers[i].getClass().equals(c)) return readers[i];
+    for (int i=0; i<readerClasses.length; i++) {
+      if (readerClasses[i].equals(c)) return getReader(i);
     }
     return null;
   }
 
-  /** Gets all constituent file format readers. */
+  /**
+   * Gets all constituent file format readers.  In lazy mode, this
+   * instantiates every reader that has not yet been instantiated.
+   */
   public IFormatReader[] getReaders() {
-    IFormatReader[] r = new IFormatReader[readers.length];
-    System.arraycopy(readers, 0, r, 0, readers.length);
-    return r;
+    List<IFormatReader> list = new ArrayList<IFormatReader>();
+    for (int i=0; i<readers.length; i++) {
+      IFormatReader reader = getReader(i);
+      if (reader != null) list.add(reader);
+    }
+    return list.toArray(new IFormatReader[list.size()]);
+  }
+
+  /** Returns true if readers are only instantiated when first needed. */
+  public boolean isLazy() {
+    return lazy;
   }
 
   // -- IMetadataConfigurable API methods --
 
   /* @see loci.formats.IMetadataConfigurable#getSupportedMetadataLevels() */
   public Set<MetadataLevel> getSupportedMetadataLevels() {
-    return getReaders()[0].getSupportedMetadataLevels();
+    return getFirstReader().getSupportedMetadataLevels();
   }
 
   /* @see loci.formats.IMetadataConfigurable#getMetadataOptions() */
   public MetadataOptions getMetadataOptions() {
-    return getReaders()[0].getMetadataOptions();
+    return getFirstReader().getMetadataOptions();
   }
 
   /**
    * @see loci.formats.IMetadataConfigurable#setMetadataOptions(MetadataOptions)
    */
   public void setMetadataOptions(MetadataOptions options) {
+    metadataOptions = options;
     for (IFormatReader reader : readers) {
-      reader.setMetadataOptions(options);
+      if (reader != null) reader.setMetadataOptions(options);
     }
   }
 
@@ -243,8 +337,10 @@ public class ImageReader implements IFormatReader {
 
   /* @see IFormatReader#isThisType(String, boolean) */
   public boolean isThisType(String name, boolean open) {
+    HeaderBlock header = open ? new HeaderBlock(name) : null;
+    Set<String> suffixMatches = suffixIndex.getMatchingReaders(name);
     for (int i=0; i<readers.length; i++) {
-      if (readers[i].isThisType(name, open)) return true;
+      if (isThisType(i, name, open, header, suffixMatches)) return true;
     }
     return false;
   }
@@ -252,7 +348,8 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader.isThisType(byte[]) */
   public boolean isThisType(byte[] block) {
     for (int i=0; i<readers.length; i++) {
-      if (readers[i].isThisType(block)) return true;
+      IFormatReader reader = getReader(i);
+      if (reader != null && reader.isThisType(block)) return true;
     }
     return false;
   }
@@ -260,7 +357,8 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader.isThisType(RandomAccessInputStream) */
   public boolean isThisType(RandomAccessInputStream stream) throws IOException {
     for (int i=0; i<readers.length; i++) {
-      if (readers[i].isThisType(stream)) return true;
+      IFormatReader reader = getReader(i);
+      if (reader != null && reader.isThisType(stream)) return true;
     }
     return false;
   }
@@ -431,6 +529,13 @@ public class ImageReader implements IFormatReader {
     return getReader().openBytes(no, buf, x, y, w, h);
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return getReader().openBytes(series, resolution, no, buf, x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int) */
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
@@ -533,20 +638,25 @@ public class ImageReader implements IFormatReader {
 
   /* @see IFormatReader#close(boolean) */
   public void close(boolean fileOnly) throws IOException {
-    for (int i=0; i<readers.length; i++) readers[i].close(fileOnly);
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].close(fileOnly);
+    }
     if (!fileOnly) currentId = null;
   }
 
   /* @see IFormatReader#setGroupFiles(boolean) */
   public void setGroupFiles(boolean group) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setGroupFiles(group);
+    groupFiles = group;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setGroupFiles(group);
+    }
   }
 
   /* @see IFormatReader#isGroupFiles() */
   public boolean isGroupFiles() {
     // all readers should have same file grouping setting
-    return readers[0].isGroupFiles();
+    return getFirstReader().isGroupFiles();
   }
 
   /* @see IFormatReader#fileGroupOption(String) */
@@ -562,26 +672,32 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader#setNormalized(boolean) */
   public void setNormalized(boolean normalize) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setNormalized(normalize);
+    normalized = normalize;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setNormalized(normalize);
+    }
   }
 
   /* @see IFormatReader#isNormalized() */
   public boolean isNormalized() {
     // NB: all readers should have the same normalization setting
-    return readers[0].isNormalized();
+    return getFirstReader().isNormalized();
   }
 
   /* @see IFormatReader#setOriginalMetadataPopulated(boolean) */
   public void setOriginalMetadataPopulated(boolean populate) {
     FormatTools.assertId(currentId, false, 1);
+    originalMetadataPopulated = populate;
     for (int i=0; i<readers.length; i++) {
-      readers[i].setOriginalMetadataPopulated(populate);
+      if (readers[i] != null) {
+        readers[i].setOriginalMetadataPopulated(populate);
+      }
     }
   }
 
   /* @see IFormatReader#isOriginalMetadataPopulated() */
   public boolean isOriginalMetadataPopulated() {
-    return readers[0].isOriginalMetadataPopulated();
+    return getFirstReader().isOriginalMetadataPopulated();
   }
 
   /* @see IFormatReader#getCurrentFile() */
@@ -593,19 +709,25 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader#setMetadataFiltered(boolean) */
   public void setMetadataFiltered(boolean filter) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setMetadataFiltered(filter);
+    metadataFiltered = filter;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setMetadataFiltered(filter);
+    }
   }
 
   /* @see IFormatReader#isMetadataFiltered() */
   public boolean isMetadataFiltered() {
     // NB: all readers should have the same metadata filtering setting
-    return readers[0].isMetadataFiltered();
+    return getFirstReader().isMetadataFiltered();
   }
 
   /* @see IFormatReader#setMetadataStore(MetadataStore) */
   public void setMetadataStore(MetadataStore store) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setMetadataStore(store);
+    metadataStore = store;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setMetadataStore(store);
+    }
   }
 
   /* @see IFormatReader#getMetadataStore() */
@@ -618,7 +740,11 @@ public class ImageReader implements IFormatReader {
     return getReader().getMetadataStoreRoot();
   }
 
-  /* @see IFormatReader#getUnderlyingReaders() */
+  /**
+   * In lazy mode, this instantiates every reader that has not yet been
+   * instantiated; use {@link #getReader(Class)} to get a single reader.
+   * @see IFormatReader#getUnderlyingReaders()
+   */
   public IFormatReader[] getUnderlyingReaders() {
     return getReaders();
   }
@@ -703,13 +829,14 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader#hasFlattenedResolutions() */
   public boolean hasFlattenedResolutions() {
     // all readers should have the same flattened setting
-    return readers[0].hasFlattenedResolutions();
+    return getFirstReader().hasFlattenedResolutions();
   }
 
   /* @see IFormatReader#setFlattenedResolutions(boolean) */
   public void setFlattenedResolutions(boolean flattened) {
+    flattenedResolutions = flattened;
     for (IFormatReader reader : readers) {
-      reader.setFlattenedResolutions(flattened);
+      if (reader != null) reader.setFlattenedResolutions(flattened);
     }
   }
 
@@ -725,12 +852,23 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatHandler#getFormat() */
   public String getFormat() { return getReader().getFormat(); }
 
-  /* @see IFormatHandler#getSuffixes() */
+  /**
+   * In lazy mode, the suffixes of readers that have not been instantiated
+   * are taken from the precomputed suffix index; only readers that are
+   * not in the index are instantiated.
+   * @see IFormatHandler#getSuffixes()
+   */
   public String[] getSuffixes() {
     if (suffixes == null) {
       HashSet<String> suffixSet = new HashSet<String>();
       for (int i=0; i<readers.length; i++) {
-        String[] suf = readers[i].getSuffixes();
+        String[] suf = readers[i] == null ?
+          suffixIndex.getSuffixes(readerClasses[i]) : null;
+        if (suf == null) {
+          IFormatReader reader = getReader(i);
+          if (reader == null) continue;
+          suf = reader.getSuffixes();
+        }
         for (int j=0; j<suf.length; j++) suffixSet.add(suf[j]);
       }
       suffixes = new String[suffixSet.size()];
@@ -756,4 +894,186 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatHandler#close() */
   public void close() throws IOException { close(false); }
 
+  // -- Helper methods --
+
+  /**
+   * Gets the reader at the given index, instantiating it if necessary.
+   * @return the reader, or null if it cannot be instantiated
+   */
+  private IFormatReader getReader(int index) {
+    if (readers[index] == null) {
+      IFormatReader reader = createReader(readerClasses[index]);
+      if (reader == null) return null;
+      if (groupFiles != null) reader.setGroupFiles(groupFiles);
+      if (normalized != null) reader.setNormalized(normalized);
+      if (originalMetadataPopulated != null) {
+        reader.setOriginalMetadataPopulated(originalMetadataPopulated);
+      }
+      if (metadataFiltered != null) {
+        reader.setMetadataFiltered(metadataFiltered);
+      }
+      if (flattenedResolutions != null) {
+        reader.setFlattenedResolutions(flattenedResolutions);
+      }
+      if (metadataStore != null) reader.setMetadataStore(metadataStore);
+      if (metadataOptions != null) reader.setMetadataOptions(metadataOptions);
+      readers[index] = reader;
+    }
+    return readers[index];
+  }
+
+  /** Gets the first reader that can be instantiated. */
+  private IFormatReader getFirstReader() {
+    for (int i=0; i<readers.length; i++) {
+      IFormatReader reader = getReader(i);
+      if (reader != null) return reader;
+    }
+    throw new IllegalStateException("No readers available");
+  }
+
+  /**
+   * Checks whether the reader at the given index can read the given file.
+   * In lazy mode, readers that the suffix index lists as requiring a suffix
+   * that the file name does not have are skipped without being
+   * instantiated.  Readers that declare signatures are skipped without
+   * opening the file if none of the signatures match the given header block.
+   *
+   * @param header the shared header block of the file, or null if the file
+   *   contents should not be checked against reader signatures
+   * @param suffixMatches the names of the indexed reader classes that
+   *   require one of the file name's suffixes
+   */
+  private boolean isThisType(int index, String name, boolean open,
+    HeaderBlock header, Set<String> suffixMatches)
+  {
+    if (readers[index] == null &&
+      suffixIndex.isSuffixRequired(readerClasses[index]) &&
+      !suffixMatches.contains(readerClasses[index].getName()))
+    {
+      return false;
+    }
+    IFormatReader reader = getReader(index);
+    if (reader == null) return false;
+
+    if (header != null && reader instanceof FormatReader &&
+      hasDefaultNameCheck(reader))
+    {
+      FormatReader r = (FormatReader) reader;
+      boolean suffixMatch = r.suffixSufficient &&
+        FormatHandler.checkSuffix(name, r.getSuffixes());
+      if (r.signatures != null && !suffixMatch &&
+        !header.matches(r.signatures))
+      {
+        return false;
+      }
+    }
+    return reader.isThisType(name, open);
+  }
+
+  /**
+   * Checks whether or not the given reader relies on the default file name
+   * checks in FormatReader.
+   */
+  static boolean hasDefaultNameCheck(IFormatReader reader) {
+    Class<? extends IFormatReader> c = reader.getClass();
+    Boolean defaultCheck = defaultNameChecks.get(c);
+    if (defaultCheck == null) {
+      defaultCheck = false;
+      try {
+        Class<?> nameAndOpen = c.getMethod("isThisType",
+          String.class, boolean.class).getDeclaringClass();
+        Class<?> nameOnly =
+          c.getMethod("isThisType", String.class).getDeclaringClass();
+        defaultCheck = nameAndOpen.equals(FormatReader.class) &&
+          nameOnly.equals(FormatReader.class);
+      }
+      catch (NoSuchMethodException e) {
+        LOGGER.debug("", e);
+      }
+      defaultNameChecks.put(c, defaultCheck);
+    }
+    return defaultCheck;
+  }
+
+  /**
+   * Instantiates the given reader class.
+   * @return the new reader, or null if it cannot be instantiated
+   */
+  static IFormatReader createReader(
+    Class<? extends IFormatReader> c)
+  {
+    IFormatReader reader = null;
+    try {
+      reader = c.newInstance();
+    }
+    catch (IllegalAccessException exc) { }
+    catch (InstantiationException exc) { }
+    catch (LinkageError err) {
+      // the class could not be initialized
+      LOGGER.debug("", err);
+    }
+    if (reader == null) {
+      LOGGER.error("{} cannot be instantiated.", c.getName());
+      return null;
+    }
+    return reader;
+  }
+
+  // -- Helper classes --
+
+  /**
+   * The first {@link #HEADER_BLOCK_SIZE} bytes of a file, read at most once
+   * and only when first needed.
+   */
+  private static class HeaderBlock {
+    private String id;
+    private boolean initialized;
+    private byte[] data;
+    private long length;
+
+    public HeaderBlock(String id) {
+      this.id = id;
+    }
+
+    /**
+     * Checks whether any of the given signatures matches this header.
+     * If the header cannot be read, all signatures are assumed to match.
+     */
+    public boolean matches(FormatSignature[] signatures) {
+      if (!initialized) {
+        initialized = true;
+        read();
+      }
+      if (data == null) return true;
+      for (FormatSignature signature : signatures) {
+        if (signature.matches(data, length)) return true;
+      }
+      return false;
+    }
+
+    private void read() {
+      RandomAccessInputStream stream = null;
+      try {
+        stream = new RandomAccessInputStream(id);
+        length = stream.length();
+        byte[] b = new byte[(int) Math.min(length, HEADER_BLOCK_SIZE)];
+        stream.readFully(b);
+        data = b;
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not read header block of " + id, e);
+      }
+      finally {
+        if (stream != null) {
+          try {
+            stream.close();
+          }
+          catch (IOException e) {
+            LOGGER.debug("", e);
+          }
+        }
+      }
+    }
+  }
+
 }
@@ -131,6 +131,10 @@ public class ImageWriter implements IFormatWriter {
       }
       catch (IllegalAccessException exc) { }
       catch (InstantiationException exc) { }
+      catch (LinkageError err) {
+        // the class could not be initialized
+        LOGGER.debug("", err);
+      }
       if (writer == null) {
         LOGGER.error("{} cannot be instantiated.", c[i].getName());
         continue;
@@ -0,0 +1,308 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import loci.common.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReaderSuffixIndex maps file suffixes to the reader classes that handle
+ * them, so that {@link ImageReader} can rule readers out without
+ * instantiating them.
+ *
+ * The index for the readers in readers.txt is precomputed and stored in
+ * reader-suffixes.txt.  Each line holds a reader class name, followed by
+ * "required" if the reader never accepts a file name without one of its
+ * suffixes (or "optional" otherwise), followed by the reader's suffixes;
+ * an empty suffix is written as "".
+ * After adding a reader or changing a reader's suffixes, regenerate the
+ * file with:
+ *
+ * <pre>
+ * java loci.formats.ReaderSuffixIndex reader-suffixes.txt
+ * </pre>
+ */
+public final class ReaderSuffixIndex {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(ReaderSuffixIndex.class);
+
+  /** Name of the precomputed index of the readers in readers.txt. */
+  public static final String DEFAULT_INDEX = "reader-suffixes.txt";
+
+  private static final String REQUIRED = "required";
+
+  private static final String OPTIONAL = "optional";
+
+  private static final String EMPTY_SUFFIX = "\"\"";
+
+  // -- Static fields --
+
+  /** Index of the readers in readers.txt, loaded on first use. */
+  private static ReaderSuffixIndex defaultIndex;
+
+  // -- Fields --
+
+  /** Suffixes of each reader class, by class name. */
+  private Map<String, String[]> suffixes =
+    new LinkedHashMap<String, String[]>();
+
+  /** Names of the reader classes whose suffixes are required. */
+  private Set<String> required = new HashSet<String>();
+
+  /** Names of the reader classes that require each suffix. */
+  private Map<String, List<String>> readers =
+    new HashMap<String, List<String>>();
+
+  // -- Static utility methods --
+
+  /**
+   * Gets the precomputed index of the readers in readers.txt.
+   * If the index cannot be read, an empty index is returned.
+   */
+  public static synchronized ReaderSuffixIndex getDefaultIndex() {
+    if (defaultIndex == null) {
+      defaultIndex = new ReaderSuffixIndex();
+      InputStream stream =
+        ReaderSuffixIndex.class.getResourceAsStream(DEFAULT_INDEX);
+      if (stream == null) {
+        LOGGER.debug("Could not find {}", DEFAULT_INDEX);
+      }
+      else {
+        try {
+          defaultIndex.read(stream);
+        }
+        catch (IOException exc) {
+          defaultIndex = new ReaderSuffixIndex();
+          LOGGER.info("Could not parse reader suffix index", exc);
+        }
+      }
+    }
+    return defaultIndex;
+  }
+
+  /**
+   * Checks whether or not the given reader only accepts file names that
+   * end with one of its suffixes.  This is only the case for readers that
+   * do not override the file name checks in {@link FormatReader}, since
+   * the suffix check can otherwise not be trusted.
+   */
+  public static boolean isSuffixRequired(IFormatReader reader) {
+    return reader instanceof FormatReader &&
+      ((FormatReader) reader).suffixNecessary &&
+      ImageReader.hasDefaultNameCheck(reader);
+  }
+
+  // -- Constructors --
+
+  /** Constructs an empty index. */
+  public ReaderSuffixIndex() { }
+
+  /**
+   * Constructs an index of the given reader classes, instantiating each
+   * class once.  Classes that cannot be instantiated are left out.
+   */
+  public ReaderSuffixIndex(ClassList<IFormatReader> classList) {
+    for (Class<? extends IFormatReader> c : classList.getClasses()) {
+      IFormatReader reader = ImageReader.createReader(c);
+      if (reader == null) continue;
+      add(c.getName(), reader.getSuffixes(), isSuffixRequired(reader));
+    }
+  }
+
+  // -- ReaderSuffixIndex API methods --
+
+  /**
+   * Adds a reader class to the index.
+   * @param className the fully qualified name of the reader class
+   * @param suffixList the reader's suffixes
+   * @param suffixRequired whether or not the reader never accepts a file
+   *   name without one of the given suffixes
+   */
+  public void add(String className, String[] suffixList,
+    boolean suffixRequired)
+  {
+    suffixes.put(className, suffixList.clone());
+    if (suffixRequired) {
+      required.add(className);
+      for (String suffix : suffixList) {
+        List<String> list = readers.get(suffix);
+        if (list == null) {
+          list = new ArrayList<String>();
+          readers.put(suffix, list);
+        }
+        list.add(className);
+      }
+    }
+  }
+
+  /**
+   * Gets the suffixes of the given reader class.
+   * @return the suffixes, or null if the class is not in the index
+   */
+  public String[] getSuffixes(Class<? extends IFormatReader> c) {
+    String[] suffixList = suffixes.get(c.getName());
+    return suffixList == null ? null : suffixList.clone();
+  }
+
+  /**
+   * Checks whether or not the given reader class is in the index and only
+   * accepts file names that end with one of its suffixes.
+   */
+  public boolean isSuffixRequired(Class<? extends IFormatReader> c) {
+    return required.contains(c.getName());
+  }
+
+  /**
+   * Gets the names of the reader classes that require a suffix, and for
+   * which the given file name has one of the required suffixes.  Matching
+   * follows {@link FormatHandler#checkSuffix(String, String[])}, including
+   * compressed file suffixes.
+   */
+  public Set<String> getMatchingReaders(String name) {
+    Set<String> matches = new HashSet<String>();
+    String lname = name.toLowerCase();
+    addMatchingReaders(lname, matches);
+    for (String compression : FormatHandler.COMPRESSION_SUFFIXES) {
+      if (lname.endsWith("." + compression)) {
+        addMatchingReaders(lname.substring(0,
+          lname.length() - compression.length() - 1), matches);
+      }
+    }
+    return matches;
+  }
+
+  /** Reads index entries from the given stream, and closes the stream. */
+  public void read(InputStream stream) throws IOException {
+    BufferedReader in = new BufferedReader(
+      new InputStreamReader(stream, Constants.ENCODING));
+    try {
+      while (true) {
+        String line = in.readLine();
+        if (line == null) break;
+
+        // ignore characters following # sign (comments)
+        int ndx = line.indexOf("#");
+        if (ndx >= 0) line = line.substring(0, ndx);
+        line = line.trim();
+        if (line.equals("")) continue;
+
+        String[] tokens = line.split("\\s+");
+        if (tokens.length < 2 ||
+          !(tokens[1].equals(REQUIRED) || tokens[1].equals(OPTIONAL)))
+        {
+          throw new IOException("Invalid reader suffix entry: " + line);
+        }
+        String[] suffixList = new String[tokens.length - 2];
+        for (int i=0; i<suffixList.length; i++) {
+          String suffix = tokens[i + 2];
+          suffixList[i] = suffix.equals(EMPTY_SUFFIX) ? "" : suffix;
+        }
+        add(tokens[0], suffixList, tokens[1].equals(REQUIRED));
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /** Writes the index, in the format read by {@link #read(InputStream)}. */
+  public void write(PrintStream out) {
+    for (Map.Entry<String, String[]> entry : suffixes.entrySet()) {
+      StringBuilder line = new StringBuilder(entry.getKey());
+      line.append(required.contains(entry.getKey()) ? " " + REQUIRED :
+        " " + OPTIONAL);
+      for (String suffix : entry.getValue()) {
+        line.append(" ");
+        line.append(suffix.length() == 0 ? EMPTY_SUFFIX : suffix);
+      }
+      out.println(line);
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Adds the readers that require any suffix of the given lower case
+   * file name.
+   */
+  private void addMatchingReaders(String lname, Set<String> matches) {
+    for (int dot=lname.indexOf('.'); dot>=0; dot=lname.indexOf('.', dot+1))
+    {
+      List<String> list = readers.get(lname.substring(dot + 1));
+      if (list != null) matches.addAll(list);
+    }
+  }
+
+  // -- Main method --
+
+  /**
+   * Writes the index of the readers in readers.txt to the given file, or
+   * to standard output if no file is given.
+   */
+  public static void main(String[] args) throws IOException {
+    ReaderSuffixIndex index =
+      new ReaderSuffixIndex(ImageReader.getDefaultReaderClasses());
+    PrintStream out = args.length > 0 ?
+      new PrintStream(new FileOutputStream(args[0]), false,
+      Constants.ENCODING) : System.out;
+    out.println("# Suffixes of the readers in readers.txt, used by " +
+      "ImageReader to rule");
+    out.println("# out readers without instantiating them.  Generated by");
+    out.println("# loci.formats.ReaderSuffixIndex; regenerate after adding " +
+      "a reader or");
+    out.println("# changing a reader's suffixes.");
+    out.println();
+    index.write(out);
+    if (out != System.out) out.close();
+  }
+
+}
@@ -325,6 +325,12 @@ public abstract class ReaderWrapper implements IFormatReader {
     return reader.openBytes(no, buf, x, y, w, h);
   }
 
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return reader.openBytes(series, resolution, no, buf, x, y, w, h);
+  }
+
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
   {
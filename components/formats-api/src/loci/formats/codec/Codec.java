@@ -33,6 +33,7 @@
 package loci.formats.codec;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
@@ -134,4 +135,40 @@ public interface Codec {
   byte[] decompress(RandomAccessInputStream in, CodecOptions options)
     throws FormatException, IOException;
 
+  /**
+   * Decompresses a block of data into a caller-supplied array, so that the
+   * same output array can be reused for many blocks.
+   *
+   * At most {@link CodecOptions#maxBytes} bytes are written (if maxBytes is
+   * positive), and never more than fit between dstOffset and the end of
+   * dst.  Any further decompressed data is discarded.
+   *
+   * @param src the array containing the data to be decompressed
+   * @param srcOffset the offset of the data within src
+   * @param srcLength the number of bytes of compressed data
+   * @param dst the array into which decompressed data is written
+   * @param dstOffset the offset within dst at which to start writing
+   * @param options Options to be used during decompression.
+   * @return the number of bytes written to dst
+   * @throws FormatException If data is not valid.
+   */
+  int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst,
+    int dstOffset, CodecOptions options) throws FormatException;
+
+  /**
+   * Decompresses the remaining bytes of src, which must form one complete
+   * block of compressed data, into the remaining space of dst.  The
+   * position of src is set to its limit, and the position of dst is advanced
+   * past the bytes written.
+   *
+   * @param src the buffer containing the data to be decompressed
+   * @param dst the buffer into which decompressed data is written
+   * @param options Options to be used during decompression.
+   * @return the number of bytes written to dst
+   * @throws FormatException If data is not valid.
+   * @see #decompress(byte[], int, int, byte[], int, CodecOptions)
+   */
+  int decompress(ByteBuffer src, ByteBuffer dst, CodecOptions options)
+    throws FormatException;
+
 }
@@ -246,6 +246,15 @@ public class ChannelFiller extends ReaderWrapper {
     return buf;
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  @Override
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   // -- IFormatHandler API methods --
 
   /* @see IFormatHandler#getNativeDataType() */
@@ -170,6 +170,14 @@ public class ChannelMerger extends ReaderWrapper {
     return buf;
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   public int getIndex(int z, int c, int t) {
     return FormatTools.getIndex(this, z, c, t);
   }
@@ -222,6 +222,14 @@ public class ChannelSeparator extends ReaderWrapper {
     return reader.openBytes(no, buf, x, y, w, h);
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   /* @see loci.formats.IFormatReader#openThumbBytes(int) */
   public byte[] openThumbBytes(int no) throws FormatException, IOException {
     FormatTools.assertId(getCurrentFile(), true, 2);
@@ -257,6 +257,14 @@ public class DimensionSwapper extends ReaderWrapper {
     return super.openBytes(reorder(no), buf, x, y, w, h);
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   /* @see IFormatReader#openThumbImage(int) */
   public byte[] openThumbBytes(int no) throws FormatException, IOException {
     return super.openThumbBytes(reorder(no));
@@ -482,6 +482,14 @@ public class FileStitcher extends ReaderWrapper {
     return buf;
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int) */
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
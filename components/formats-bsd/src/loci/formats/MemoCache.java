@@ -0,0 +1,424 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages a directory of memo files shared by one or more {@link Memoizer}
+ * instances, possibly in different JVMs on the same host.
+ *
+ * The total size of the memo files in the directory is bounded, by evicting
+ * the least recently used memo files first, and memo files that have not
+ * been used for longer than a maximum age can also be evicted.  Eviction is
+ * coordinated between JVMs using a lock file in the cache directory.  Memo
+ * files themselves are written to a temporary file and then renamed, so
+ * other processes never see a partially written memo file.
+ *
+ * Hit, miss, save, eviction and load time counters are kept so that it is
+ * possible to tell whether or not memoization is paying off.
+ */
+public class MemoCache {
+
+  // -- Constants --
+
+  /** Suffix of memo files created by {@link Memoizer}. */
+  public static final String MEMO_SUFFIX = ".bfmemo";
+
+  /** Name of the lock file used to coordinate eviction. */
+  public static final String LOCK_FILE = ".bfmemo.lock";
+
+  /**
+   * Minimum age in milliseconds of an abandoned temporary memo file before
+   * it is deleted.
+   */
+  public static final long TEMP_FILE_AGE = 60 * 60 * 1000;
+
+  /**
+   * Minimum time in milliseconds between scans of the cache directory that
+   * are only done to find expired memo files.
+   */
+  public static final long SCAN_INTERVAL = 60 * 60 * 1000;
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(MemoCache.class);
+
+  /**
+   * Eviction locks by canonical cache directory.  A FileLock is held on
+   * behalf of the whole JVM, so MemoCache instances that share a directory
+   * must not try to acquire it at the same time.
+   */
+  private static final Map<String, Object> LOCKS =
+    new HashMap<String, Object>();
+
+  // -- Fields --
+
+  /** Directory under which all memo files are stored. */
+  private final File directory;
+
+  /** Maximum total size in bytes of all memo files; 0 means unbounded. */
+  private volatile long maxSize;
+
+  /**
+   * Maximum time in milliseconds since a memo file was last used before it
+   * is evicted; 0 means that memo files do not expire.
+   */
+  private volatile long maxAge;
+
+  /**
+   * Estimated total size of the memo files in bytes, or -1 if the
+   * directory has not been scanned yet.
+   */
+  private long currentSize = -1;
+
+  /** Time of the last scan of the cache directory. */
+  private long lastScan = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong saves = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong loadTime = new AtomicLong();
+
+  // -- Constructors --
+
+  /**
+   * Constructs a cache of memo files in the given directory, with no limit
+   * on the total size of the memo files.
+   */
+  public MemoCache(File directory) {
+    this(directory, 0);
+  }
+
+  /**
+   * Constructs a cache of memo files in the given directory.
+   *
+   * @param directory the directory under which memo files are stored; it is
+   *   created if it does not exist
+   * @param maxSize the maximum total size in bytes of all memo files, or 0
+   *   if the total size should not be limited
+   */
+  public MemoCache(File directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+    directory.mkdirs();
+  }
+
+  // -- MemoCache API methods --
+
+  /** Gets the directory under which memo files are stored. */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /** Gets the maximum total size in bytes of all memo files. */
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Sets the maximum total size in bytes of all memo files.
+   * 0 means that the total size is not limited.
+   */
+  public void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /** Gets the maximum time in milliseconds that a memo file is kept unused. */
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Sets the maximum time in milliseconds since a memo file was last used
+   * before it is evicted.  0 means that memo files do not expire.
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  /** Gets the number of times that a memo file was successfully loaded. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Gets the number of times that no valid memo file could be loaded. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Gets the number of memo files that have been saved. */
+  public long getSaves() {
+    return saves.get();
+  }
+
+  /** Gets the number of memo files that have been evicted. */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /** Gets the total time in milliseconds spent loading memo files. */
+  public long getLoadTime() {
+    return loadTime.get();
+  }
+
+  /** Resets all counters to 0. */
+  public void resetCounters() {
+    hits.set(0);
+    misses.set(0);
+    saves.set(0);
+    evictions.set(0);
+    loadTime.set(0);
+  }
+
+  /**
+   * Records that the given memo file was successfully loaded, and marks it
+   * as recently used.
+   *
+   * @param memoFile the memo file that was loaded
+   * @param elapsed the time in milliseconds taken to load the memo file
+   */
+  public void hit(File memoFile, long elapsed) {
+    hits.incrementAndGet();
+    loadTime.addAndGet(elapsed);
+    // the modification time doubles as the last access time; this keeps
+    // the memo file newer than the file that it describes
+    if (!memoFile.setLastModified(System.currentTimeMillis())) {
+      LOGGER.debug("could not update last modified time of {}", memoFile);
+    }
+  }
+
+  /**
+   * Records that no valid memo file could be loaded.
+   *
+   * @param elapsed the time in milliseconds spent looking for a memo file
+   */
+  public void miss(long elapsed) {
+    misses.incrementAndGet();
+    loadTime.addAndGet(elapsed);
+  }
+
+  /**
+   * Gets the estimated total size in bytes of the memo files, or -1 if the
+   * cache directory has not been scanned yet.
+   */
+  public synchronized long getCurrentSize() {
+    return currentSize;
+  }
+
+  /**
+   * Records that the given memo file was saved, and evicts other memo files
+   * if the cache is now over its maximum size.
+   */
+  public void saved(File memoFile) {
+    saved(memoFile, 0);
+  }
+
+  /**
+   * Records that the given memo file was saved, replacing a memo file of the
+   * given length, and evicts other memo files if the cache is now over its
+   * maximum size.
+   *
+   * @param memoFile the memo file that was saved
+   * @param replacedLength the length in bytes of the memo file that was
+   *   overwritten, or 0 if there was none
+   */
+  public void saved(File memoFile, long replacedLength) {
+    saves.incrementAndGet();
+    boolean evict;
+    synchronized (this) {
+      if (currentSize >= 0) {
+        currentSize += memoFile.length() - replacedLength;
+      }
+      long sinceScan = System.currentTimeMillis() - lastScan;
+      evict = currentSize < 0 || (maxSize > 0 && currentSize > maxSize) ||
+        (maxAge > 0 && sinceScan > Math.min(maxAge, SCAN_INTERVAL));
+    }
+    if (evict) {
+      evict();
+    }
+  }
+
+  /**
+   * Scans the cache directory, and deletes expired memo files and then the
+   * least recently used memo files until the total size is within the
+   * maximum size.  Abandoned temporary files are also deleted.
+   *
+   * @return the number of memo files that were deleted
+   */
+  public int evict() {
+    synchronized (getLock(directory)) {
+      synchronized (this) {
+        FileLock lock = null;
+        RandomAccessFile lockFile = null;
+        try {
+          lockFile =
+            new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+          FileChannel channel = lockFile.getChannel();
+          lock = channel.lock();
+          return evictLocked();
+        }
+        catch (IOException e) {
+          LOGGER.debug("could not lock memo cache {}", directory, e);
+          return 0;
+        }
+        catch (OverlappingFileLockException e) {
+          // the lock file is locked through another channel in this JVM
+          LOGGER.debug("memo cache {} is already locked", directory, e);
+          return 0;
+        }
+        finally {
+          try {
+            if (lock != null) lock.release();
+            if (lockFile != null) lockFile.close();
+          }
+          catch (IOException e) {
+            LOGGER.debug("could not unlock memo cache {}", directory, e);
+          }
+        }
+      }
+    }
+  }
+
+  public String toString() {
+    return "MemoCache[directory=" + directory + ", hits=" + getHits() +
+      ", misses=" + getMisses() + ", saves=" + getSaves() +
+      ", evictions=" + getEvictions() + ", loadTime=" + getLoadTime() + "]";
+  }
+
+  // -- Helper methods --
+
+  /** Gets the JVM-wide eviction lock for the given cache directory. */
+  private static Object getLock(File directory) {
+    String key;
+    try {
+      key = directory.getCanonicalPath();
+    }
+    catch (IOException e) {
+      key = directory.getAbsolutePath();
+    }
+    synchronized (LOCKS) {
+      Object lock = LOCKS.get(key);
+      if (lock == null) {
+        lock = new Object();
+        LOCKS.put(key, lock);
+      }
+      return lock;
+    }
+  }
+
+  /** Evicts memo files; must be called with the cache lock held. */
+  private int evictLocked() {
+    List<File> memoFiles = new ArrayList<File>();
+    long now = System.currentTimeMillis();
+    scan(directory, memoFiles, now);
+
+    // most recently used memo files first
+    final long[] lastUsed = new long[memoFiles.size()];
+    for (int i=0; i<lastUsed.length; i++) {
+      lastUsed[i] = memoFiles.get(i).lastModified();
+    }
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i=0; i<lastUsed.length; i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        long diff = lastUsed[b] - lastUsed[a];
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+
+    int deleted = 0;
+    long total = 0;
+    for (Integer index : order) {
+      File memo = memoFiles.get(index);
+      long length = memo.length();
+      boolean expired = maxAge > 0 && now - lastUsed[index] > maxAge;
+      boolean tooLarge = maxSize > 0 && total + length > maxSize;
+      if ((expired || tooLarge) && memo.delete()) {
+        LOGGER.debug("evicted memo file {}", memo);
+        deleted++;
+      }
+      else {
+        total += length;
+      }
+    }
+    evictions.addAndGet(deleted);
+    currentSize = total;
+    lastScan = now;
+    return deleted;
+  }
+
+  /**
+   * Recursively finds memo files under the given directory, deleting
+   * abandoned temporary memo files along the way.
+   */
+  private void scan(File dir, List<File> memoFiles, long now) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    for (File f : files) {
+      String name = f.getName();
+      if (f.isDirectory()) {
+        scan(f, memoFiles, now);
+      }
+      else if (name.endsWith(MEMO_SUFFIX)) {
+        memoFiles.add(f);
+      }
+      else if (!name.equals(LOCK_FILE) && name.indexOf(MEMO_SUFFIX) >= 0 &&
+        now - f.lastModified() > TEMP_FILE_AGE)
+      {
+        // left behind by a process that died while saving a memo file
+        if (f.delete()) {
+          LOGGER.debug("deleted abandoned temporary file {}", f);
+        }
+      }
+    }
+  }
+
+}
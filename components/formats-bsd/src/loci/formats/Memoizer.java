@@ -32,11 +32,25 @@
 
 package loci.formats;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import loci.common.Constants;
 import loci.common.Location;
@@ -47,8 +61,11 @@ import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.meta.MetadataStore;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.ome.OMEXMLMetadataImpl;
 import loci.formats.services.OMEXMLService;
 import loci.formats.services.OMEXMLServiceImpl;
+import loci.formats.tiff.IFD;
 
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -57,6 +74,7 @@ import org.slf4j.LoggerFactory;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.shaded.org.objenesis.strategy.StdInstantiatorStrategy;
@@ -279,6 +297,841 @@ public class Memoizer extends ReaderWrapper {
       }
     }
 
+  }
+  /**
+   * {@link Deser} implementation which stores the reader in a compact,
+   * versioned binary layout that is memory-mapped when loaded.
+   *
+   * The {@link CoreMetadata} of each series and the OME-XML of each
+   * {@link OMEXMLMetadata} store are written as fixed binary records.  The
+   * rest of the reader object graph is serialized with Kryo, and refers to
+   * these records by index, so that objects which are shared within the
+   * reader stack are still shared after loading.
+   *
+   * The strip and tile offset and byte count tables of each TIFF {@link IFD}
+   * are written as records of raw longs as well, so that the object graph
+   * does not grow with the number of strips or tiles in a file.
+   *
+   * The original metadata tables (global and per-series) of each
+   * {@link FormatReader} in the reader stack are stored after the object
+   * graph in a simple typed encoding.  They are only decoded when first
+   * accessed through the {@link Memoizer}, so loading a memo file does not
+   * scale with the amount of original metadata.
+   *
+   * To use this implementation, override {@link Memoizer#getDeser()}.
+   */
+  public static class BinaryDeser implements Deser {
+
+    /** Identifies memo files written by this class ("BFMB"). */
+    public static final int MAGIC = 0x42464d42;
+
+    /** Version of the binary layout; bump when the layout changes. */
+    public static final int LAYOUT_VERSION = 3;
+
+    /** Slot index used for the global metadata table of a reader. */
+    private static final int GLOBAL_METADATA = -1;
+
+    /** IFD tags whose long[] values are stored as offset table records. */
+    private static final int[] OFFSET_TAGS = {
+      IFD.STRIP_OFFSETS, IFD.STRIP_BYTE_COUNTS,
+      IFD.TILE_OFFSETS, IFD.TILE_BYTE_COUNTS
+    };
+
+    // -- Value types in original metadata tables --
+
+    private static final byte STRING = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte OBJECT = 8;
+
+    final public Kryo kryo = newKryo();
+    {
+      kryo.register(CoreMetadata.class, new CoreMetadataSerializer());
+      kryo.register(OMEXMLMetadataImpl.class, new OMEXMLSerializer());
+      kryo.register(IFD.class, new IFDSerializer());
+    }
+
+    DataOutputStream output;
+    ByteBuffer input;
+
+    /** CoreMetadata records of the reader being saved or loaded. */
+    private List<CoreMetadata> coreRecords;
+
+    /** OME-XML records of the reader being saved or loaded. */
+    private List<String> xmlRecords;
+
+    /** IFD offset tables of the reader being saved or loaded. */
+    private List<Map<Integer, long[]>> ifdRecords;
+
+    /** Original metadata tables of the last reader that was loaded. */
+    private List<LazyMetadataTable> lazyTables;
+
+    private OMEXMLService service;
+
+    public void close() {
+      loadStop();
+      try {
+        saveStop();
+      }
+      catch (IOException e) {
+        LOGGER.debug("failed to close BinaryDeser.output", e);
+      }
+      kryo.reset();
+    }
+
+    public void loadStart(File memoFile) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(memoFile, "r");
+      try {
+        FileChannel channel = file.getChannel();
+        input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      finally {
+        // the mapping remains valid after the file has been closed
+        file.close();
+      }
+    }
+
+    public Integer loadVersion() {
+      if (input.remaining() < 12 || input.getInt() != MAGIC ||
+        input.getInt() != LAYOUT_VERSION)
+      {
+        // not written by this class, or by an older layout
+        return null;
+      }
+      return input.getInt();
+    }
+
+    public String loadReleaseVersion() throws IOException {
+      return readString();
+    }
+
+    public String loadRevision() throws IOException {
+      return readString();
+    }
+
+    public IFormatReader loadReader() throws IOException, ClassNotFoundException
+    {
+      try {
+        Class<?> c = Class.forName(readString());
+
+        coreRecords = new ArrayList<CoreMetadata>();
+        int coreCount = input.getInt();
+        for (int i=0; i<coreCount; i++) {
+          coreRecords.add(readCoreMetadata(input));
+        }
+        xmlRecords = new ArrayList<String>();
+        int xmlCount = input.getInt();
+        for (int i=0; i<xmlCount; i++) {
+          xmlRecords.add(readString(input));
+        }
+        ifdRecords = new ArrayList<Map<Integer, long[]>>();
+        int ifdCount = input.getInt();
+        for (int i=0; i<ifdCount; i++) {
+          ifdRecords.add(readOffsetTables(input));
+        }
+
+        byte[] graph = new byte[input.getInt()];
+        input.get(graph);
+        IFormatReader reader =
+          (IFormatReader) kryo.readObject(new Input(graph), c);
+
+        List<FormatReader> formatReaders = getFormatReaders(reader);
+        lazyTables = new ArrayList<LazyMetadataTable>();
+        int tableCount = input.getInt();
+        for (int t=0; t<tableCount; t++) {
+          int[] refs = new int[input.getInt() * 2];
+          for (int i=0; i<refs.length; i++) {
+            refs[i] = input.getInt();
+          }
+          int length = input.getInt();
+          ByteBuffer data = input.slice();
+          data.limit(length);
+          input.position(input.position() + length);
+
+          LazyMetadataTable table = new LazyMetadataTable(data);
+          lazyTables.add(table);
+          for (int i=0; i<refs.length; i+=2) {
+            if (refs[i] < 0 || refs[i] >= formatReaders.size()) {
+              throw new IOException("Invalid reader index: " + refs[i]);
+            }
+            FormatReader r = formatReaders.get(refs[i]);
+            if (refs[i + 1] == GLOBAL_METADATA) {
+              r.metadata = table.getTable();
+            }
+            else if (refs[i + 1] >= 0 && refs[i + 1] < r.core.size()) {
+              r.core.get(refs[i + 1]).seriesMetadata = table.getTable();
+            }
+            else {
+              throw new IOException("Invalid series index: " + refs[i + 1]);
+            }
+          }
+        }
+        return reader;
+      }
+      catch (BufferUnderflowException e) {
+        throw new IOException("Truncated memo file", e);
+      }
+      catch (IllegalArgumentException e) {
+        throw new IOException("Corrupt memo file", e);
+      }
+      finally {
+        coreRecords = null;
+        xmlRecords = null;
+        ifdRecords = null;
+      }
+    }
+
+    public void loadStop() {
+      input = null;
+      lazyTables = null;
+    }
+
+    public void saveStart(File tempFile) throws IOException {
+      output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tempFile)));
+      output.writeInt(MAGIC);
+      output.writeInt(LAYOUT_VERSION);
+    }
+
+    public void saveVersion(Integer version) throws IOException {
+      output.writeInt(version);
+    }
+
+    public void saveReleaseVersion(String version) throws IOException {
+      writeString(output, version);
+    }
+
+    public void saveRevision(String revision) throws IOException {
+      writeString(output, revision);
+    }
+
+    public void saveReader(IFormatReader reader) throws IOException {
+      writeString(output, reader.getClass().getName());
+
+      // detach the original metadata tables, so that they are not part of
+      // the object graph; a table may be shared by several series
+      List<FormatReader> formatReaders = getFormatReaders(reader);
+      Map<Hashtable<String, Object>, List<Integer>> tables =
+        new IdentityHashMap<Hashtable<String, Object>, List<Integer>>();
+      Hashtable<String, Object> empty = new Hashtable<String, Object>();
+      ByteArrayOutputStream graph = new ByteArrayOutputStream();
+      coreRecords = new ArrayList<CoreMetadata>();
+      xmlRecords = new ArrayList<String>();
+      ifdRecords = new ArrayList<Map<Integer, long[]>>();
+      try {
+        for (int i=0; i<formatReaders.size(); i++) {
+          FormatReader r = formatReaders.get(i);
+          if (r.metadata != null && r.metadata != empty) {
+            addTable(tables, r.metadata, i, GLOBAL_METADATA);
+            r.metadata = empty;
+          }
+          for (int s=0; s<r.core.size(); s++) {
+            CoreMetadata m = r.core.get(s);
+            if (m != null && m.seriesMetadata != null &&
+              m.seriesMetadata != empty)
+            {
+              addTable(tables, m.seriesMetadata, i, s);
+              m.seriesMetadata = empty;
+            }
+          }
+        }
+
+        Output kryoOutput = new Output(graph);
+        kryo.writeObject(kryoOutput, reader);
+        kryoOutput.close();
+
+        // the records are collected while the object graph is written, but
+        // must be read back before it
+        output.writeInt(coreRecords.size());
+        for (CoreMetadata core : coreRecords) {
+          writeCoreMetadata(output, core);
+        }
+        output.writeInt(xmlRecords.size());
+        for (String xml : xmlRecords) {
+          writeString(output, xml);
+        }
+        output.writeInt(ifdRecords.size());
+        for (Map<Integer, long[]> offsets : ifdRecords) {
+          writeOffsetTables(output, offsets);
+        }
+      }
+      finally {
+        coreRecords = null;
+        xmlRecords = null;
+        ifdRecords = null;
+
+        // reattach the original metadata tables
+        for (Hashtable<String, Object> table : tables.keySet()) {
+          List<Integer> refs = tables.get(table);
+          for (int i=0; i<refs.size(); i+=2) {
+            FormatReader r = formatReaders.get(refs.get(i));
+            if (refs.get(i + 1) == GLOBAL_METADATA) {
+              r.metadata = table;
+            }
+            else {
+              r.core.get(refs.get(i + 1)).seriesMetadata = table;
+            }
+          }
+        }
+      }
+      output.writeInt(graph.size());
+      graph.writeTo(output);
+
+      output.writeInt(tables.size());
+      for (Hashtable<String, Object> table : tables.keySet()) {
+        List<Integer> refs = tables.get(table);
+        output.writeInt(refs.size() / 2);
+        for (Integer ref : refs) {
+          output.writeInt(ref);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTable(new DataOutputStream(bytes), table);
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+      }
+    }
+
+    public void saveStop() throws IOException {
+      if (output != null) {
+        output.close();
+        output = null;
+      }
+    }
+
+    // -- Helper methods --
+
+    private static Kryo newKryo() {
+      Kryo k = new Kryo();
+      k.setInstantiatorStrategy(new StdInstantiatorStrategy());
+      return k;
+    }
+
+    /**
+     * Gets the original metadata tables that were attached to the last
+     * reader loaded.  The tables are empty until they are materialized.
+     */
+    private List<LazyMetadataTable> takeLazyTables() {
+      List<LazyMetadataTable> tables = lazyTables;
+      lazyTables = null;
+      return tables;
+    }
+
+    private OMEXMLService getService() throws DependencyException {
+      if (service == null) {
+        service = new ServiceFactory().getInstance(OMEXMLService.class);
+      }
+      return service;
+    }
+
+    /**
+     * Gets the {@link FormatReader} instances in the given reader stack,
+     * outermost first.
+     */
+    private static List<FormatReader> getFormatReaders(IFormatReader reader) {
+      List<FormatReader> readers = new ArrayList<FormatReader>();
+      while (reader != null) {
+        if (reader instanceof ReaderWrapper) {
+          reader = ((ReaderWrapper) reader).getReader();
+        }
+        else if (reader instanceof ImageReader) {
+          ImageReader r = (ImageReader) reader;
+          reader = r.getCurrentFile() == null ? null : r.getReader();
+        }
+        else if (reader instanceof FormatReader) {
+          readers.add((FormatReader) reader);
+          reader = null;
+        }
+        else {
+          reader = null;
+        }
+      }
+      return readers;
+    }
+
+    private static void addTable(
+      Map<Hashtable<String, Object>, List<Integer>> tables,
+      Hashtable<String, Object> table, int reader, int slot)
+    {
+      List<Integer> refs = tables.get(table);
+      if (refs == null) {
+        refs = new ArrayList<Integer>();
+        tables.put(table, refs);
+      }
+      refs.add(reader);
+      refs.add(slot);
+    }
+
+    /**
+     * Writes every field of the given CoreMetadata, except for the original
+     * metadata table.
+     */
+    private static void writeCoreMetadata(DataOutputStream out,
+      CoreMetadata core) throws IOException
+    {
+      out.writeInt(core.sizeX);
+      out.writeInt(core.sizeY);
+      out.writeInt(core.sizeZ);
+      out.writeInt(core.sizeC);
+      out.writeInt(core.sizeT);
+      out.writeInt(core.thumbSizeX);
+      out.writeInt(core.thumbSizeY);
+      out.writeInt(core.pixelType);
+      out.writeInt(core.bitsPerPixel);
+      out.writeInt(core.imageCount);
+      out.writeInt(core.resolutionCount);
+      writeString(out, core.dimensionOrder);
+      out.writeBoolean(core.orderCertain);
+      out.writeBoolean(core.rgb);
+      out.writeBoolean(core.littleEndian);
+      out.writeBoolean(core.interleaved);
+      out.writeBoolean(core.indexed);
+      out.writeBoolean(core.falseColor);
+      out.writeBoolean(core.metadataComplete);
+      out.writeBoolean(core.thumbnail);
+
+      out.writeInt(core.cLengths == null ? -1 : core.cLengths.length);
+      if (core.cLengths != null) {
+        for (int length : core.cLengths) {
+          out.writeInt(length);
+        }
+      }
+      writeStrings(out, core.cTypes);
+
+      writeModulo(out, core.moduloZ);
+      writeModulo(out, core.moduloC);
+      writeModulo(out, core.moduloT);
+    }
+
+    private static CoreMetadata readCoreMetadata(ByteBuffer in)
+      throws IOException
+    {
+      CoreMetadata core = new CoreMetadata();
+      core.sizeX = in.getInt();
+      core.sizeY = in.getInt();
+      core.sizeZ = in.getInt();
+      core.sizeC = in.getInt();
+      core.sizeT = in.getInt();
+      core.thumbSizeX = in.getInt();
+      core.thumbSizeY = in.getInt();
+      core.pixelType = in.getInt();
+      core.bitsPerPixel = in.getInt();
+      core.imageCount = in.getInt();
+      core.resolutionCount = in.getInt();
+      core.dimensionOrder = readString(in);
+      core.orderCertain = in.get() != 0;
+      core.rgb = in.get() != 0;
+      core.littleEndian = in.get() != 0;
+      core.interleaved = in.get() != 0;
+      core.indexed = in.get() != 0;
+      core.falseColor = in.get() != 0;
+      core.metadataComplete = in.get() != 0;
+      core.thumbnail = in.get() != 0;
+
+      int cLengthCount = in.getInt();
+      if (cLengthCount >= 0) {
+        core.cLengths = new int[cLengthCount];
+        for (int i=0; i<cLengthCount; i++) {
+          core.cLengths[i] = in.getInt();
+        }
+      }
+      core.cTypes = readStrings(in);
+
+      core.moduloZ = readModulo(in);
+      core.moduloC = readModulo(in);
+      core.moduloT = readModulo(in);
+      return core;
+    }
+
+    private static void writeModulo(DataOutputStream out, Modulo modulo)
+      throws IOException
+    {
+      out.writeBoolean(modulo != null);
+      if (modulo != null) {
+        writeString(out, modulo.parentDimension);
+        out.writeDouble(modulo.start);
+        out.writeDouble(modulo.step);
+        out.writeDouble(modulo.end);
+        writeString(out, modulo.parentType);
+        writeString(out, modulo.type);
+        writeString(out, modulo.typeDescription);
+        writeString(out, modulo.unit);
+        writeStrings(out, modulo.labels);
+      }
+    }
+
+    private static Modulo readModulo(ByteBuffer in) throws IOException {
+      if (in.get() == 0) {
+        return null;
+      }
+      Modulo modulo = new Modulo(readString(in));
+      modulo.start = in.getDouble();
+      modulo.step = in.getDouble();
+      modulo.end = in.getDouble();
+      modulo.parentType = readString(in);
+      modulo.type = readString(in);
+      modulo.typeDescription = readString(in);
+      modulo.unit = readString(in);
+      modulo.labels = readStrings(in);
+      return modulo;
+    }
+
+    private static void writeOffsetTables(DataOutputStream out,
+      Map<Integer, long[]> tables) throws IOException
+    {
+      out.writeInt(tables.size());
+      for (Map.Entry<Integer, long[]> entry : tables.entrySet()) {
+        long[] values = entry.getValue();
+        out.writeInt(entry.getKey());
+        out.writeInt(values.length);
+        for (long value : values) {
+          out.writeLong(value);
+        }
+      }
+    }
+
+    private static Map<Integer, long[]> readOffsetTables(ByteBuffer in)
+      throws IOException
+    {
+      Map<Integer, long[]> tables = new HashMap<Integer, long[]>();
+      int count = in.getInt();
+      for (int i=0; i<count; i++) {
+        int tag = in.getInt();
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / 8) {
+          throw new IOException("Invalid offset table length: " + length);
+        }
+        long[] values = new long[length];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + length * 8);
+        tables.put(tag, values);
+      }
+      return tables;
+    }
+
+    private void writeTable(DataOutputStream out,
+      Hashtable<String, Object> table) throws IOException
+    {
+      Kryo k = null;
+      Set<Map.Entry<String, Object>> entries = table.entrySet();
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Object> entry : entries) {
+        writeString(out, entry.getKey());
+        Object value = entry.getValue();
+        if (value instanceof String) {
+          out.writeByte(STRING);
+          writeString(out, (String) value);
+        }
+        else if (value instanceof Integer) {
+          out.writeByte(INTEGER);
+          out.writeInt((Integer) value);
+        }
+        else if (value instanceof Long) {
+          out.writeByte(LONG);
+          out.writeLong((Long) value);
+        }
+        else if (value instanceof Double) {
+          out.writeByte(DOUBLE);
+          out.writeDouble((Double) value);
+        }
+        else if (value instanceof Float) {
+          out.writeByte(FLOAT);
+          out.writeFloat((Float) value);
+        }
+        else if (value instanceof Boolean) {
+          out.writeByte(BOOLEAN);
+          out.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Short) {
+          out.writeByte(SHORT);
+          out.writeShort((Short) value);
+        }
+        else if (value instanceof Byte) {
+          out.writeByte(BYTE);
+          out.writeByte((Byte) value);
+        }
+        else {
+          // values are read back without the record serializers
+          if (k == null) k = newKryo();
+          out.writeByte(OBJECT);
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          Output kryoOutput = new Output(bytes);
+          k.writeClassAndObject(kryoOutput, value);
+          kryoOutput.close();
+          out.writeInt(bytes.size());
+          bytes.writeTo(out);
+        }
+      }
+    }
+
+    private String readString() throws IOException {
+      try {
+        return readString(input);
+      }
+      catch (BufferUnderflowException e) {
+        throw new IOException("Truncated memo file", e);
+      }
+    }
+
+    /** Reads a string written by {@link #writeString}, which may be null. */
+    private static String readString(ByteBuffer in) throws IOException {
+      int length = in.getInt();
+      if (length < 0) {
+        return null;
+      }
+      byte[] b = new byte[length];
+      in.get(b);
+      return new String(b, Constants.ENCODING);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+      throws IOException
+    {
+      if (s == null) {
+        out.writeInt(-1);
+        return;
+      }
+      byte[] b = s.getBytes(Constants.ENCODING);
+      out.writeInt(b.length);
+      out.write(b);
+    }
+
+    private static String[] readStrings(ByteBuffer in) throws IOException {
+      int count = in.getInt();
+      if (count < 0) {
+        return null;
+      }
+      String[] strings = new String[count];
+      for (int i=0; i<count; i++) {
+        strings[i] = readString(in);
+      }
+      return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings)
+      throws IOException
+    {
+      out.writeInt(strings == null ? -1 : strings.length);
+      if (strings != null) {
+        for (String s : strings) {
+          writeString(out, s);
+        }
+      }
+    }
+
+    // -- Helper classes --
+
+    /**
+     * Writes each CoreMetadata in the object graph as an index into the
+     * CoreMetadata records, followed by its original metadata table (which
+     * is normally detached, and so empty).
+     */
+    private class CoreMetadataSerializer extends Serializer<CoreMetadata> {
+
+      public void write(Kryo k, Output out, CoreMetadata core) {
+        out.writeInt(coreRecords.size(), true);
+        coreRecords.add(core);
+        k.writeClassAndObject(out, core.seriesMetadata);
+      }
+
+      @SuppressWarnings("unchecked")
+      public CoreMetadata read(Kryo k, Input in, Class<CoreMetadata> type) {
+        int index = in.readInt(true);
+        if (index < 0 || index >= coreRecords.size()) {
+          throw new KryoException("Invalid CoreMetadata record: " + index);
+        }
+        CoreMetadata core = coreRecords.get(index);
+        k.reference(core);
+        core.seriesMetadata = (Hashtable<String, Object>)
+          k.readClassAndObject(in);
+        return core;
+      }
+
+    }
+
+    /**
+     * Writes each OME-XML metadata store in the object graph as an index
+     * into the OME-XML records.
+     */
+    private class OMEXMLSerializer extends Serializer<OMEXMLMetadata> {
+
+      public void write(Kryo k, Output out, OMEXMLMetadata store) {
+        String xml = null;
+        try {
+          xml = getService().getOMEXML(store);
+        }
+        catch (DependencyException e) {
+          throw new KryoException(e);
+        }
+        catch (ServiceException e) {
+          throw new KryoException(e);
+        }
+        if (xml == null) {
+          throw new KryoException("Could not write OME-XML");
+        }
+        out.writeInt(xmlRecords.size(), true);
+        xmlRecords.add(xml);
+      }
+
+      public OMEXMLMetadata read(Kryo k, Input in,
+        Class<OMEXMLMetadata> type)
+      {
+        int index = in.readInt(true);
+        if (index < 0 || index >= xmlRecords.size()) {
+          throw new KryoException("Invalid OME-XML record: " + index);
+        }
+        try {
+          return getService().createOMEXMLMetadata(xmlRecords.get(index));
+        }
+        catch (DependencyException e) {
+          throw new KryoException(e);
+        }
+        catch (ServiceException e) {
+          throw new KryoException(e);
+        }
+      }
+
+    }
+
+    /**
+     * Writes each IFD in the object graph as an index into the offset table
+     * records (or 0 if it has no long[] offset tables), followed by its
+     * other entries.
+     */
+    private class IFDSerializer extends Serializer<IFD> {
+
+      public void write(Kryo k, Output out, IFD ifd) {
+        Map<Integer, long[]> tables = new HashMap<Integer, long[]>();
+        for (int tag : OFFSET_TAGS) {
+          Object value = ifd.get(tag);
+          if (value instanceof long[]) {
+            tables.put(tag, (long[]) value);
+          }
+        }
+        if (tables.isEmpty()) {
+          out.writeInt(0, true);
+        }
+        else {
+          ifdRecords.add(tables);
+          out.writeInt(ifdRecords.size(), true);
+        }
+        out.writeInt(ifd.size() - tables.size(), true);
+        for (Map.Entry<Integer, Object> entry : ifd.entrySet()) {
+          if (!tables.containsKey(entry.getKey())) {
+            out.writeInt(entry.getKey(), true);
+            k.writeClassAndObject(out, entry.getValue());
+          }
+        }
+      }
+
+      public IFD read(Kryo k, Input in, Class<IFD> type) {
+        IFD ifd = new IFD();
+        k.reference(ifd);
+        int index = in.readInt(true);
+        if (index < 0 || index > ifdRecords.size()) {
+          throw new KryoException("Invalid IFD record: " + index);
+        }
+        int count = in.readInt(true);
+        for (int i=0; i<count; i++) {
+          int tag = in.readInt(true);
+          ifd.put(tag, k.readClassAndObject(in));
+        }
+        if (index > 0) {
+          ifd.putAll(ifdRecords.get(index - 1));
+        }
+        return ifd;
+      }
+
+    }
+
+    /**
+     * Original metadata table which is decoded from a memo file when it is
+     * first needed.  The table that is attached to the reader is a plain
+     * {@link Hashtable}, which stays empty until {@link #materialize()} is
+     * called.
+     */
+    private static class LazyMetadataTable {
+
+      private final Hashtable<String, Object> table =
+        new Hashtable<String, Object>();
+
+      private ByteBuffer data;
+
+      public LazyMetadataTable(ByteBuffer data) {
+        this.data = data;
+      }
+
+      /** Gets the table that is filled by {@link #materialize()}. */
+      public Hashtable<String, Object> getTable() {
+        return table;
+      }
+
+      /** Decodes the table, if it has not been decoded yet. */
+      public synchronized void materialize() {
+        if (data == null) return;
+        ByteBuffer in = data;
+        data = null;
+        Kryo k = null;
+        try {
+          int count = in.getInt();
+          for (int i=0; i<count; i++) {
+            String key = readString(in);
+            Object value = null;
+            byte type = in.get();
+            switch (type) {
+              case STRING:
+                value = readString(in);
+                break;
+              case INTEGER:
+                value = in.getInt();
+                break;
+              case LONG:
+                value = in.getLong();
+                break;
+              case DOUBLE:
+                value = in.getDouble();
+                break;
+              case FLOAT:
+                value = in.getFloat();
+                break;
+              case BOOLEAN:
+                value = in.get() != 0;
+                break;
+              case SHORT:
+                value = in.getShort();
+                break;
+              case BYTE:
+                value = in.get();
+                break;
+              case OBJECT:
+                byte[] b = new byte[in.getInt()];
+                in.get(b);
+                if (k == null) k = newKryo();
+                value = k.readClassAndObject(new Input(b));
+                break;
+              default:
+                throw new IOException("Unknown value type: " + type);
+            }
+            // keep any value that was added before the table was decoded
+            if (!table.containsKey(key)) {
+              table.put(key, value);
+            }
+          }
+        }
+        catch (IOException e) {
+          LOGGER.warn("Could not read original metadata from memo file", e);
+        }
+        catch (RuntimeException e) {
+          LOGGER.warn("Could not read original metadata from memo file", e);
+        }
+      }
+
+    }
+
   }
 
   // -- Constants --
@@ -314,6 +1167,12 @@ public class Memoizer extends ReaderWrapper {
    */
   private final File directory;
 
+  /**
+   * Cache which manages the memo files in {@link #directory}, or null if
+   * memo files are not managed.
+   */
+  private final MemoCache cache;
+
   private transient Deser ser;
 
   private transient OMEXMLService service;
@@ -365,6 +1224,14 @@ public class Memoizer extends ReaderWrapper {
    */
   private MetadataStore replacementMetadataStore = null;
 
+  /**
+   * Original metadata tables of the {@link #reader} which were loaded from
+   * the memo file by a {@link BinaryDeser}, and have not been decoded yet.
+   *
+   * @see {@link #loadMetadataTables()}
+   */
+  private List<BinaryDeser.LazyMetadataTable> lazyMetadata = null;
+
   // -- Constructors --
 
   /** Constructs a memoizer around a new image reader. */
@@ -374,13 +1241,25 @@ public class Memoizer extends ReaderWrapper {
 
   /** Constructs a memoizer around a new image reader. */
   public Memoizer(long minimumElapsed) {
-    this(minimumElapsed, null);
+    this(minimumElapsed, (File) null);
   }
 
   public Memoizer(long minimumElapsed, File directory) {
     super();
     this.minimumElapsed = minimumElapsed;
     this.directory = directory;
+    this.cache = null;
+  }
+
+  /**
+   * Constructs a memoizer around a new image reader, which stores memo
+   * files in the given cache.
+   */
+  public Memoizer(long minimumElapsed, MemoCache cache) {
+    super();
+    this.minimumElapsed = minimumElapsed;
+    this.directory = cache.getDirectory();
+    this.cache = cache;
   }
 
   /** Constructs a memoizer around the given reader. */
@@ -390,13 +1269,30 @@ public class Memoizer extends ReaderWrapper {
 
   /** Constructs a memoizer around the given reader. */
   public Memoizer(IFormatReader r, long minimumElapsed) {
-    this(r, minimumElapsed, null);
+    this(r, minimumElapsed, (File) null);
   }
 
   public Memoizer(IFormatReader r, long minimumElapsed, File directory) {
     super(r);
     this.minimumElapsed = minimumElapsed;
     this.directory = directory;
+    this.cache = null;
+  }
+
+  /**
+   * Constructs a memoizer around the given reader, which stores memo files
+   * in the given cache.
+   */
+  public Memoizer(IFormatReader r, long minimumElapsed, MemoCache cache) {
+    super(r);
+    this.minimumElapsed = minimumElapsed;
+    this.directory = cache.getDirectory();
+    this.cache = cache;
+  }
+
+  /** Gets the cache which manages memo files, or null if there is none. */
+  public MemoCache getCache() {
+    return cache;
   }
 
   public boolean isLoadedFromMemo() {
@@ -429,6 +1325,7 @@ public class Memoizer extends ReaderWrapper {
   }
 
   protected void cleanup() {
+    lazyMetadata = null;
     if (ser != null) {
       ser.close();
       ser = null;
@@ -458,6 +1355,7 @@ public class Memoizer extends ReaderWrapper {
     try {
       realFile = new Location(id);
       memoFile = getMemoFile(id);
+      lazyMetadata = null;
 
       if (memoFile == null) {
         // Memoization disabled.
@@ -468,7 +1366,17 @@ public class Memoizer extends ReaderWrapper {
         return;
       }
 
+      long loadStart = System.currentTimeMillis();
       IFormatReader memo = loadMemo(); // Should never throw.
+      if (cache != null) {
+        long loadElapsed = System.currentTimeMillis() - loadStart;
+        if (memo == null) {
+          cache.miss(loadElapsed);
+        }
+        else {
+          cache.hit(memoFile, loadElapsed);
+        }
+      }
 
       loadedFromMemo = false;
       savedToMemo = false;
@@ -502,6 +1410,48 @@ public class Memoizer extends ReaderWrapper {
     this.userMetadataStore = store;
   }
 
+  @Override
+  public IFormatReader getReader() {
+    loadMetadataTables();
+    return super.getReader();
+  }
+
+  @Override
+  public Object getMetadataValue(String field) {
+    loadMetadataTables();
+    return super.getMetadataValue(field);
+  }
+
+  @Override
+  public Object getSeriesMetadataValue(String field) {
+    loadMetadataTables();
+    return super.getSeriesMetadataValue(field);
+  }
+
+  @Override
+  public Hashtable<String, Object> getGlobalMetadata() {
+    loadMetadataTables();
+    return super.getGlobalMetadata();
+  }
+
+  @Override
+  public Hashtable<String, Object> getSeriesMetadata() {
+    loadMetadataTables();
+    return super.getSeriesMetadata();
+  }
+
+  @Override
+  public List<CoreMetadata> getCoreMetadataList() {
+    loadMetadataTables();
+    return super.getCoreMetadataList();
+  }
+
+  @Override
+  public IFormatReader[] getUnderlyingReaders() {
+    loadMetadataTables();
+    return super.getUnderlyingReaders();
+  }
+
   @Override
   public MetadataStore getMetadataStore() {
     if (this.userMetadataStore != null) {
@@ -512,6 +1462,19 @@ public class Memoizer extends ReaderWrapper {
 
   //-- Helper methods --
 
+  /**
+   * Decodes the original metadata tables that were loaded lazily from the
+   * memo file, before they can be seen outside of the {@link Memoizer}.
+   */
+  private synchronized void loadMetadataTables() {
+    if (lazyMetadata != null) {
+      for (BinaryDeser.LazyMetadataTable table : lazyMetadata) {
+        table.materialize();
+      }
+      lazyMetadata = null;
+    }
+  }
+
   /**
    * Returns a configured {@link Kryo} instance. This method can be modified
    * by consumers. The returned instance is not thread-safe.
@@ -648,6 +1611,10 @@ public class Memoizer extends ReaderWrapper {
         LOGGER.debug("unknown reader type: {}", e);
         return null;
       }
+      List<BinaryDeser.LazyMetadataTable> tables = null;
+      if (ser instanceof BinaryDeser) {
+        tables = ((BinaryDeser) ser).takeLazyTables();
+      }
 
       if (!FormatTools.equalReaders(reader, copy)) {
           return null;
@@ -664,11 +1631,18 @@ public class Memoizer extends ReaderWrapper {
       // Handle exceptions on read/write. possibly deleting.
       LOGGER.debug("loaded memo file: {} ({} bytes)",
         memoFile, memoFile.length());
+      if (copy != null) {
+        lazyMetadata = tables;
+      }
       return copy;
     } catch (KryoException e) {
       memoFile.delete();
       LOGGER.trace("deleted invalid memo file: {}", memoFile);
       return null;
+    } catch (IOException e) {
+      memoFile.delete();
+      LOGGER.trace("deleted invalid memo file: {}", memoFile, e);
+      return null;
     } finally {
       ser.loadStop();
       sw.stop("loci.formats.Memoizer.loadMemo");
@@ -722,9 +1696,18 @@ public class Memoizer extends ReaderWrapper {
       // Note: renaming the tempfile with open
       // resources can lead to segfaults
       if (rv) {
+        long replacedLength = memoFile.length();
         if (!tempFile.renameTo(memoFile)) {
           LOGGER.debug("temp file rename returned false: {}", tempFile);
         }
+        else if (cache != null) {
+          try {
+            cache.saved(memoFile, replacedLength);
+          }
+          catch (Throwable t) {
+            LOGGER.debug("failed to update memo cache", t);
+          }
+        }
 
         LOGGER.debug("saved memo file: {} ({} bytes)",
                 memoFile, memoFile.length());
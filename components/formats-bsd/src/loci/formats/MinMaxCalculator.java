@@ -272,6 +272,14 @@ public class MinMaxCalculator extends ReaderWrapper {
     return buf;
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   /* @see IFormatReader#close(boolean) */
   public void close(boolean fileOnly) throws IOException {
     reader.close(fileOnly);
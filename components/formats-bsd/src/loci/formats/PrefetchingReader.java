@@ -0,0 +1,558 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.common.DataTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reader wrapper which predicts the next plane or tile requests from recent
+ * calls to openBytes, and reads them ahead of time on background threads.
+ *
+ * Two access patterns are recognized: a constant step between plane
+ * indices with the same region (e.g. reading every plane in order, or a Z
+ * sweep at a fixed C and T), and a constant step between tiles in the same
+ * plane, continuing with the next row of tiles at the end of each row.
+ *
+ * Each background thread reads from its own copy of the wrapped reader,
+ * which is initialized on the same file the first time that it is needed.
+ * Prefetched pixels are kept in a bounded pool of buffers, and copied into
+ * the caller's buffer when requested.
+ */
+public class PrefetchingReader extends ReaderWrapper {
+
+  // -- Constants --
+
+  /** Default number of background threads. */
+  public static final int DEFAULT_THREAD_COUNT = 2;
+
+  /** Default number of requests that are read ahead of time. */
+  public static final int DEFAULT_PREFETCH_COUNT = 4;
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(PrefetchingReader.class);
+
+  // -- Fields --
+
+  /** Number of background threads, each with its own reader. */
+  private int threadCount = DEFAULT_THREAD_COUNT;
+
+  /** Maximum number of requests that are read ahead of time. */
+  private int prefetchCount = DEFAULT_PREFETCH_COUNT;
+
+  private ExecutorService executor;
+
+  /** File that the background readers are initialized with. */
+  private volatile String currentId;
+
+  /** Readers that are not currently in use by a background thread. */
+  private BlockingQueue<IFormatReader> idleReaders;
+
+  /** All readers created for use by background threads. */
+  private List<IFormatReader> workerReaders =
+    new ArrayList<IFormatReader>();
+
+  /** Buffers that can be reused for prefetched pixels. */
+  private BlockingQueue<byte[]> bufferPool;
+
+  /** Requests that have been submitted to the background threads. */
+  private Map<Request, Future<byte[]>> pending =
+    new HashMap<Request, Future<byte[]>>();
+
+  /** The most recent request. */
+  private Request last;
+
+  /** Step between the two most recent requests. */
+  private int stepNo, stepX, stepY;
+
+  /** Whether or not the step has been seen twice in a row. */
+  private boolean stepConfirmed;
+
+  /** First X coordinate and tile size of the current row of tiles. */
+  private int rowStartX, tileWidth, tileHeight;
+
+  private int hits, misses;
+
+  // -- Constructors --
+
+  /** Constructs a PrefetchingReader around a new image reader. */
+  public PrefetchingReader() { super(); }
+
+  /** Constructs a PrefetchingReader with the given reader. */
+  public PrefetchingReader(IFormatReader r) { super(r); }
+
+  // -- PrefetchingReader API methods --
+
+  /** Gets the number of background threads. */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * Sets the number of background threads.  Each thread reads from its own
+   * copy of the wrapped reader.
+   */
+  public void setThreadCount(int threadCount) {
+    FormatTools.assertId(getCurrentFile(), false, 1);
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid thread count: " +
+        threadCount);
+    }
+    this.threadCount = threadCount;
+  }
+
+  /** Gets the maximum number of requests that are read ahead of time. */
+  public int getPrefetchCount() {
+    return prefetchCount;
+  }
+
+  /**
+   * Sets the maximum number of requests that are read ahead of time.
+   * 0 disables prefetching.
+   */
+  public void setPrefetchCount(int prefetchCount) {
+    FormatTools.assertId(getCurrentFile(), false, 1);
+    if (prefetchCount < 0) {
+      throw new IllegalArgumentException("Invalid prefetch count: " +
+        prefetchCount);
+    }
+    this.prefetchCount = prefetchCount;
+  }
+
+  /** Gets the number of requests that were served from prefetched data. */
+  public int getPrefetchHits() {
+    return hits;
+  }
+
+  /** Gets the number of requests that had not been prefetched. */
+  public int getPrefetchMisses() {
+    return misses;
+  }
+
+  // -- IFormatReader API methods --
+
+  /* @see IFormatReader#openBytes(int) */
+  @Override
+  public byte[] openBytes(int no) throws FormatException, IOException {
+    return openBytes(no, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[]) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf)
+    throws FormatException, IOException
+  {
+    return openBytes(no, buf, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] buf = DataTools.allocate(w, h, getRGBChannelCount(),
+      FormatTools.getBytesPerPixel(getPixelType()));
+    return openBytes(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[], int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    Request request =
+      new Request(getSeries(), getResolution(), no, x, y, w, h);
+    Future<byte[]> future = pending.remove(request);
+    boolean prefetched = false;
+    if (future != null) {
+      try {
+        byte[] data = future.get();
+        FormatTools.checkBufferSize(this, buf.length, w, h);
+        int size = FormatTools.getPlaneSize(this, w, h);
+        System.arraycopy(data, 0, buf, 0, size);
+        releaseBuffer(data);
+        prefetched = true;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FormatException("Interrupted while reading plane " + no, e);
+      }
+      catch (ExecutionException e) {
+        LOGGER.debug("Could not prefetch plane {}", no, e.getCause());
+      }
+    }
+    if (prefetched) {
+      hits++;
+    }
+    else {
+      misses++;
+      reader.openBytes(no, buf, x, y, w, h);
+    }
+
+    updatePattern(request);
+    prefetch(request);
+    return buf;
+  }
+
+  /* @see IFormatReader#close(boolean) */
+  @Override
+  public void close(boolean fileOnly) throws IOException {
+    shutdown();
+    super.close(fileOnly);
+  }
+
+  // -- IFormatHandler API methods --
+
+  /* @see IFormatHandler#setId(String) */
+  @Override
+  public void setId(String id) throws FormatException, IOException {
+    if (!id.equals(getCurrentFile())) {
+      shutdown();
+    }
+    super.setId(id);
+  }
+
+  /* @see IFormatHandler#close() */
+  @Override
+  public void close() throws IOException {
+    shutdown();
+    super.close();
+  }
+
+  // -- Helper methods --
+
+  /** Updates the predicted access pattern using the given request. */
+  private void updatePattern(Request request) {
+    Request previous = last;
+    last = request;
+    if (previous == null || previous.series != request.series ||
+      previous.resolution != request.resolution)
+    {
+      stepConfirmed = false;
+      stepNo = stepX = stepY = 0;
+      return;
+    }
+
+    int no = request.no - previous.no;
+    int x = request.x - previous.x;
+    int y = request.y - previous.y;
+
+    // start of the next row of tiles, after the end of the current row
+    if (stepConfirmed && stepNo == 0 && stepY == 0 && stepX > 0 &&
+      no == 0 && request.x == rowStartX && request.y == previous.y + tileHeight)
+    {
+      return;
+    }
+
+    boolean samePlaneRegion = previous.x == request.x &&
+      previous.y == request.y && previous.w == request.w &&
+      previous.h == request.h;
+    boolean sameStep = no == stepNo && x == stepX && y == stepY;
+    stepConfirmed = (no != 0 || x != 0 || y != 0) &&
+      (sameStep || (no == 1 && samePlaneRegion));
+    if (!sameStep && no == 0 && y == 0 && x > 0) {
+      // possibly the start of a row of tiles
+      rowStartX = previous.x;
+      tileWidth = x;
+      tileHeight = previous.h;
+    }
+    stepNo = no;
+    stepX = x;
+    stepY = y;
+  }
+
+  /**
+   * Gets the requests that are expected to follow the given request,
+   * according to the current access pattern.
+   */
+  private List<Request> predict(Request request) {
+    List<Request> next = new ArrayList<Request>();
+    if (!stepConfirmed) return next;
+    int imageCount = getImageCount();
+    int sizeX = getSizeX();
+    int sizeY = getSizeY();
+    boolean tileRow = stepNo == 0 && stepY == 0 && stepX > 0;
+
+    Request r = request;
+    while (next.size() < prefetchCount) {
+      int no = r.no + stepNo;
+      int x = r.x + stepX;
+      int y = r.y + stepY;
+      int w = r.w;
+      int h = r.h;
+      if (tileRow) {
+        if (x >= sizeX) {
+          x = rowStartX;
+          y = r.y + tileHeight;
+        }
+        w = Math.min(tileWidth, sizeX - x);
+        h = Math.min(tileHeight, sizeY - y);
+      }
+      if (no < 0 || no >= imageCount || x < 0 || y < 0 || w <= 0 ||
+        h <= 0 || x + w > sizeX || y + h > sizeY)
+      {
+        break;
+      }
+      r = new Request(r.series, r.resolution, no, x, y, w, h);
+      next.add(r);
+    }
+    return next;
+  }
+
+  /**
+   * Submits the requests expected to follow the given request, and cancels
+   * any outstanding requests that are no longer expected.
+   */
+  private void prefetch(Request request) throws FormatException {
+    if (prefetchCount == 0) return;
+    List<Request> next = predict(request);
+
+    Iterator<Map.Entry<Request, Future<byte[]>>> iter =
+      pending.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<Request, Future<byte[]>> entry = iter.next();
+      if (!next.contains(entry.getKey())) {
+        discard(entry.getValue());
+        iter.remove();
+      }
+    }
+    if (next.isEmpty()) return;
+
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threadCount,
+        new ThreadFactory() {
+          private AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,
+              "PrefetchingReader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+      idleReaders = new LinkedBlockingQueue<IFormatReader>();
+      bufferPool = new ArrayBlockingQueue<byte[]>(prefetchCount + threadCount);
+      currentId = getCurrentFile();
+      for (int i=0; i<threadCount; i++) {
+        idleReaders.add(createWorkerReader());
+      }
+    }
+
+    for (final Request r : next) {
+      if (pending.containsKey(r)) continue;
+      final int size = FormatTools.getPlaneSize(this, r.w, r.h);
+      pending.put(r, executor.submit(new Callable<byte[]>() {
+        public byte[] call() throws FormatException, IOException {
+          IFormatReader worker = getWorkerReader();
+          try {
+            worker.setSeries(r.series);
+            worker.setResolution(r.resolution);
+            byte[] buf = getBuffer(size);
+            return worker.openBytes(r.no, buf, r.x, r.y, r.w, r.h);
+          }
+          finally {
+            idleReaders.add(worker);
+          }
+        }
+      }));
+    }
+  }
+
+  /**
+   * Gets an idle background reader, initializing it if necessary.
+   * There is one reader per background thread, so a reader is always idle.
+   */
+  private IFormatReader getWorkerReader() throws FormatException, IOException
+  {
+    IFormatReader worker = idleReaders.poll();
+    if (worker == null) {
+      throw new IllegalStateException("No idle reader");
+    }
+    if (worker.getCurrentFile() == null) {
+      try {
+        worker.setId(currentId);
+      }
+      catch (FormatException e) {
+        idleReaders.add(worker);
+        throw e;
+      }
+      catch (IOException e) {
+        idleReaders.add(worker);
+        throw e;
+      }
+    }
+    return worker;
+  }
+
+  /**
+   * Creates an uninitialized copy of the wrapped reader for use by a
+   * background thread.
+   */
+  private IFormatReader createWorkerReader() throws FormatException {
+    IFormatReader worker = null;
+    if (reader instanceof ReaderWrapper) {
+      worker = ((ReaderWrapper) reader).duplicate(null);
+    }
+    else {
+      try {
+        worker = reader.getClass().newInstance();
+      }
+      catch (IllegalAccessException e) { throw new FormatException(e); }
+      catch (InstantiationException e) { throw new FormatException(e); }
+    }
+    worker.setGroupFiles(reader.isGroupFiles());
+    worker.setNormalized(reader.isNormalized());
+    worker.setFlattenedResolutions(reader.hasFlattenedResolutions());
+    worker.setMetadataOptions(reader.getMetadataOptions());
+    worker.setOriginalMetadataPopulated(false);
+    workerReaders.add(worker);
+    return worker;
+  }
+
+  /** Gets a buffer of at least the given size from the pool. */
+  private byte[] getBuffer(int size) {
+    byte[] buf = bufferPool.poll();
+    if (buf == null || buf.length < size) {
+      buf = new byte[size];
+    }
+    return buf;
+  }
+
+  /** Returns a buffer to the pool, if the pool is not full. */
+  private void releaseBuffer(byte[] buf) {
+    if (bufferPool != null) {
+      bufferPool.offer(buf);
+    }
+  }
+
+  /** Cancels the given prefetch, reusing its buffer if it has finished. */
+  private void discard(Future<byte[]> future) {
+    if (!future.cancel(false) && future.isDone()) {
+      try {
+        releaseBuffer(future.get());
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e) {
+        LOGGER.trace("", e);
+      }
+    }
+  }
+
+  /** Stops all background threads and closes their readers. */
+  private void shutdown() throws IOException {
+    for (Future<byte[]> future : pending.values()) {
+      future.cancel(false);
+    }
+    pending.clear();
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        // let running requests finish before their readers are closed
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+          LOGGER.debug("waiting for prefetch threads to finish");
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+    }
+    for (IFormatReader worker : workerReaders) {
+      worker.close();
+    }
+    workerReaders.clear();
+    idleReaders = null;
+    bufferPool = null;
+    last = null;
+    stepConfirmed = false;
+  }
+
+  // -- Helper classes --
+
+  /** A single call to openBytes. */
+  private static class Request {
+    public final int series, resolution, no, x, y, w, h;
+
+    public Request(int series, int resolution, int no, int x, int y, int w,
+      int h)
+    {
+      this.series = series;
+      this.resolution = resolution;
+      this.no = no;
+      this.x = x;
+      this.y = y;
+      this.w = w;
+      this.h = h;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Request)) return false;
+      Request r = (Request) o;
+      return series == r.series && resolution == r.resolution &&
+        no == r.no && x == r.x && y == r.y && w == r.w && h == r.h;
+    }
+
+    public int hashCode() {
+      int hash = series;
+      hash = 31 * hash + resolution;
+      hash = 31 * hash + no;
+      hash = 31 * hash + x;
+      hash = 31 * hash + y;
+      hash = 31 * hash + w;
+      return 31 * hash + h;
+    }
+  }
+
+}
@@ -33,6 +33,7 @@
 package loci.formats.codec;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import loci.common.RandomAccessInputStream;
@@ -189,6 +190,63 @@ public abstract class BaseCodec implements Codec {
   public abstract byte[] decompress(RandomAccessInputStream in,
     CodecOptions options) throws FormatException, IOException;
 
+  /**
+   * Default implementation, which decompresses into a new array and copies
+   * the result into dst.  Codecs that can write their output directly
+   * should override this method.
+   *
+   * @see Codec#decompress(byte[], int, int, byte[], int, CodecOptions)
+   */
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst,
+    int dstOffset, CodecOptions options) throws FormatException
+  {
+    byte[] data = src;
+    if (srcOffset != 0 || srcLength != src.length) {
+      data = new byte[srcLength];
+      System.arraycopy(src, srcOffset, data, 0, srcLength);
+    }
+    byte[] result = decompress(data, options);
+    if (result == null) return 0;
+    int n = Math.min(result.length, getOutputLimit(dst, dstOffset, options));
+    System.arraycopy(result, 0, dst, dstOffset, n);
+    return n;
+  }
+
+  /* @see Codec#decompress(ByteBuffer, ByteBuffer, CodecOptions) */
+  public int decompress(ByteBuffer src, ByteBuffer dst, CodecOptions options)
+    throws FormatException
+  {
+    byte[] in;
+    int inOffset;
+    int inLength = src.remaining();
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + src.position();
+    }
+    else {
+      in = new byte[inLength];
+      src.duplicate().get(in);
+      inOffset = 0;
+    }
+
+    int n;
+    if (dst.hasArray() &&
+      dst.arrayOffset() + dst.limit() == dst.array().length)
+    {
+      n = decompress(in, inOffset, inLength, dst.array(),
+        dst.arrayOffset() + dst.position(), options);
+    }
+    else {
+      byte[] out = new byte[Math.min(dst.remaining(),
+        getOutputLimit(null, 0, options))];
+      n = decompress(in, inOffset, inLength, out, 0, options);
+      dst.duplicate().put(out, 0, n);
+    }
+    src.position(src.limit());
+    dst.position(dst.position() + n);
+    return n;
+  }
+
   /**
    * 2D data block decoding default implementation.
    * This method simply concatenates data[0] + data[1] + ... + data[i] into
@@ -217,4 +275,21 @@ public abstract class BaseCodec implements Codec {
     return decompress(toDecompress, options);
   }
 
+  // -- Helper methods --
+
+  /**
+   * Gets the maximum number of bytes to be written to the given array at the
+   * given offset, according to the array size and the maxBytes option.
+   * If dst is null, only the options are considered.
+   */
+  protected static int getOutputLimit(byte[] dst, int dstOffset,
+    CodecOptions options)
+  {
+    int limit = dst == null ? Integer.MAX_VALUE : dst.length - dstOffset;
+    if (options != null && options.maxBytes > 0) {
+      limit = Math.min(limit, options.maxBytes);
+    }
+    return Math.max(limit, 0);
+  }
+
 }
@@ -82,6 +82,10 @@ public class JPEG2000Codec extends BaseCodec {
    *  {@link CodecOptions#littleEndian littleEndian}
    *  {@link CodecOptions#lossless lossless}
    *
+   * If the options are {@link JPEG2000CodecOptions}, setting
+   * {@link JPEG2000CodecOptions#threadCount threadCount} to more than 1
+   * encodes the tiles of the image concurrently.
+   *
    * @see Codec#compress(byte[], CodecOptions)
    */
   public byte[] compress(byte[] data, CodecOptions options)
@@ -258,6 +262,11 @@ public class JPEG2000Codec extends BaseCodec {
    * {@link CodecOptions#interleaved interleaved}
    * {@link CodecOptions#littleEndian littleEndian}
    *
+   * If the options are {@link JPEG2000CodecOptions}, only the
+   * {@link JPEG2000CodecOptions#region region} of the
+   * {@link JPEG2000CodecOptions#resolution resolution} level that they
+   * specify is decoded, if set.
+   *
    * @see Codec#decompress(byte[], CodecOptions)
    */
   public byte[] decompress(byte[] buf, CodecOptions options)
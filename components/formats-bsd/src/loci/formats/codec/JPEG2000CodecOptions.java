@@ -32,6 +32,8 @@
 
 package loci.formats.codec;
 
+import loci.common.Region;
+
 /**
  * Options for compressing and decompressing JPEG-2000 data.
  *
@@ -41,6 +43,14 @@ package loci.formats.codec;
  */
 public class JPEG2000CodecOptions extends CodecOptions {
 
+  // -- Constants --
+
+  /**
+   * Width and height of the tiles used when encoding with more than one
+   * thread and no tile size has been set.
+   */
+  public static final int DEFAULT_TILE_SIZE = 512;
+
   // -- Fields --
 
   /**
@@ -75,6 +85,37 @@ public class JPEG2000CodecOptions extends CodecOptions {
    */
   public boolean writeBox = true;
 
+  /**
+   * The number of threads used to encode the tiles of an image, as would be
+   * provided to:
+   * {@link com.sun.media.imageio.plugins.jpeg2000.J2KImageWriteParam#setNumThreads(int)}
+   * (WRITE). If this is greater than 1 and no tile size is set, the image is
+   * split into tiles of {@link #DEFAULT_TILE_SIZE} pixels, so the codestream
+   * then differs from that of a single threaded, untiled encode. For a given
+   * tiling, the compressed data does not depend on the number of threads.
+   */
+  public int threadCount = 1;
+
+  /**
+   * The progression order as would be provided to:
+   * {@link com.sun.media.imageio.plugins.jpeg2000.J2KImageWriteParam#setProgressionType(String)}
+   * (WRITE). Leaving this value <code>null</code> keeps the default layer
+   * progression. Resolution major progressions ("res" or "res-pos") allow
+   * reduced {@link #resolution resolution} reads to skip the data of the
+   * higher resolution levels.
+   */
+  public String progressionType;
+
+  /**
+   * The region to decompress as would be provided to:
+   * {@link javax.imageio.ImageReadParam#setSourceRegion(java.awt.Rectangle)}
+   * (READ). The region is in the coordinates of the requested
+   * {@link #resolution resolution} level; only the tiles that it intersects
+   * are decoded. Leaving this value <code>null</code> signifies that the
+   * whole image is decompressed.
+   */
+  public Region region;
+
   // -- Constructors --
 
   /** Creates a new instance. */
@@ -95,6 +136,9 @@ public class JPEG2000CodecOptions extends CodecOptions {
       }
       numDecompositionLevels = j2kOptions.numDecompositionLevels;
       resolution = j2kOptions.resolution;
+      threadCount = j2kOptions.threadCount;
+      progressionType = j2kOptions.progressionType;
+      region = j2kOptions.region;
     }
   }
 
@@ -38,9 +38,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 
+import loci.common.ByteArrayHandle;
 import loci.common.DataTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
@@ -100,6 +102,74 @@ public class JPEGCodec extends BaseCodec {
    */
   public byte[] decompress(RandomAccessInputStream in, CodecOptions options)
     throws FormatException, IOException
+  {
+    long fp = in.getFilePointer();
+    if (options == null) options = CodecOptions.getDefaultOptions();
+    byte[][] buf = decodePlanes(in, options);
+    if (buf == null) {
+      // probably a lossless JPEG; delegate to LosslessJPEGCodec
+      in.seek(fp);
+      return new LosslessJPEGCodec().decompress(in, options);
+    }
+
+    if (buf.length == 1) return buf[0];
+    byte[] rtn = new byte[buf.length * buf[0].length];
+    copyPlanes(buf, rtn, 0, rtn.length, options.interleaved);
+    return rtn;
+  }
+
+  /**
+   * Decodes the JPEG stream and copies the pixels straight into dst,
+   * without building an intermediate output array.
+   * The CodecOptions parameter should have the following fields set:
+   *  {@link CodecOptions#interleaved interleaved}
+   *  {@link CodecOptions#littleEndian littleEndian}
+   *
+   * @see Codec#decompress(byte[], int, int, byte[], int, CodecOptions)
+   */
+  public int decompress(byte[] src, int srcOffset, int srcLength,
+    byte[] dst, int dstOffset, CodecOptions options)
+    throws FormatException
+  {
+    if (options == null) options = CodecOptions.getDefaultOptions();
+    byte[][] buf;
+    try {
+      ByteBuffer bytes = ByteBuffer.wrap(src, srcOffset, srcLength).slice();
+      RandomAccessInputStream in =
+        new RandomAccessInputStream(new ByteArrayHandle(bytes));
+      try {
+        buf = decodePlanes(in, options);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      throw new FormatException(e);
+    }
+    if (buf == null) {
+      // probably a lossless JPEG; delegate to LosslessJPEGCodec
+      return new LosslessJPEGCodec().decompress(src, srcOffset, srcLength,
+        dst, dstOffset, options);
+    }
+
+    int limit = Math.min(buf.length * buf[0].length,
+      getOutputLimit(dst, dstOffset, options));
+    copyPlanes(buf, dst, dstOffset, limit, options.interleaved);
+    return limit;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Decodes the JPEG stream at the current position of the given stream into
+   * one array per channel, with YCbCr correction applied if requested.
+   *
+   * @return the decoded channels, or null if the stream could not be read
+   *   as a standard JPEG (for instance, if it is lossless)
+   */
+  private byte[][] decodePlanes(RandomAccessInputStream in,
+    CodecOptions options) throws IOException
   {
     BufferedImage b;
     long fp = in.getFilePointer();
@@ -115,13 +185,9 @@ public class JPEGCodec extends BaseCodec {
       b = ImageIO.read(new BufferedInputStream(new DataInputStream(in), 8192));
     }
     catch (IOException exc) {
-      // probably a lossless JPEG; delegate to LosslessJPEGCodec
-      in.seek(fp);
-      return new LosslessJPEGCodec().decompress(in, options);
+      return null;
     }
 
-    if (options == null) options = CodecOptions.getDefaultOptions();
-
     byte[][] buf = AWTImageTools.getPixelBytes(b, options.littleEndian);
 
     // correct for YCbCr encoding, if necessary
@@ -145,24 +211,33 @@ public class JPEGCodec extends BaseCodec {
         DataTools.unpackBytes(blue, buf[2], i, nBytes, options.littleEndian);
       }
     }
+    return buf;
+  }
 
-    byte[] rtn = new byte[buf.length * buf[0].length];
-    if (buf.length == 1) rtn = buf[0];
-    else {
-      if (options.interleaved) {
-        int next = 0;
-        for (int i=0; i<buf[0].length; i++) {
-          for (int j=0; j<buf.length; j++) {
-            rtn[next++] = buf[j][i];
-          }
-        }
+  /**
+   * Copies at most length bytes of the given channels into dst, either
+   * interleaved or one channel after another.
+   */
+  private static void copyPlanes(byte[][] buf, byte[] dst, int dstOffset,
+    int length, boolean interleaved)
+  {
+    if (buf.length == 1 || !interleaved) {
+      int next = dstOffset;
+      int end = dstOffset + length;
+      for (int i=0; i<buf.length && next < end; i++) {
+        int n = Math.min(buf[i].length, end - next);
+        System.arraycopy(buf[i], 0, dst, next, n);
+        next += n;
       }
-      else {
-        for (int i=0; i<buf.length; i++) {
-          System.arraycopy(buf[i], 0, rtn, i*buf[0].length, buf[i].length);
+    }
+    else {
+      int next = dstOffset;
+      int end = dstOffset + length;
+      for (int i=0; i<buf[0].length && next < end; i++) {
+        for (int j=0; j<buf.length && next < end; j++) {
+          dst[next++] = buf[j][i];
         }
       }
     }
-    return rtn;
   }
 }
@@ -32,7 +32,6 @@
 
 package loci.formats.codec;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -100,9 +99,25 @@ public class LZWCodec extends BaseCodec {
   private static final int[] COMPR_MASKS =
     {0xff, 0x7f, 0x3f, 0x1f, 0x0f, 0x07, 0x03, 0x01};
 
-  /** Masks for reading bits in decompressor. */
-  private static final int[] DECOMPR_MASKS =
-    {0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f};
+  /** Number of codes that fit in the decompressor's string table. */
+  private static final int MAX_CODES = 4096;
+
+  /** Strings shorter than this are copied by hand, not by arraycopy. */
+  private static final int MIN_ARRAYCOPY = 16;
+
+  /** Maximum number of bytes read from a stream at once. */
+  private static final int CHUNK_SIZE = 65536;
+
+  /**
+   * String tables used by the decompressor.  Codec instances are shared
+   * between threads, so each thread gets its own table.
+   */
+  private static final ThreadLocal<StringTable> TABLES =
+    new ThreadLocal<StringTable>() {
+      protected StringTable initialValue() {
+        return new StringTable();
+      }
+    };
 
   /* @see Codec#compress(byte[], CodecOptions) */
   public byte[] compress(byte[] input, CodecOptions options)
@@ -255,6 +270,22 @@ public class LZWCodec extends BaseCodec {
     return result;
   }
 
+  /**
+   * The CodecOptions parameter should have the following fields set:
+   *  {@link CodecOptions#maxBytes maxBytes}
+   *
+   * @see Codec#decompress(byte[], CodecOptions)
+   */
+  public byte[] decompress(byte[] data, CodecOptions options)
+    throws FormatException
+  {
+    if (data == null || data.length == 0) return null;
+    if (options == null) options = CodecOptions.getDefaultOptions();
+    byte[] output = new byte[options.maxBytes];
+    decode(data, 0, data.length, output, 0, output.length);
+    return output;
+  }
+
   /**
    * The CodecOptions parameter should have the following fields set:
    *  {@link CodecOptions#maxBytes maxBytes}
@@ -267,144 +298,259 @@ public class LZWCodec extends BaseCodec {
     if (in == null || in.length() == 0) return null;
     if (options == null) options = CodecOptions.getDefaultOptions();
 
-    // Output buffer
+    long start = in.getFilePointer();
+    StreamInput input = new StreamInput(in, in.length() - start);
+    byte[] buffer = new byte[
+      (int) Math.max(2, Math.min(input.remaining, CHUNK_SIZE))];
+    int end = input.refill(buffer, 0, 0);
     byte[] output = new byte[options.maxBytes];
-    // Position in output buffer to write next byte to
-    int currOutPos = 0;
-
-    // Table mapping codes to strings.
-    // Its structure is based on the fact that a string for a code has form:
-    // (string for another code) + (new byte).
-    // Thus, at index 'code': first array contains 'another code', second array
-    // contains 'new byte', and third array contains length of the string.
-    // The length is needed to make retrieving the string faster.
-    int[] anotherCodes = new int[4096];
-    byte[] newBytes = new byte[4096];
-    int[] lengths = new int[4096];
-    // We need to initialize only firt 256 entries in the table
-    for (int i=0; i<256; i++) {
-      newBytes[i] = (byte) i;
-      lengths[i] = 1;
+    long result = decode(input, buffer, 0, end, output, 0, output.length);
+    // leave the stream positioned just past the last code that was read
+    in.seek(start + input.discarded + (result >>> 32));
+    return output;
+  }
+
+  /**
+   * The CodecOptions parameter should have the following fields set:
+   *  {@link CodecOptions#maxBytes maxBytes}
+   *
+   * @see Codec#decompress(byte[], int, int, byte[], int, CodecOptions)
+   */
+  public int decompress(byte[] src, int srcOffset, int srcLength,
+    byte[] dst, int dstOffset, CodecOptions options)
+    throws FormatException
+  {
+    if (src == null || srcLength == 0) return 0;
+    int limit = getOutputLimit(dst, dstOffset, options);
+    long result =
+      decode(src, srcOffset, srcOffset + srcLength, dst, dstOffset, limit);
+    return (int) result;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Decodes LZW data from input[inStart, inEnd) into
+   * output[outStart, outStart + maxOutput), without refilling the input.
+   *
+   * @see #decode(StreamInput, byte[], int, int, byte[], int, int)
+   */
+  private static long decode(byte[] input, int inStart, int inEnd,
+    byte[] output, int outStart, int maxOutput)
+    throws FormatException
+  {
+    try {
+      return decode(null, input, inStart, inEnd, output, outStart, maxOutput);
+    }
+    catch (IOException e) {
+      // nothing is read from a stream
+      throw new FormatException(e);
     }
+  }
+
+  /**
+   * Decodes LZW data from input[inStart, inEnd) into
+   * output[outStart, outStart + maxOutput).
+   *
+   * If the decoded data would not fit, as much as fits is written and the
+   * remainder is discarded.  No memory is allocated, other than the string
+   * table on the first call from each thread.
+   *
+   * @param stream if not null, the stream from which the input buffer is
+   *   refilled when it runs out
+   * @return the number of bytes consumed in the upper 32 bits and the
+   *   number of bytes written in the lower 32 bits; if the input was
+   *   refilled, the bytes consumed are counted from the start of the buffer
+   *   and the earlier bytes are counted by the stream
+   */
+  private static long decode(StreamInput stream, byte[] input, int inStart,
+    int inEnd, byte[] output, int outStart, int maxOutput)
+    throws FormatException, IOException
+  {
+    StringTable table = TABLES.get();
+    int[] offsets = table.offsets;
+    int[] lengths = table.lengths;
+
+    // Position in input buffer to read next byte from
+    int inPos = inStart;
+    // Position in output buffer to write next byte to
+    int outPos = outStart;
+    int outEnd = outStart + maxOutput;
 
     // Length of the code to be read from input
-    int currCodeLength = 9;
+    int codeLength = 9;
+    int codeMask = (1 << codeLength) - 1;
     // Next code to be added to the table
     int nextCode = FIRST_CODE;
 
-    // Variables to handle reading bit stream:
-    // Byte from 'input[curr_in_pos-1]' -- only 'bits_read' bits on the right
-    // are non-zero
-    int currRead = 0;
-    // Number of bits in 'curr_read' that were not consumed yet
-    int bitsRead = 0;
-
-    // Current code being processed by decompressor.
-    int currCode;
-    // Previous code processed by decompressor.
-    int oldCode = 0;   // without initializer, Java reports error later
+    // Previous code processed by decompressor; -1 just after CLEAR
+    int oldCode = -1;
+    // Position in output buffer and length of string[old_code]
+    int oldStart = 0;
+    int oldLength = 0;
 
-    try {
-      do {
-        // read next code
-        {
-          int bitsLeft = currCodeLength - bitsRead;
-          if (bitsLeft > 8) {
-            currRead = (currRead << 8) | (in.read() & 0xff);
-            bitsLeft -= 8;
-          }
-          bitsRead = 8 - bitsLeft;
-          int nextByte = in.read() & 0xff;
-          currCode = (currRead << bitsLeft) | (nextByte >> bitsRead);
-          currRead = nextByte & DECOMPR_MASKS[bitsRead];
-        }
+    // Bit accumulator; only the lowest 'bitCount' bits have not yet been
+    // consumed.  Higher bits are left over from previous codes.
+    int bits = 0;
+    int bitCount = 0;
 
-        if (currCode == EOI_CODE) break;
-
-        if (currCode == CLEAR_CODE) {
-          // initialize table -- nothing to do
-          nextCode = FIRST_CODE;
-          currCodeLength = 9;
-          // read next code
-          {
-            int bitsLeft = currCodeLength - bitsRead;
-            if (bitsLeft > 8) {
-              currRead = (currRead << 8) | (in.read() & 0xff);
-              bitsLeft -= 8;
-            }
-            bitsRead = 8 - bitsLeft;
-
-            int nextByte = in.read() & 0xff;
-            currCode = (currRead << bitsLeft) | (nextByte >> bitsRead);
-            currRead = nextByte & DECOMPR_MASKS[bitsRead];
-          }
-          if (currCode == EOI_CODE) break;
-            // write string[curr_code] to output
-            // -- but here we are sure that string consists of a single byte
-            if (currOutPos >= output.length - 1) break;
-            output[currOutPos++] = newBytes[currCode];
-            oldCode = currCode;
+    decode:
+    while (outPos < outEnd) {
+      // read next code; codes are at most 12 bits long, so at most two more
+      // bytes are needed
+      if (bitCount < codeLength) {
+        if (inPos + 1 < inEnd) {
+          bits = (bits << 16) | ((input[inPos] & 0xff) << 8) |
+            (input[inPos + 1] & 0xff);
+          inPos += 2;
+          bitCount += 16;
         }
-        else if (currCode < nextCode) {
-          // Code is already in the table
-          // 1) Write strin[curr_code] to output
-          int outLength = lengths[currCode];
-          int i = currOutPos + outLength;
-          int tablePos = currCode;
-          if (i > output.length) break;
-          while (i > currOutPos) {
-            output[--i] = newBytes[tablePos];
-            tablePos = anotherCodes[tablePos];
-          }
-          currOutPos += outLength;
-          // 2) Add string[old_code]+firstByte(string[curr_code]) to the table
-          if (nextCode >= anotherCodes.length) break; 
-          anotherCodes[nextCode] = oldCode;
-          newBytes[nextCode] = output[i];
-          lengths[nextCode] = lengths[oldCode] + 1;
-          oldCode = currCode;
-          nextCode++;
+        else if (stream != null && stream.remaining > 0) {
+          inEnd = stream.refill(input, inPos, inEnd);
+          inPos = 0;
+          inStart = 0;
+          continue;
         }
         else {
-          // Special case: code is not in the table
-          // 1) Write string[old_code] to output
-          int outLength = lengths[oldCode];
-          int i = currOutPos + outLength;
-          int tablePos = oldCode;
-          if (i > output.length) break;
-          while (i > currOutPos) {
-            output[--i] = newBytes[tablePos];
-            tablePos = anotherCodes[tablePos];
+          while (bitCount < codeLength) {
+            if (inPos >= inEnd) break decode;
+            bits = (bits << 8) | (input[inPos++] & 0xff);
+            bitCount += 8;
           }
-          currOutPos += outLength;
-          // 2) Write firstByte(string[old_code]) to output
-          if (currOutPos >= output.length - 1) break;
-          output[currOutPos++] = output[i];
-          // 3) Add string[old_code]+firstByte(string[old_code]) to the table
-          anotherCodes[nextCode] = oldCode;
-          newBytes[nextCode] = output[i];
-          lengths[nextCode] = outLength + 1;
-          oldCode = currCode;
-          nextCode++;
         }
+      }
+      bitCount -= codeLength;
+      int code = (bits >>> bitCount) & codeMask;
+
+      if (code == EOI_CODE) break;
+
+      if (code == CLEAR_CODE) {
+        // initialize table -- only the code counter needs to be reset
+        nextCode = FIRST_CODE;
+        codeLength = 9;
+        codeMask = (1 << codeLength) - 1;
+        oldCode = -1;
+        continue;
+      }
+
+      // Write string[code] to output
+      int start = outPos;
+      int length;
+      if (code < CLEAR_CODE) {
+        length = 1;
+        output[outPos++] = (byte) code;
+      }
+      else if (code < nextCode) {
+        length = lengths[code];
+        outPos = copy(output, offsets[code], outPos, length, outEnd);
+      }
+      else {
+        // Special case: code is not in the table, so the string is
+        // string[old_code] + firstByte(string[old_code])
+        if (oldCode < 0) {
+          throw new FormatException("Invalid LZW data");
+        }
+        length = oldLength + 1;
+        outPos = copy(output, oldStart, outPos, oldLength, outEnd);
+        if (outPos < outEnd) output[outPos++] = output[oldStart];
+      }
+
+      // Add string[old_code]+firstByte(string[code]) to the table.
+      // string[code] was written directly after string[old_code], so the
+      // new string is already in the output.
+      if (oldCode >= 0 && nextCode < MAX_CODES) {
+        offsets[nextCode] = oldStart;
+        lengths[nextCode] = oldLength + 1;
+        nextCode++;
+
         // Increase length of code if needed
         switch (nextCode) {
           case 511:
-            currCodeLength = 10;
-            break;
           case 1023:
-            currCodeLength = 11;
-            break;
           case 2047:
-            currCodeLength = 12;
+            codeLength++;
+            codeMask = (1 << codeLength) - 1;
             break;
         }
-      } while (currOutPos < output.length && in.getFilePointer() < in.length());
+      }
+      oldCode = code;
+      oldStart = start;
+      oldLength = length;
     }
-    catch (ArrayIndexOutOfBoundsException e) {
-      throw new FormatException("Invalid LZW data", e);
+
+    // whole bytes still in the accumulator were not consumed
+    int consumed = inPos - inStart - bitCount / 8;
+    return ((long) consumed << 32) | (outPos - outStart);
+  }
+
+  /**
+   * Copies a previously decoded string to the end of the output, stopping
+   * at outEnd.
+   *
+   * @return the new output position
+   */
+  private static int copy(byte[] output, int from, int to, int length,
+    int outEnd)
+  {
+    int n = Math.min(length, outEnd - to);
+    if (n < MIN_ARRAYCOPY) {
+      for (int i=0; i<n; i++) {
+        output[to + i] = output[from + i];
+      }
     }
-    catch (EOFException e) { }
-    return output;
+    else {
+      System.arraycopy(output, from, output, to, n);
+    }
+    return to + n;
   }
+
+  // -- Helper classes --
+
+  /**
+   * Table mapping codes to strings.
+   * Every string added to the table has form
+   * (string for another code) + (first byte of the next string), and is
+   * therefore already present in the output when it is added.  Thus, at
+   * index 'code', 'offsets' contains the position of the string in the
+   * output and 'lengths' contains the length of the string; strings are
+   * copied from earlier output rather than rebuilt byte by byte.
+   * The first 256 codes are not stored.
+   */
+  private static class StringTable {
+    final int[] offsets = new int[MAX_CODES];
+    final int[] lengths = new int[MAX_CODES];
+  }
+
+  /** Stream from which the decompressor's input is read in chunks. */
+  private static class StreamInput {
+    final RandomAccessInputStream in;
+
+    /** Number of bytes not yet read from the stream. */
+    long remaining;
+
+    /** Number of bytes read and then dropped from the input buffer. */
+    long discarded;
+
+    StreamInput(RandomAccessInputStream in, long remaining) {
+      this.in = in;
+      this.remaining = Math.max(0, remaining);
+    }
+
+    /**
+     * Moves the unconsumed bytes buffer[pos, end) to the start of the
+     * buffer, and fills the rest of the buffer from the stream.
+     *
+     * @return the new end of the data in the buffer
+     */
+    int refill(byte[] buffer, int pos, int end) throws IOException {
+      int kept = end - pos;
+      System.arraycopy(buffer, pos, buffer, 0, kept);
+      discarded += pos;
+      int n = (int) Math.min(remaining, buffer.length - kept);
+      in.readFully(buffer, kept, n);
+      remaining -= n;
+      return kept + n;
+    }
+  }
+
 }
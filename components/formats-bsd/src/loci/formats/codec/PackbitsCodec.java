@@ -35,6 +35,7 @@ package loci.formats.codec;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
@@ -98,4 +99,39 @@ public class PackbitsCodec extends BaseCodec {
     if (fp + nread < in.length()) in.seek(fp + nread);
     return output.toByteArray();
   }
+
+  /**
+   * The CodecOptions parameter should have the following fields set:
+   *  {@link CodecOptions#maxBytes maxBytes}
+   *
+   * @see Codec#decompress(byte[], int, int, byte[], int, CodecOptions)
+   */
+  public int decompress(byte[] src, int srcOffset, int srcLength,
+    byte[] dst, int dstOffset, CodecOptions options)
+    throws FormatException
+  {
+    if (src == null)
+      throw new IllegalArgumentException("No data to decompress.");
+    int in = srcOffset;
+    int inEnd = srcOffset + srcLength;
+    int out = dstOffset;
+    int outEnd = dstOffset + getOutputLimit(dst, dstOffset, options);
+    // Adapted from the TIFF 6.0 specification, page 42.
+    while (out < outEnd && in < inEnd) {
+      byte n = src[in++];
+      if (n >= 0) { // 0 <= n <= 127
+        int len = Math.min(Math.min(n + 1, inEnd - in), outEnd - out);
+        System.arraycopy(src, in, dst, out, len);
+        in += n + 1;
+        out += len;
+      }
+      else if (n != -128) { // -127 <= n <= -1
+        if (in >= inEnd) break;
+        int len = Math.min(-n + 1, outEnd - out);
+        Arrays.fill(dst, out, out + len, src[in++]);
+        out += len;
+      }
+    }
+    return out - dstOffset;
+  }
 }
@@ -65,6 +65,18 @@ public class PassthroughCodec extends BaseCodec {
     throw new RuntimeException("Not implemented.");
   }
 
+  /* (non-Javadoc)
+   * @see loci.formats.codec.BaseCodec#decompress(byte[], int, int, byte[], int, loci.formats.codec.CodecOptions)
+   */
+  @Override
+  public int decompress(byte[] src, int srcOffset, int srcLength,
+      byte[] dst, int dstOffset, CodecOptions options)
+      throws FormatException {
+    int n = Math.min(srcLength, getOutputLimit(dst, dstOffset, options));
+    System.arraycopy(src, srcOffset, dst, dstOffset, n);
+    return n;
+  }
+
   /* (non-Javadoc)
    * @see loci.formats.codec.Codec#compress(byte[], loci.formats.codec.CodecOptions)
    */
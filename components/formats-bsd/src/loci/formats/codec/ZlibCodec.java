@@ -32,10 +32,12 @@
 
 package loci.formats.codec;
 
-import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
@@ -43,6 +45,11 @@ import loci.formats.FormatException;
 /**
  * This class implements ZLIB decompression.
  *
+ * Each thread reuses a single {@link Inflater} and {@link Deflater}, so that
+ * compressing or decompressing many small tiles does not pay the cost of
+ * setting up native zlib state every time.  The compression level and
+ * strategy can be set using {@link ZlibCodecOptions}.
+ *
  * <dl><dt><b>Source code:</b></dt>
  * <dd><a href="http://trac.openmicroscopy.org.uk/ome/browser/bioformats.git/components/bio-formats/src/loci/formats/codec/ZlibCodec.java">Trac</a>,
  * <a href="http://git.openmicroscopy.org/?p=bioformats.git;a=blob;f=components/bio-formats/src/loci/formats/codec/ZlibCodec.java;hb=HEAD">Gitweb</a></dd></dl>
@@ -51,39 +58,205 @@ import loci.formats.FormatException;
  */
 public class ZlibCodec extends BaseCodec {
 
-  /* @see Codec#compress(byte[], CodecOptions) */
+  // -- Constants --
+
+  /** Size of the output buffer when the decompressed size is not known. */
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  /** Number of bytes to read from a stream at a time. */
+  private static final int INPUT_BUFFER_SIZE = 8192;
+
+  private static final ThreadLocal<Deflater> DEFLATERS =
+    new ThreadLocal<Deflater>() {
+      protected Deflater initialValue() {
+        return new Deflater();
+      }
+    };
+
+  private static final ThreadLocal<Inflater> INFLATERS =
+    new ThreadLocal<Inflater>() {
+      protected Inflater initialValue() {
+        return new Inflater();
+      }
+    };
+
+  // -- Codec API methods --
+
+  /**
+   * The CodecOptions parameter may be an instance of
+   * {@link ZlibCodecOptions}, in which case its
+   * {@link ZlibCodecOptions#level level} and
+   * {@link ZlibCodecOptions#strategy strategy} are used.
+   *
+   * @see Codec#compress(byte[], CodecOptions)
+   */
   public byte[] compress(byte[] data, CodecOptions options)
     throws FormatException
   {
     if (data == null || data.length == 0)
       throw new IllegalArgumentException("No data to compress");
-    Deflater deflater = new Deflater();
-    deflater.setInput(data);
-    deflater.finish();
-    byte[] buf = new byte[8192];
-    ByteVector bytes = new ByteVector();
-    int r = 0;
-    // compress until eof reached
-    while ((r = deflater.deflate(buf, 0, buf.length)) > 0) {
-      bytes.add(buf, 0, r);
+    int level = Deflater.DEFAULT_COMPRESSION;
+    int strategy = Deflater.DEFAULT_STRATEGY;
+    if (options instanceof ZlibCodecOptions) {
+      level = ((ZlibCodecOptions) options).level;
+      strategy = ((ZlibCodecOptions) options).strategy;
+    }
+
+    Deflater deflater = DEFLATERS.get();
+    try {
+      deflater.setLevel(level);
+      deflater.setStrategy(strategy);
+      deflater.setInput(data);
+      deflater.finish();
+
+      // enough for incompressible data, so that the buffer does not
+      // normally need to grow
+      byte[] buf = new byte[data.length + (data.length >> 12) +
+        (data.length >> 14) + 64];
+      int n = 0;
+      // compress until eof reached
+      while (!deflater.finished()) {
+        if (n == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+        n += deflater.deflate(buf, n, buf.length - n);
+      }
+      return Arrays.copyOf(buf, n);
+    }
+    finally {
+      deflater.reset();
+    }
+  }
+
+  /**
+   * If {@link CodecOptions#maxBytes maxBytes} is set, it is used as the
+   * expected size of the decompressed data.
+   *
+   * @see Codec#decompress(byte[], CodecOptions)
+   */
+  public byte[] decompress(byte[] data, CodecOptions options)
+    throws FormatException
+  {
+    Inflater inflater = INFLATERS.get();
+    try {
+      inflater.setInput(data);
+      return inflate(inflater, null, getSizeHint(options));
+    }
+    catch (IOException e) {
+      throw new FormatException(e);
+    }
+    finally {
+      inflater.reset();
     }
-    return bytes.toByteArray();
   }
 
-  /* @see Codec#decompress(RandomAccessInputStream, CodecOptions) */
+  /**
+   * If {@link CodecOptions#maxBytes maxBytes} is set, it is used as the
+   * expected size of the decompressed data.  The stream is left positioned
+   * just after the end of the compressed data.
+   *
+   * @see Codec#decompress(RandomAccessInputStream, CodecOptions)
+   */
   public byte[] decompress(RandomAccessInputStream in, CodecOptions options)
     throws FormatException, IOException
   {
-    InflaterInputStream i = new InflaterInputStream(in);
-    ByteVector bytes = new ByteVector();
-    byte[] buf = new byte[8192];
-    int r = 0;
-    // read until eof reached
+    Inflater inflater = INFLATERS.get();
     try {
-      while ((r = i.read(buf, 0, buf.length)) > 0) bytes.add(buf, 0, r);
+      byte[] result = inflate(inflater, in, getSizeHint(options));
+      // return any bytes that were read past the end of the zlib stream
+      in.seek(in.getFilePointer() - inflater.getRemaining());
+      return result;
     }
-    catch (EOFException e) { }
-    return bytes.toByteArray();
+    finally {
+      inflater.reset();
+    }
+  }
+
+  /**
+   * Inflates directly into the destination array, without any intermediate
+   * buffers.  The CodecOptions parameter should have the following fields
+   * set:
+   *  {@link CodecOptions#maxBytes maxBytes}
+   *
+   * @see Codec#decompress(byte[], int, int, byte[], int, CodecOptions)
+   */
+  public int decompress(byte[] src, int srcOffset, int srcLength,
+    byte[] dst, int dstOffset, CodecOptions options)
+    throws FormatException
+  {
+    int limit = getOutputLimit(dst, dstOffset, options);
+    Inflater inflater = INFLATERS.get();
+    try {
+      inflater.setInput(src, srcOffset, srcLength);
+      int total = 0;
+      while (total < limit && !inflater.finished()) {
+        int r = inflater.inflate(dst, dstOffset + total, limit - total);
+        if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        total += r;
+      }
+      return total;
+    }
+    catch (DataFormatException e) {
+      throw invalidData(e);
+    }
+    finally {
+      inflater.reset();
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Inflates until the end of the zlib stream or of the input, whichever
+   * comes first.  If the stream is non-null, input is read from it whenever
+   * the inflater needs more.
+   */
+  private static byte[] inflate(Inflater inflater, RandomAccessInputStream in,
+    int sizeHint) throws FormatException, IOException
+  {
+    byte[] output = new byte[sizeHint];
+    byte[] input = null;
+    int total = 0;
+    try {
+      while (!inflater.finished()) {
+        if (total == output.length) {
+          output = Arrays.copyOf(output, output.length * 2);
+        }
+        int r = inflater.inflate(output, total, output.length - total);
+        if (r == 0) {
+          if (inflater.needsDictionary() || !inflater.needsInput()) break;
+          if (in == null) break;
+          // read until eof reached
+          if (input == null) input = new byte[INPUT_BUFFER_SIZE];
+          int n = (int) Math.min(input.length,
+            in.length() - in.getFilePointer());
+          if (n <= 0) break;
+          in.readFully(input, 0, n);
+          inflater.setInput(input, 0, n);
+        }
+        total += r;
+      }
+    }
+    catch (DataFormatException e) {
+      throw invalidData(e);
+    }
+    return total == output.length ? output : Arrays.copyOf(output, total);
+  }
+
+  /** Gets the initial size of the output buffer for the given options. */
+  private static int getSizeHint(CodecOptions options) {
+    if (options != null && options.maxBytes > 0) return options.maxBytes;
+    return DEFAULT_BUFFER_SIZE;
+  }
+
+  /**
+   * Reports corrupt data the same way as InflaterInputStream, i.e. with a
+   * {@link ZipException} as the cause.
+   */
+  private static FormatException invalidData(DataFormatException e) {
+    String msg = e.getMessage();
+    return new FormatException(
+      new ZipException(msg == null ? "Invalid ZLIB data format" : msg));
   }
 
 }
@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options for compressing and decompressing zlib (Deflate) data.
+ */
+public class ZlibCodecOptions extends CodecOptions {
+
+  // -- Fields --
+
+  /**
+   * The compression level (0-9) as it would be provided to:
+   * {@link java.util.zip.Deflater#setLevel(int)}
+   * (WRITE).  Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public int level = Deflater.DEFAULT_COMPRESSION;
+
+  /**
+   * The compression strategy as it would be provided to:
+   * {@link java.util.zip.Deflater#setStrategy(int)}
+   * (WRITE).  Defaults to {@link Deflater#DEFAULT_STRATEGY}.
+   */
+  public int strategy = Deflater.DEFAULT_STRATEGY;
+
+  // -- Constructors --
+
+  /** Creates a new instance. */
+  public ZlibCodecOptions() {
+    super();
+  }
+
+  /**
+   * Creates a new instance with options.
+   * @param options The option to set.
+   */
+  public ZlibCodecOptions(CodecOptions options) {
+    super(options);
+    if (options instanceof ZlibCodecOptions) {
+      ZlibCodecOptions zlibOptions = (ZlibCodecOptions) options;
+      level = zlibOptions.level;
+      strategy = zlibOptions.strategy;
+    }
+  }
+
+  // -- Static methods --
+
+  /** Return ZlibCodecOptions with reasonable default values. */
+  public static ZlibCodecOptions getDefaultOptions() {
+    return new ZlibCodecOptions(CodecOptions.getDefaultOptions());
+  }
+
+}
@@ -278,6 +278,9 @@ public abstract class BaseTiffReader extends MinimalTiffReader {
       case 2:
         predictor = "Horizontal differencing";
         break;
+      case 3:
+        predictor = "Floating point horizontal differencing";
+        break;
     }
     put("Predictor", predictor);
 
@@ -52,6 +52,7 @@ import loci.formats.codec.JPEG2000CodecOptions;
 import loci.formats.meta.MetadataStore;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.OnDemandLongArray;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffParser;
@@ -98,6 +99,14 @@ public class MinimalTiffReader extends FormatReader {
 
   protected boolean noSubresolutions = false;
 
+  /**
+   * Whether {@link #openBytes(int, int, int, byte[], int, int, int, int)}
+   * reads planes directly, without locking.  Subclasses that change how
+   * planes are read by {@link #openBytes(int, byte[], int, int, int, int)}
+   * must leave this unset, so that concurrent reads go through that method.
+   */
+  protected boolean concurrentReads = false;
+
   /** Number of JPEG 2000 resolution levels. */
   private Integer resolutionLevels;
 
@@ -109,6 +118,7 @@ public class MinimalTiffReader extends FormatReader {
   /** Constructs a new MinimalTiffReader. */
   public MinimalTiffReader() {
     this("Minimal TIFF", new String[] {"tif", "tiff"});
+    concurrentReads = true;
   }
 
   /** Constructs a new MinimalTiffReader. */
@@ -135,6 +145,38 @@ public class MinimalTiffReader extends FormatReader {
     return thumbnailIFDs;
   }
 
+  /**
+   * Reopens the current file after it has been closed with
+   * {@link #close(boolean) close(true)}, without reading its IFDs again.
+   */
+  public void reopenFile() throws IOException {
+    FormatTools.assertId(currentId, true, 1);
+    if (in != null) {
+      in.close();
+    }
+    in = new RandomAccessInputStream(currentId);
+    in.order(isLittleEndian());
+    tiffParser = tiffParser.duplicate(in);
+
+    // offsets that are read on demand use the parser's stream
+    List<IFDList> lists = new ArrayList<IFDList>();
+    lists.add(ifds);
+    lists.add(thumbnailIFDs);
+    if (subResolutionIFDs != null) {
+      lists.addAll(subResolutionIFDs);
+    }
+    for (IFDList list : lists) {
+      if (list == null) continue;
+      for (IFD ifd : list) {
+        for (Object value : ifd.values()) {
+          if (value instanceof OnDemandLongArray) {
+            ((OnDemandLongArray) value).setStream(in);
+          }
+        }
+      }
+    }
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#isThisType(RandomAccessInputStream) */
@@ -273,68 +315,54 @@ public class MinimalTiffReader extends FormatReader {
   {
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
 
-    IFD firstIFD = ifds.get(0);
     lastPlane = no;
-    IFD ifd = ifds.get(no);
-    if ((firstIFD.getCompression() == TiffCompression.JPEG_2000
-        || firstIFD.getCompression() == TiffCompression.JPEG_2000_LOSSY)
-        && resolutionLevels != null) {
-      if (getCoreIndex() > 0) {
-        ifd = subResolutionIFDs.get(no).get(getCoreIndex() - 1);
-      }
+    IFD ifd = getPlaneIFD(getCoreIndex(), no);
+    if (isJPEG2000Pyramid()) {
       setResolutionLevel(ifd);
     }
 
     tiffParser.getSamples(ifd, buf, x, y, w, h);
 
-    boolean float16 = getPixelType() == FormatTools.FLOAT &&
-      firstIFD.getBitsPerSample()[0] == 16;
-    boolean float24 = getPixelType() == FormatTools.FLOAT &&
-      firstIFD.getBitsPerSample()[0] == 24;
-
-    if (float16 || float24) {
-      int nPixels = w * h * getRGBChannelCount();
-      int nBytes = float16 ? 2 : 3;
-      int mantissaBits = float16 ? 10 : 16;
-      int exponentBits = float16 ? 5 : 7;
-      int maxExponent = (int) Math.pow(2, exponentBits) - 1;
-      int bits = (nBytes * 8) - 1;
-
-      byte[] newBuf = new byte[buf.length];
-      for (int i=0; i<nPixels; i++) {
-        int v =
-          DataTools.bytesToInt(buf, i * nBytes, nBytes, isLittleEndian());
-        int sign = v >> bits;
-        int exponent =
-          (v >> mantissaBits) & (int) (Math.pow(2, exponentBits) - 1);
-        int mantissa = v & (int) (Math.pow(2, mantissaBits) - 1);
-
-        if (exponent == 0) {
-          if (mantissa != 0) {
-            while ((mantissa & (int) Math.pow(2, mantissaBits)) == 0) {
-              mantissa <<= 1;
-              exponent--;
-            }
-            exponent++;
-            mantissa &= (int) (Math.pow(2, mantissaBits) - 1);
-            exponent += 127 - (Math.pow(2, exponentBits - 1) - 1);
-          }
-        }
-        else if (exponent == maxExponent) {
-          exponent = 255;
-        }
-        else {
-          exponent += 127 - (Math.pow(2, exponentBits - 1) - 1);
-        }
+    unpackFloats(buf, w * h * getRGBChannelCount(), getPixelType(),
+      isLittleEndian());
+    return buf;
+  }
 
-        mantissa <<= (23 - mantissaBits);
+  /**
+   * If {@link #concurrentReads} is set, planes are read without locking,
+   * through a {@link TiffParser#duplicate() duplicate} of the parser;
+   * otherwise, calls are serialized.
+   *
+   * @see loci.formats.IFormatReader#openBytes(int, int, int, byte[], int, int,
+   *   int, int)
+   */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    if (!concurrentReads) {
+      return super.openBytes(series, resolution, no, buf, x, y, w, h);
+    }
+    int coreIndex = getCoreIndex(series, resolution);
+    checkPlaneParameters(coreIndex, no, buf.length, x, y, w, h);
 
-        int value = (sign << 31) | (exponent << 23) | mantissa;
-        DataTools.unpackBytes(value, newBuf, i * 4, 4, isLittleEndian());
+    IFD ifd = getPlaneIFD(coreIndex, no);
+    TiffParser parser = tiffParser.duplicate();
+    try {
+      if (isJPEG2000Pyramid()) {
+        JPEG2000CodecOptions options =
+          new JPEG2000CodecOptions(j2kCodecOptions);
+        options.resolution = Math.abs(coreIndex - resolutionLevels);
+        parser.setCodecOptions(options);
       }
-      System.arraycopy(newBuf, 0, buf, 0, newBuf.length);
+      parser.getSamples(ifd, buf, x, y, w, h);
+    }
+    finally {
+      parser.getStream().close();
     }
 
+    CoreMetadata m = core.get(coreIndex);
+    unpackFloats(buf, w * h * getRGBChannelCount(m), m.pixelType,
+      m.littleEndian);
     return buf;
   }
 
@@ -597,4 +625,79 @@ public class MinimalTiffReader extends FormatReader {
         j2kCodecOptions.resolution);
     tiffParser.setCodecOptions(j2kCodecOptions);
   }
+
+  /**
+   * Retrieves the IFD for the given plane, using the sub-resolution IFDs
+   * of JPEG 2000 pyramids where appropriate.
+   */
+  private IFD getPlaneIFD(int coreIndex, int no) throws FormatException {
+    IFD ifd = ifds.get(no);
+    if (isJPEG2000Pyramid() && coreIndex > 0) {
+      ifd = subResolutionIFDs.get(no).get(coreIndex - 1);
+    }
+    return ifd;
+  }
+
+  /** Whether the image planes are JPEG 2000 compressed pyramids. */
+  private boolean isJPEG2000Pyramid() throws FormatException {
+    TiffCompression compression = ifds.get(0).getCompression();
+    return (compression == TiffCompression.JPEG_2000 ||
+      compression == TiffCompression.JPEG_2000_LOSSY) &&
+      resolutionLevels != null;
+  }
+
+  /** Expands 16 and 24 bit floating point samples to 32 bits, in place. */
+  private void unpackFloats(byte[] buf, int nPixels, int pixelType,
+    boolean little)
+    throws FormatException
+  {
+    IFD firstIFD = ifds.get(0);
+    boolean float16 = pixelType == FormatTools.FLOAT &&
+      firstIFD.getBitsPerSample()[0] == 16;
+    boolean float24 = pixelType == FormatTools.FLOAT &&
+      firstIFD.getBitsPerSample()[0] == 24;
+    if (!float16 && !float24) {
+      return;
+    }
+
+    int nBytes = float16 ? 2 : 3;
+    int mantissaBits = float16 ? 10 : 16;
+    int exponentBits = float16 ? 5 : 7;
+    int maxExponent = (int) Math.pow(2, exponentBits) - 1;
+    int bits = (nBytes * 8) - 1;
+
+    byte[] newBuf = new byte[buf.length];
+    for (int i=0; i<nPixels; i++) {
+      int v = DataTools.bytesToInt(buf, i * nBytes, nBytes, little);
+      int sign = v >> bits;
+      int exponent =
+        (v >> mantissaBits) & (int) (Math.pow(2, exponentBits) - 1);
+      int mantissa = v & (int) (Math.pow(2, mantissaBits) - 1);
+
+      if (exponent == 0) {
+        if (mantissa != 0) {
+          while ((mantissa & (int) Math.pow(2, mantissaBits)) == 0) {
+            mantissa <<= 1;
+            exponent--;
+          }
+          exponent++;
+          mantissa &= (int) (Math.pow(2, mantissaBits) - 1);
+          exponent += 127 - (Math.pow(2, exponentBits - 1) - 1);
+        }
+      }
+      else if (exponent == maxExponent) {
+        exponent = 255;
+      }
+      else {
+        exponent += 127 - (Math.pow(2, exponentBits - 1) - 1);
+      }
+
+      mantissa <<= (23 - mantissaBits);
+
+      int value = (sign << 31) | (exponent << 23) | mantissa;
+      DataTools.unpackBytes(value, newBuf, i * 4, 4, little);
+    }
+    System.arraycopy(newBuf, 0, buf, 0, newBuf.length);
+  }
+
 }
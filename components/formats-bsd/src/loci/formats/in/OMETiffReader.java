@@ -39,6 +39,8 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
 
 import loci.common.DateTools;
@@ -80,6 +82,11 @@ import ome.xml.model.primitives.Timestamp;
  */
 public class OMETiffReader extends FormatReader {
 
+  // -- Constants --
+
+  /** Default maximum number of files kept open by {@link #openBytes}. */
+  public static final int DEFAULT_MAX_OPEN_FILES = 16;
+
   // -- Fields --
 
   /** Mapping from series and plane numbers to files and IFD entries. */
@@ -96,6 +103,15 @@ public class OMETiffReader extends FormatReader {
 
   private OMEXMLService service;
 
+  /** Maximum number of files kept open for reading pixel data. */
+  private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+
+  /**
+   * Readers for the files that are currently open, each mapped to the number
+   * of reads in progress and ordered from least to most recently used.
+   */
+  private transient LinkedHashMap<IFormatReader, Integer> openReaders;
+
   // -- Constructor --
 
   /** Constructs a new OME-TIFF reader. */
@@ -108,6 +124,38 @@ public class OMETiffReader extends FormatReader {
     datasetDescription = "One or more .ome.tiff files";
   }
 
+  // -- OMETiffReader API methods --
+
+  /**
+   * Sets the maximum number of files that are kept open between calls to
+   * {@link #openBytes(int, byte[], int, int, int, int)}.  When the limit is
+   * reached, the least recently read file is closed.  A value of 0 closes
+   * each file as soon as its pixel data has been read.  Files that are
+   * being read when the limit is reached are closed once the read finishes.
+   */
+  public synchronized void setMaxOpenFiles(int maxOpenFiles) {
+    this.maxOpenFiles = Math.max(0, maxOpenFiles);
+    closeIdleReaders();
+  }
+
+  /** Gets the maximum number of files that are kept open for reading. */
+  public int getMaxOpenFiles() {
+    return maxOpenFiles;
+  }
+
+  /**
+   * Gets the names of the files that are currently open for reading pixel
+   * data, from least to most recently used.
+   */
+  public synchronized String[] getOpenFiles() {
+    if (openReaders == null) return new String[0];
+    ArrayList<String> files = new ArrayList<String>();
+    for (IFormatReader r : openReaders.keySet()) {
+      files.add(r.getCurrentFile());
+    }
+    return files.toArray(new String[files.size()]);
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#isSingleFile(String) */
@@ -219,8 +267,13 @@ public class OMETiffReader extends FormatReader {
     {
       return null;
     }
-    info[series][lastPlane].reader.setId(info[series][lastPlane].id);
-    return info[series][lastPlane].reader.get8BitLookupTable();
+    IFormatReader r = acquireReader(info[series][lastPlane]);
+    try {
+      return r.get8BitLookupTable();
+    }
+    finally {
+      releaseReader(r);
+    }
   }
 
   /* @see loci.formats.IFormatReader#get16BitLookupTable() */
@@ -232,8 +285,13 @@ public class OMETiffReader extends FormatReader {
     {
       return null;
     }
-    info[series][lastPlane].reader.setId(info[series][lastPlane].id);
-    return info[series][lastPlane].reader.get16BitLookupTable();
+    IFormatReader r = acquireReader(info[series][lastPlane]);
+    try {
+      return r.get16BitLookupTable();
+    }
+    finally {
+      releaseReader(r);
+    }
   }
 
   /*
@@ -246,22 +304,58 @@ public class OMETiffReader extends FormatReader {
     int series = getSeries();
     lastPlane = no;
     int i = info[series][no].ifd;
-    MinimalTiffReader r = (MinimalTiffReader) info[series][no].reader;
-    if (r.getCurrentFile() == null) {
-      r.setId(info[series][no].id);
-    }
-    r.lastPlane = i;
-    IFDList ifdList = r.getIFDs();
-    if (i >= ifdList.size()) {
-      LOGGER.warn("Error untangling IFDs; the OME-TIFF file may be malformed.");
-      return buf;
-    }
-    IFD ifd = ifdList.get(i);
-    RandomAccessInputStream s =
-      new RandomAccessInputStream(info[series][no].id);
-    TiffParser p = new TiffParser(s);
-    p.getSamples(ifd, buf, x, y, w, h);
-    s.close();
+    MinimalTiffReader r = acquireReader(info[series][no]);
+    try {
+      r.lastPlane = i;
+      IFDList ifdList = r.getIFDs();
+      if (i >= ifdList.size()) {
+        LOGGER.warn(
+          "Error untangling IFDs; the OME-TIFF file may be malformed.");
+        return buf;
+      }
+      r.tiffParser.getSamples(ifdList.get(i), buf, x, y, w, h);
+    }
+    finally {
+      releaseReader(r);
+    }
+    return buf;
+  }
+
+  /**
+   * Planes are read without locking, through a duplicate of the parser
+   * belonging to the reader for the file that contains the plane.  Files
+   * are opened through the same pool as
+   * {@link #openBytes(int, byte[], int, int, int, int)}, so
+   * {@link #getMaxOpenFiles()} also applies to concurrent reads.
+   *
+   * @see loci.formats.IFormatReader#openBytes(int, int, int, byte[], int, int,
+   *   int, int)
+   */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    int coreIndex = getCoreIndex(series, resolution);
+    checkPlaneParameters(coreIndex, no, buf.length, x, y, w, h);
+    OMETiffPlane plane = info[coreIndex][no];
+    MinimalTiffReader r = acquireReader(plane);
+    try {
+      IFDList ifdList = r.getIFDs();
+      if (plane.ifd >= ifdList.size()) {
+        LOGGER.warn(
+          "Error untangling IFDs; the OME-TIFF file may be malformed.");
+        return buf;
+      }
+      TiffParser p = r.tiffParser.duplicate();
+      try {
+        p.getSamples(ifdList.get(plane.ifd), buf, x, y, w, h);
+      }
+      finally {
+        p.getStream().close();
+      }
+    }
+    finally {
+      releaseReader(r);
+    }
     return buf;
   }
 
@@ -297,6 +391,9 @@ public class OMETiffReader extends FormatReader {
   /* @see loci.formats.IFormatReader#close(boolean) */
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
+    synchronized (this) {
+      openReaders = null;
+    }
     if (info != null) {
       for (OMETiffPlane[] dimension : info) {
         for (OMETiffPlane plane : dimension) {
@@ -704,9 +801,14 @@ public class OMETiffReader extends FormatReader {
           }
         }
 
-        info[s][0].reader.setId(info[s][0].id);
-        tileWidth[s] = info[s][0].reader.getOptimalTileWidth();
-        tileHeight[s] = info[s][0].reader.getOptimalTileHeight();
+        IFormatReader first = acquireReader(info[s][0]);
+        try {
+          tileWidth[s] = first.getOptimalTileWidth();
+          tileHeight[s] = first.getOptimalTileHeight();
+        }
+        finally {
+          releaseReader(first);
+        }
 
         m.sizeX = meta.getPixelsSizeX(i).getValue().intValue();
         int tiffWidth = (int) firstIFD.getImageWidth();
@@ -890,6 +992,65 @@ public class OMETiffReader extends FormatReader {
      return name;
   }
 
+  /**
+   * Opens the reader for the file that contains the given plane, if it is
+   * not already open, and marks it as in use until {@link #releaseReader}
+   * is called.  Readers that are in use are never closed by the pool.
+   * A reader whose file was closed by the pool keeps its IFDs, so only the
+   * file itself is reopened.
+   */
+  private synchronized MinimalTiffReader acquireReader(OMETiffPlane plane)
+    throws FormatException, IOException
+  {
+    if (openReaders == null) {
+      openReaders = new LinkedHashMap<IFormatReader, Integer>(16, 0.75f, true);
+    }
+    MinimalTiffReader r = (MinimalTiffReader) plane.reader;
+    if (r.getCurrentFile() == null) {
+      r.setId(plane.id);
+    }
+    else if (!openReaders.containsKey(r)) {
+      r.reopenFile();
+    }
+    Integer reads = openReaders.get(r);
+    openReaders.put(r, reads == null ? 1 : reads + 1);
+    return r;
+  }
+
+  /**
+   * Marks a reader returned by {@link #acquireReader} as no longer in use,
+   * then closes the least recently used files until no more than
+   * {@link #getMaxOpenFiles()} remain open.
+   */
+  private synchronized void releaseReader(IFormatReader r) {
+    if (openReaders == null) return;
+    Integer reads = openReaders.get(r);
+    if (reads != null) openReaders.put(r, reads - 1);
+    closeIdleReaders();
+  }
+
+  /**
+   * Closes the files of the least recently used readers that are not in
+   * use, until no more than {@link #getMaxOpenFiles()} remain open.  Only
+   * the files are closed; the readers keep their parsed IFDs.
+   */
+  private void closeIdleReaders() {
+    if (openReaders == null) return;
+    Iterator<Map.Entry<IFormatReader, Integer>> entries =
+      openReaders.entrySet().iterator();
+    while (openReaders.size() > maxOpenFiles && entries.hasNext()) {
+      Map.Entry<IFormatReader, Integer> entry = entries.next();
+      if (entry.getValue() > 0) continue;
+      entries.remove();
+      try {
+        entry.getKey().close(true);
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not close pixel data file", e);
+      }
+    }
+  }
+
   private void setupService() throws FormatException {
     try {
       ServiceFactory factory = new ServiceFactory();
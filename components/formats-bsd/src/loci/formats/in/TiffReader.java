@@ -93,6 +93,7 @@ public class TiffReader extends BaseTiffReader {
   /** Constructs a new Tiff reader. */
   public TiffReader() {
     super("Tagged Image File Format", TIFF_SUFFIXES);
+    concurrentReads = true;
   }
 
   // -- IFormatReader API methods --
@@ -32,6 +32,7 @@
 
 package loci.formats.services;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.io.IOException;
@@ -47,6 +48,7 @@ import javax.imageio.spi.ServiceRegistry;
 import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.stream.MemoryCacheImageInputStream;
 
+import loci.common.Region;
 import loci.common.services.AbstractService;
 import loci.common.services.ServiceException;
 import loci.formats.codec.JPEG2000CodecOptions;
@@ -131,6 +133,18 @@ public class JAIIIOServiceImpl extends AbstractService
       param.setTiling(options.tileWidth, options.tileHeight,
                       options.tileGridXOffset, options.tileGridYOffset);
     }
+    else if (options.threadCount > 1 &&
+      (img.getWidth() > JPEG2000CodecOptions.DEFAULT_TILE_SIZE ||
+      img.getHeight() > JPEG2000CodecOptions.DEFAULT_TILE_SIZE))
+    {
+      // split the image so that there is something to encode in parallel
+      param.setTiling(JPEG2000CodecOptions.DEFAULT_TILE_SIZE,
+        JPEG2000CodecOptions.DEFAULT_TILE_SIZE, 0, 0);
+    }
+    param.setNumThreads(options.threadCount);
+    if (options.progressionType != null) {
+      param.setProgressionType(options.progressionType);
+    }
     if (options.numDecompositionLevels != null) {
       param.setNumDecompositionLevels(
           options.numDecompositionLevels.intValue());
@@ -146,11 +160,7 @@ public class JAIIIOServiceImpl extends AbstractService
     J2KImageReader reader = getReader();
     MemoryCacheImageInputStream mciis = new MemoryCacheImageInputStream(in);
     reader.setInput(mciis, false, true);
-    J2KImageReadParam param = (J2KImageReadParam) reader.getDefaultReadParam();
-    if (options.resolution != null) {
-      param.setResolution(options.resolution.intValue());
-    }
-    return reader.read(0, param);
+    return reader.read(0, getReadParam(reader, options));
   }
 
   /* @see JAIIIOService#readImage(InputStream) */
@@ -167,11 +177,7 @@ public class JAIIIOServiceImpl extends AbstractService
     J2KImageReader reader = getReader();
     MemoryCacheImageInputStream mciis = new MemoryCacheImageInputStream(in);
     reader.setInput(mciis, false, true);
-    J2KImageReadParam param = (J2KImageReadParam) reader.getDefaultReadParam();
-    if (options.resolution != null) {
-      param.setResolution(options.resolution.intValue());
-    }
-    return reader.readRaster(0, param);
+    return reader.readRaster(0, getReadParam(reader, options));
   }
 
   /* @see JAIIIOService#readRaster(InputStream) */
@@ -187,6 +193,24 @@ public class JAIIIOServiceImpl extends AbstractService
     return new J2KImageReader(spi);
   }
 
+  /**
+   * Set up the read parameters for the resolution level and region requested
+   * in the given options.
+   */
+  private J2KImageReadParam getReadParam(J2KImageReader reader,
+    JPEG2000CodecOptions options)
+  {
+    J2KImageReadParam param = (J2KImageReadParam) reader.getDefaultReadParam();
+    if (options.resolution != null) {
+      param.setResolution(options.resolution.intValue());
+    }
+    if (options.region != null) {
+      Region r = options.region;
+      param.setSourceRegion(new Rectangle(r.x, r.y, r.width, r.height));
+    }
+    return param;
+  }
+
   /** Register the JPEG-2000 readers with the reader service. */
   private static IIORegistry registerServiceProviders() {
     IIORegistry registry = IIORegistry.getDefaultInstance();
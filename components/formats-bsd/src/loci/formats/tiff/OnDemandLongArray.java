@@ -32,7 +32,11 @@
 
 package loci.formats.tiff;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import loci.common.RandomAccessInputStream;
 
 /**
@@ -45,6 +49,14 @@ import loci.common.RandomAccessInputStream;
  */
 public class OnDemandLongArray {
 
+  /** Per-thread buffer into which a single value is read. */
+  private static final ThreadLocal<ByteBuffer> VALUE =
+    new ThreadLocal<ByteBuffer>() {
+      protected ByteBuffer initialValue() {
+        return ByteBuffer.allocate(8);
+      }
+    };
+
   private RandomAccessInputStream stream;
   private int size;
   private long start;
@@ -58,12 +70,27 @@ public class OnDemandLongArray {
     this.size = size;
   }
 
+  /**
+   * Sets the stream from which values are read, e.g. after the original
+   * stream has been closed and the file reopened.
+   */
+  public void setStream(RandomAccessInputStream in) {
+    stream = in;
+  }
+
+  /**
+   * Reads the value at the given index.  The stream's file pointer is not
+   * used, so this method may be called from several threads at once.
+   */
   public long get(int index) throws IOException {
-    long fp = stream.getFilePointer();
-    stream.seek(start + index * 8);
-    long value = stream.readLong();
-    stream.seek(fp);
-    return value;
+    ByteBuffer value = VALUE.get();
+    value.clear();
+    value.order(stream.isLittleEndian() ?
+      ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    if (stream.read(start + index * 8L, value) < 8) {
+      throw new EOFException();
+    }
+    return value.getLong(0);
   }
 
   public long size() {
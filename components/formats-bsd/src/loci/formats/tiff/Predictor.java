@@ -0,0 +1,252 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tiff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import loci.common.DataTools;
+
+/**
+ * In-place implementations of the TIFF horizontal differencing (2) and
+ * floating point (3) predictors.
+ *
+ * Each method works on whole rows of samples, so that the inner loops have
+ * no per-sample branches and can be compiled to tight loops.  Samples are
+ * accessed through buffer views in the file's byte order, with a separate
+ * loop for each sample size.
+ *
+ * In all methods, <code>stride</code> is the number of samples between a
+ * sample and the one it is predicted from (i.e. the number of interleaved
+ * channels), and <code>rowLength</code> is the number of samples in a row.
+ */
+final class Predictor {
+
+  // -- Constants --
+
+  /**
+   * Per-thread buffer holding one row of samples while the bytes of the
+   * floating point predictor are reordered, so that decoding a tile does
+   * not allocate a new row.
+   */
+  private static final ThreadLocal<byte[]> ROW_BUFFER =
+    new ThreadLocal<byte[]>();
+
+  // -- Constructor --
+
+  private Predictor() { }
+
+  // -- Predictor API methods --
+
+  /**
+   * Reverses horizontal differencing (predictor 2) in the first
+   * <code>length</code> bytes of <code>input</code>.
+   */
+  static void undifference(byte[] input, int length, int bytes, int stride,
+    int rowLength, boolean little)
+  {
+    switch (bytes) {
+      case 1:
+        for (int row=0; row<length; row+=rowLength) {
+          int end = Math.min(row + rowLength, length);
+          for (int i=row+stride; i<end; i++) {
+            input[i] += input[i - stride];
+          }
+        }
+        break;
+      case 2:
+        ShortBuffer shorts = wrap(input, length, little).asShortBuffer();
+        for (int row=0; row<shorts.limit(); row+=rowLength) {
+          int end = Math.min(row + rowLength, shorts.limit());
+          for (int i=row+stride; i<end; i++) {
+            shorts.put(i, (short) (shorts.get(i) + shorts.get(i - stride)));
+          }
+        }
+        break;
+      case 4:
+        IntBuffer ints = wrap(input, length, little).asIntBuffer();
+        for (int row=0; row<ints.limit(); row+=rowLength) {
+          int end = Math.min(row + rowLength, ints.limit());
+          for (int i=row+stride; i<end; i++) {
+            ints.put(i, ints.get(i) + ints.get(i - stride));
+          }
+        }
+        break;
+      case 8:
+        LongBuffer longs = wrap(input, length, little).asLongBuffer();
+        for (int row=0; row<longs.limit(); row+=rowLength) {
+          int end = Math.min(row + rowLength, longs.limit());
+          for (int i=row+stride; i<end; i++) {
+            longs.put(i, longs.get(i) + longs.get(i - stride));
+          }
+        }
+        break;
+      default:
+        int samples = length / bytes;
+        for (int row=0; row<samples; row+=rowLength) {
+          int end = Math.min(row + rowLength, samples);
+          for (int i=row+stride; i<end; i++) {
+            int value = DataTools.bytesToInt(input, i * bytes, bytes, little);
+            value += DataTools.bytesToInt(input, (i - stride) * bytes, bytes,
+              little);
+            DataTools.unpackBytes(value, input, i * bytes, bytes, little);
+          }
+        }
+    }
+  }
+
+  /** Performs horizontal differencing (predictor 2). */
+  static void difference(byte[] input, int bytes, int stride,
+    int rowLength, boolean little)
+  {
+    switch (bytes) {
+      case 1:
+        for (int row=0; row<input.length; row+=rowLength) {
+          int end = Math.min(row + rowLength, input.length);
+          for (int i=end-1; i>=row+stride; i--) {
+            input[i] -= input[i - stride];
+          }
+        }
+        break;
+      case 2:
+        ShortBuffer shorts = wrap(input, input.length, little).asShortBuffer();
+        for (int row=0; row<shorts.limit(); row+=rowLength) {
+          int end = Math.min(row + rowLength, shorts.limit());
+          for (int i=end-1; i>=row+stride; i--) {
+            shorts.put(i, (short) (shorts.get(i) - shorts.get(i - stride)));
+          }
+        }
+        break;
+      case 4:
+        IntBuffer ints = wrap(input, input.length, little).asIntBuffer();
+        for (int row=0; row<ints.limit(); row+=rowLength) {
+          int end = Math.min(row + rowLength, ints.limit());
+          for (int i=end-1; i>=row+stride; i--) {
+            ints.put(i, ints.get(i) - ints.get(i - stride));
+          }
+        }
+        break;
+      case 8:
+        LongBuffer longs = wrap(input, input.length, little).asLongBuffer();
+        for (int row=0; row<longs.limit(); row+=rowLength) {
+          int end = Math.min(row + rowLength, longs.limit());
+          for (int i=end-1; i>=row+stride; i--) {
+            longs.put(i, longs.get(i) - longs.get(i - stride));
+          }
+        }
+        break;
+      default:
+        int samples = input.length / bytes;
+        for (int row=0; row<samples; row+=rowLength) {
+          int end = Math.min(row + rowLength, samples);
+          for (int i=end-1; i>=row+stride; i--) {
+            int value = DataTools.bytesToInt(input, i * bytes, bytes, little);
+            value -= DataTools.bytesToInt(input, (i - stride) * bytes, bytes,
+              little);
+            DataTools.unpackBytes(value, input, i * bytes, bytes, little);
+          }
+        }
+    }
+  }
+
+  /**
+   * Reverses the floating point predictor (predictor 3), as described in
+   * Adobe Photoshop TIFF Technical Note 3.  Each row holds the most
+   * significant bytes of all samples, followed by the next most significant
+   * bytes, and so on, with horizontal differencing applied to the bytes.
+   * Only the first <code>length</code> bytes of <code>input</code> are used.
+   */
+  static void undifferenceFloat(byte[] input, int length, int bytes,
+    int stride, int rowLength, boolean little)
+  {
+    int rowBytes = rowLength * bytes;
+    byte[] row = getRowBuffer(rowBytes);
+    for (int start=0; start+rowBytes<=length; start+=rowBytes) {
+      int end = start + rowBytes;
+      for (int i=start+stride; i<end; i++) {
+        input[i] += input[i - stride];
+      }
+
+      System.arraycopy(input, start, row, 0, rowBytes);
+      for (int b=0; b<bytes; b++) {
+        int plane = (little ? bytes - b - 1 : b) * rowLength;
+        for (int i=0, o=start+b; i<rowLength; i++, o+=bytes) {
+          input[o] = row[plane + i];
+        }
+      }
+    }
+  }
+
+  /** Applies the floating point predictor (predictor 3). */
+  static void differenceFloat(byte[] input, int bytes, int stride,
+    int rowLength, boolean little)
+  {
+    int rowBytes = rowLength * bytes;
+    byte[] row = getRowBuffer(rowBytes);
+    for (int start=0; start+rowBytes<=input.length; start+=rowBytes) {
+      int end = start + rowBytes;
+      System.arraycopy(input, start, row, 0, rowBytes);
+      for (int b=0; b<bytes; b++) {
+        int plane = start + (little ? bytes - b - 1 : b) * rowLength;
+        for (int i=0, o=b; i<rowLength; i++, o+=bytes) {
+          input[plane + i] = row[o];
+        }
+      }
+
+      for (int i=end-1; i>=start+stride; i--) {
+        input[i] -= input[i - stride];
+      }
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Gets this thread's row buffer, with at least the given length. */
+  private static byte[] getRowBuffer(int length) {
+    byte[] row = ROW_BUFFER.get();
+    if (row == null || row.length < length) {
+      row = new byte[length];
+      ROW_BUFFER.set(row);
+    }
+    return row;
+  }
+
+  private static ByteBuffer wrap(byte[] input, int length, boolean little) {
+    return ByteBuffer.wrap(input, 0, length).order(
+      little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+  }
+
+}
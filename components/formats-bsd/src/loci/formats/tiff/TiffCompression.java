@@ -37,7 +37,6 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 
-import loci.common.DataTools;
 import loci.common.enumeration.CodedEnum;
 import loci.common.enumeration.EnumException;
 import loci.formats.FormatException;
@@ -53,6 +52,7 @@ import loci.formats.codec.NikonCodec;
 import loci.formats.codec.PackbitsCodec;
 import loci.formats.codec.PassthroughCodec;
 import loci.formats.codec.ZlibCodec;
+import loci.formats.codec.ZlibCodecOptions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,8 +81,20 @@ public enum TiffCompression implements CodedEnum {
   OLD_JPEG(6, new JPEGCodec(), "Old JPEG"),
   JPEG(7, new JPEGCodec(), "JPEG"),
   PACK_BITS(32773, new PackbitsCodec(), "PackBits"),
-  PROPRIETARY_DEFLATE(32946, new ZlibCodec(), "Deflate (Zlib)"),
-  DEFLATE(8, new ZlibCodec(), "Deflate (Zlib)"),
+  PROPRIETARY_DEFLATE(32946, new ZlibCodec(), "Deflate (Zlib)") {
+    @Override
+    public CodecOptions getCompressionCodecOptions(IFD ifd, CodecOptions opt)
+    throws FormatException {
+      return getZlibOptions(super.getCompressionCodecOptions(ifd, opt), opt);
+    }
+  },
+  DEFLATE(8, new ZlibCodec(), "Deflate (Zlib)") {
+    @Override
+    public CodecOptions getCompressionCodecOptions(IFD ifd, CodecOptions opt)
+    throws FormatException {
+      return getZlibOptions(super.getCompressionCodecOptions(ifd, opt), opt);
+    }
+  },
   THUNDERSCAN(32809, null, "Thunderscan"),
   JPEG_2000(33003, new JPEG2000Codec(), "JPEG-2000") {
     @Override
@@ -282,29 +294,60 @@ public enum TiffCompression implements CodedEnum {
     return codec.decompress(input, options);
   }
 
+  /**
+   * Decodes a strip of data directly into the given output array.
+   * @return the number of bytes written to the output array
+   */
+  public int decompress(byte[] input, int offset, int length, byte[] output,
+    int outputOffset, CodecOptions options)
+    throws FormatException
+  {
+    if (codec == null) {
+      throw new UnsupportedCompressionException(
+          "Sorry, " + getCodecName() + " compression mode is not supported");
+    }
+    return codec.decompress(input, offset, length, output, outputOffset,
+      options);
+  }
+
   /** Undoes in-place differencing according to the given predictor value. */
   public static void undifference(byte[] input, IFD ifd)
     throws FormatException
+  {
+    undifference(input, input.length, ifd);
+  }
+
+  /**
+   * Undoes in-place differencing of the first <code>length</code> bytes of
+   * the given array, according to the given predictor value.
+   */
+  public static void undifference(byte[] input, int length, IFD ifd)
+    throws FormatException
   {
     int predictor = ifd.getIFDIntValue(IFD.PREDICTOR, 1);
-    if (predictor == 2) {
-      LOGGER.debug("reversing horizontal differencing");
+    if (predictor == 2 || predictor == 3) {
       int[] bitsPerSample = ifd.getBitsPerSample();
       int len = bitsPerSample.length;
-      long width = ifd.getImageWidth();
+      long width = ifd.getTileWidth();
       boolean little = ifd.isLittleEndian();
       int planarConfig = ifd.getPlanarConfiguration();
 
       int bytes = ifd.getBytesPerSample()[0];
 
       if (planarConfig == 2 || bitsPerSample[len - 1] == 0) len = 1;
-      len *= bytes;
+      int rowLength = (int) Math.min(width * len, Integer.MAX_VALUE);
+      if (rowLength <= 0) return;
 
-      for (int b=0; b<=input.length-bytes; b+=bytes) {
-        if (b / len % width == 0) continue;
-        int value = DataTools.bytesToInt(input, b, bytes, little);
-        value += DataTools.bytesToInt(input, b - len, bytes, little);
-        DataTools.unpackBytes(value, input, b, bytes, little);
+      if (predictor == 2) {
+        LOGGER.debug("reversing horizontal differencing");
+        Predictor.undifference(input, length, bytes, len, rowLength,
+          little);
+      }
+      else {
+        checkFloatingPointPredictor(ifd);
+        LOGGER.debug("reversing floating point differencing");
+        Predictor.undifferenceFloat(input, length, bytes, len, rowLength,
+          little);
       }
     }
     else if (predictor != 1) {
@@ -362,20 +405,24 @@ public enum TiffCompression implements CodedEnum {
   /** Performs in-place differencing according to the given predictor value. */
   public static void difference(byte[] input, IFD ifd) throws FormatException {
     int predictor = ifd.getIFDIntValue(IFD.PREDICTOR, 1);
-    if (predictor == 2) {
-      LOGGER.debug("performing horizontal differencing");
+    if (predictor == 2 || predictor == 3) {
       int[] bitsPerSample = ifd.getBitsPerSample();
-      long width = ifd.getImageWidth();
+      long width = ifd.getTileWidth();
       boolean little = ifd.isLittleEndian();
       int planarConfig = ifd.getPlanarConfiguration();
       int bytes = ifd.getBytesPerSample()[0];
-      int len = bytes * (planarConfig == 2 ? 1 : bitsPerSample.length);
+      int len = planarConfig == 2 ? 1 : bitsPerSample.length;
+      int rowLength = (int) Math.min(width * len, Integer.MAX_VALUE);
+      if (rowLength <= 0) return;
 
-      for (int b=input.length-bytes; b>=0; b-=bytes) {
-        if (b / len % width == 0) continue;
-        int value = DataTools.bytesToInt(input, b, bytes, little);
-        value -= DataTools.bytesToInt(input, b - len, bytes, little);
-        DataTools.unpackBytes(value, input, b, bytes, little);
+      if (predictor == 2) {
+        LOGGER.debug("performing horizontal differencing");
+        Predictor.difference(input, bytes, len, rowLength, little);
+      }
+      else {
+        checkFloatingPointPredictor(ifd);
+        LOGGER.debug("performing floating point differencing");
+        Predictor.differenceFloat(input, bytes, len, rowLength, little);
       }
     }
     else if (predictor != 1) {
@@ -383,4 +430,34 @@ public enum TiffCompression implements CodedEnum {
     }
   }
 
+  // -- Helper methods --
+
+  /**
+   * Checks that the samples of the given IFD are floating point, as
+   * required by the floating point predictor (predictor 3).
+   */
+  private static void checkFloatingPointPredictor(IFD ifd)
+    throws FormatException
+  {
+    if (ifd.getIFDIntValue(IFD.SAMPLE_FORMAT, 1) != 3) {
+      throw new FormatException(
+        "Floating point Predictor requires floating point samples");
+    }
+  }
+
+  /**
+   * Converts codec options for use with zlib compression, keeping the
+   * compression level and strategy from the caller's options, if present.
+   */
+  private static ZlibCodecOptions getZlibOptions(CodecOptions options,
+    CodecOptions opt)
+  {
+    ZlibCodecOptions zlib = new ZlibCodecOptions(options);
+    if (opt instanceof ZlibCodecOptions) {
+      zlib.level = ((ZlibCodecOptions) opt).level;
+      zlib.strategy = ((ZlibCodecOptions) opt).strategy;
+    }
+    return zlib;
+  }
+
 }
@@ -33,9 +33,20 @@
 package loci.formats.tiff;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import loci.common.Constants;
 import loci.common.DataTools;
@@ -45,6 +56,7 @@ import loci.common.enumeration.EnumException;
 import loci.formats.FormatException;
 import loci.formats.codec.BitBuffer;
 import loci.formats.codec.CodecOptions;
+import loci.formats.codec.JPEG2000CodecOptions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,6 +88,20 @@ public class TiffParser {
   /** Cached tile buffer to avoid re-allocations when reading tiles. */
   private byte[] cachedTileBuffer;
 
+  /**
+   * Per-thread buffer into which compressed tiles are decoded, so that
+   * concurrently decoded tiles do not each allocate a new array.
+   */
+  private final ThreadLocal<byte[]> decodeBuffer = new ThreadLocal<byte[]>();
+
+  /**
+   * Per-thread buffer into which concurrently decoded tiles are unpacked.
+   * Unpacking depends on the length of the buffer, so it is replaced
+   * whenever a different tile size is needed.
+   */
+  private final ThreadLocal<byte[]> workerTileBuffer =
+    new ThreadLocal<byte[]>();
+
   /** Whether or not the TIFF file contains BigTIFF data. */
   private boolean bigTiff;
 
@@ -99,6 +125,12 @@ public class TiffParser {
   /** Codec options to be used when decoding compressed pixel data. */
   private CodecOptions codecOptions = CodecOptions.getDefaultOptions();
 
+  /**
+   * Executor used to decode tiles concurrently, or null if tiles should be
+   * decoded on the calling thread.
+   */
+  private ExecutorService executor;
+
   // -- Constructors --
 
   /** Constructs a new TIFF parser from the given file name. */
@@ -145,6 +177,26 @@ public class TiffParser {
     return codecOptions;
   }
 
+  /**
+   * Sets the executor used to decompress tiles when reading a region that
+   * spans more than one tile or strip.  Compressed tile data is always read
+   * from the stream on the calling thread; only decompression and unpacking
+   * are delegated.  If the executor is null (the default), all tiles are
+   * decoded serially on the calling thread.
+   * @param executor Executor to use, or null to disable concurrent decoding.
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Retrieves the executor used to decompress tiles.
+   * @return See above; null if tiles are decoded on the calling thread.
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
   /** Sets whether or not IFD entries should be cached. */
   public void setDoCaching(boolean doCaching) {
     this.doCaching = doCaching;
@@ -165,6 +217,42 @@ public class TiffParser {
     return in;
   }
 
+  /**
+   * Creates a parser with the same settings and cached IFDs as this one,
+   * which reads from a {@link RandomAccessInputStream#duplicate() duplicate}
+   * of this parser's stream.  The new parser has its own file pointer and
+   * codec options, so pixel data can be read through it on another thread
+   * while this parser is in use.  Closing the new parser's stream does not
+   * close this parser's stream.
+   */
+  public TiffParser duplicate() throws IOException {
+    return duplicate(in.duplicate());
+  }
+
+  /**
+   * Creates a parser with the same settings and cached IFDs as this one,
+   * which reads from the given stream.  The stream must contain the same
+   * TIFF data as this parser's stream; this allows a parser to be
+   * recreated after its stream has been closed, without reading the IFDs
+   * again.
+   */
+  public TiffParser duplicate(RandomAccessInputStream stream) {
+    TiffParser parser = new TiffParser(stream);
+    parser.bigTiff = bigTiff;
+    parser.fakeBigTiff = fakeBigTiff;
+    parser.ycbcrCorrection = ycbcrCorrection;
+    parser.equalStrips = equalStrips;
+    parser.doCaching = doCaching;
+    parser.ifdList = ifdList;
+    parser.firstIFD = firstIFD;
+    parser.ifdCount = ifdCount;
+    parser.executor = executor;
+    CodecOptions options = codecOptions;
+    parser.codecOptions = options instanceof JPEG2000CodecOptions ?
+      new JPEG2000CodecOptions(options) : new CodecOptions(options);
+    return parser;
+  }
+
   /** Tests this stream to see if it represents a TIFF file. */
   public boolean isValidHeader() {
     try {
@@ -631,21 +719,28 @@ public class TiffParser {
   public byte[] getTile(IFD ifd, byte[] buf, int row, int col)
     throws FormatException, IOException
   {
-    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
-
     codecOptions.interleaved = true;
     codecOptions.littleEndian = ifd.isLittleEndian();
 
-    long tileWidth = ifd.getTileWidth();
-    long tileLength = ifd.getTileLength();
-    int samplesPerPixel = ifd.getSamplesPerPixel();
-    int planarConfig = ifd.getPlanarConfiguration();
-    TiffCompression compression = ifd.getCompression();
+    if (buf == null) buf = new byte[getTileSize(ifd)];
+    byte[] tile = readTile(ifd, row, col);
+    if (tile == null) {
+      return buf;
+    }
+    return decodeTile(ifd, buf, tile, row, codecOptions);
+  }
 
+  /**
+   * Reads the compressed bytes for the given tile or strip.
+   * @return the raw tile bytes, or null if the tile is empty or lies beyond
+   *   the end of the file
+   */
+  private byte[] readTile(IFD ifd, int row, int col)
+    throws FormatException, IOException
+  {
+    long tileWidth = ifd.getTileWidth();
     long numTileCols = ifd.getTilesPerRow();
-
     int pixel = ifd.getBytesPerSample()[0];
-    int effectiveChannels = planarConfig == 2 ? 1 : samplesPerPixel;
 
     long[] stripByteCounts = ifd.getStripByteCounts();
     long[] rowsPerStrip = ifd.getRowsPerStrip();
@@ -661,34 +756,37 @@ public class TiffParser {
       stripByteCounts[countIndex] *= pixel;
     }
 
-    long stripOffset = 0;
-    long nStrips = 0;
-
-    if (ifd.getOnDemandStripOffsets() != null) {
-      OnDemandLongArray stripOffsets = ifd.getOnDemandStripOffsets();
-      stripOffset = stripOffsets.get(offsetIndex);
-      nStrips = stripOffsets.size();
-    }
-    else {
-      long[] stripOffsets = ifd.getStripOffsets();
-      stripOffset = stripOffsets[offsetIndex];
-      nStrips = stripOffsets.length;
-    }
-
-    int size = (int) (tileWidth * tileLength * pixel * effectiveChannels);
+    long stripOffset = getStripOffset(ifd, offsetIndex);
 
-    if (buf == null) buf = new byte[size];
     if (stripByteCounts[countIndex] == 0 || stripOffset >= in.length()) {
-      return buf;
+      return null;
     }
     byte[] tile = new byte[(int) stripByteCounts[countIndex]];
 
     LOGGER.debug("Reading tile Length {} Offset {}", tile.length, stripOffset);
     in.seek(stripOffset);
     in.read(tile);
+    return tile;
+  }
 
-    codecOptions.maxBytes = (int) Math.max(size, tile.length);
-    codecOptions.ycbcr =
+  /**
+   * Decompresses the given raw tile bytes and unpacks them into the given
+   * buffer.  This method does not touch the input stream, so it is safe to
+   * call concurrently for different tiles as long as each call has its own
+   * codec options and destination buffer.
+   */
+  private byte[] decodeTile(IFD ifd, byte[] buf, byte[] tile, int row,
+    CodecOptions options)
+    throws FormatException, IOException
+  {
+    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
+    TiffCompression compression = ifd.getCompression();
+    int planarConfig = ifd.getPlanarConfiguration();
+    int pixel = ifd.getBytesPerSample()[0];
+    int size = getTileSize(ifd);
+
+    options.maxBytes = (int) Math.max(size, tile.length);
+    options.ycbcr =
       ifd.getPhotometricInterpretation() == PhotoInterp.Y_CB_CR &&
       ifd.getIFDIntValue(IFD.Y_CB_CR_SUB_SAMPLING) == 1 && ycbcrCorrection;
 
@@ -696,13 +794,25 @@ public class TiffParser {
       byte[] q = new byte[jpegTable.length + tile.length - 4];
       System.arraycopy(jpegTable, 0, q, 0, jpegTable.length - 2);
       System.arraycopy(tile, 2, q, jpegTable.length - 2, tile.length - 2);
-      tile = compression.decompress(q, codecOptions);
+      tile = q;
+    }
+
+    byte[] decoded = decodeBuffer.get();
+    if (decoded == null || decoded.length < options.maxBytes) {
+      decoded = new byte[options.maxBytes];
+      decodeBuffer.set(decoded);
     }
-    else tile = compression.decompress(tile, codecOptions);
-    TiffCompression.undifference(tile, ifd);
-    unpackBytes(buf, 0, tile, ifd);
+    int n = compression.decompress(tile, 0, tile.length, decoded, 0, options);
+    // short tiles are padded with zeros up to the expected tile size
+    int length = Math.max(n, size);
+    Arrays.fill(decoded, n, length, (byte) 0);
+
+    TiffCompression.undifference(decoded, length, ifd);
+    unpackBytes(buf, 0, decoded, length, ifd);
 
     if (planarConfig == 2 && !ifd.isTiled() && ifd.getSamplesPerPixel() > 1) {
+      long nStrips = ifd.getOnDemandStripOffsets() != null ?
+        ifd.getOnDemandStripOffsets().size() : ifd.getStripOffsets().length;
       int channel = (int) (row % nStrips);
       if (channel < ifd.getBytesPerSample().length) {
         int realBytes = ifd.getBytesPerSample()[channel];
@@ -727,6 +837,25 @@ public class TiffParser {
     return buf;
   }
 
+  /** Retrieves the file offset of the given tile or strip. */
+  private long getStripOffset(IFD ifd, int index)
+    throws FormatException, IOException
+  {
+    if (ifd.getOnDemandStripOffsets() != null) {
+      return ifd.getOnDemandStripOffsets().get(index);
+    }
+    return ifd.getStripOffsets()[index];
+  }
+
+  /** Retrieves the number of bytes in a single decoded tile or strip. */
+  private int getTileSize(IFD ifd) throws FormatException {
+    int samplesPerPixel = ifd.getSamplesPerPixel();
+    int effectiveChannels =
+      ifd.getPlanarConfiguration() == 2 ? 1 : samplesPerPixel;
+    return (int) (ifd.getTileWidth() * ifd.getTileLength() *
+      ifd.getBytesPerSample()[0] * effectiveChannels);
+  }
+
   public byte[] getSamples(IFD ifd, byte[] buf)
     throws FormatException, IOException
   {
@@ -891,10 +1020,16 @@ public class TiffParser {
     int bufferSize = (int) tileWidth * (int) tileLength *
       bufferSizeSamplesPerPixel * bpp;
 
-    cachedTileBuffer = new byte[bufferSize];
-
     Region tileBounds = new Region(0, 0, (int) tileWidth, (int) tileLength);
 
+    // copying the tile directly will only work if there is no overlap;
+    // otherwise, we may be overwriting a previous tile
+    // (or the current tile may be overwritten by a subsequent tile)
+    boolean copyDirect =
+      rowLen == outputRowLen && overlapX == 0 && overlapY == 0;
+
+    List<TileCopy> tiles = new ArrayList<TileCopy>();
+
     for (int row=0; row<numTileRows; row++) {
       // make the first row shorter to account for row overlap
       if (row == 0) {
@@ -916,8 +1051,6 @@ public class TiffParser {
 
         if (!imageBounds.intersects(tileBounds)) continue;
 
-        getTile(ifd, cachedTileBuffer, row, col);
-
         // adjust tile bounds, if necessary
 
         int tileX = (int) Math.max(tileBounds.x, x);
@@ -934,37 +1067,263 @@ public class TiffParser {
           theight = (int) Math.max(endY - tileY, tileLength - realY);
         }
 
-        // copy appropriate portion of the tile to the output buffer
+        // work out which portion of the tile maps to the output buffer
+
+        TileCopy tile = new TileCopy();
+        tile.row = row;
+        tile.col = col;
+        tile.copy = pixel * twidth;
+        tile.height = theight;
+        tile.src = realX * pixel + realY * rowLen;
+        tile.dest = pixel * (tileX - x) + outputRowLen * (tileY - y);
+        if (planarConfig == 2) tile.dest += (planeSize * (row / nrows));
+        tile.channels = effectiveChannels;
+        tile.tileSize = tileSize;
+        tile.planeSize = planeSize;
+        tile.rowLen = rowLen;
+        tile.outputRowLen = outputRowLen;
+        tile.direct = copyDirect;
+        tiles.add(tile);
+      }
+    }
+
+    if (overlapX == 0 && overlapY == 0 && canReadDirectly(ifd)) {
+      readTilesDirectly(ifd, buf, tiles, bufferSize);
+      return buf;
+    }
 
-        int copy = pixel * twidth;
+    if (executor != null && tiles.size() > 1 &&
+      overlapX == 0 && overlapY == 0)
+    {
+      getTilesConcurrently(ifd, buf, tiles, bufferSize);
+      return buf;
+    }
 
-        realX *= pixel;
-        realY *= rowLen;
+    cachedTileBuffer = new byte[bufferSize];
 
-        for (int q=0; q<effectiveChannels; q++) {
-          int src = (int) (q * tileSize) + realX + realY;
-          int dest = (int) (q * planeSize) + pixel * (tileX - x) +
-            outputRowLen * (tileY - y);
-          if (planarConfig == 2) dest += (planeSize * (row / nrows));
+    for (TileCopy tile : tiles) {
+      getTile(ifd, cachedTileBuffer, tile.row, tile.col);
+      tile.copyTo(cachedTileBuffer, buf);
+    }
 
-          // copying the tile directly will only work if there is no overlap;
-          // otherwise, we may be overwriting a previous tile
-          // (or the current tile may be overwritten by a subsequent tile)
-          if (rowLen == outputRowLen && overlapX == 0 && overlapY == 0) {
-            System.arraycopy(cachedTileBuffer, src, buf, dest, copy * theight);
-          }
-          else {
-            for (int tileRow=0; tileRow<theight; tileRow++) {
-              System.arraycopy(cachedTileBuffer, src, buf, dest, copy);
-              src += rowLen;
-              dest += outputRowLen;
+    return buf;
+  }
+
+  /**
+   * Checks whether the stored tiles or strips of the given IFD can be copied
+   * byte for byte into the output buffer, i.e. whether decompression and
+   * unpacking would leave the data unchanged.
+   */
+  private boolean canReadDirectly(IFD ifd) throws FormatException {
+    TiffCompression compression = ifd.getCompression();
+    if (compression != TiffCompression.UNCOMPRESSED &&
+      compression != TiffCompression.DEFAULT_UNCOMPRESSED)
+    {
+      return false;
+    }
+    if (ifd.getSamplesPerPixel() > 1 && ifd.getPlanarConfiguration() != 2) {
+      // chunky samples are de-interleaved by unpackBytes
+      return false;
+    }
+    PhotoInterp photoInterp = ifd.getPhotometricInterpretation();
+    if (photoInterp == PhotoInterp.WHITE_IS_ZERO ||
+      photoInterp == PhotoInterp.CMYK || photoInterp == PhotoInterp.Y_CB_CR)
+    {
+      return false;
+    }
+    if (ifd.getIFDIntValue(IFD.PREDICTOR, 1) != 1) {
+      return false;
+    }
+    int[] bitsPerSample = ifd.getBitsPerSample();
+    for (int bits : bitsPerSample) {
+      if (bits != bitsPerSample[0] || (bits % 8) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the requested portion of each uncompressed tile straight from the
+   * input stream into the output buffer, without an intermediate tile buffer.
+   * Tiles that are adjacent both in the file and in the output buffer
+   * (typically consecutive full-width strips) are read with a single call,
+   * and rows of partial tiles are combined into reads of the stream's
+   * preferred block size.
+   */
+  private void readTilesDirectly(IFD ifd, byte[] buf, List<TileCopy> tiles,
+    int bufferSize)
+    throws FormatException, IOException
+  {
+    long tileWidth = ifd.getTileWidth();
+    long numTileCols = ifd.getTilesPerRow();
+    int pixel = ifd.getBytesPerSample()[0];
+    long[] stripByteCounts = ifd.getStripByteCounts();
+    long[] rowsPerStrip = ifd.getRowsPerStrip();
+    long length = in.length();
+
+    // pending run of contiguous bytes, not yet read
+    long runStart = 0;
+    int runDest = 0;
+    int runLength = 0;
+
+    for (TileCopy tile : tiles) {
+      int index = (int) (tile.row * numTileCols + tile.col);
+      long byteCount = stripByteCounts[equalStrips ? 0 : index];
+      if (byteCount == (rowsPerStrip[0] * tileWidth) && pixel > 1) {
+        byteCount *= pixel;
+      }
+      long offset = getStripOffset(ifd, index);
+      int needed = tile.src + (tile.height - 1) * tile.rowLen + tile.copy;
+
+      if (byteCount < needed || offset + needed > length) {
+        // truncated tile; let the regular decoding path deal with it
+        readRun(buf, runStart, runDest, runLength);
+        runLength = 0;
+        if (cachedTileBuffer == null || cachedTileBuffer.length < bufferSize) {
+          cachedTileBuffer = new byte[bufferSize];
+        }
+        getTile(ifd, cachedTileBuffer, tile.row, tile.col);
+        tile.copyTo(cachedTileBuffer, buf);
+      }
+      else if (tile.direct) {
+        long start = offset + tile.src;
+        int len = tile.copy * tile.height;
+        if (runLength > 0 && start == runStart + runLength &&
+          tile.dest == runDest + runLength)
+        {
+          runLength += len;
+        }
+        else {
+          readRun(buf, runStart, runDest, runLength);
+          runStart = start;
+          runDest = tile.dest;
+          runLength = len;
+        }
+      }
+      else {
+        readRun(buf, runStart, runDest, runLength);
+        runLength = 0;
+        in.seek(offset + tile.src);
+        in.readRows(buf, tile.dest, tile.copy, tile.height, tile.rowLen,
+          tile.outputRowLen);
+      }
+    }
+    readRun(buf, runStart, runDest, runLength);
+  }
+
+  /** Reads a run of contiguous bytes into the output buffer. */
+  private void readRun(byte[] buf, long start, int dest, int length)
+    throws IOException
+  {
+    if (length <= 0) return;
+    LOGGER.debug("Reading {} bytes directly from offset {}", length, start);
+    in.seek(start);
+    in.read(buf, dest, length);
+  }
+
+  /**
+   * Reads each of the given tiles from the input stream in file order,
+   * and decodes them on the configured executor.  Each decoded tile is
+   * copied into the output buffer by the worker that decoded it; the tiles
+   * must therefore not overlap.  If any tile fails, the tiles that have not
+   * started yet are skipped, and this method waits for the others to finish
+   * before throwing, so that the output buffer is not written to after it
+   * returns.
+   */
+  private void getTilesConcurrently(final IFD ifd, final byte[] buf,
+    List<TileCopy> tiles, final int bufferSize)
+    throws FormatException, IOException
+  {
+    long numTileCols = ifd.getTilesPerRow();
+    for (TileCopy tile : tiles) {
+      int index = (int) (tile.row * numTileCols + tile.col);
+      tile.offset = getStripOffset(ifd, index);
+    }
+    Collections.sort(tiles, new Comparator<TileCopy>() {
+      public int compare(TileCopy a, TileCopy b) {
+        return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+      }
+    });
+
+    TiffCompression compression = ifd.getCompression();
+    List<Future<Object>> decoded = new ArrayList<Future<Object>>();
+    final AtomicBoolean failed = new AtomicBoolean();
+    boolean success = false;
+    try {
+      for (final TileCopy tile : tiles) {
+        final byte[] raw = readTile(ifd, tile.row, tile.col);
+        if (raw == null) continue;
+
+        // each worker needs its own options, as maxBytes is set per tile
+        final CodecOptions options =
+          compression.getCompressionCodecOptions(ifd, codecOptions);
+        options.interleaved = true;
+        options.littleEndian = ifd.isLittleEndian();
+
+        decoded.add(executor.submit(new Callable<Object>() {
+          public Object call() throws FormatException, IOException {
+            if (failed.get()) return null;
+            byte[] tileBuffer = workerTileBuffer.get();
+            if (tileBuffer == null || tileBuffer.length != bufferSize) {
+              tileBuffer = new byte[bufferSize];
+              workerTileBuffer.set(tileBuffer);
             }
+            decodeTile(ifd, tileBuffer, raw, tile.row, options);
+            tile.copyTo(tileBuffer, buf);
+            return null;
           }
-        }
+        }));
+      }
+
+      for (Future<Object> f : decoded) {
+        f.get();
+      }
+      success = true;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding tiles", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) throw (FormatException) cause;
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new FormatException(cause);
+    }
+    finally {
+      if (!success) {
+        failed.set(true);
+        awaitTiles(decoded);
       }
     }
+  }
 
-    return buf;
+  /**
+   * Waits for each of the given tiles to finish decoding, ignoring any
+   * failures.  The calling thread's interrupt status is restored afterwards.
+   */
+  private static void awaitTiles(List<Future<Object>> decoded) {
+    boolean interrupted = Thread.interrupted();
+    for (Future<Object> f : decoded) {
+      while (true) {
+        try {
+          f.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          break;
+        }
+        catch (CancellationException e) {
+          break;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
   }
 
   // -- Utility methods - byte stream decoding --
@@ -977,6 +1336,17 @@ public class TiffParser {
    */
   public static void unpackBytes(byte[] samples, int startIndex, byte[] bytes,
     IFD ifd) throws FormatException
+  {
+    unpackBytes(samples, startIndex, bytes, bytes.length, ifd);
+  }
+
+  /**
+   * Extracts pixel information from the first <code>length</code> bytes of
+   * the given byte array.
+   * @see #unpackBytes(byte[], int, byte[], IFD)
+   */
+  public static void unpackBytes(byte[] samples, int startIndex, byte[] bytes,
+    int length, IFD ifd) throws FormatException
   {
     boolean planar = ifd.getPlanarConfiguration() == 2;
 
@@ -987,7 +1357,7 @@ public class TiffParser {
     int[] bitsPerSample = ifd.getBitsPerSample();
     int nChannels = bitsPerSample.length;
 
-    int sampleCount = (int) (((long) 8 * bytes.length) / bitsPerSample[0]);
+    int sampleCount = (int) (((long) 8 * length) / bitsPerSample[0]);
     if (photoInterp == PhotoInterp.Y_CB_CR) sampleCount *= 3;
     if (planar) {
       nChannels = 1;
@@ -999,7 +1369,7 @@ public class TiffParser {
     LOGGER.trace(
       "unpacking {} samples (startIndex={}; totalBits={}; numBytes={})",
       new Object[] {sampleCount, startIndex, nChannels * bitsPerSample[0],
-      bytes.length});
+      length});
 
     long imageWidth = ifd.getImageWidth();
     long imageHeight = ifd.getImageLength();
@@ -1023,11 +1393,11 @@ public class TiffParser {
     // semi-large datasets this can save **billions** of method calls.
     // Wed Aug  5 19:04:59 BST 2009
     // Chris Allan <callan@glencoesoftware.com>
-    if ((bps8 || bps16) && bytes.length <= samples.length && nChannels == 1
+    if ((bps8 || bps16) && length <= samples.length && nChannels == 1
         && photoInterp != PhotoInterp.WHITE_IS_ZERO
         && photoInterp != PhotoInterp.CMYK
         && photoInterp != PhotoInterp.Y_CB_CR) {
-      System.arraycopy(bytes, 0, samples, 0, bytes.length);
+      System.arraycopy(bytes, 0, samples, 0, length);
       return;
     }
 
@@ -1036,7 +1406,7 @@ public class TiffParser {
 
     int skipBits = (int) (8 - ((imageWidth * bps0 * nChannels) % 8));
     if (skipBits == 8 ||
-      (bytes.length * 8 < bps0 * (nChannels * imageWidth + imageHeight)))
+      (length * 8 < bps0 * (nChannels * imageWidth + imageHeight)))
     {
       skipBits = 0;
     }
@@ -1116,7 +1486,7 @@ public class TiffParser {
             int lumaIndex = sample + (2 * (sample / block));
             int chromaIndex = (sample / block) * (block + 2) + block;
 
-            if (chromaIndex + 1 >= bytes.length) break;
+            if (chromaIndex + 1 >= length) break;
 
             int tile = ndx / block;
             int pixel = ndx % block;
@@ -1193,4 +1563,36 @@ public class TiffParser {
     return new TiffIFDEntry(entryTag, entryType, valueCount, offset);
   }
 
+  // -- Helper classes --
+
+  /**
+   * Describes which portion of a decoded tile is copied into the output
+   * buffer of {@link #getSamples(IFD, byte[], int, int, long, long, int, int)}.
+   */
+  private static class TileCopy {
+    int row, col;
+    long offset;
+    int src, dest, copy, height;
+    int channels, tileSize, planeSize, rowLen, outputRowLen;
+    boolean direct;
+
+    void copyTo(byte[] tile, byte[] buf) {
+      for (int q=0; q<channels; q++) {
+        int srcIndex = q * tileSize + src;
+        int destIndex = q * planeSize + dest;
+
+        if (direct) {
+          System.arraycopy(tile, srcIndex, buf, destIndex, copy * height);
+        }
+        else {
+          for (int tileRow=0; tileRow<height; tileRow++) {
+            System.arraycopy(tile, srcIndex, buf, destIndex, copy);
+            srcIndex += rowLen;
+            destIndex += outputRowLen;
+          }
+        }
+      }
+    }
+  }
+
 }
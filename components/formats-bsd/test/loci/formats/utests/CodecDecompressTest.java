@@ -0,0 +1,248 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessInputStream;
+import loci.formats.codec.Codec;
+import loci.formats.codec.CodecOptions;
+import loci.formats.codec.LZWCodec;
+import loci.formats.codec.PackbitsCodec;
+import loci.formats.codec.PassthroughCodec;
+import loci.formats.codec.ZlibCodec;
+import loci.formats.codec.ZlibCodecOptions;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that decompressing into a caller-supplied array or ByteBuffer
+ * gives the same result as {@link Codec#decompress(byte[], CodecOptions)}.
+ */
+public class CodecDecompressTest {
+
+  private static final int SIZE = 65536;
+
+  private byte[] data;
+
+  @BeforeClass
+  public void setUp() {
+    data = new byte[SIZE];
+    Random r = new Random(SIZE);
+    for (int i=0; i<data.length; i++) {
+      data[i] = (byte) (r.nextInt(8) + i / 1024);
+    }
+  }
+
+  @DataProvider(name = "codecs")
+  public Object[][] createCodecs() {
+    return new Object[][] {
+      {new LZWCodec()}, {new ZlibCodec()}, {new PassthroughCodec()}
+    };
+  }
+
+  @Test(dataProvider = "codecs")
+  public void testDecompressIntoArray(Codec codec) throws Exception {
+    byte[] compressed = codec.compress(data, null);
+    CodecOptions options = getOptions(SIZE);
+    assertTrue(Arrays.equals(data, codec.decompress(compressed, options)));
+
+    byte[] src = new byte[compressed.length + 8];
+    System.arraycopy(compressed, 0, src, 3, compressed.length);
+    byte[] dst = new byte[SIZE + 5];
+    int n = codec.decompress(src, 3, compressed.length, dst, 5, options);
+    assertEquals(SIZE, n);
+    assertTrue(Arrays.equals(data, Arrays.copyOfRange(dst, 5, dst.length)));
+  }
+
+  @Test(dataProvider = "codecs")
+  public void testDecompressLimit(Codec codec) throws Exception {
+    byte[] compressed = codec.compress(data, null);
+    byte[] dst = new byte[SIZE];
+    int n = codec.decompress(compressed, 0, compressed.length, dst, 0,
+      getOptions(SIZE / 2));
+    assertEquals(SIZE / 2, n);
+    assertTrue(Arrays.equals(Arrays.copyOf(data, n), Arrays.copyOf(dst, n)));
+    assertEquals(0, dst[SIZE / 2]);
+  }
+
+  @Test(dataProvider = "codecs")
+  public void testDecompressByteBuffer(Codec codec) throws Exception {
+    byte[] compressed = codec.compress(data, null);
+    CodecOptions options = getOptions(SIZE);
+
+    ByteBuffer src = ByteBuffer.wrap(compressed);
+    ByteBuffer dst = ByteBuffer.allocateDirect(SIZE);
+    assertEquals(SIZE, codec.decompress(src, dst, options));
+    assertEquals(src.limit(), src.position());
+    assertEquals(SIZE, dst.position());
+
+    byte[] result = new byte[SIZE];
+    dst.flip();
+    dst.get(result);
+    assertTrue(Arrays.equals(data, result));
+  }
+
+  @Test
+  public void testLZWStreamPosition() throws Exception {
+    Codec codec = new LZWCodec();
+    byte[] compressed = codec.compress(data, null);
+    byte[] stream = Arrays.copyOf(compressed, compressed.length + 16);
+    RandomAccessInputStream in = new RandomAccessInputStream(stream);
+    try {
+      byte[] result = codec.decompress(in, getOptions(SIZE));
+      assertTrue(Arrays.equals(data, result));
+      // decoding stops when the output is full, so the end of information
+      // code may not have been read; nothing past it should have been read
+      assertTrue(in.getFilePointer() <= compressed.length);
+      assertTrue(in.getFilePointer() >= compressed.length - 2);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testLZWStreamChunks() throws Exception {
+    // random data does not compress, so the input spans several chunks
+    byte[] noise = new byte[SIZE * 4];
+    new Random(noise.length).nextBytes(noise);
+    Codec codec = new LZWCodec();
+    byte[] compressed = codec.compress(noise, null);
+    byte[] stream = Arrays.copyOf(compressed, compressed.length + 16);
+    ReadRecordingHandle handle = new ReadRecordingHandle(stream);
+    RandomAccessInputStream in = new RandomAccessInputStream(handle);
+    try {
+      byte[] result = codec.decompress(in, getOptions(noise.length));
+      assertTrue(Arrays.equals(noise, result));
+      assertTrue(handle.maxRead <= SIZE);
+      assertTrue(in.getFilePointer() <= compressed.length);
+      assertTrue(in.getFilePointer() >= compressed.length - 2);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testZlibOptions() throws Exception {
+    Codec codec = new ZlibCodec();
+    ZlibCodecOptions options = ZlibCodecOptions.getDefaultOptions();
+    options.level = Deflater.NO_COMPRESSION;
+    byte[] stored = codec.compress(data, options);
+    assertTrue(stored.length > SIZE);
+    assertTrue(Arrays.equals(data, codec.decompress(stored, options)));
+
+    options.level = Deflater.BEST_COMPRESSION;
+    options.strategy = Deflater.HUFFMAN_ONLY;
+    byte[] compressed = codec.compress(data, options);
+    assertTrue(compressed.length < SIZE);
+    assertTrue(Arrays.equals(data, codec.decompress(compressed, options)));
+
+    // the level and strategy must not leak into later default compression
+    assertTrue(Arrays.equals(codec.compress(data, null),
+      new ZlibCodec().compress(data, getOptions(SIZE))));
+  }
+
+  @Test
+  public void testZlibStreamPosition() throws Exception {
+    Codec codec = new ZlibCodec();
+    byte[] compressed = codec.compress(data, null);
+    byte[] stream = Arrays.copyOf(compressed, compressed.length + 16);
+    // the size hint is used if given, but is not required
+    int[] maxBytes = {SIZE, 0};
+    for (int i=0; i<maxBytes.length; i++) {
+      RandomAccessInputStream in = new RandomAccessInputStream(stream);
+      try {
+        byte[] result = codec.decompress(in, getOptions(maxBytes[i]));
+        assertTrue(Arrays.equals(data, result));
+        assertEquals(compressed.length, in.getFilePointer());
+      }
+      finally {
+        in.close();
+      }
+    }
+  }
+
+  @Test
+  public void testPackbits() throws Exception {
+    // literal run of 3 bytes, 4 copies of 9, no-op, literal run of 1 byte
+    byte[] compressed = {2, 1, 2, 3, -3, 9, -128, 0, 7};
+    byte[] expected = {1, 2, 3, 9, 9, 9, 9, 7};
+    Codec codec = new PackbitsCodec();
+    CodecOptions options = getOptions(expected.length);
+    assertTrue(Arrays.equals(expected, codec.decompress(compressed, options)));
+
+    byte[] dst = new byte[expected.length];
+    int n = codec.decompress(compressed, 0, compressed.length, dst, 0,
+      options);
+    assertEquals(expected.length, n);
+    assertTrue(Arrays.equals(expected, dst));
+  }
+
+  private CodecOptions getOptions(int maxBytes) {
+    CodecOptions options = new CodecOptions();
+    options.maxBytes = maxBytes;
+    return options;
+  }
+
+  /** Handle that records the largest number of bytes read at once. */
+  private static class ReadRecordingHandle extends ByteArrayHandle {
+    private int maxRead;
+
+    public ReadRecordingHandle(byte[] bytes) {
+      super(bytes);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      maxRead = Math.max(maxRead, len);
+      return super.read(b, off, len);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+      maxRead = Math.max(maxRead, len);
+      super.readFully(b, off, len);
+    }
+  }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Location;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.ChannelSeparator;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.in.FakeReader;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that
+ * {@link IFormatReader#openBytes(int, int, int, byte[], int, int, int, int)}
+ * returns the same pixels as the current series API when called from
+ * several threads on a single reader.
+ */
+public class ConcurrentOpenBytesTest {
+
+  private static final String FAKE_FILE =
+    "test&pixelType=uint16&sizeX=64&sizeY=48&sizeZ=3&sizeC=2&series=3.fake";
+
+  private static final String TIFF_FILE = "concurrent.tif";
+
+  private static final int TIFF_WIDTH = 64;
+
+  private static final int TIFF_LENGTH = 48;
+
+  private static final int TIFF_PLANES = 6;
+
+  private static final int THREADS = 4;
+
+  private ExecutorService executor;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    Location.mapId(FAKE_FILE, FAKE_FILE);
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+    Location.mapFile(TIFF_FILE, null);
+  }
+
+  @Test
+  public void testFakeReader() throws Exception {
+    FakeReader reader = new FakeReader();
+    reader.setId(FAKE_FILE);
+    try {
+      checkReader(reader);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testWrapper() throws Exception {
+    ChannelSeparator reader = new ChannelSeparator(new FakeReader());
+    reader.setId(FAKE_FILE);
+    try {
+      checkReader(reader);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testMinimalTiffReader() throws Exception {
+    writeTiff(TiffCompression.UNCOMPRESSED);
+    checkTiff();
+  }
+
+  @Test
+  public void testCompressedMinimalTiffReader() throws Exception {
+    writeTiff(TiffCompression.LZW);
+    checkTiff();
+  }
+
+  @Test(expectedExceptions={IllegalArgumentException.class})
+  public void testInvalidSeries() throws Exception {
+    FakeReader reader = new FakeReader();
+    reader.setId(FAKE_FILE);
+    try {
+      reader.openBytes(3, 0, 0, new byte[0], 0, 0, 1, 1);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  // -- Helper methods --
+
+  private void checkTiff() throws Exception {
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setId(TIFF_FILE);
+    try {
+      checkReader(reader);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads every plane of every series on the executor, in quarters, and
+   * compares the results to the planes read through the current series.
+   * The expected planes are all read first, as the series cursor may not
+   * be moved while another thread is reading.
+   */
+  private void checkReader(final IFormatReader reader) throws Exception {
+    int seriesCount = reader.getSeriesCount();
+    int[] widths = new int[seriesCount];
+    int[] heights = new int[seriesCount];
+    int[] sizes = new int[seriesCount];
+    int[] planes = new int[seriesCount];
+    List<byte[]> expected = new ArrayList<byte[]>();
+    for (int s=0; s<seriesCount; s++) {
+      reader.setSeries(s);
+      widths[s] = reader.getSizeX() / 2;
+      heights[s] = reader.getSizeY() / 2;
+      sizes[s] = FormatTools.getPlaneSize(reader, widths[s], heights[s]);
+      planes[s] = reader.getImageCount();
+      for (int no=0; no<planes[s]; no++) {
+        for (int tile=0; tile<4; tile++) {
+          expected.add(reader.openBytes(no, (tile % 2) * widths[s],
+            (tile / 2) * heights[s], widths[s], heights[s]));
+        }
+      }
+    }
+    int last = seriesCount - 1;
+    reader.setSeries(last);
+
+    List<Future<byte[]>> actual = new ArrayList<Future<byte[]>>();
+    for (int s=0; s<seriesCount; s++) {
+      final int series = s;
+      final int w = widths[s];
+      final int h = heights[s];
+      final int size = sizes[s];
+      for (int no=0; no<planes[s]; no++) {
+        for (int tile=0; tile<4; tile++) {
+          final int plane = no;
+          final int x = (tile % 2) * w;
+          final int y = (tile / 2) * h;
+          actual.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+              return reader.openBytes(series, 0, plane, new byte[size],
+                x, y, w, h);
+            }
+          }));
+        }
+      }
+    }
+    for (int i=0; i<expected.size(); i++) {
+      assertTrue(Arrays.equals(expected.get(i), actual.get(i).get()));
+    }
+    assertEquals(last, reader.getSeries());
+  }
+
+  /** Writes a little-endian uint16 TIFF and maps it to TIFF_FILE. */
+  private void writeTiff(TiffCompression compression) throws Exception {
+    ByteArrayHandle handle = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(handle);
+    TiffSaver saver = new TiffSaver(out, handle);
+    saver.setLittleEndian(true);
+    saver.writeHeader();
+    for (int no=0; no<TIFF_PLANES; no++) {
+      byte[] plane = new byte[TIFF_WIDTH * TIFF_LENGTH * 2];
+      for (int i=0; i<plane.length; i++) {
+        plane[i] = (byte) (i * (no + 1) / 7);
+      }
+      IFD ifd = new IFD();
+      ifd.put(IFD.IMAGE_WIDTH, TIFF_WIDTH);
+      ifd.put(IFD.IMAGE_LENGTH, TIFF_LENGTH);
+      ifd.put(IFD.ROWS_PER_STRIP, new long[] {8});
+      ifd.put(IFD.COMPRESSION, compression.getCode());
+      ifd.put(IFD.LITTLE_ENDIAN, Boolean.TRUE);
+      saver.writeImage(plane, ifd, no, FormatTools.UINT16,
+        no == TIFF_PLANES - 1);
+    }
+    out.close();
+    Location.mapFile(TIFF_FILE, handle);
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import loci.formats.FormatSignature;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.FormatSignature}.
+ */
+public class FormatSignatureTest {
+
+  /** Little-endian TIFF header whose first IFD has tags 256 and 34118. */
+  private static final byte[] TIFF_HEADER = new byte[] {
+    'I', 'I', 42, 0, 8, 0, 0, 0,
+    2, 0,
+    0x00, 0x01, 3, 0, 1, 0, 0, 0, 64, 0, 0, 0,
+    0x46, (byte) 0x85, 3, 0, 1, 0, 0, 0, 0, 0, 0, 0,
+    0, 0, 0, 0
+  };
+
+  @Test
+  public void testMagic() {
+    FormatSignature s = FormatSignature.magic(2, "AB", "CD");
+    assertTrue(s.matches(bytes("xxABxx"), 6));
+    assertTrue(s.matches(bytes("xxCDxx"), 6));
+    assertFalse(s.matches(bytes("xxBAxx"), 6));
+    assertFalse(s.matches(bytes("ABxxxx"), 6));
+  }
+
+  @Test
+  public void testShortHeader() {
+    FormatSignature s = FormatSignature.magic(4, "AB");
+    // the header is too short to tell, but the file is long enough
+    assertTrue(s.matches(bytes("xxx"), 100));
+    // the file itself is too short
+    assertFalse(s.matches(bytes("xxx"), 3));
+  }
+
+  @Test
+  public void testSearch() {
+    FormatSignature s = FormatSignature.search(8, "HDF");
+    assertTrue(s.matches(bytes("\u0089HDF\r\n\u001a\n"), 8));
+    assertTrue(s.matches(bytes("xxxxxHDF"), 8));
+    assertFalse(s.matches(bytes("xxxxxxHDF"), 9));
+    assertTrue(s.matches(bytes("xxxx"), 100));
+  }
+
+  @Test
+  public void testTiff() {
+    assertTrue(FormatSignature.TIFF.matches(TIFF_HEADER, 1000));
+    assertTrue(FormatSignature.TIFF.matches(bytes("MM\u0000*"), 4));
+    assertTrue(FormatSignature.TIFF.matches(bytes("II+\u0000"), 16));
+    assertFalse(FormatSignature.TIFF.matches(bytes("IM*\u0000"), 4));
+    assertFalse(FormatSignature.TIFF.matches(bytes("II\u0000*"), 4));
+  }
+
+  @Test
+  public void testTiffTags() {
+    assertTrue(FormatSignature.tiff(34118).matches(TIFF_HEADER, 1000));
+    assertTrue(FormatSignature.tiff(1, 256).matches(TIFF_HEADER, 1000));
+    assertFalse(FormatSignature.tiff(34680).matches(TIFF_HEADER, 1000));
+
+    // the first IFD is not within the header
+    byte[] truncated = new byte[16];
+    System.arraycopy(TIFF_HEADER, 0, truncated, 0, truncated.length);
+    assertTrue(FormatSignature.tiff(34680).matches(truncated, 1000));
+  }
+
+  private static byte[] bytes(String s) {
+    byte[] b = new byte[s.length()];
+    for (int i=0; i<b.length; i++) {
+      b[i] = (byte) s.charAt(i);
+    }
+    return b;
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Constants;
+import loci.common.Location;
+import loci.common.RandomAccessInputStream;
+import loci.formats.ClassList;
+import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ImageReader} rules out readers whose signatures do not
+ * match the header of a file without calling their isThisType methods,
+ * unless they override the file name checks in {@link FormatReader}.
+ */
+public class ImageReaderSignatureTest {
+
+  private static final String MATCHING = "matching.sig";
+
+  private static final String OTHER = "other.sig";
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    SignatureReader.streamChecks = 0;
+    Location.mapFile(MATCHING, new ByteArrayHandle(
+      "SIG!0123456789".getBytes(Constants.ENCODING)));
+    Location.mapFile(OTHER, new ByteArrayHandle(
+      "NONE0123456789".getBytes(Constants.ENCODING)));
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Location.mapFile(MATCHING, null);
+    Location.mapFile(OTHER, null);
+  }
+
+  @Test
+  public void testSignatureMatches() {
+    ImageReader reader = createReader(SignatureReader.class);
+    assertTrue(reader.isThisType(MATCHING, true));
+    assertEquals(1, SignatureReader.streamChecks);
+  }
+
+  @Test
+  public void testSignatureDoesNotMatch() {
+    ImageReader reader = createReader(SignatureReader.class);
+    assertFalse(reader.isThisType(OTHER, true));
+    assertEquals(0, SignatureReader.streamChecks);
+  }
+
+  @Test
+  public void testOverriddenNameCheck() {
+    ImageReader reader = createReader(OverridingReader.class);
+    assertTrue(reader.isThisType(OTHER, true));
+  }
+
+  // -- Helper methods --
+
+  private ImageReader createReader(Class<? extends IFormatReader> c) {
+    ClassList<IFormatReader> classes =
+      new ClassList<IFormatReader>(IFormatReader.class);
+    classes.addClass(c);
+    return new ImageReader(classes);
+  }
+
+  // -- Helper classes --
+
+  /**
+   * Reader that declares a signature, and counts how often it checks the
+   * contents of a file.  The check itself accepts any file, so that it is
+   * only passed over if the signature is used.
+   */
+  public static class SignatureReader extends FormatReader {
+    static int streamChecks;
+
+    public SignatureReader() {
+      super("Signature", "sig");
+      suffixSufficient = false;
+      signatures = new FormatSignature[] {FormatSignature.magic(0, "SIG!")};
+    }
+
+    public boolean isThisType(RandomAccessInputStream stream) {
+      streamChecks++;
+      return true;
+    }
+
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h) {
+      return buf;
+    }
+  }
+
+  /**
+   * Reader that declares the same signature, but replaces the file name
+   * checks, so its signature must not be used to rule it out.
+   */
+  public static class OverridingReader extends SignatureReader {
+    public boolean isThisType(String name, boolean open) {
+      return true;
+    }
+  }
+
+}
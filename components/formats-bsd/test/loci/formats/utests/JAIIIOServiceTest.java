@@ -50,7 +50,9 @@ import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
+import loci.common.Region;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
@@ -94,6 +96,36 @@ public class JAIIIOServiceTest {
     return stream;
   }
 
+  private BufferedImage makeImage() {
+    return makeImage(SIZE_X, SIZE_Y);
+  }
+
+  private BufferedImage makeImage(int width, int height) {
+    // NB: packed int samples do not survive a lossless round trip
+    BufferedImage image =
+      new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    for (int y=0; y<height; y++) {
+      for (int x=0; x<width; x++) {
+        image.setRGB(x, y, (x * 0x030201) ^ (y * 0x010305));
+      }
+    }
+    return image;
+  }
+
+  private byte[] writeTiledImage(BufferedImage image, int threadCount)
+    throws IOException, ServiceException {
+    JPEG2000CodecOptions options = JPEG2000CodecOptions.getDefaultOptions();
+    options.lossless = true;
+    options.codeBlockSize = CODE_BLOCK;
+    options.tileWidth = 16;
+    options.tileHeight = 32;
+    options.threadCount = threadCount;
+    options.progressionType = "res";
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    service.writeImage(stream, image, options);
+    return stream.toByteArray();
+  }
+
   private ByteArrayOutputStream assertWriteImageLossy()
     throws IOException, ServiceException {
     JPEG2000CodecOptions options = JPEG2000CodecOptions.getDefaultOptions();
@@ -278,6 +310,92 @@ public class JAIIIOServiceTest {
     assertEquals(SIZE_Y, image.getHeight());
   }
 
+  @Test
+  public void testWriteTiledImageMultiThreaded()
+    throws IOException, ServiceException {
+    BufferedImage image = makeImage();
+    byte[] single = writeTiledImage(image, 1);
+    byte[] multi = writeTiledImage(image, 4);
+    assertTrue(Arrays.equals(single, multi));
+
+    Raster raster = service.readRaster(new ByteArrayInputStream(multi));
+    assertEquals(SIZE_X, raster.getWidth());
+    assertEquals(SIZE_Y, raster.getHeight());
+    assertTrue(Arrays.equals(
+      image.getRaster().getPixels(0, 0, SIZE_X, SIZE_Y, (int[]) null),
+      raster.getPixels(0, 0, SIZE_X, SIZE_Y, (int[]) null)));
+  }
+
+  @Test
+  public void testWriteUntiledImageMultiThreaded()
+    throws IOException, ServiceException {
+    int width = JPEG2000CodecOptions.DEFAULT_TILE_SIZE + 8;
+    int height = 24;
+    BufferedImage image = makeImage(width, height);
+
+    JPEG2000CodecOptions options = JPEG2000CodecOptions.getDefaultOptions();
+    options.lossless = true;
+    options.codeBlockSize = CODE_BLOCK;
+    options.threadCount = 2;
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    service.writeImage(stream, image, options);
+    byte[] multi = stream.toByteArray();
+
+    // an untiled multi-threaded encode is tiled at the default tile size
+    options.threadCount = 1;
+    options.tileWidth = JPEG2000CodecOptions.DEFAULT_TILE_SIZE;
+    options.tileHeight = JPEG2000CodecOptions.DEFAULT_TILE_SIZE;
+    stream = new ByteArrayOutputStream();
+    service.writeImage(stream, image, options);
+    assertTrue(Arrays.equals(stream.toByteArray(), multi));
+
+    Raster raster = service.readRaster(new ByteArrayInputStream(multi));
+    assertEquals(width, raster.getWidth());
+    assertEquals(height, raster.getHeight());
+    assertTrue(Arrays.equals(
+      image.getRaster().getPixels(0, 0, width, height, (int[]) null),
+      raster.getPixels(0, 0, width, height, (int[]) null)));
+  }
+
+  @Test
+  public void testReadRasterRegion() throws IOException, ServiceException {
+    BufferedImage image = makeImage();
+    byte[] stream = writeTiledImage(image, 1);
+    JPEG2000CodecOptions options = JPEG2000CodecOptions.getDefaultOptions();
+    options.region = new Region(10, 20, 30, 40);
+    Raster raster =
+      service.readRaster(new ByteArrayInputStream(stream), options);
+    assertEquals(30, raster.getWidth());
+    assertEquals(40, raster.getHeight());
+    assertTrue(Arrays.equals(
+      image.getRaster().getPixels(10, 20, 30, 40, (int[]) null),
+      raster.getPixels(raster.getMinX(), raster.getMinY(), 30, 40,
+        (int[]) null)));
+  }
+
+  @Test
+  public void testReadRasterRegionLevel1()
+    throws IOException, ServiceException {
+    BufferedImage image = makeImage();
+    byte[] stream = writeTiledImage(image, 1);
+    JPEG2000CodecOptions options = JPEG2000CodecOptions.getDefaultOptions();
+    options.resolution = 1;
+    Raster full =
+      service.readRaster(new ByteArrayInputStream(stream), options);
+    assertEquals(4, full.getWidth());
+    assertEquals(6, full.getHeight());
+
+    options.region = new Region(1, 2, 2, 3);
+    Raster raster =
+      service.readRaster(new ByteArrayInputStream(stream), options);
+    assertEquals(2, raster.getWidth());
+    assertEquals(3, raster.getHeight());
+    assertTrue(Arrays.equals(
+      full.getPixels(1, 2, 2, 3, (int[]) null),
+      raster.getPixels(raster.getMinX(), raster.getMinY(), 2, 3,
+        (int[]) null)));
+  }
+
   @Test(expectedExceptions={IllegalArgumentException.class})
   public void testWriteFloatingPointLossy() throws Exception {
     // The JAI ImageIO JPEG-2000 codec does not support floating point data.
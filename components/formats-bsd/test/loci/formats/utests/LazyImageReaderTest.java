@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import loci.formats.ClassList;
+import loci.formats.FormatReader;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.ReaderSuffixIndex;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a lazy {@link ImageReader} only instantiates the readers that
+ * are needed to detect a file, using a {@link ReaderSuffixIndex}.
+ */
+public class LazyImageReaderTest {
+
+  private ClassList<IFormatReader> classes;
+
+  private ReaderSuffixIndex index;
+
+  @BeforeMethod
+  public void setUp() {
+    RequiredSuffixReader.instances = 0;
+    OptionalSuffixReader.instances = 0;
+
+    classes = new ClassList<IFormatReader>(IFormatReader.class);
+    classes.addClass(RequiredSuffixReader.class);
+    classes.addClass(OptionalSuffixReader.class);
+    classes.addClass(FakeReader.class);
+
+    index = new ReaderSuffixIndex();
+    index.add(RequiredSuffixReader.class.getName(),
+      new String[] {"required", "ome.required"}, true);
+    index.add(OptionalSuffixReader.class.getName(),
+      new String[] {"optional"}, false);
+  }
+
+  @Test
+  public void testRequiredSuffixNotMatched() throws Exception {
+    ImageReader reader = new ImageReader(classes, index);
+    assertTrue(reader.isLazy());
+    IFormatReader fake = reader.getReader("test.fake");
+    assertTrue(fake instanceof FakeReader);
+    assertEquals(0, RequiredSuffixReader.instances);
+
+    // readers that do not require a suffix must still be checked
+    assertEquals(1, OptionalSuffixReader.instances);
+  }
+
+  @Test
+  public void testRequiredSuffixMatched() {
+    ImageReader reader = new ImageReader(classes, index);
+    assertTrue(reader.isThisType("TEST.OME.REQUIRED", false));
+    assertEquals(1, RequiredSuffixReader.instances);
+    assertEquals(0, OptionalSuffixReader.instances);
+  }
+
+  @Test
+  public void testCompressedSuffix() {
+    ImageReader reader = new ImageReader(classes, index);
+    assertTrue(reader.isThisType("test.required.gz", false));
+    assertEquals(1, RequiredSuffixReader.instances);
+  }
+
+  @Test
+  public void testNotInIndex() {
+    ImageReader reader = new ImageReader(classes, new ReaderSuffixIndex());
+    assertFalse(reader.isThisType("test.unknown", false));
+    assertEquals(1, RequiredSuffixReader.instances);
+    assertEquals(1, OptionalSuffixReader.instances);
+  }
+
+  @Test
+  public void testGetSuffixes() {
+    ImageReader reader = new ImageReader(classes, index);
+    List<String> suffixes = Arrays.asList(reader.getSuffixes());
+    assertTrue(suffixes.containsAll(
+      Arrays.asList("required", "ome.required", "optional", "fake")));
+    assertEquals(0, RequiredSuffixReader.instances);
+    assertEquals(0, OptionalSuffixReader.instances);
+  }
+
+  @Test
+  public void testSettingsApplied() {
+    ImageReader reader = new ImageReader(classes, index);
+    reader.setNormalized(true);
+    reader.setGroupFiles(false);
+    assertEquals(0, RequiredSuffixReader.instances);
+
+    IFormatReader required = reader.getReader(RequiredSuffixReader.class);
+    assertEquals(1, RequiredSuffixReader.instances);
+    assertTrue(required.isNormalized());
+    assertFalse(required.isGroupFiles());
+  }
+
+  @Test
+  public void testMatchingReaders() {
+    assertEquals(new HashSet<String>(Arrays.asList(
+      RequiredSuffixReader.class.getName())),
+      index.getMatchingReaders("a.b.ome.required.bz2"));
+    assertTrue(index.getMatchingReaders("test.optional").isEmpty());
+    assertTrue(index.getMatchingReaders("required").isEmpty());
+  }
+
+  // -- Helper classes --
+
+  /** Reader that counts its instances, and requires its suffixes. */
+  public static class RequiredSuffixReader extends FormatReader {
+    static int instances;
+
+    public RequiredSuffixReader() {
+      super("Required suffix", new String[] {"required", "ome.required"});
+      instances++;
+    }
+
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h) {
+      return buf;
+    }
+  }
+
+  /** Reader that counts its instances, and does not require its suffix. */
+  public static class OptionalSuffixReader extends FormatReader {
+    static int instances;
+
+    public OptionalSuffixReader() {
+      super("Optional suffix", "optional");
+      suffixNecessary = false;
+      suffixSufficient = false;
+      instances++;
+    }
+
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h) {
+      return buf;
+    }
+  }
+
+}
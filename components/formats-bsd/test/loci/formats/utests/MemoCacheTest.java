@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import loci.formats.MemoCache;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.MemoCache}.
+ */
+public class MemoCacheTest {
+
+  private static final long HOUR = 60 * 60 * 1000;
+
+  private File directory;
+
+  private MemoCache cache;
+
+  private long now;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = File.createTempFile("memocache", "");
+    directory.delete();
+    cache = new MemoCache(directory);
+    now = System.currentTimeMillis();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    delete(directory);
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws IOException {
+    File oldest = createFile("a/.oldest.bfmemo", 100, now - 3 * HOUR);
+    File middle = createFile("b/.middle.bfmemo", 100, now - 2 * HOUR);
+    File newest = createFile(".newest.bfmemo", 100, now - HOUR);
+
+    cache.setMaxSize(250);
+    assertEquals(1, cache.evict());
+    assertFalse(oldest.exists());
+    assertTrue(middle.exists());
+    assertTrue(newest.exists());
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testNoMaximumSize() throws IOException {
+    File memo = createFile(".memo.bfmemo", 1000, now - 3 * HOUR);
+    assertEquals(0, cache.evict());
+    assertTrue(memo.exists());
+  }
+
+  @Test
+  public void testEvictExpired() throws IOException {
+    File expired = createFile(".expired.bfmemo", 10, now - 3 * HOUR);
+    File recent = createFile(".recent.bfmemo", 10, now);
+
+    cache.setMaxAge(2 * HOUR);
+    assertEquals(1, cache.evict());
+    assertFalse(expired.exists());
+    assertTrue(recent.exists());
+  }
+
+  @Test
+  public void testAbandonedTemporaryFiles() throws IOException {
+    File abandoned = createFile(".a.bfmemo123", 10, now - 2 * HOUR);
+    File saving = createFile(".b.bfmemo456", 10, now);
+    cache.evict();
+    assertFalse(abandoned.exists());
+    assertTrue(saving.exists());
+    assertTrue(new File(directory, MemoCache.LOCK_FILE).exists());
+  }
+
+  @Test
+  public void testSavedEvicts() throws IOException {
+    cache.setMaxSize(150);
+    File first = createFile(".first.bfmemo", 100, now - HOUR);
+    cache.saved(first);
+    assertTrue(first.exists());
+    File second = createFile(".second.bfmemo", 100, now);
+    cache.saved(second);
+    assertFalse(first.exists());
+    assertTrue(second.exists());
+    assertEquals(2, cache.getSaves());
+  }
+
+  @Test
+  public void testResavedMemoCountedOnce() throws IOException {
+    File memo = createFile(".memo.bfmemo", 100, now);
+    cache.saved(memo);
+    assertEquals(100, cache.getCurrentSize());
+    cache.saved(memo, 100);
+    assertEquals(100, cache.getCurrentSize());
+    File other = createFile(".other.bfmemo", 50, now);
+    cache.saved(other);
+    assertEquals(150, cache.getCurrentSize());
+  }
+
+  @Test
+  public void testSharedDirectory() throws Exception {
+    // evicting concurrently through two instances must not fail with an
+    // OverlappingFileLockException
+    for (int i=0; i<10; i++) {
+      createFile(".memo" + i + ".bfmemo", 10, now - i * HOUR);
+    }
+    final MemoCache[] caches = {cache, new MemoCache(directory)};
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[caches.length];
+    for (int t=0; t<threads.length; t++) {
+      final MemoCache c = caches[t];
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            for (int i=0; i<200; i++) {
+              c.evict();
+            }
+          }
+          catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(null, failure[0]);
+  }
+
+  @Test
+  public void testCounters() throws IOException {
+    File memo = createFile(".memo.bfmemo", 10, now - HOUR);
+    cache.miss(5);
+    cache.hit(memo, 2);
+    cache.hit(memo, 3);
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(10, cache.getLoadTime());
+    assertTrue(memo.lastModified() > now - HOUR);
+
+    cache.resetCounters();
+    assertEquals(0, cache.getHits());
+    assertEquals(0, cache.getMisses());
+    assertEquals(0, cache.getLoadTime());
+  }
+
+  private File createFile(String name, int length, long lastModified)
+    throws IOException
+  {
+    File f = new File(directory, name);
+    f.getParentFile().mkdirs();
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(new byte[length]);
+    }
+    finally {
+      out.close();
+    }
+    f.setLastModified(lastModified);
+    return f;
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+
+}
@@ -38,15 +38,20 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Hashtable;
 import java.util.List;
 
 import loci.common.Location;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
 import loci.formats.Memoizer;
 import loci.formats.MinMaxCalculator;
 import loci.formats.in.FakeReader;
 import loci.formats.meta.IMinMaxStore;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
 
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -59,6 +64,9 @@ public class MemoizerTest {
   private static final String TEST_FILE =
     "test&pixelType=int8&sizeX=20&sizeY=20&sizeC=1&sizeZ=1&sizeT=1.fake";
 
+  private static final String SERIES_FILE =
+    "test&pixelType=uint16&sizeX=16&sizeY=8&sizeZ=3&sizeC=2&series=2.fake";
+
   private FakeReader reader;
 
   private Memoizer memoizer;
@@ -113,6 +121,199 @@ public class MemoizerTest {
       memoizer.close();
   }
 
+  @Test
+  public void testBinaryDeser() throws Exception {
+    File directory = File.createTempFile("memoizer", "");
+    directory.delete();
+    directory.mkdirs();
+    try {
+      memoizer = new Memoizer(reader, 0, directory) {
+        private Deser ser;
+
+        protected Deser getDeser() {
+          if (ser == null) {
+            ser = new BinaryDeser();
+          }
+          return ser;
+        }
+      };
+      memoizer.setId(TEST_FILE);
+      assertTrue(memoizer.isSavedToMemo());
+      assertFalse(memoizer.isLoadedFromMemo());
+      Hashtable<String, Object> global =
+        new Hashtable<String, Object>(memoizer.getGlobalMetadata());
+      int imageCount = memoizer.getImageCount();
+      memoizer.close();
+
+      memoizer.setId(TEST_FILE);
+      assertTrue(memoizer.isLoadedFromMemo());
+      assertEquals(imageCount, memoizer.getImageCount());
+      assertEquals(global, memoizer.getGlobalMetadata());
+      assertEquals(planeSize, memoizer.openBytes(0).length);
+      memoizer.close();
+    }
+    finally {
+      File memo = memoizer.getMemoFile(TEST_FILE);
+      if (memo != null) {
+        memo.delete();
+      }
+    }
+  }
+
+  @Test
+  public void testBinaryDeserMetadata() throws Exception {
+    File directory = File.createTempFile("memoizer", "");
+    directory.delete();
+    directory.mkdirs();
+    try {
+      memoizer = new Memoizer(new MetadataFakeReader(), 0, directory) {
+        private Deser ser;
+
+        protected Deser getDeser() {
+          if (ser == null) {
+            ser = new BinaryDeser();
+          }
+          return ser;
+        }
+      };
+      memoizer.setId(SERIES_FILE);
+      assertTrue(memoizer.isSavedToMemo());
+      List<Object> core = getCoreState(memoizer);
+      Hashtable<String, Object> global =
+        new Hashtable<String, Object>(memoizer.getGlobalMetadata());
+      String xml = ((OMEXMLMetadata) memoizer.getMetadataStore()).dumpXML();
+      memoizer.close();
+
+      memoizer.setId(SERIES_FILE);
+      assertTrue(memoizer.isLoadedFromMemo());
+      assertEquals(core, getCoreState(memoizer));
+      assertEquals(global, memoizer.getGlobalMetadata());
+      assertEquals(xml,
+        ((OMEXMLMetadata) memoizer.getMetadataStore()).dumpXML());
+
+      // the tables of the wrapped reader are decoded as well
+      IFormatReader unwrapped = memoizer.unwrap();
+      assertEquals(global, unwrapped.getGlobalMetadata());
+      assertEquals(core, getCoreState(unwrapped));
+      memoizer.close();
+    }
+    finally {
+      File memo = memoizer.getMemoFile(SERIES_FILE);
+      if (memo != null) {
+        memo.delete();
+      }
+    }
+  }
+
+  @Test
+  public void testBinaryDeserIFDs() throws Exception {
+    File directory = File.createTempFile("memoizer", "");
+    directory.delete();
+    directory.mkdirs();
+    try {
+      memoizer = new Memoizer(new IFDFakeReader(), 0, directory) {
+        private Deser ser;
+
+        protected Deser getDeser() {
+          if (ser == null) {
+            ser = new BinaryDeser();
+          }
+          return ser;
+        }
+      };
+      memoizer.setId(TEST_FILE);
+      assertTrue(memoizer.isSavedToMemo());
+      IFDList saved = ((IFDFakeReader) memoizer.unwrap()).ifds;
+      memoizer.close();
+
+      memoizer.setId(TEST_FILE);
+      assertTrue(memoizer.isLoadedFromMemo());
+      IFDList loaded = ((IFDFakeReader) memoizer.unwrap()).ifds;
+      assertEquals(saved.size(), loaded.size());
+      for (int i=0; i<saved.size(); i++) {
+        IFD expected = saved.get(i);
+        IFD actual = loaded.get(i);
+        assertEquals(expected.keySet(), actual.keySet());
+        assertEquals(expected.getImageWidth(), actual.getImageWidth());
+        assertTrue(Arrays.equals(expected.getStripOffsets(),
+          actual.getStripOffsets()));
+        assertTrue(Arrays.equals(expected.getStripByteCounts(),
+          actual.getStripByteCounts()));
+      }
+      // an IFD without offset tables is still restored
+      assertEquals(saved.get(0).get(IFD.EXIF),
+        loaded.get(0).get(IFD.EXIF));
+      // IFDs that were shared are still shared
+      assertSame(loaded.get(0), loaded.get(2));
+      memoizer.close();
+    }
+    finally {
+      File memo = memoizer.getMemoFile(TEST_FILE);
+      if (memo != null) {
+        memo.delete();
+      }
+    }
+  }
+
+  /** Gets the core metadata and series metadata of every series. */
+  private List<Object> getCoreState(IFormatReader r) {
+    List<Object> state = new ArrayList<Object>();
+    for (int s=0; s<r.getSeriesCount(); s++) {
+      r.setSeries(s);
+      state.addAll(Arrays.asList(r.getSizeX(), r.getSizeY(), r.getSizeZ(),
+        r.getSizeC(), r.getSizeT(), r.getPixelType(), r.getImageCount(),
+        r.getDimensionOrder(), r.isRGB(), r.isLittleEndian(),
+        r.isInterleaved(), r.getModuloZ().step, r.getModuloZ().unit,
+        new Hashtable<String, Object>(r.getSeriesMetadata())));
+    }
+    r.setSeries(0);
+    return state;
+  }
+
+  /** Reader which adds original metadata and a Z modulo to each series. */
+  public static class MetadataFakeReader extends FakeReader {
+    protected void initFile(String id) throws FormatException, IOException {
+      super.initFile(id);
+      addGlobalMeta("Instrument", "fake");
+      addGlobalMeta("Exposure", 1.5);
+      for (int s=0; s<getSeriesCount(); s++) {
+        setSeries(s);
+        addSeriesMeta("Series", s);
+        core.get(s).moduloZ.step = s + 2;
+        core.get(s).moduloZ.unit = "ns";
+      }
+      setSeries(0);
+    }
+  }
+
+  /** Reader which keeps a list of TIFF IFDs with strip offset tables. */
+  public static class IFDFakeReader extends FakeReader {
+    public IFDList ifds;
+
+    protected void initFile(String id) throws FormatException, IOException {
+      super.initFile(id);
+      ifds = new IFDList();
+      for (int i=0; i<2; i++) {
+        IFD ifd = new IFD();
+        ifd.put(IFD.IMAGE_WIDTH, (long) getSizeX());
+        ifd.put(IFD.IMAGE_LENGTH, (long) getSizeY());
+        long[] offsets = new long[getSizeY()];
+        long[] byteCounts = new long[getSizeY()];
+        for (int row=0; row<offsets.length; row++) {
+          offsets[row] = 8 + (i * offsets.length + row) * getSizeX();
+          byteCounts[row] = getSizeX();
+        }
+        ifd.put(IFD.STRIP_OFFSETS, offsets);
+        ifd.put(IFD.STRIP_BYTE_COUNTS, byteCounts);
+        ifds.add(ifd);
+      }
+      IFD exif = new IFD();
+      exif.put(IFD.IMAGE_DESCRIPTION, "exif");
+      ifds.get(0).put(IFD.EXIF, exif);
+      ifds.add(ifds.get(0));
+    }
+  }
+
   public static void main(String[] args) throws Exception {
       MemoizerTest t = new MemoizerTest();
       t.setUp();
@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+
+import loci.common.Location;
+import loci.formats.PrefetchingReader;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.PrefetchingReader}.
+ */
+public class PrefetchingReaderTest {
+
+  private static final String TEST_FILE =
+    "test&pixelType=uint16&sizeX=100&sizeY=80&sizeZ=5&sizeC=2&sizeT=3.fake";
+
+  private PrefetchingReader prefetcher;
+
+  private FakeReader reader;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    Location.mapId(TEST_FILE, TEST_FILE);
+    prefetcher = new PrefetchingReader(new FakeReader());
+    prefetcher.setId(TEST_FILE);
+    reader = new FakeReader();
+    reader.setId(TEST_FILE);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    prefetcher.close();
+    reader.close();
+  }
+
+  @Test
+  public void testSequentialPlanes() throws Exception {
+    for (int i=0; i<prefetcher.getImageCount(); i++) {
+      assertTrue(Arrays.equals(reader.openBytes(i), prefetcher.openBytes(i)));
+    }
+    assertTrue(prefetcher.getPrefetchHits() > 0);
+  }
+
+  @Test
+  public void testPlaneStride() throws Exception {
+    int sizeC = prefetcher.getSizeC();
+    for (int i=1; i<prefetcher.getImageCount(); i+=sizeC) {
+      assertTrue(Arrays.equals(reader.openBytes(i), prefetcher.openBytes(i)));
+    }
+    assertTrue(prefetcher.getPrefetchHits() > 0);
+  }
+
+  @Test
+  public void testTileRows() throws Exception {
+    int tileSize = 32;
+    int sizeX = prefetcher.getSizeX();
+    int sizeY = prefetcher.getSizeY();
+    for (int y=0; y<sizeY; y+=tileSize) {
+      for (int x=0; x<sizeX; x+=tileSize) {
+        int w = Math.min(tileSize, sizeX - x);
+        int h = Math.min(tileSize, sizeY - y);
+        byte[] expected = reader.openBytes(2, x, y, w, h);
+        assertTrue(Arrays.equals(expected,
+          prefetcher.openBytes(2, x, y, w, h)));
+      }
+    }
+    assertTrue(prefetcher.getPrefetchHits() > 0);
+  }
+
+  @Test
+  public void testNoPrefetch() throws Exception {
+    prefetcher.close();
+    prefetcher.setPrefetchCount(0);
+    prefetcher.setId(TEST_FILE);
+    for (int i=0; i<prefetcher.getImageCount(); i++) {
+      assertTrue(Arrays.equals(reader.openBytes(i), prefetcher.openBytes(i)));
+    }
+    assertEquals(0, prefetcher.getPrefetchHits());
+  }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import loci.common.RandomAccessOutputStream;
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatTools;
+import loci.formats.in.OMETiffReader;
+import loci.formats.services.OMEXMLService;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffSaver;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link OMETiffReader} keeps no more than
+ * {@link OMETiffReader#getMaxOpenFiles()} files of a multi-file dataset
+ * open, closing the least recently read file first, including when
+ * planes are read from several threads.
+ */
+public class OMETiffReaderTest {
+
+  private static final int SIZE_X = 8;
+
+  private static final int SIZE_Y = 4;
+
+  private static final int FILES = 3;
+
+  private File dir;
+
+  private File[] files;
+
+  private OMETiffReader reader;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    dir = File.createTempFile("OMETiffReaderTest", "");
+    dir.delete();
+    dir.mkdir();
+    files = new File[FILES];
+    for (int z=0; z<FILES; z++) {
+      files[z] = new File(dir, "plane" + z + ".ome.tif");
+    }
+    OMEXMLService service =
+      new ServiceFactory().getInstance(OMEXMLService.class);
+    String xml = createXML(service.getLatestVersion());
+    for (int z=0; z<FILES; z++) {
+      writePlane(files[z], z, xml);
+    }
+    reader = new OMETiffReader();
+    reader.setId(files[0].getAbsolutePath());
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+    for (File file : files) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedFileClosed() throws Exception {
+    reader.setMaxOpenFiles(2);
+    checkPlane(0);
+    checkPlane(1);
+    checkPlane(0);
+    checkPlane(2);
+    assertOpenFiles(0, 2);
+    checkPlane(1);
+    assertOpenFiles(2, 1);
+  }
+
+  @Test
+  public void testReduceMaxOpenFiles() throws Exception {
+    for (int z=0; z<FILES; z++) {
+      checkPlane(z);
+    }
+    assertOpenFiles(0, 1, 2);
+    reader.setMaxOpenFiles(1);
+    assertOpenFiles(2);
+  }
+
+  @Test
+  public void testClosedFileKeepsIFDs() throws Exception {
+    reader.setMaxOpenFiles(1);
+    checkPlane(0);
+    checkPlane(1);
+    assertOpenFiles(1);
+
+    // the file can only be read again if its IFDs are not parsed again
+    RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+    try {
+      file.write(new byte[4]);
+    }
+    finally {
+      file.close();
+    }
+    checkPlane(0);
+    assertOpenFiles(0);
+  }
+
+  @Test
+  public void testNoOpenFiles() throws Exception {
+    reader.setMaxOpenFiles(0);
+    assertOpenFiles();
+    for (int z=0; z<FILES; z++) {
+      checkPlane(z);
+      assertOpenFiles();
+    }
+    assertEquals(null, reader.get8BitLookupTable());
+    assertOpenFiles();
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    reader.setMaxOpenFiles(1);
+    ExecutorService executor = Executors.newFixedThreadPool(FILES);
+    try {
+      List<Future<byte[]>> planes = new ArrayList<Future<byte[]>>();
+      for (int i=0; i<FILES*10; i++) {
+        final int z = i % FILES;
+        planes.add(executor.submit(new Callable<byte[]>() {
+          public byte[] call() throws Exception {
+            return reader.openBytes(0, 0, z, new byte[SIZE_X * SIZE_Y],
+              0, 0, SIZE_X, SIZE_Y);
+          }
+        }));
+      }
+      for (int i=0; i<planes.size(); i++) {
+        assertTrue(Arrays.equals(getPlane(i % FILES), planes.get(i).get()));
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals(1, reader.getOpenFiles().length);
+    reader.openBytes(0, 0, 2, new byte[SIZE_X * SIZE_Y], 0, 0, SIZE_X, SIZE_Y);
+    assertOpenFiles(2);
+  }
+
+  // -- Helper methods --
+
+  private void checkPlane(int z) throws Exception {
+    assertTrue(Arrays.equals(getPlane(z), reader.openBytes(z)));
+  }
+
+  /** Gets the plane stored for the given Z, filled with z + 1. */
+  private byte[] getPlane(int z) {
+    byte[] plane = new byte[SIZE_X * SIZE_Y];
+    Arrays.fill(plane, (byte) (z + 1));
+    return plane;
+  }
+
+  private void assertOpenFiles(int... planes) {
+    String[] open = reader.getOpenFiles();
+    assertEquals(planes.length, open.length);
+    for (int i=0; i<planes.length; i++) {
+      assertEquals(files[planes[i]].getAbsolutePath(),
+        new File(open[i]).getAbsolutePath());
+    }
+  }
+
+  private String createXML(String version) {
+    StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    xml.append("<OME xmlns=\"http://www.openmicroscopy.org/Schemas/OME/");
+    xml.append(version).append("\" UUID=\"urn:uuid:0\">");
+    xml.append("<Image ID=\"Image:0\"><Pixels ID=\"Pixels:0\" ");
+    xml.append("DimensionOrder=\"XYZCT\" Type=\"uint8\" SizeX=\"");
+    xml.append(SIZE_X).append("\" SizeY=\"").append(SIZE_Y);
+    xml.append("\" SizeZ=\"").append(FILES);
+    xml.append("\" SizeC=\"1\" SizeT=\"1\">");
+    xml.append("<Channel ID=\"Channel:0:0\" SamplesPerPixel=\"1\"/>");
+    for (int z=0; z<FILES; z++) {
+      xml.append("<TiffData FirstZ=\"").append(z);
+      xml.append("\" IFD=\"0\" PlaneCount=\"1\"><UUID FileName=\"");
+      xml.append(files[z].getName()).append("\">urn:uuid:").append(z);
+      xml.append("</UUID></TiffData>");
+    }
+    xml.append("</Pixels></Image></OME>");
+    return xml.toString();
+  }
+
+  private void writePlane(File file, int z, String xml) throws Exception {
+    RandomAccessOutputStream out =
+      new RandomAccessOutputStream(file.getAbsolutePath());
+    try {
+      TiffSaver saver = new TiffSaver(out, file.getAbsolutePath());
+      saver.writeHeader();
+      IFD ifd = new IFD();
+      ifd.put(IFD.IMAGE_WIDTH, SIZE_X);
+      ifd.put(IFD.IMAGE_LENGTH, SIZE_Y);
+      ifd.put(IFD.IMAGE_DESCRIPTION, xml);
+      ifd.put(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+      saver.writeImage(getPlane(z), ifd, 0, FormatTools.UINT8, true);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+}
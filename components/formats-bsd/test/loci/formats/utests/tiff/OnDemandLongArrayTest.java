@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import loci.common.ByteArrayHandle;
+import loci.common.DataTools;
+import loci.common.RandomAccessInputStream;
+import loci.formats.tiff.OnDemandLongArray;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests reading values from an {@link OnDemandLongArray}.
+ */
+public class OnDemandLongArrayTest {
+
+  private static final long[] VALUES = {1, -2, 0x0102030405060708L, 42};
+
+  @Test
+  public void testByteOrders() throws IOException {
+    OnDemandLongArray big = createArray(false);
+    OnDemandLongArray little = createArray(true);
+    // the arrays are read alternately, so each value is read into a buffer
+    // that was last used with the other byte order
+    for (int i=0; i<VALUES.length; i++) {
+      assertEquals(VALUES[i], big.get(i));
+      assertEquals(VALUES[i], little.get(i));
+    }
+  }
+
+  @Test(expectedExceptions={ EOFException.class })
+  public void testPastEnd() throws IOException {
+    OnDemandLongArray array = createArray(false);
+    array.get(VALUES.length);
+  }
+
+  /** Creates an array whose values follow a 4 byte header. */
+  private OnDemandLongArray createArray(boolean little) throws IOException {
+    byte[] data = new byte[4 + VALUES.length * 8];
+    for (int i=0; i<VALUES.length; i++) {
+      DataTools.unpackBytes(VALUES[i], data, 4 + i * 8, 8, little);
+    }
+    RandomAccessInputStream in =
+      new RandomAccessInputStream(new ByteArrayHandle(data));
+    in.order(little);
+    in.seek(4);
+    OnDemandLongArray array = new OnDemandLongArray(in);
+    array.setSize(VALUES.length);
+    return array;
+  }
+
+}
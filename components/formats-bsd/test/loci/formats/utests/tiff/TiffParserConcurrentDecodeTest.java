@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessInputStream;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffSaver;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that tiled TIFF pixel data decoded on an executor matches the
+ * data decoded on the calling thread.
+ */
+public class TiffParserConcurrentDecodeTest {
+
+  private static final int IMAGE_WIDTH = 64;
+
+  private static final int IMAGE_LENGTH = 48;
+
+  private static final int TILE_SIZE = 16;
+
+  private static final int TILES =
+    (IMAGE_WIDTH / TILE_SIZE) * (IMAGE_LENGTH / TILE_SIZE);
+
+  private IFD ifd;
+
+  private byte[] data;
+
+  private ExecutorService executor;
+
+  /** Tasks submitted to {@link #executor}. */
+  private List<Future<?>> tasks;
+
+  @BeforeMethod
+  public void setUp() {
+    ifd = new IFD();
+    ifd.put(IFD.IMAGE_WIDTH, IMAGE_WIDTH);
+    ifd.put(IFD.IMAGE_LENGTH, IMAGE_LENGTH);
+    ifd.put(IFD.TILE_WIDTH, TILE_SIZE);
+    ifd.put(IFD.TILE_LENGTH, TILE_SIZE);
+    ifd.put(IFD.BITS_PER_SAMPLE, new int[] {16});
+    ifd.put(IFD.SAMPLES_PER_PIXEL, 1);
+    ifd.put(IFD.LITTLE_ENDIAN, Boolean.TRUE);
+    data = new byte[IMAGE_WIDTH * IMAGE_LENGTH * 2];
+    for (int i=0; i<data.length; i++) {
+      data[i] = (byte) (i / 3);
+    }
+    tasks = Collections.synchronizedList(new ArrayList<Future<?>>());
+    executor = new ThreadPoolExecutor(4, 4, 0,
+      TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>())
+    {
+      protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        RunnableFuture<T> task = super.newTaskFor(callable);
+        tasks.add(task);
+        return task;
+      }
+    };
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testUncompressed() throws FormatException, IOException {
+    // the predictor means that the tiles cannot be copied byte for byte
+    ifd.put(IFD.PREDICTOR, 2);
+    checkPlane(TiffCompression.UNCOMPRESSED);
+  }
+
+  @Test
+  public void testUncompressedDirect() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.UNCOMPRESSED.getCode());
+    RandomAccessInputStream in = writePlane();
+    try {
+      TiffParser parser = new TiffParser(in);
+      parser.setExecutor(executor);
+      byte[] plane = new byte[data.length];
+      parser.getSamples(parser.getFirstIFD(), plane);
+      for (int i=0; i<plane.length; i++) {
+        assertEquals(data[i], plane[i]);
+      }
+      // the stored tiles are copied without decoding
+      assertEquals(0, tasks.size());
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testLZW() throws FormatException, IOException {
+    checkPlane(TiffCompression.LZW);
+  }
+
+  @Test
+  public void testDeflate() throws FormatException, IOException {
+    checkPlane(TiffCompression.DEFLATE);
+  }
+
+  @Test
+  public void testSubRegion() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.LZW.getCode());
+    RandomAccessInputStream in = writePlane();
+    try {
+      TiffParser parser = new TiffParser(in);
+      IFD saved = parser.getFirstIFD();
+      int x = 5, y = 9, w = 40, h = 30;
+      byte[] serial = new byte[w * h * 2];
+      parser.getSamples(saved, serial, x, y, w, h);
+
+      parser.setExecutor(executor);
+      byte[] concurrent = new byte[serial.length];
+      parser.getSamples(saved, concurrent, x, y, w, h);
+
+      for (int row=0; row<h; row++) {
+        for (int col=0; col<w * 2; col++) {
+          int index = row * w * 2 + col;
+          byte expected = data[(row + y) * IMAGE_WIDTH * 2 + x * 2 + col];
+          assertEquals(expected, serial[index]);
+          assertEquals(expected, concurrent[index]);
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testCorruptTile() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.DEFLATE.getCode());
+    ByteArrayHandle savedData = writeHandle();
+    RandomAccessInputStream in = new RandomAccessInputStream(savedData);
+    try {
+      TiffParser parser = new TiffParser(in);
+      IFD saved = parser.getFirstIFD();
+      // overwrite the zlib header of the first tile
+      savedData.seek(saved.getStripOffsets()[0]);
+      savedData.writeShort(0xffff);
+
+      parser.setExecutor(executor);
+      try {
+        parser.getSamples(saved, new byte[data.length]);
+        fail("Expected a FormatException");
+      }
+      catch (FormatException e) { }
+
+      // no tile may still be writing into the buffer
+      assertEquals(saved.getStripOffsets().length, tasks.size());
+      for (Future<?> task : tasks) {
+        assertTrue(task.isDone());
+        assertFalse(task.isCancelled());
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  // -- Helper methods --
+
+  private void checkPlane(TiffCompression compression)
+    throws FormatException, IOException
+  {
+    ifd.put(IFD.COMPRESSION, compression.getCode());
+    RandomAccessInputStream in = writePlane();
+    try {
+      TiffParser parser = new TiffParser(in);
+      parser.setExecutor(executor);
+      byte[] plane = new byte[data.length];
+      parser.getSamples(parser.getFirstIFD(), plane);
+      for (int i=0; i<plane.length; i++) {
+        assertEquals(data[i], plane[i]);
+      }
+      // each tile was decoded on the executor
+      assertEquals(TILES, tasks.size());
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private RandomAccessInputStream writePlane()
+    throws FormatException, IOException
+  {
+    return new RandomAccessInputStream(writeHandle());
+  }
+
+  private ByteArrayHandle writeHandle() throws FormatException, IOException {
+    ByteArrayHandle savedData = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(savedData);
+    TiffSaver saver = new TiffSaver(out, savedData);
+    saver.writeHeader();
+    saver.writeImage(data, ifd, 0, FormatTools.UINT16, true);
+    out.close();
+    return savedData;
+  }
+
+}
@@ -94,6 +94,18 @@ public class TiffPixelsTest {
     }
   }
 
+  @Test
+  public void testUNCOMPRESSEDStrips() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.UNCOMPRESSED.getCode());
+    ifd.put(IFD.ROWS_PER_STRIP, new long[] {8});
+    ifd.remove(IFD.STRIP_OFFSETS);
+    ifd.remove(IFD.STRIP_BYTE_COUNTS);
+    byte[] plane = readSavedPlane();
+    for (int i=0; i<plane.length; i++) {
+      assertEquals(plane[i], data[i]);
+    }
+  }
+
   @Test(expectedExceptions={ FormatException.class })
   public void testCCITT_1D() throws FormatException, IOException {
     ifd.put(IFD.COMPRESSION, TiffCompression.CCITT_1D.getCode());
@@ -0,0 +1,237 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.common.ByteArrayHandle;
+import loci.common.DataTools;
+import loci.common.RandomAccessInputStream;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.codec.CodecOptions;
+import loci.formats.codec.LZWCodec;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffSaver;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the horizontal differencing and floating point TIFF predictors.
+ */
+public class TiffPredictorTest {
+
+  private static final int IMAGE_WIDTH = 7;
+
+  private static final int IMAGE_LENGTH = 5;
+
+  @DataProvider(name = "layouts")
+  public Object[][] createLayouts() {
+    // bits per sample, samples per pixel, little endian
+    return new Object[][] {
+      {8, 1, false}, {8, 3, false},
+      {16, 1, false}, {16, 3, true}, {24, 1, true}, {32, 1, true},
+      {32, 3, false}, {64, 1, false}, {64, 2, true}
+    };
+  }
+
+  @Test(dataProvider = "layouts")
+  public void testHorizontalRoundTrip(int bits, int samples, boolean little)
+    throws FormatException
+  {
+    IFD ifd = createIFD(2, bits, samples, little, 1);
+    byte[] data = createData(bits, samples);
+    byte[] differenced = data.clone();
+    TiffCompression.difference(differenced, ifd);
+
+    // each sample other than the first in a row holds the difference from
+    // the corresponding sample in the previous pixel
+    int bytes = bits / 8;
+    int rowLength = IMAGE_WIDTH * samples;
+    for (int i=0; i<data.length/bytes; i++) {
+      long value = DataTools.bytesToLong(data, i * bytes, bytes, little);
+      if (i % rowLength >= samples) {
+        value -= DataTools.bytesToLong(data, (i - samples) * bytes, bytes,
+          little);
+      }
+      long actual =
+        DataTools.bytesToLong(differenced, i * bytes, bytes, little);
+      assertEquals(mask(value, bytes), mask(actual, bytes));
+    }
+
+    TiffCompression.undifference(differenced, ifd);
+    assertTrue(Arrays.equals(data, differenced));
+  }
+
+  @Test(dataProvider = "layouts")
+  public void testFloatingPointRoundTrip(int bits, int samples,
+    boolean little)
+    throws FormatException
+  {
+    IFD ifd = createIFD(3, bits, samples, little, 3);
+    byte[] data = createData(bits, samples);
+    byte[] differenced = data.clone();
+    TiffCompression.difference(differenced, ifd);
+    TiffCompression.undifference(differenced, ifd);
+    assertTrue(Arrays.equals(data, differenced));
+  }
+
+  @Test
+  public void testFloatingPointDecode() throws FormatException {
+    // two 32-bit samples, 1.0 (0x3f800000) and 2.0 (0x40000000), stored as
+    // byte planes [3f 40] [80 00] [00 00] [00 00], then differenced
+    byte[] encoded = {0x3f, 0x01, 0x40, (byte) 0x80, 0, 0, 0, 0};
+    IFD ifd = createIFD(3, 32, 1, false, 3);
+    ifd.put(IFD.IMAGE_WIDTH, 2);
+
+    byte[] big = encoded.clone();
+    TiffCompression.undifference(big, ifd);
+    assertEquals(1f, DataTools.bytesToFloat(big, 0, 4, false));
+    assertEquals(2f, DataTools.bytesToFloat(big, 4, 4, false));
+
+    ifd.put(IFD.LITTLE_ENDIAN, Boolean.TRUE);
+    byte[] little = encoded.clone();
+    TiffCompression.undifference(little, ifd);
+    assertEquals(1f, DataTools.bytesToFloat(little, 0, 4, true));
+    assertEquals(2f, DataTools.bytesToFloat(little, 4, 4, true));
+
+    TiffCompression.difference(little, ifd);
+    assertTrue(Arrays.equals(encoded, little));
+  }
+
+  @Test
+  public void testTileRows() throws FormatException {
+    IFD ifd = createIFD(2, 8, 1, false, 1);
+    ifd.put(IFD.IMAGE_WIDTH, 4);
+    ifd.put(IFD.TILE_WIDTH, 2);
+    byte[] data = {1, 2, 3, 4};
+    TiffCompression.difference(data, ifd);
+    assertTrue(Arrays.equals(new byte[] {1, 1, 3, 1}, data));
+  }
+
+  @Test
+  public void testTiledImageRoundTrip() throws FormatException, IOException {
+    // 40x24 pixels in 16x16 tiles, so that the right-most tiles are partial
+    int width = 40, height = 24, tileSize = 16;
+    byte[] data = new byte[width * height * 2];
+    for (int i=0; i<data.length/2; i++) {
+      DataTools.unpackBytes(i * 7, data, i * 2, 2, false);
+    }
+
+    ByteArrayHandle handle = new ByteArrayHandle();
+    TiffSaver saver = new TiffSaver(new RandomAccessOutputStream(handle),
+      handle);
+    saver.writeHeader();
+    IFD ifd = new IFD();
+    ifd.put(IFD.IMAGE_WIDTH, width);
+    ifd.put(IFD.IMAGE_LENGTH, height);
+    ifd.put(IFD.TILE_WIDTH, tileSize);
+    ifd.put(IFD.TILE_LENGTH, tileSize);
+    ifd.put(IFD.COMPRESSION, TiffCompression.LZW.getCode());
+    ifd.put(IFD.PREDICTOR, 2);
+    ifd.put(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+    saver.writeImage(data, ifd, 0, FormatTools.UINT16, true);
+
+    TiffParser parser = new TiffParser(new RandomAccessInputStream(handle));
+    IFD stored = parser.getFirstIFD();
+    assertEquals(tileSize, stored.getTileWidth());
+    byte[] samples = new byte[data.length];
+    parser.getSamples(stored, samples);
+    assertTrue(Arrays.equals(data, samples));
+
+    // each row of the second tile starts with an undifferenced sample
+    long[] offsets = stored.getStripOffsets();
+    long[] counts = stored.getStripByteCounts();
+    byte[] tile = new byte[(int) counts[1]];
+    handle.seek(offsets[1]);
+    handle.readFully(tile);
+    CodecOptions options = new CodecOptions();
+    options.maxBytes = tileSize * tileSize * 2;
+    tile = new LZWCodec().decompress(tile, options);
+    for (int row=0; row<tileSize; row++) {
+      int expected = (row * width + tileSize) * 7;
+      assertEquals(expected & 0xffff,
+        DataTools.bytesToInt(tile, row * tileSize * 2, 2, false));
+      assertEquals(7, DataTools.bytesToInt(tile, row * tileSize * 2 + 2, 2,
+        false));
+    }
+  }
+
+  @Test(expectedExceptions={ FormatException.class })
+  public void testFloatingPointIntegerSamples() throws FormatException {
+    IFD ifd = createIFD(3, 16, 1, false, 1);
+    TiffCompression.difference(createData(16, 1), ifd);
+  }
+
+  @Test(expectedExceptions={ FormatException.class })
+  public void testFloatingPointIntegerSamplesDecode() throws FormatException {
+    IFD ifd = createIFD(3, 16, 1, false, 1);
+    TiffCompression.undifference(createData(16, 1), ifd);
+  }
+
+  private IFD createIFD(int predictor, int bits, int samples, boolean little,
+    int sampleFormat)
+  {
+    IFD ifd = new IFD();
+    ifd.put(IFD.IMAGE_WIDTH, IMAGE_WIDTH);
+    ifd.put(IFD.IMAGE_LENGTH, IMAGE_LENGTH);
+    int[] bitsPerSample = new int[samples];
+    Arrays.fill(bitsPerSample, bits);
+    ifd.put(IFD.BITS_PER_SAMPLE, bitsPerSample);
+    ifd.put(IFD.SAMPLES_PER_PIXEL, samples);
+    ifd.put(IFD.LITTLE_ENDIAN, little);
+    ifd.put(IFD.PREDICTOR, predictor);
+    ifd.put(IFD.SAMPLE_FORMAT, sampleFormat);
+    return ifd;
+  }
+
+  private byte[] createData(int bits, int samples) {
+    byte[] data = new byte[IMAGE_WIDTH * IMAGE_LENGTH * samples * bits / 8];
+    new Random(bits * samples).nextBytes(data);
+    return data;
+  }
+
+  private long mask(long value, int bytes) {
+    return bytes == 8 ? value : value & ((1L << (bytes * 8)) - 1);
+  }
+
+}
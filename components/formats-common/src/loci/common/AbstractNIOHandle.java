@@ -33,6 +33,8 @@
 package loci.common;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A wrapper for buffered NIO logic that implements the IRandomAccess interface.
@@ -95,4 +97,23 @@ public abstract class AbstractNIOHandle implements IRandomAccess {
    */
   protected abstract void setLength(long length) throws IOException;
 
+  /**
+   * Reads from the given channel at the given offset until the buffer is
+   * full or the end of the channel is reached, without changing the
+   * channel's position.
+   * @see IRandomAccess#read(long, ByteBuffer)
+   */
+  protected static int readChannel(FileChannel channel, long pos,
+    ByteBuffer dst) throws IOException
+  {
+    if (pos >= channel.size()) return -1;
+    int total = 0;
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, pos + total);
+      if (n < 0) break;
+      total += n;
+    }
+    return total;
+  }
+
 }
@@ -47,7 +47,9 @@ import java.nio.ByteOrder;
  *
  * @see IRandomAccess
  */
-public class ByteArrayHandle extends AbstractNIOHandle {
+public class ByteArrayHandle extends AbstractNIOHandle
+  implements HandleCapabilities
+{
 
   // -- Constants --
 
@@ -121,6 +123,23 @@ public class ByteArrayHandle extends AbstractNIOHandle {
     buffer.limit((int) length);
   }
 
+  // -- HandleCapabilities API methods --
+
+  /* @see HandleCapabilities.supportsConcurrentReads() */
+  public boolean supportsConcurrentReads() {
+    return true;
+  }
+
+  /* @see HandleCapabilities.isMemoryMapped() */
+  public boolean isMemoryMapped() {
+    return false;
+  }
+
+  /* @see HandleCapabilities.getPreferredBlockSize() */
+  public int getPreferredBlockSize() {
+    return 0;
+  }
+
   // -- IRandomAccess API methods --
 
   /* @see IRandomAccess.close() */
@@ -169,6 +188,17 @@ public class ByteArrayHandle extends AbstractNIOHandle {
     return len;
   }
 
+  /* @see IRandomAccess.read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    ByteBuffer source = buffer.duplicate();
+    if (pos >= source.limit()) return -1;
+    int n = (int) Math.min(dst.remaining(), source.limit() - pos);
+    source.limit((int) pos + n);
+    source.position((int) pos);
+    dst.put(source);
+    return n;
+  }
+
   /* @see IRandomAccess.seek(long) */
   public void seek(long pos) throws IOException {
     if (pos > length()) {
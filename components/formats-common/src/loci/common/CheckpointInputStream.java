@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * InputStream that resumes decompression of a deflate stream at a
+ * checkpoint recorded by {@link GZipIndex}.
+ *
+ * Checkpoints do not generally start on a byte boundary, and Inflater
+ * cannot be primed with a partial byte, so the compressed data is preceded
+ * by empty deflate blocks that end at the checkpoint's bit offset (see
+ * {@link GZipIndex#alignmentPrefix(int)}).  The checkpoint's history window
+ * is supplied to the Inflater as a preset dictionary.  When a gzip member
+ * ends, decompression continues with the next member.
+ *
+ * The underlying IRandomAccess is repositioned before every read, and is
+ * not closed when this stream is closed.
+ */
+class CheckpointInputStream extends InputStream {
+
+  // -- Fields --
+
+  private final IRandomAccess in;
+  private final GZipIndex index;
+  private final byte[] buf = new byte[65536];
+  private final byte[] single = new byte[1];
+  private Inflater inflater;
+  private int member;
+  private long inputPosition;
+  private byte[] prefix;
+  private int shift;
+  private boolean eof;
+
+  // -- Constructor --
+
+  CheckpointInputStream(IRandomAccess in, GZipIndex index, int checkpoint) {
+    this.in = in;
+    this.index = index;
+    member = index.getMember(checkpoint);
+    start(index.getPosition(checkpoint), index.getWindow(checkpoint));
+  }
+
+  // -- InputStream API methods --
+
+  /* @see java.io.InputStream#read() */
+  public int read() throws IOException {
+    int n = read(single, 0, 1);
+    return n <= 0 ? -1 : single[0] & 0xff;
+  }
+
+  /* @see java.io.InputStream#read(byte[], int, int) */
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    while (!eof) {
+      int n;
+      try {
+        n = inflater.inflate(b, off, len);
+      }
+      catch (DataFormatException e) {
+        throw new IOException(e.getMessage());
+      }
+      if (n > 0) return n;
+
+      if (inflater.finished()) {
+        member++;
+        if (member < index.getMemberCount()) {
+          start(index.getMemberPosition(member), null);
+        }
+        else eof = true;
+      }
+      else if (inflater.needsDictionary()) {
+        throw new IOException("Unexpected preset dictionary");
+      }
+      else if (inflater.needsInput()) {
+        fill();
+      }
+    }
+    return -1;
+  }
+
+  /* @see java.io.InputStream#close() */
+  public void close() throws IOException {
+    if (inflater != null) inflater.end();
+    inflater = null;
+    eof = true;
+  }
+
+  // -- Helper methods --
+
+  private void start(long bitPosition, byte[] window) {
+    if (inflater != null) inflater.end();
+    inflater = new Inflater(true);
+    if (window != null && window.length > 0) inflater.setDictionary(window);
+    inputPosition = bitPosition >>> 3;
+    shift = (int) (bitPosition & 7);
+    prefix = shift == 0 ? null : GZipIndex.alignmentPrefix(shift);
+  }
+
+  private void fill() throws IOException {
+    int offset = prefix == null ? 0 : prefix.length - 1;
+    in.seek(inputPosition);
+    int n = in.read(buf, offset, buf.length - offset);
+    if (n <= 0) throw new EOFException("Truncated deflate stream");
+    inputPosition += n;
+    if (prefix != null) {
+      // the low bits of the first byte precede the checkpoint, and are
+      // replaced by the end of the prefix
+      int mask = (1 << shift) - 1;
+      buf[offset] = (byte) ((buf[offset] & ~mask) | (prefix[offset] & mask));
+      System.arraycopy(prefix, 0, buf, 0, offset);
+      prefix = null;
+    }
+    inflater.setInput(buf, 0, offset + n);
+  }
+
+}
@@ -121,6 +121,11 @@ public class FileHandle implements IRandomAccess {
     return n;
   }
 
+  /* @see IRandomAccess.read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    return AbstractNIOHandle.readChannel(raf.getChannel(), pos, dst);
+  }
+
   /* @see IRandomAccess.seek(long) */
   public void seek(long pos) throws IOException {
     raf.seek(pos);
@@ -0,0 +1,746 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Random access index of a gzip file.  The index records, every few
+ * megabytes of uncompressed data, the position of a deflate block boundary
+ * together with the 32 KB of uncompressed data preceding it, so that
+ * decompression can be resumed from that point instead of from the start
+ * of the file.
+ *
+ * java.util.zip.Inflater does not report block boundaries, so the index is
+ * built by a small deflate decoder that tracks bit positions; see
+ * IndexedGZipHandle for how decompression is resumed from a checkpoint.
+ *
+ * @see IndexedGZipHandle
+ */
+class GZipIndex {
+
+  // -- Constants --
+
+  /** Size of the deflate history window. */
+  static final int WINDOW_SIZE = 32768;
+
+  /** Magic number for persisted index files ("BFGI"). */
+  private static final int MAGIC = 0x42464749;
+
+  /** Version of the persisted index layout. */
+  private static final int VERSION = 1;
+
+  private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+  /** Number of bits decoded by a single Huffman table lookup. */
+  private static final int FAST_BITS = 9;
+
+  private static final int[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+    35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+  };
+  private static final int[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+    3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+  };
+  private static final int[] DISTANCE_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+    257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+    8193, 12289, 16385, 24577
+  };
+  private static final int[] DISTANCE_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+    7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+  };
+  private static final int[] CODE_LENGTH_ORDER = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+
+  private static final Huffman FIXED_LENGTHS;
+  private static final Huffman FIXED_DISTANCES;
+
+  static {
+    int[] lengths = new int[288];
+    for (int i=0; i<lengths.length; i++) {
+      lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+    }
+    int[] distances = new int[30];
+    for (int i=0; i<distances.length; i++) distances[i] = 5;
+    try {
+      FIXED_LENGTHS = new Huffman(lengths, lengths.length);
+      FIXED_DISTANCES = new Huffman(distances, distances.length);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // -- Fields --
+
+  /** Total number of uncompressed bytes. */
+  private long length;
+
+  /** Length and modification time of the indexed file. */
+  private long sourceLength, sourceModified;
+
+  /** Bit position of the deflate data of each gzip member. */
+  private long[] members;
+
+  /** Uncompressed offset of each checkpoint, in increasing order. */
+  private long[] offsets;
+
+  /** Bit position of the deflate block at each checkpoint. */
+  private long[] positions;
+
+  /** Index of the gzip member containing each checkpoint. */
+  private int[] memberIndices;
+
+  /** History window preceding each checkpoint. */
+  private byte[][] windows;
+
+  // -- Constructor --
+
+  private GZipIndex() { }
+
+  // -- GZipIndex API methods --
+
+  /** Returns the total number of uncompressed bytes. */
+  long getLength() {
+    return length;
+  }
+
+  /** Returns the number of gzip members in the file. */
+  int getMemberCount() {
+    return members.length;
+  }
+
+  /** Returns the bit position of the deflate data of the given member. */
+  long getMemberPosition(int member) {
+    return members[member];
+  }
+
+  /** Returns the number of recorded checkpoints. */
+  int getCheckpointCount() {
+    return offsets.length;
+  }
+
+  /**
+   * Returns the index of the last checkpoint at or before the given
+   * uncompressed offset.
+   */
+  int findCheckpoint(long offset) {
+    int low = 0, high = offsets.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (offsets[mid] <= offset) low = mid;
+      else high = mid - 1;
+    }
+    return low;
+  }
+
+  /** Returns the uncompressed offset of the given checkpoint. */
+  long getOffset(int checkpoint) {
+    return offsets[checkpoint];
+  }
+
+  /** Returns the bit position of the deflate block at the given checkpoint. */
+  long getPosition(int checkpoint) {
+    return positions[checkpoint];
+  }
+
+  /** Returns the gzip member containing the given checkpoint. */
+  int getMember(int checkpoint) {
+    return memberIndices[checkpoint];
+  }
+
+  /** Returns the history window preceding the given checkpoint. */
+  byte[] getWindow(int checkpoint) {
+    return windows[checkpoint];
+  }
+
+  /**
+   * Returns a sequence of empty, non-final deflate blocks whose length in
+   * bits is congruent to the given bit offset (1-7) modulo 8.  The low
+   * <code>shift</code> bits of the last byte are the end of the sequence.
+   * Placing the sequence in front of a deflate block that starts at that bit
+   * offset lets an Inflater decompress from the block while preserving the
+   * byte alignment that stored blocks depend on.
+   */
+  static byte[] alignmentPrefix(int shift) {
+    // an empty dynamic block is 37 + 3 * (code length codes) bits long,
+    // and an empty fixed block is 10 bits long
+    for (int lengthCodes=18; lengthCodes<=19; lengthCodes++) {
+      for (int fixed=0; fixed<4; fixed++) {
+        int bits = 37 + 3 * lengthCodes + 10 * fixed;
+        if ((bits & 7) != shift) continue;
+
+        BitWriter w = new BitWriter((bits + 7) / 8);
+        w.bits(0, 1);
+        w.bits(2, 2);
+        w.bits(0, 5);
+        w.bits(0, 5);
+        w.bits(lengthCodes - 4, 4);
+        // code length codes: 1 -> '0', 18 -> '1'
+        for (int i=0; i<lengthCodes; i++) {
+          int symbol = CODE_LENGTH_ORDER[i];
+          w.bits(symbol == 1 || symbol == 18 ? 1 : 0, 3);
+        }
+        // literal 0 and end-of-block have length 1, literals 1-255 are
+        // unused, and the single distance code has length 1
+        w.bits(0, 1);
+        w.bits(1, 1);
+        w.bits(138 - 11, 7);
+        w.bits(1, 1);
+        w.bits(117 - 11, 7);
+        w.bits(0, 1);
+        w.bits(0, 1);
+        // end-of-block
+        w.bits(1, 1);
+
+        for (int i=0; i<fixed; i++) {
+          w.bits(0, 1);
+          w.bits(1, 2);
+          w.bits(0, 7);
+        }
+        return w.buf;
+      }
+    }
+    throw new IllegalArgumentException("Invalid shift: " + shift);
+  }
+
+  /**
+   * Decompresses the given gzip file once, recording a checkpoint roughly
+   * every <code>spacing</code> uncompressed bytes.
+   */
+  static GZipIndex build(String file, long spacing) throws IOException {
+    File f = new File(file);
+    long sourceLength = f.length();
+    long sourceModified = f.lastModified();
+    NIOFileHandle in = new NIOFileHandle(file, "r");
+    try {
+      Builder builder = new Builder(in, 0, spacing);
+      builder.run();
+      GZipIndex index = builder.toIndex();
+      index.sourceLength = sourceLength;
+      index.sourceModified = sourceModified;
+      return index;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Decompresses the raw deflate stream starting at the given offset once,
+   * recording a checkpoint roughly every <code>spacing</code> uncompressed
+   * bytes.  The resulting index has a single member.
+   */
+  static GZipIndex buildDeflate(IRandomAccess in, long offset, long spacing)
+    throws IOException
+  {
+    Builder builder = new Builder(in, offset, spacing);
+    builder.runDeflate();
+    return builder.toIndex();
+  }
+
+  /**
+   * Reads a persisted index from the given file.  Returns null if the index
+   * does not exist, cannot be read, or does not match the given gzip file.
+   */
+  static GZipIndex load(String file, String indexFile) {
+    File f = new File(file);
+    File idx = new File(indexFile);
+    if (!idx.exists()) return null;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(idx)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+      GZipIndex index = new GZipIndex();
+      index.sourceLength = in.readLong();
+      index.sourceModified = in.readLong();
+      if (index.sourceLength != f.length() ||
+        index.sourceModified != f.lastModified())
+      {
+        return null;
+      }
+      index.length = in.readLong();
+      index.members = new long[in.readInt()];
+      for (int i=0; i<index.members.length; i++) {
+        index.members[i] = in.readLong();
+      }
+      int count = in.readInt();
+      index.offsets = new long[count];
+      index.positions = new long[count];
+      index.memberIndices = new int[count];
+      index.windows = new byte[count][];
+      for (int i=0; i<count; i++) {
+        index.offsets[i] = in.readLong();
+        index.positions[i] = in.readLong();
+        index.memberIndices[i] = in.readInt();
+        index.windows[i] = new byte[in.readInt()];
+        in.readFully(index.windows[i]);
+      }
+      if (count == 0) return null;
+      return index;
+    }
+    catch (IOException e) {
+      return null;
+    }
+    finally {
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException e) { }
+      }
+    }
+  }
+
+  /**
+   * Writes this index to the given file.  The index is written to a
+   * temporary file first, so that concurrent readers never see a partial
+   * index.
+   */
+  void save(String indexFile) throws IOException {
+    File idx = new File(indexFile);
+    File tmp = new File(indexFile + ".tmp" + System.nanoTime());
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmp)));
+    boolean success = false;
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(sourceLength);
+      out.writeLong(sourceModified);
+      out.writeLong(length);
+      out.writeInt(members.length);
+      for (long member : members) {
+        out.writeLong(member);
+      }
+      out.writeInt(offsets.length);
+      for (int i=0; i<offsets.length; i++) {
+        out.writeLong(offsets[i]);
+        out.writeLong(positions[i]);
+        out.writeInt(memberIndices[i]);
+        out.writeInt(windows[i].length);
+        out.write(windows[i]);
+      }
+      out.close();
+      idx.delete();
+      success = tmp.renameTo(idx);
+      if (!success) {
+        throw new IOException("Could not write " + indexFile);
+      }
+    }
+    finally {
+      out.close();
+      if (!success) tmp.delete();
+    }
+  }
+
+  // -- Helper methods --
+
+  private static long[] toArray(List<Long> list) {
+    long[] array = new long[list.size()];
+    for (int i=0; i<array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  // -- Helper classes --
+
+  /** Canonical Huffman code, as described in RFC 1951 section 3.2.2. */
+  private static class Huffman {
+    /** Number of codes of each length. */
+    final int[] count = new int[16];
+
+    /** Symbols ordered by code. */
+    final int[] symbol;
+
+    /**
+     * Lookup table indexed by the next FAST_BITS input bits; each entry
+     * holds (code length << 16) | symbol, or 0 for longer codes.
+     */
+    final int[] table = new int[1 << FAST_BITS];
+
+    Huffman(int[] lengths, int n) throws IOException {
+      symbol = new int[n];
+      for (int i=0; i<n; i++) count[lengths[i]]++;
+      count[0] = 0;
+
+      int left = 1;
+      for (int len=1; len<16; len++) {
+        left = (left << 1) - count[len];
+        if (left < 0) throw new IOException("Over-subscribed Huffman code");
+      }
+
+      int[] offs = new int[16];
+      int[] next = new int[16];
+      int code = 0;
+      for (int len=1; len<16; len++) {
+        offs[len] = len == 1 ? 0 : offs[len - 1] + count[len - 1];
+        code = (code + (len == 1 ? 0 : count[len - 1])) << 1;
+        next[len] = code;
+      }
+      for (int s=0; s<n; s++) {
+        int len = lengths[s];
+        if (len == 0) continue;
+        symbol[offs[len]++] = s;
+        int c = next[len]++;
+        if (len <= FAST_BITS) {
+          int reversed = 0;
+          for (int i=0; i<len; i++) {
+            reversed = (reversed << 1) | ((c >>> i) & 1);
+          }
+          for (int i=reversed; i<table.length; i+=1<<len) {
+            table[i] = (len << 16) | s;
+          }
+        }
+      }
+    }
+  }
+
+  /** Writes bits least significant bit first. */
+  private static class BitWriter {
+    final byte[] buf;
+    private int pos;
+
+    BitWriter(int size) {
+      buf = new byte[size];
+    }
+
+    void bits(int value, int n) {
+      for (int i=0; i<n; i++, pos++) {
+        if (((value >>> i) & 1) != 0) buf[pos >>> 3] |= 1 << (pos & 7);
+      }
+    }
+  }
+
+  /** Deflate decoder that records checkpoints while decompressing. */
+  private static class Builder {
+    private final IRandomAccess in;
+    private final long spacing;
+
+    private final byte[] buf = new byte[65536];
+    private int bufLength, bufPos;
+    private long bufStart;
+
+    private int bitBuffer, bitCount;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long out, memberStart, lastCheckpoint;
+
+    final List<Long> members = new ArrayList<Long>();
+    final List<Long> offsets = new ArrayList<Long>();
+    final List<Long> positions = new ArrayList<Long>();
+    final List<Integer> memberIndices = new ArrayList<Integer>();
+    final List<byte[]> windows = new ArrayList<byte[]>();
+
+    Builder(IRandomAccess in, long offset, long spacing) throws IOException {
+      this.in = in;
+      this.spacing = spacing;
+      in.seek(offset);
+      bufStart = offset;
+      lastCheckpoint = -spacing;
+    }
+
+    GZipIndex toIndex() {
+      GZipIndex index = new GZipIndex();
+      index.length = out;
+      index.members = toArray(members);
+      index.offsets = toArray(offsets);
+      index.positions = toArray(positions);
+      index.memberIndices = new int[memberIndices.size()];
+      for (int i=0; i<index.memberIndices.length; i++) {
+        index.memberIndices[i] = memberIndices.get(i);
+      }
+      index.windows = windows.toArray(new byte[0][]);
+      return index;
+    }
+
+    void runDeflate() throws IOException {
+      members.add(bitPosition());
+      inflate();
+    }
+
+    void run() throws IOException {
+      readHeader();
+      while (true) {
+        members.add(bitPosition());
+        memberStart = out;
+        inflate();
+
+        // skip the CRC-32 and check the uncompressed size
+        bitBuffer >>>= bitCount & 7;
+        bitCount -= bitCount & 7;
+        for (int i=0; i<4; i++) alignedByte();
+        int size = 0;
+        for (int i=0; i<4; i++) size |= alignedByte() << (i * 8);
+        if (size != (int) (out - memberStart)) {
+          throw new IOException("Corrupt gzip member " + members.size());
+        }
+
+        // concatenated members are decompressed as a single stream
+        int id1 = nextAlignedByte();
+        if (id1 < 0) break;
+        int id2 = nextAlignedByte();
+        if (id1 != 0x1f || id2 != 0x8b) break;
+        readHeaderFlags();
+      }
+    }
+
+    private void readHeader() throws IOException {
+      if (alignedByte() != 0x1f || alignedByte() != 0x8b) {
+        throw new IOException("Not a gzip file");
+      }
+      readHeaderFlags();
+    }
+
+    private void readHeaderFlags() throws IOException {
+      if (alignedByte() != 8) {
+        throw new IOException("Unsupported gzip compression method");
+      }
+      int flags = alignedByte();
+      for (int i=0; i<6; i++) alignedByte();
+      if ((flags & 4) != 0) {
+        int extra = alignedByte() | (alignedByte() << 8);
+        for (int i=0; i<extra; i++) alignedByte();
+      }
+      if ((flags & 8) != 0) {
+        while (alignedByte() != 0);
+      }
+      if ((flags & 16) != 0) {
+        while (alignedByte() != 0);
+      }
+      if ((flags & 2) != 0) {
+        alignedByte();
+        alignedByte();
+      }
+    }
+
+    private void inflate() throws IOException {
+      boolean last;
+      do {
+        if (out - lastCheckpoint >= spacing) checkpoint();
+        last = bits(1) == 1;
+        int type = bits(2);
+        if (type == 0) stored();
+        else if (type == 1) codes(FIXED_LENGTHS, FIXED_DISTANCES);
+        else if (type == 2) dynamic();
+        else throw new IOException("Invalid deflate block type");
+      }
+      while (!last);
+    }
+
+    private void checkpoint() {
+      int size = (int) Math.min(out - memberStart, WINDOW_SIZE);
+      byte[] history = new byte[size];
+      int start = (int) ((out - size) & WINDOW_MASK);
+      int first = Math.min(size, WINDOW_SIZE - start);
+      System.arraycopy(window, start, history, 0, first);
+      System.arraycopy(window, 0, history, first, size - first);
+
+      offsets.add(out);
+      positions.add(bitPosition());
+      memberIndices.add(members.size() - 1);
+      windows.add(history);
+      lastCheckpoint = out;
+    }
+
+    private void stored() throws IOException {
+      bitBuffer >>>= bitCount & 7;
+      bitCount -= bitCount & 7;
+      int len = bits(16);
+      if ((bits(16) ^ 0xffff) != len) {
+        throw new IOException("Invalid stored block length");
+      }
+      for (int i=0; i<len; i++) {
+        window[(int) (out++ & WINDOW_MASK)] = (byte) alignedByte();
+      }
+    }
+
+    private void dynamic() throws IOException {
+      int nlen = bits(5) + 257;
+      int ndist = bits(5) + 1;
+      int ncode = bits(4) + 4;
+      if (nlen > 286 || ndist > 30) {
+        throw new IOException("Invalid dynamic block header");
+      }
+
+      int[] lengths = new int[320];
+      for (int i=0; i<ncode; i++) {
+        lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+      }
+      Huffman lencode = new Huffman(lengths, 19);
+
+      int index = 0;
+      while (index < nlen + ndist) {
+        int symbol = decode(lencode);
+        if (symbol < 16) {
+          lengths[index++] = symbol;
+          continue;
+        }
+        int value = 0, repeat;
+        if (symbol == 16) {
+          if (index == 0) throw new IOException("Invalid length repeat");
+          value = lengths[index - 1];
+          repeat = 3 + bits(2);
+        }
+        else if (symbol == 17) repeat = 3 + bits(3);
+        else repeat = 11 + bits(7);
+        if (index + repeat > nlen + ndist) {
+          throw new IOException("Too many code lengths");
+        }
+        while (repeat-- > 0) lengths[index++] = value;
+      }
+
+      int[] distances = new int[ndist];
+      System.arraycopy(lengths, nlen, distances, 0, ndist);
+      codes(new Huffman(lengths, nlen), new Huffman(distances, ndist));
+    }
+
+    private void codes(Huffman lencode, Huffman distcode) throws IOException {
+      while (true) {
+        int symbol = decode(lencode);
+        if (symbol < 256) {
+          window[(int) (out++ & WINDOW_MASK)] = (byte) symbol;
+        }
+        else if (symbol == 256) {
+          return;
+        }
+        else {
+          symbol -= 257;
+          if (symbol >= 29) throw new IOException("Invalid length code");
+          int len = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+          symbol = decode(distcode);
+          if (symbol >= 30) throw new IOException("Invalid distance code");
+          int dist = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+          if (dist > out - memberStart) {
+            throw new IOException("Distance too far back");
+          }
+          for (int i=0; i<len; i++) {
+            window[(int) (out & WINDOW_MASK)] =
+              window[(int) ((out - dist) & WINDOW_MASK)];
+            out++;
+          }
+        }
+      }
+    }
+
+    private int decode(Huffman h) throws IOException {
+      fill(FAST_BITS);
+      if (bitCount >= FAST_BITS) {
+        int entry = h.table[bitBuffer & ((1 << FAST_BITS) - 1)];
+        if (entry != 0) {
+          int len = entry >>> 16;
+          bitBuffer >>>= len;
+          bitCount -= len;
+          return entry & 0xffff;
+        }
+      }
+
+      int code = 0, first = 0, index = 0;
+      for (int len=1; len<16; len++) {
+        code |= bits(1);
+        int count = h.count[len];
+        if (code - count < first) return h.symbol[index + (code - first)];
+        index += count;
+        first = (first + count) << 1;
+        code <<= 1;
+      }
+      throw new IOException("Invalid Huffman code");
+    }
+
+    /** Reads the given number of bits, least significant bit first. */
+    private int bits(int n) throws IOException {
+      if (n == 0) return 0;
+      fill(n);
+      if (bitCount < n) throw new EOFException("Truncated gzip file");
+      int value = bitBuffer & ((1 << n) - 1);
+      bitBuffer >>>= n;
+      bitCount -= n;
+      return value;
+    }
+
+    /** Buffers at least n bits, if that many remain in the file. */
+    private void fill(int n) throws IOException {
+      while (bitCount < n) {
+        int b = nextByte();
+        if (b < 0) return;
+        bitBuffer |= b << bitCount;
+        bitCount += 8;
+      }
+    }
+
+    /** Reads a byte when the bit stream is at a byte boundary. */
+    private int alignedByte() throws IOException {
+      int b = nextAlignedByte();
+      if (b < 0) throw new EOFException("Truncated gzip file");
+      return b;
+    }
+
+    private int nextAlignedByte() throws IOException {
+      if (bitCount >= 8) return bits(8);
+      return nextByte();
+    }
+
+    private int nextByte() throws IOException {
+      if (bufPos == bufLength) {
+        bufStart += bufLength;
+        bufPos = 0;
+        bufLength = Math.max(in.read(buf), 0);
+        if (bufLength == 0) return -1;
+      }
+      return buf[bufPos++] & 0xff;
+    }
+
+    /** Returns the position of the next unread bit in the file. */
+    private long bitPosition() {
+      return (bufStart + bufPos) * 8 - bitCount;
+    }
+  }
+
+}
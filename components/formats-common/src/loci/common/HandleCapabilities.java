@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common;
+
+/**
+ * Optional interface through which an {@link IRandomAccess} implementation
+ * describes its performance characteristics, so that callers can choose
+ * suitable I/O patterns.  Handles that do not implement this interface are
+ * assumed to support none of the listed capabilities.
+ *
+ * @see RandomAccessInputStream#getPreferredBlockSize()
+ */
+public interface HandleCapabilities {
+
+  /**
+   * Returns true if {@link IRandomAccess#read(long, java.nio.ByteBuffer)}
+   * may be called from several threads at once without the calls being
+   * serialized.
+   */
+  boolean supportsConcurrentReads();
+
+  /**
+   * Returns true if the whole of the data is mapped into memory, so that
+   * reads are memory copies.
+   */
+  boolean isMemoryMapped();
+
+  /**
+   * Gets the smallest read size, in bytes, for which the cost of a read is
+   * dominated by the amount of data rather than by per-request overhead;
+   * callers should combine smaller nearby reads into reads of at least this
+   * size.  Returns 0 if small reads are cheap.
+   */
+  int getPreferredBlockSize();
+
+}
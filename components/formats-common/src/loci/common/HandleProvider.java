@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common;
+
+import java.io.IOException;
+
+/**
+ * Interface for classes that create {@link IRandomAccess} handles for a
+ * particular kind of storage.  Providers are registered with
+ * {@link Location#registerHandleProvider(String, HandleProvider)} for a
+ * URI scheme, or with {@link Location#registerHandleProvider(HandleProvider)}
+ * to be offered every id, and are then used by
+ * {@link Location#getHandle(String, boolean, boolean)}.
+ *
+ * Handles which can describe their own performance characteristics should
+ * also implement {@link HandleCapabilities}.
+ */
+public interface HandleProvider {
+
+  /**
+   * Checks whether this provider can open the given id.  Only called for
+   * providers that are not registered for a URI scheme.
+   *
+   * @param id the id as passed to {@link Location#getHandle(String)}
+   */
+  boolean isThisType(String id);
+
+  /**
+   * Creates a handle for the given id.
+   *
+   * @param id the id, after any mapping set with
+   *   {@link Location#mapId(String, String)} has been applied
+   * @param writable true if the handle must support writing
+   * @throws IOException if the handle cannot be created
+   */
+  IRandomAccess getHandle(String id, boolean writable) throws IOException;
+
+}
@@ -100,6 +100,22 @@ public interface IRandomAccess extends DataInput, DataOutput {
    */
   int read(ByteBuffer buffer, int offset, int len) throws IOException;
 
+  /**
+   * Reads up to dst.remaining() bytes of data, starting at the given offset
+   * within this stream, into the given ByteBuffer.  The stream pointer is
+   * neither used nor changed, so this method can be called by several
+   * threads at once on the same instance.
+   *
+   * File-backed implementations read without locking.  Compressed and
+   * network streams have no random access, and emulate this method by
+   * seeking under a lock; for those, positional reads must not be mixed with
+   * concurrent reads that use the stream pointer.
+   *
+   * @return the total number of bytes read into the buffer, or -1 if
+   *   pos is at or beyond the end of the stream.
+   */
+  int read(long pos, ByteBuffer dst) throws IOException;
+
   /**
    * Sets the stream pointer offset, measured from the beginning
    * of this stream, at which the next read or write occurs.
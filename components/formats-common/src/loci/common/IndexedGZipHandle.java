@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StreamHandle implementation for reading from gzip-compressed files, with
+ * support for efficient backwards seeking.
+ *
+ * GZipHandle has to decompress the file from the beginning whenever it seeks
+ * backwards, which makes reading planes in any order other than increasing
+ * offset quadratic in the size of the file.  IndexedGZipHandle reads
+ * sequentially in exactly the same way, but the first time a backwards seek
+ * is needed it decompresses the file once more to build an index of
+ * checkpoints (see {@link #setCheckpointSpacing(long)}).  Each subsequent
+ * seek resumes decompression from the nearest preceding checkpoint, so at
+ * most one checkpoint interval has to be decompressed and discarded.
+ *
+ * If {@link #setPersistIndexes(boolean)} is enabled, the index is also
+ * written next to the gzip file (with the suffix {@link #INDEX_SUFFIX})
+ * and reused the next time the file is opened, as long as the gzip file
+ * has not been modified.  Instances of IndexedGZipHandle are read-only.
+ *
+ * @see GZipHandle
+ */
+public class IndexedGZipHandle extends StreamHandle {
+
+  // -- Constants --
+
+  /** Default number of uncompressed bytes between checkpoints. */
+  public static final long DEFAULT_CHECKPOINT_SPACING = 4 * 1024 * 1024;
+
+  /** Suffix appended to the gzip file name to form the index file name. */
+  public static final String INDEX_SUFFIX = ".bfgzi";
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(IndexedGZipHandle.class);
+
+  // -- Static fields --
+
+  /** Whether or not indexes are read from and written to disk. */
+  private static boolean persistIndexes = false;
+
+  // -- Fields --
+
+  /** Number of uncompressed bytes between checkpoints. */
+  private long spacing = DEFAULT_CHECKPOINT_SPACING;
+
+  /** Checkpoint index; null until a backwards seek requires it. */
+  private GZipIndex index;
+
+  /** Handle on the compressed data, used when resuming at a checkpoint. */
+  private IRandomAccess raw;
+
+  // -- Constructor --
+
+  /**
+   * Construct a new IndexedGZipHandle for the given file.
+   *
+   * @throws HandleException if the given file name is not a GZip file.
+   */
+  public IndexedGZipHandle(String file) throws IOException {
+    super();
+    this.file = file;
+    if (!GZipHandle.isGZipFile(file)) {
+      throw new HandleException(file + " is not a gzip file.");
+    }
+
+    if (persistIndexes) {
+      index = GZipIndex.load(file, file + INDEX_SUFFIX);
+    }
+
+    if (index != null) {
+      length = index.getLength();
+    }
+    else {
+      resetStream();
+      length = 0;
+      while (true) {
+        int skip = stream.skipBytes(1024);
+        if (skip <= 0) break;
+        length += skip;
+      }
+    }
+
+    resetStream();
+  }
+
+  // -- IndexedGZipHandle API methods --
+
+  /**
+   * Sets whether or not checkpoint indexes are stored next to the
+   * corresponding gzip files, so that they can be reused by later
+   * instances.  Defaults to false.
+   */
+  public static synchronized void setPersistIndexes(boolean persist) {
+    persistIndexes = persist;
+  }
+
+  /** Returns true if checkpoint indexes are stored on disk. */
+  public static synchronized boolean isPersistIndexes() {
+    return persistIndexes;
+  }
+
+  /**
+   * Sets the approximate number of uncompressed bytes between checkpoints.
+   * Each checkpoint requires 32 KB of memory; checkpoints are only placed
+   * at deflate block boundaries, so the actual spacing may be larger.
+   * This has no effect once the index has been built.
+   */
+  public void setCheckpointSpacing(long spacing) {
+    if (spacing <= 0) {
+      throw new IllegalArgumentException("Invalid spacing: " + spacing);
+    }
+    this.spacing = spacing;
+  }
+
+  /** Returns the approximate number of uncompressed bytes per checkpoint. */
+  public long getCheckpointSpacing() {
+    return spacing;
+  }
+
+  /** Returns true if the checkpoint index has been built or loaded. */
+  public boolean isIndexed() {
+    return index != null;
+  }
+
+  /** Returns the number of checkpoints, or 0 if there is no index yet. */
+  public int getCheckpointCount() {
+    return index == null ? 0 : index.getCheckpointCount();
+  }
+
+  /**
+   * Builds the checkpoint index now, instead of waiting for the first
+   * backwards seek.  Does nothing if the index already exists.
+   */
+  public void buildIndex() throws IOException {
+    if (index != null) return;
+    index = GZipIndex.build(file, spacing);
+    if (index.getLength() != length) {
+      LOGGER.debug("Index length {} does not match stream length {}",
+        index.getLength(), length);
+    }
+    if (isPersistIndexes()) {
+      try {
+        index.save(file + INDEX_SUFFIX);
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not save gzip index for " + file, e);
+      }
+    }
+  }
+
+  // -- IRandomAccess API methods --
+
+  /* @see IRandomAccess#close() */
+  public void close() throws IOException {
+    super.close();
+    if (raw != null) raw.close();
+    raw = null;
+  }
+
+  /* @see IRandomAccess#seek(long) */
+  public void seek(long pos) throws IOException {
+    if (pos >= fp && (pos - fp < spacing || index == null)) {
+      super.seek(pos);
+      return;
+    }
+    if (index == null && length <= spacing) {
+      super.seek(pos);
+      return;
+    }
+    buildIndex();
+
+    int checkpoint = index.findCheckpoint(pos);
+    long offset = index.getOffset(checkpoint);
+    if (pos >= fp && offset <= fp) {
+      super.seek(pos);
+      return;
+    }
+
+    if (stream != null) stream.close();
+    if (raw == null) raw = new NIOFileHandle(file, "r");
+    stream =
+      new DataInputStream(new CheckpointInputStream(raw, index, checkpoint));
+    fp = mark = offset;
+    super.seek(pos);
+  }
+
+  // -- StreamHandle API methods --
+
+  /* @see StreamHandle#resetStream() */
+  protected void resetStream() throws IOException {
+    if (stream != null) stream.close();
+    BufferedInputStream bis = new BufferedInputStream(
+      new FileInputStream(file), RandomAccessInputStream.MAX_OVERHEAD);
+    stream = new DataInputStream(new GZIPInputStream(bis));
+  }
+
+}
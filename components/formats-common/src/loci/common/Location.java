@@ -40,7 +40,12 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,6 +93,41 @@ public class Location {
   private static ConcurrentHashMap<String, ListingsResult> fileListings =
     new ConcurrentHashMap<String, ListingsResult>();
 
+  /**
+   * Attributes of local files, keyed by absolute path.  Only used while
+   * directory listings are cached, and expires along with them.
+   */
+  private static class FileStats {
+    public final long time;
+    public volatile Boolean exists;
+    public volatile Boolean directory;
+    public volatile Long length;
+    public volatile Long lastModified;
+    /** Names of the entries in this directory, if it has been listed. */
+    public volatile Set<String> children;
+    /** Lower case names of the entries in this directory. */
+    public volatile Set<String> lowerCaseChildren;
+    FileStats(long time) {
+      this.time = time;
+    }
+  }
+  private static ConcurrentHashMap<String, FileStats> fileStats =
+    new ConcurrentHashMap<String, FileStats>();
+
+  /** Number of file attribute queries answered from the cache. */
+  private static AtomicLong statHits = new AtomicLong();
+
+  /** Number of file attribute queries passed to the file system. */
+  private static AtomicLong statMisses = new AtomicLong();
+
+  /** Handle providers registered for a URI scheme, keyed by scheme. */
+  private static ConcurrentHashMap<String, HandleProvider> schemeProviders =
+    new ConcurrentHashMap<String, HandleProvider>();
+
+  /** Handle providers that are offered every id, most recent first. */
+  private static List<HandleProvider> handleProviders =
+    new CopyOnWriteArrayList<HandleProvider>();
+
   // -- Fields --
 
   private boolean isURL = true;
@@ -139,6 +179,9 @@ public class Location {
     cacheListings = false;
     cacheNanos = 60L * 60L * 1000L * 1000L * 1000L;
     fileListings.clear();
+    fileStats.clear();
+    statHits.set(0);
+    statMisses.set(0);
     getIdMap().clear();
   }
 
@@ -156,6 +199,13 @@ public class Location {
    * Reasons not to cache - the contents of the directories might change
    * during the program invocation.
    *
+   * While cacheing is on, the results of {@link #exists()},
+   * {@link #isDirectory()}, {@link #isFile()}, {@link #length()} and
+   * {@link #lastModified()} for local files are cached too, with the same
+   * timeout.  Listing a directory records which entries it contains, so
+   * that existence checks for files in that directory do not need to query
+   * the file system at all.
+   *
    * @param cache - true to turn cacheing on, false to leave it off.
    */
   public static void cacheDirectoryListings(boolean cache) {
@@ -179,6 +229,7 @@ public class Location {
    */
   public static void clearDirectoryListingsCache() {
     fileListings = new ConcurrentHashMap<String, ListingsResult>();
+    fileStats = new ConcurrentHashMap<String, FileStats>();
   }
 
   /**
@@ -195,6 +246,36 @@ public class Location {
     for (String key : staleKeys) {
       fileListings.remove(key);
     }
+    staleKeys.clear();
+    for (String key : fileStats.keySet()) {
+      if (fileStats.get(key).time < t) {
+        staleKeys.add(key);
+      }
+    }
+    for (String key : staleKeys) {
+      fileStats.remove(key);
+    }
+  }
+
+  /**
+   * Gets the number of calls to {@link #exists()}, {@link #isDirectory()},
+   * {@link #isFile()}, {@link #length()} and {@link #lastModified()} that
+   * were answered from the cache since the last {@link #reset()}.
+   * @see #cacheDirectoryListings(boolean)
+   */
+  public static long getStatCacheHits() {
+    return statHits.get();
+  }
+
+  /**
+   * Gets the number of calls to {@link #exists()}, {@link #isDirectory()},
+   * {@link #isFile()}, {@link #length()} and {@link #lastModified()} that
+   * queried the file system while cacheing was on, since the last
+   * {@link #reset()}.
+   * @see #cacheDirectoryListings(boolean)
+   */
+  public static long getStatCacheMisses() {
+    return statMisses.get();
   }
 
   /**
@@ -250,6 +331,38 @@ public class Location {
     return ira;
   }
 
+  /**
+   * Registers a provider which creates the handles for all ids that use the
+   * given URI scheme, i.e. that start with the scheme followed by "://".
+   * The scheme is not case-sensitive.  Scheme providers take precedence over
+   * all other providers, including the built-in ones, and replace any
+   * provider previously registered for the same scheme.
+   */
+  public static void registerHandleProvider(String scheme,
+    HandleProvider provider)
+  {
+    schemeProviders.put(scheme.toLowerCase(), provider);
+    LOGGER.debug("Location.registerHandleProvider: {} -> {}",
+      scheme, provider);
+  }
+
+  /**
+   * Registers a provider which is offered every id that no scheme provider
+   * handles, and creates the handle for those ids accepted by its
+   * {@link HandleProvider#isThisType(String)} method.  Providers are asked
+   * in reverse order of registration, before the built-in handles.
+   */
+  public static void registerHandleProvider(HandleProvider provider) {
+    handleProviders.add(0, provider);
+    LOGGER.debug("Location.registerHandleProvider: {}", provider);
+  }
+
+  /** Removes all registrations of the given provider. */
+  public static void unregisterHandleProvider(HandleProvider provider) {
+    handleProviders.remove(provider);
+    schemeProviders.values().remove(provider);
+  }
+
   /** Return the id mapping. */
   public static HashMap<String, Object> getIdMap() {
     return idMap.get();
@@ -285,6 +398,9 @@ public class Location {
 
   /**
    * Gets an IRandomAccess object that can read from or write to the given file.
+   * Handles mapped with {@link #mapFile(String, IRandomAccess)} are returned
+   * first, then those created by any registered {@link HandleProvider},
+   * and finally the built-in handles.
    * @see IRandomAccess
    */
   public static IRandomAccess getHandle(String id, boolean writable,
@@ -295,18 +411,28 @@ public class Location {
     if (handle == null) {
       LOGGER.trace("no handle was mapped for this ID");
       String mapId = getMappedId(id);
+      HandleProvider provider = getHandleProvider(id);
 
-      if (id.startsWith("http://")) {
-        handle = new URLHandle(mapId);
+      if (provider != null) {
+        handle = provider.getHandle(mapId, writable);
+      }
+      else if (id.startsWith("http://") || id.startsWith("https://")) {
+        try {
+          handle = new RangeURLHandle(mapId);
+        }
+        catch (HandleException e) {
+          LOGGER.debug("Could not use range requests for {}", id, e);
+          handle = new URLHandle(mapId);
+        }
       }
       else if (allowArchiveHandles && ZipHandle.isZipFile(id)) {
         handle = new ZipHandle(mapId);
       }
       else if (allowArchiveHandles && GZipHandle.isGZipFile(id)) {
-        handle = new GZipHandle(mapId);
+        handle = new IndexedGZipHandle(mapId);
       }
       else if (allowArchiveHandles && BZip2Handle.isBZip2File(id)) {
-        handle = new BZip2Handle(mapId);
+        handle = new ParallelBZip2Handle(mapId);
       }
       else {
         handle = new NIOFileHandle(mapId, writable ? "rw" : "r");
@@ -316,6 +442,25 @@ public class Location {
     return handle;
   }
 
+  /**
+   * Gets the registered provider that should create the handle for the
+   * given id, or null if the built-in handles should be used.
+   */
+  private static HandleProvider getHandleProvider(String id) {
+    if (!schemeProviders.isEmpty()) {
+      int end = id.indexOf("://");
+      if (end > 0) {
+        HandleProvider provider =
+          schemeProviders.get(id.substring(0, end).toLowerCase());
+        if (provider != null) return provider;
+      }
+    }
+    for (HandleProvider provider : handleProviders) {
+      if (provider.isThisType(id)) return provider;
+    }
+    return null;
+  }
+
   /**
    * Checks that the given id points at a valid data stream.
    *
@@ -396,6 +541,7 @@ public class Location {
       String[] f = file.list();
       if (f == null) return null;
       String path = file.getAbsolutePath();
+      if (cacheListings) cacheChildren(f);
       for (String name : f) {
         if (!noHiddenFiles || !(name.startsWith(".") ||
           new Location(path, name).isHidden()))
@@ -448,6 +594,7 @@ public class Location {
    */
   public boolean createNewFile() throws IOException {
     if (isURL) throw new IOException("Unimplemented");
+    invalidateStats();
     return file.createNewFile();
   }
 
@@ -463,6 +610,7 @@ public class Location {
     if (file == null) {
       return false;
     }
+    invalidateStats();
     return file.mkdirs();
   }
 
@@ -474,7 +622,9 @@ public class Location {
    * @see java.io.File#delete()
    */
   public boolean delete() {
-    return isURL ? false : file.delete();
+    if (isURL) return false;
+    invalidateStats();
+    return file.delete();
   }
 
   /**
@@ -527,7 +677,7 @@ public class Location {
         return false;
       }
     }
-    if (file.exists()) return true;
+    if (existsOnDisk()) return true;
     if (getMappedFile(file.getPath()) != null) return true;
 
     String mappedId = getMappedId(file.getPath());
@@ -620,7 +770,15 @@ public class Location {
       String[] list = list();
       return list != null;
     }
-    return file.isDirectory();
+    FileStats stats = getStats();
+    if (stats == null) return file.isDirectory();
+    if (stats.directory == null) {
+      if (!existsOnDisk()) return false;
+      statMisses.incrementAndGet();
+      stats.directory = file.isDirectory();
+    }
+    else statHits.incrementAndGet();
+    return stats.directory;
   }
 
   /**
@@ -629,7 +787,9 @@ public class Location {
    * @see java.io.File#exists()
    */
   public boolean isFile() {
-    return isURL ? (!isDirectory() && exists()) : file.isFile();
+    if (isURL) return !isDirectory() && exists();
+    if (getStats() == null) return file.isFile();
+    return existsOnDisk() && !isDirectory();
   }
 
   /**
@@ -666,7 +826,15 @@ public class Location {
         return 0;
       }
     }
-    return file.lastModified();
+    FileStats stats = getStats();
+    if (stats == null) return file.lastModified();
+    if (stats.lastModified == null) {
+      if (!existsOnDisk()) return 0;
+      statMisses.incrementAndGet();
+      stats.lastModified = file.lastModified();
+    }
+    else statHits.incrementAndGet();
+    return stats.lastModified;
   }
 
   /**
@@ -683,7 +851,15 @@ public class Location {
         return 0;
       }
     }
-    return file.length();
+    FileStats stats = getStats();
+    if (stats == null) return file.length();
+    if (stats.length == null) {
+      if (!existsOnDisk()) return 0;
+      statMisses.incrementAndGet();
+      stats.length = file.length();
+    }
+    else statHits.incrementAndGet();
+    return stats.length;
   }
 
   /**
@@ -728,4 +904,96 @@ public class Location {
     return isURL ? url.toString() : file.toString();
   }
 
+  // -- Helper methods --
+
+  /**
+   * Gets the cached attributes of this local file, creating an empty entry
+   * if there is none or it has expired.  Returns null if attributes are not
+   * being cached.
+   */
+  private FileStats getStats() {
+    if (!cacheListings || file == null) return null;
+    String path = file.getAbsolutePath();
+    long now = System.nanoTime();
+    FileStats stats = fileStats.get(path);
+    if (stats == null || stats.time < now - cacheNanos) {
+      stats = new FileStats(now);
+      fileStats.put(path, stats);
+    }
+    return stats;
+  }
+
+  /**
+   * Returns whether this local file exists, consulting the cached listing
+   * of the parent directory before the file system.
+   */
+  private boolean existsOnDisk() {
+    FileStats stats = getStats();
+    if (stats == null) return file.exists();
+    if (stats.exists == null) {
+      Boolean listed = isListedInParent();
+      if (listed == null) {
+        statMisses.incrementAndGet();
+        stats.exists = file.exists();
+      }
+      else {
+        statHits.incrementAndGet();
+        stats.exists = listed;
+      }
+    }
+    else statHits.incrementAndGet();
+    return stats.exists;
+  }
+
+  /**
+   * Checks whether this file appears in the cached listing of its parent
+   * directory.  Returns null if the parent has not been listed, or if the
+   * listing only contains a name that differs from this file's name in
+   * case, which may or may not refer to this file.
+   */
+  private Boolean isListedInParent() {
+    String parent = file.getAbsoluteFile().getParent();
+    FileStats stats = parent == null ? null : fileStats.get(parent);
+    if (stats == null || stats.children == null ||
+      stats.time < System.nanoTime() - cacheNanos)
+    {
+      return null;
+    }
+    String name = file.getName();
+    if (stats.children.contains(name)) return Boolean.TRUE;
+    if (!stats.lowerCaseChildren.contains(name.toLowerCase())) {
+      return Boolean.FALSE;
+    }
+    return null;
+  }
+
+  /** Records the entries of this directory in the attribute cache. */
+  private void cacheChildren(String[] names) {
+    Set<String> children = new HashSet<String>();
+    Set<String> lowerCaseChildren = new HashSet<String>();
+    for (String name : names) {
+      children.add(name);
+      lowerCaseChildren.add(name.toLowerCase());
+    }
+    FileStats stats = new FileStats(System.nanoTime());
+    stats.exists = Boolean.TRUE;
+    stats.directory = Boolean.TRUE;
+    stats.lowerCaseChildren = lowerCaseChildren;
+    stats.children = children;
+    fileStats.put(file.getAbsolutePath(), stats);
+  }
+
+  /**
+   * Removes the cached attributes of this file and its ancestors, before
+   * this file is created or deleted.
+   */
+  private void invalidateStats() {
+    if (file == null) return;
+    File f = file.getAbsoluteFile();
+    while (f != null) {
+      fileStats.remove(f.getAbsolutePath());
+      f = f.getParentFile();
+    }
+  }
+
 }
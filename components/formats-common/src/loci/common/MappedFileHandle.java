@@ -0,0 +1,453 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only IRandomAccess implementation that memory maps an entire file.
+ *
+ * NIOFileHandle reads through a buffer window that is refilled (or, with
+ * the "mappedBuffers" system property, remapped) whenever a read falls
+ * outside of it.  MappedFileHandle instead maps the whole file once, in
+ * segments of up to 1 GB, and serves every read and seek directly from the
+ * mapped segments.  This is well suited to random access on local disks,
+ * e.g. reading tiles in arbitrary order.
+ *
+ * To use a MappedFileHandle for a particular file, register it with
+ * {@link Location#mapFile(String, IRandomAccess)}:
+ * <pre>
+ *   Location.mapFile(id, new MappedFileHandle(id));
+ * </pre>
+ *
+ * Files are mapped into the virtual address space of the process, so this
+ * class is best used on 64-bit JVMs.  Instances of MappedFileHandle are
+ * read-only.
+ *
+ * @see NIOFileHandle
+ */
+public class MappedFileHandle extends AbstractNIOHandle
+  implements HandleCapabilities
+{
+
+  // -- Constants --
+
+  /** Number of bits used for the offset within a segment. */
+  private static final int SEGMENT_BITS = 30;
+
+  /** Maximum size of each mapped segment (1 GB). */
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+  private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  // -- Fields --
+
+  private RandomAccessFile raf;
+
+  /** Mapped segments of the file. */
+  private MappedByteBuffer[] segments;
+
+  /** Length of the file at the time it was mapped. */
+  private long length;
+
+  /** Current position within the file. */
+  private long position;
+
+  /** Byte ordering of this handle. */
+  private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+  // -- Constructors --
+
+  /** Maps the given file for reading. */
+  public MappedFileHandle(File file) throws IOException {
+    raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      length = channel.size();
+      int count = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+      segments = new MappedByteBuffer[count];
+      for (int i=0; i<count; i++) {
+        long start = (long) i << SEGMENT_BITS;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+          start, Math.min(SEGMENT_SIZE, length - start));
+        segments[i].order(order);
+      }
+    }
+    catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /** Maps the file with the given name for reading. */
+  public MappedFileHandle(String name) throws IOException {
+    this(new File(name));
+  }
+
+  // -- AbstractNIOHandle API methods --
+
+  /* @see AbstractNIOHandle.setLength(long) */
+  public void setLength(long length) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  // -- HandleCapabilities API methods --
+
+  /* @see HandleCapabilities.supportsConcurrentReads() */
+  public boolean supportsConcurrentReads() {
+    return true;
+  }
+
+  /* @see HandleCapabilities.isMemoryMapped() */
+  public boolean isMemoryMapped() {
+    return true;
+  }
+
+  /* @see HandleCapabilities.getPreferredBlockSize() */
+  public int getPreferredBlockSize() {
+    return 0;
+  }
+
+  // -- IRandomAccess API methods --
+
+  /* @see IRandomAccess.close() */
+  public void close() throws IOException {
+    segments = null;
+    raf.close();
+  }
+
+  /* @see IRandomAccess.getFilePointer() */
+  public long getFilePointer() {
+    return position;
+  }
+
+  /* @see IRandomAccess.length() */
+  public long length() {
+    return length;
+  }
+
+  /* @see IRandomAccess.getOrder() */
+  public ByteOrder getOrder() {
+    return order;
+  }
+
+  /* @see IRandomAccess.setOrder(ByteOrder) */
+  public void setOrder(ByteOrder order) {
+    this.order = order;
+    for (MappedByteBuffer segment : segments) {
+      segment.order(order);
+    }
+  }
+
+  /* @see IRandomAccess.read(byte[]) */
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  /* @see IRandomAccess.read(byte[], int, int) */
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = (int) Math.max(0, Math.min(len, length - position));
+    int read = 0;
+    while (read < n) {
+      MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+      int offset = (int) (position & SEGMENT_MASK);
+      int count = Math.min(n - read, segment.limit() - offset);
+      segment.position(offset);
+      segment.get(b, off + read, count);
+      read += count;
+      position += count;
+    }
+    return read;
+  }
+
+  /* @see IRandomAccess.read(ByteBuffer) */
+  public int read(ByteBuffer buf) throws IOException {
+    return read(buf, 0, buf.capacity());
+  }
+
+  /* @see IRandomAccess.read(ByteBuffer, int, int) */
+  public int read(ByteBuffer buf, int off, int len) throws IOException {
+    buf.position(off);
+    buf.limit(off + len);
+    int n = read(position, buf);
+    if (n < 0) return 0;
+    position += n;
+    return n;
+  }
+
+  /* @see IRandomAccess.read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    if (pos >= length) return -1;
+    int n = (int) Math.min(dst.remaining(), length - pos);
+    int read = 0;
+    while (read < n) {
+      long p = pos + read;
+      ByteBuffer source = segments[(int) (p >>> SEGMENT_BITS)].duplicate();
+      int offset = (int) (p & SEGMENT_MASK);
+      int count = Math.min(n - read, source.limit() - offset);
+      source.limit(offset + count);
+      source.position(offset);
+      dst.put(source);
+      read += count;
+    }
+    return read;
+  }
+
+  /* @see IRandomAccess.seek(long) */
+  public void seek(long pos) throws IOException {
+    position = pos;
+  }
+
+  /* @see java.io.DataInput.readBoolean() */
+  public boolean readBoolean() throws IOException {
+    return readByte() == 1;
+  }
+
+  /* @see java.io.DataInput.readByte() */
+  public byte readByte() throws IOException {
+    if (position < 0 || position >= length) {
+      throw new EOFException(EOF_ERROR_MSG);
+    }
+    byte b = segments[(int) (position >>> SEGMENT_BITS)].get(
+      (int) (position & SEGMENT_MASK));
+    position++;
+    return b;
+  }
+
+  /* @see java.io.DataInput.readChar() */
+  public char readChar() throws IOException {
+    return (char) readShort();
+  }
+
+  /* @see java.io.DataInput.readDouble() */
+  public double readDouble() throws IOException {
+    return Double.longBitsToDouble(readLong());
+  }
+
+  /* @see java.io.DataInput.readFloat() */
+  public float readFloat() throws IOException {
+    return Float.intBitsToFloat(readInt());
+  }
+
+  /* @see java.io.DataInput.readFully(byte[]) */
+  public void readFully(byte[] b) throws IOException {
+    read(b);
+  }
+
+  /* @see java.io.DataInput.readFully(byte[], int, int) */
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    read(b, off, len);
+  }
+
+  /* @see java.io.DataInput.readInt() */
+  public int readInt() throws IOException {
+    MappedByteBuffer segment = segment(4);
+    int value = segment == null ? (int) readValue(4) :
+      segment.getInt((int) (position & SEGMENT_MASK));
+    position += 4;
+    return value;
+  }
+
+  /* @see java.io.DataInput.readLine() */
+  public String readLine() throws IOException {
+    raf.seek(position);
+    String line = raf.readLine();
+    position = raf.getFilePointer();
+    return line;
+  }
+
+  /* @see java.io.DataInput.readLong() */
+  public long readLong() throws IOException {
+    MappedByteBuffer segment = segment(8);
+    long value = segment == null ? readValue(8) :
+      segment.getLong((int) (position & SEGMENT_MASK));
+    position += 8;
+    return value;
+  }
+
+  /* @see java.io.DataInput.readShort() */
+  public short readShort() throws IOException {
+    MappedByteBuffer segment = segment(2);
+    short value = segment == null ? (short) readValue(2) :
+      segment.getShort((int) (position & SEGMENT_MASK));
+    position += 2;
+    return value;
+  }
+
+  /* @see java.io.DataInput.readUnsignedByte() */
+  public int readUnsignedByte() throws IOException {
+    return readByte() & 0xFF;
+  }
+
+  /* @see java.io.DataInput.readUnsignedShort() */
+  public int readUnsignedShort() throws IOException {
+    return readShort() & 0xFFFF;
+  }
+
+  /* @see java.io.DataInput.readUTF() */
+  public String readUTF() throws IOException {
+    raf.seek(position);
+    String utf8 = raf.readUTF();
+    position = raf.getFilePointer();
+    return utf8;
+  }
+
+  /* @see java.io.DataInput.skipBytes(int) */
+  public int skipBytes(int n) throws IOException {
+    int skipped = (int) Math.max(0, Math.min(n, length - position));
+    position += skipped;
+    return skipped;
+  }
+
+  // -- DataOutput API methods --
+
+  /* @see java.io.DataOutput.write(byte[]) */
+  public void write(byte[] b) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.write(byte[], int, int) */
+  public void write(byte[] b, int off, int len) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see IRandomAccess.write(ByteBuffer) */
+  public void write(ByteBuffer buf) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see IRandomAccess.write(ByteBuffer, int, int) */
+  public void write(ByteBuffer buf, int off, int len) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.write(int b) */
+  public void write(int b) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeBoolean(boolean) */
+  public void writeBoolean(boolean v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeByte(int) */
+  public void writeByte(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeBytes(String) */
+  public void writeBytes(String s) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeChar(int) */
+  public void writeChar(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeChars(String) */
+  public void writeChars(String s) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeDouble(double) */
+  public void writeDouble(double v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeFloat(float) */
+  public void writeFloat(float v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeInt(int) */
+  public void writeInt(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeLong(long) */
+  public void writeLong(long v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeShort(int) */
+  public void writeShort(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeUTF(String)  */
+  public void writeUTF(String str) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Returns the segment containing the given number of bytes at the current
+   * position, or null if the bytes span two segments.
+   *
+   * @throws EOFException if fewer than the given number of bytes remain.
+   */
+  private MappedByteBuffer segment(int size) throws EOFException {
+    if (position < 0 || position + size > length) {
+      throw new EOFException(EOF_ERROR_MSG);
+    }
+    if ((position & SEGMENT_MASK) + size > SEGMENT_SIZE) return null;
+    return segments[(int) (position >>> SEGMENT_BITS)];
+  }
+
+  /**
+   * Assembles a value from bytes spanning two segments, without changing
+   * the current position.
+   */
+  private long readValue(int size) throws IOException {
+    long value = 0;
+    for (int i=0; i<size; i++) {
+      long p = position + i;
+      long b = segments[(int) (p >>> SEGMENT_BITS)].get(
+        (int) (p & SEGMENT_MASK)) & 0xffL;
+      if (order == ByteOrder.LITTLE_ENDIAN) value |= b << (8 * i);
+      else value = (value << 8) | b;
+    }
+    return value;
+  }
+
+}
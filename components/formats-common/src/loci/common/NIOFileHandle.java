@@ -56,7 +56,9 @@ import org.slf4j.LoggerFactory;
  *
  * @author Chris Allan <callan at blackcat dot ca>
  */
-public class NIOFileHandle extends AbstractNIOHandle {
+public class NIOFileHandle extends AbstractNIOHandle
+  implements HandleCapabilities
+{
 
   // -- Constants --
 
@@ -192,6 +194,23 @@ public class NIOFileHandle extends AbstractNIOHandle {
     buffer = null;
   }
 
+  // -- HandleCapabilities API methods --
+
+  /* @see HandleCapabilities.supportsConcurrentReads() */
+  public boolean supportsConcurrentReads() {
+    return true;
+  }
+
+  /* @see HandleCapabilities.isMemoryMapped() */
+  public boolean isMemoryMapped() {
+    return false;
+  }
+
+  /* @see HandleCapabilities.getPreferredBlockSize() */
+  public int getPreferredBlockSize() {
+    return 0;
+  }
+
   // -- IRandomAccess API methods --
 
   /* @see IRandomAccess.close() */
@@ -249,6 +268,11 @@ public class NIOFileHandle extends AbstractNIOHandle {
     return readLength == -1? 0 : readLength;
   }
 
+  /* @see IRandomAccess.read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    return readChannel(channel, pos, dst);
+  }
+
   /* @see IRandomAccess.seek(long) */
   public void seek(long pos) throws IOException {
     if (mapMode == FileChannel.MapMode.READ_WRITE && pos > length()) {
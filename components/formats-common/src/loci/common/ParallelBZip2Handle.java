@@ -0,0 +1,558 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * StreamHandle implementation for reading from BZip2-compressed files,
+ * which decompresses independent bzip2 blocks in parallel.
+ *
+ * When the handle is constructed, the file is scanned once for the 48-bit
+ * magic numbers that start each block and end each stream.  Every block is
+ * then decompressed on a shared pool of worker threads to determine the
+ * uncompressed length; the most recently used blocks are kept in a bounded
+ * cache (see {@link #ParallelBZip2Handle(String, int)}).  Seeking is
+ * therefore constant time, and reading a block that is not cached only
+ * requires that block to be decompressed again.  Blocks following the one
+ * being read are decompressed ahead of time.
+ *
+ * Unlike BZip2Handle, concatenated bzip2 streams (as written by parallel
+ * compressors) are read in their entirety.  Instances of ParallelBZip2Handle
+ * are read-only.
+ *
+ * @see BZip2Handle
+ */
+public class ParallelBZip2Handle extends StreamHandle {
+
+  // -- Constants --
+
+  /** Default number of decompressed blocks to keep in memory. */
+  public static final int DEFAULT_CACHE_SIZE = 16;
+
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+  private static final long END_MAGIC = 0x177245385090L;
+  private static final long MAGIC_MASK = 0xffffffffffffL;
+
+  private static final int THREADS =
+    Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  // -- Static fields --
+
+  /** Worker threads shared by all instances. */
+  private static ExecutorService executor;
+
+  // -- Fields --
+
+  private RandomAccessFile raf;
+  private FileChannel channel;
+
+  /** Bit positions at which each block starts and ends. */
+  private long[] blockStarts, blockEnds;
+
+  /** Block size (in units of 100k) of the stream containing each block. */
+  private int[] blockLevels;
+
+  /**
+   * Uncompressed offset of each block; the last element is the total
+   * uncompressed length.
+   */
+  private long[] offsets;
+
+  /** Number of blocks to decompress ahead of the block being read. */
+  private int readahead;
+
+  /** Most recently used blocks, in access order. */
+  private Map<Integer, Future<byte[]>> cache;
+
+  /** Stream over the decompressed blocks. */
+  private BlockInputStream blockStream;
+
+  // -- Constructors --
+
+  /**
+   * Construct a new ParallelBZip2Handle for the given file.
+   *
+   * @throws HandleException if the given file is not a BZip2 file.
+   */
+  public ParallelBZip2Handle(String file) throws IOException {
+    this(file, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Construct a new ParallelBZip2Handle for the given file, keeping at most
+   * the given number of decompressed blocks in memory.  Each block is
+   * typically up to 900 KB.
+   *
+   * @throws HandleException if the given file is not a BZip2 file.
+   */
+  public ParallelBZip2Handle(String file, final int cacheSize)
+    throws IOException
+  {
+    super();
+    this.file = file;
+    if (!BZip2Handle.isBZip2File(file)) {
+      throw new HandleException(file + " is not a BZip2 file.");
+    }
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("Invalid cache size: " + cacheSize);
+    }
+    readahead = Math.min(THREADS, cacheSize - 1);
+    cache = new LinkedHashMap<Integer, Future<byte[]>>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(
+        Map.Entry<Integer, Future<byte[]>> eldest)
+      {
+        return size() > cacheSize;
+      }
+    };
+
+    raf = new RandomAccessFile(file, "r");
+    channel = raf.getChannel();
+    try {
+      findBlocks();
+      measureBlocks();
+    }
+    catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+    resetStream();
+  }
+
+  // -- ParallelBZip2Handle API methods --
+
+  /** Returns the number of bzip2 blocks in the file. */
+  public int getBlockCount() {
+    return blockStarts.length;
+  }
+
+  // -- IRandomAccess API methods --
+
+  /* @see IRandomAccess#close() */
+  public void close() throws IOException {
+    super.close();
+    if (cache != null) {
+      synchronized (cache) {
+        for (Future<byte[]> block : cache.values()) {
+          block.cancel(false);
+        }
+        cache.clear();
+      }
+    }
+    if (raf != null) raf.close();
+    raf = null;
+    channel = null;
+  }
+
+  /* @see IRandomAccess#read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    if (pos >= length) return -1;
+    int n = (int) Math.min(dst.remaining(), length - pos);
+    int read = 0;
+    while (read < n) {
+      int index = findBlock(pos + read);
+      byte[] block = getBlock(index);
+      int offset = (int) (pos + read - offsets[index]);
+      int count = Math.min(n - read, block.length - offset);
+      dst.put(block, offset, count);
+      read += count;
+    }
+    return read;
+  }
+
+  /* @see IRandomAccess#seek(long) */
+  public void seek(long pos) throws IOException {
+    blockStream.position = pos;
+    fp = mark = pos;
+  }
+
+  // -- StreamHandle API methods --
+
+  /* @see StreamHandle#resetStream() */
+  protected void resetStream() throws IOException {
+    blockStream = new BlockInputStream();
+    stream = new DataInputStream(blockStream);
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Scans the file for block and end-of-stream magic numbers.  The magic
+   * numbers are not byte aligned, so every bit offset is checked.
+   * Candidate blocks are also checked for a plausible header, which makes
+   * it very unlikely that a magic number occurring by chance in compressed
+   * data is mistaken for a block boundary.
+   */
+  private void findBlocks() throws IOException {
+    long fileLength = raf.length();
+    List<long[]> blocks = new ArrayList<long[]>();
+
+    int level = readStreamHeader(0);
+    if (level < 0) throw new IOException("Not a bzip2 file");
+    long pos = 4;
+    long register = 0, bits = 0;
+    long blockStart = -1;
+
+    byte[] buf = new byte[1 << 20];
+    long bufStart = 0;
+    int bufLength = 0;
+
+    while (pos < fileLength) {
+      if (pos >= bufStart + bufLength) {
+        bufStart = pos;
+        bufLength = read(buf, pos, buf.length);
+        if (bufLength <= 0) break;
+      }
+      register = (register << 8) | (buf[(int) (pos - bufStart)] & 0xff);
+      bits += 8;
+      pos++;
+
+      long next = -1;
+      for (int k=7; k>=0; k--) {
+        if (bits - k < 48) continue;
+        long value = (register >>> k) & MAGIC_MASK;
+        if (value != BLOCK_MAGIC && value != END_MAGIC) continue;
+
+        long start = pos * 8 - k - 48;
+        if (value == BLOCK_MAGIC) {
+          if (!isBlockHeader(start, level)) continue;
+          if (blockStart >= 0) {
+            blocks.add(new long[] {blockStart, start, level});
+          }
+          blockStart = start;
+        }
+        else {
+          // the stream CRC follows, then padding to a byte boundary and
+          // either the end of the file or another stream
+          long streamEnd = (start + 48 + 32 + 7) / 8;
+          if (streamEnd > fileLength) continue;
+          int nextLevel = -1;
+          if (streamEnd < fileLength) {
+            nextLevel = readStreamHeader(streamEnd);
+            if (nextLevel < 0) continue;
+          }
+          if (blockStart >= 0) {
+            blocks.add(new long[] {blockStart, start, level});
+          }
+          blockStart = -1;
+          level = nextLevel;
+          next = streamEnd;
+          break;
+        }
+      }
+
+      if (next >= 0) {
+        if (level < 0) break;
+        pos = next + 4;
+        register = 0;
+        bits = 0;
+      }
+    }
+    if (blockStart >= 0) {
+      throw new EOFException("Truncated bzip2 file");
+    }
+
+    blockStarts = new long[blocks.size()];
+    blockEnds = new long[blocks.size()];
+    blockLevels = new int[blocks.size()];
+    for (int i=0; i<blockStarts.length; i++) {
+      long[] block = blocks.get(i);
+      blockStarts[i] = block[0];
+      blockEnds[i] = block[1];
+      blockLevels[i] = (int) block[2];
+    }
+  }
+
+  /**
+   * Decompresses every block once, to determine the uncompressed length.
+   * At most twice as many blocks as there are worker threads are
+   * decompressed at any time.
+   */
+  private void measureBlocks() throws IOException {
+    int count = blockStarts.length;
+    offsets = new long[count + 1];
+    List<Future<byte[]>> pending = new ArrayList<Future<byte[]>>();
+    int submitted = 0;
+    for (int i=0; i<count; i++) {
+      while (submitted < count && submitted < i + THREADS * 2) {
+        pending.add(getExecutor().submit(new BlockDecoder(submitted++)));
+      }
+      Future<byte[]> block = pending.get(i);
+      offsets[i + 1] = offsets[i] + get(block).length;
+      pending.set(i, null);
+      synchronized (cache) {
+        cache.put(i, block);
+      }
+    }
+    length = offsets[count];
+  }
+
+  /** Returns the decompressed contents of the given block. */
+  private byte[] getBlock(int index) throws IOException {
+    Future<byte[]> block;
+    synchronized (cache) {
+      block = cache.get(index);
+      if (block == null) {
+        block = getExecutor().submit(new BlockDecoder(index));
+        cache.put(index, block);
+      }
+      int last = Math.min(index + readahead, blockStarts.length - 1);
+      for (int i=index + 1; i<=last; i++) {
+        if (!cache.containsKey(i)) {
+          cache.put(i, getExecutor().submit(new BlockDecoder(i)));
+        }
+      }
+    }
+    return get(block);
+  }
+
+  /** Returns the index of the block containing the given offset. */
+  private int findBlock(long offset) {
+    int low = 0, high = blockStarts.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (offsets[mid] <= offset) low = mid;
+      else high = mid - 1;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the block size level of the stream header at the given
+   * offset, or -1 if there is no stream header.
+   */
+  private int readStreamHeader(long offset) throws IOException {
+    byte[] header = new byte[4];
+    if (read(header, offset, 4) < 4) return -1;
+    if (header[0] != 'B' || header[1] != 'Z' || header[2] != 'h' ||
+      header[3] < '1' || header[3] > '9')
+    {
+      return -1;
+    }
+    return header[3] - '0';
+  }
+
+  /**
+   * Checks that the block header at the given bit position has a valid
+   * origin pointer.  The header consists of the magic number, the block
+   * CRC, a 1-bit randomisation flag and a 24-bit origin pointer.
+   */
+  private boolean isBlockHeader(long start, int level) throws IOException {
+    byte[] header = new byte[15];
+    int n = read(header, start >>> 3, header.length);
+    if (n < header.length) return false;
+    long origPtr = getBits(header, (start & 7) + 81, 24);
+    return origPtr < level * 100000;
+  }
+
+  /** Reads bytes from the given file offset, using a positional read. */
+  private int read(byte[] b, long offset, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, offset + buf.position());
+      if (n < 0) break;
+    }
+    return buf.position();
+  }
+
+  private static byte[] get(Future<byte[]> block) throws IOException {
+    try {
+      return block.get();
+    }
+    catch (InterruptedException e) {
+      throw new IOException("Interrupted while decompressing bzip2 block");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      IOException error = new IOException("Could not decompress bzip2 block");
+      error.initCause(cause);
+      throw error;
+    }
+  }
+
+  /** Reads up to 57 bits, most significant bit first. */
+  private static long getBits(byte[] b, long bit, int n) {
+    long value = 0;
+    int first = (int) (bit >>> 3);
+    for (int i=0; i<8 && first + i<b.length; i++) {
+      value |= (b[first + i] & 0xffL) << (56 - 8 * i);
+    }
+    return (value << (bit & 7)) >>> (64 - n);
+  }
+
+  /** Writes up to 57 bits, most significant bit first. */
+  private static void putBits(byte[] b, long bit, long value, int n) {
+    for (int i=n - 1; i>=0; i--, bit++) {
+      if (((value >>> i) & 1) != 0) {
+        b[(int) (bit >>> 3)] |= 0x80 >>> (bit & 7);
+      }
+    }
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private int count = 0;
+
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "ParallelBZip2Handle-" + count++);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  // -- Helper classes --
+
+  /**
+   * Decompresses a single block.  The block's bits are copied into a
+   * synthetic single-block bzip2 stream, whose end-of-stream CRC is the
+   * block's own CRC, and decoded with CBZip2InputStream.
+   */
+  private class BlockDecoder implements Callable<byte[]> {
+    private final int index;
+
+    BlockDecoder(int index) {
+      this.index = index;
+    }
+
+    public byte[] call() throws IOException {
+      long start = blockStarts[index];
+      long end = blockEnds[index];
+      int shift = (int) (start & 7);
+      long bits = end - start;
+
+      byte[] src = new byte[(int) (((end + 7) >>> 3) - (start >>> 3)) + 1];
+      read(src, start >>> 3, src.length);
+      long crc = getBits(src, shift + 48, 32);
+
+      byte[] stream = new byte[(int) ((16 + bits + 80 + 7) / 8)];
+      stream[0] = 'h';
+      stream[1] = (byte) ('0' + blockLevels[index]);
+      int body = (int) ((bits + 7) / 8);
+      for (int i=0; i<body; i++) {
+        int b = (src[i] & 0xff) << shift;
+        if (shift > 0) b |= (src[i + 1] & 0xff) >>> (8 - shift);
+        stream[i + 2] = (byte) b;
+      }
+      int tail = (int) (bits & 7);
+      if (tail > 0) stream[body + 1] &= (byte) (0xff00 >>> tail);
+      putBits(stream, 16 + bits, END_MAGIC, 48);
+      putBits(stream, 16 + bits + 48, crc, 32);
+
+      InputStream in = new CBZip2InputStream(new ByteArrayInputStream(stream));
+      byte[] data = new byte[blockLevels[index] * 100000];
+      int n = 0;
+      while (true) {
+        if (n == data.length) {
+          byte[] tmp = new byte[data.length * 2];
+          System.arraycopy(data, 0, tmp, 0, n);
+          data = tmp;
+        }
+        int r = in.read(data, n, data.length - n);
+        if (r <= 0) break;
+        n += r;
+      }
+      in.close();
+      if (n == data.length) return data;
+      byte[] result = new byte[n];
+      System.arraycopy(data, 0, result, 0, n);
+      return result;
+    }
+  }
+
+  /** InputStream over the decompressed blocks, starting at any offset. */
+  private class BlockInputStream extends InputStream {
+    long position;
+    private int currentIndex = -1;
+    private byte[] current;
+
+    public int read() throws IOException {
+      if (!select()) return -1;
+      return current[(int) (position++ - offsets[currentIndex])] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (!select()) return -1;
+      int blockOffset = (int) (position - offsets[currentIndex]);
+      int n = Math.min(len, current.length - blockOffset);
+      System.arraycopy(current, blockOffset, b, off, n);
+      position += n;
+      return n;
+    }
+
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, length - position));
+      position += skipped;
+      return skipped;
+    }
+
+    public int available() {
+      return (int) Math.max(0, Math.min(length - position, Integer.MAX_VALUE));
+    }
+
+    /** Makes the block containing the current position current. */
+    private boolean select() throws IOException {
+      if (position >= length || position < 0) return false;
+      if (currentIndex < 0 || position < offsets[currentIndex] ||
+        position >= offsets[currentIndex + 1])
+      {
+        currentIndex = findBlock(position);
+        current = getBlock(currentIndex);
+      }
+      return true;
+    }
+  }
+
+}
@@ -346,6 +346,61 @@ public class RandomAccessInputStream extends InputStream implements DataInput, C
     return saveString ? out.toString() : null;
   }
 
+  /**
+   * Gets the preferred block size of the underlying handle, or 0 if the
+   * handle does not benefit from combining small reads.
+   * @see HandleCapabilities#getPreferredBlockSize()
+   */
+  public int getPreferredBlockSize() {
+    if (raf instanceof HandleCapabilities) {
+      return ((HandleCapabilities) raf).getPreferredBlockSize();
+    }
+    return 0;
+  }
+
+  /**
+   * Reads rows of bytes that are evenly spaced within the stream, starting
+   * at the current position, into evenly spaced rows of the given array.
+   * The file pointer is left just past the last row.  If the underlying
+   * handle has a preferred block size, as many rows as fit in one block are
+   * fetched with a single read; otherwise each row is read separately.
+   *
+   * @param array the destination array
+   * @param offset the offset of the first row within the array
+   * @param rowLength the number of bytes in each row
+   * @param rows the number of rows to read
+   * @param stride the distance between the starts of consecutive rows in the
+   *   stream
+   * @param arrayStride the distance between the starts of consecutive rows in
+   *   the array
+   */
+  public void readRows(byte[] array, int offset, int rowLength, int rows,
+    int stride, int arrayStride) throws IOException
+  {
+    int rowsPerRead = 1;
+    if (stride > 0 && rows > 1) {
+      rowsPerRead = Math.min(rows, getPreferredBlockSize() / stride);
+    }
+    if (rowsPerRead <= 1) {
+      for (int row=0; row<rows; row++) {
+        read(array, offset + row * arrayStride, rowLength);
+        if (row < rows - 1) skipBytes(stride - rowLength);
+      }
+      return;
+    }
+
+    byte[] block = new byte[(rowsPerRead - 1) * stride + rowLength];
+    for (int row=0; row<rows; row+=rowsPerRead) {
+      int n = Math.min(rowsPerRead, rows - row);
+      read(block, 0, (n - 1) * stride + rowLength);
+      for (int i=0; i<n; i++) {
+        System.arraycopy(block, i * stride, array,
+          offset + (row + i) * arrayStride, rowLength);
+      }
+      if (row + n < rows) skipBytes(stride - rowLength);
+    }
+  }
+
   // -- DataInput API methods --
 
   /** Read an input byte and return true if the byte is nonzero. */
@@ -457,6 +512,42 @@ public class RandomAccessInputStream extends InputStream implements DataInput, C
     return raf.read(buf, offset, n);
   }
 
+  /**
+   * Read bytes starting at the given offset into the given buffer, without
+   * using or changing the current file pointer.  Several threads may read
+   * from the same stream in this way at once.
+   * @see IRandomAccess#read(long, ByteBuffer)
+   */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    long remaining = length() - pos;
+    if (remaining <= 0) return -1;
+    if (dst.remaining() > remaining) {
+      ByteBuffer view = dst.duplicate();
+      view.limit(view.position() + (int) remaining);
+      int n = raf.read(pos, view);
+      if (n > 0) dst.position(dst.position() + n);
+      return n;
+    }
+    return raf.read(pos, dst);
+  }
+
+  /**
+   * Creates a new stream that reads the same data as this one, but has its
+   * own file pointer.  The new stream starts at offset 0 with this stream's
+   * byte order and length, and reads only through
+   * {@link #read(long, ByteBuffer)}, so this stream and any number of
+   * duplicates can be read from different threads at once.  Closing the
+   * duplicate does not close this stream.
+   */
+  public RandomAccessInputStream duplicate() throws IOException {
+    RandomAccessInputStream stream =
+      new RandomAccessInputStream(new SharedHandle(raf), file);
+    stream.order(isLittleEndian());
+    stream.length = length;
+    stream.encoding = encoding;
+    return stream;
+  }
+
   /** Read bytes from the stream into the given array. */
   public void readFully(byte[] array) throws IOException {
     raf.readFully(array);
@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides random access to HTTP URLs using range requests.
+ * Instances of RangeURLHandle are read-only.
+ *
+ * The length of the file is obtained with a HEAD request.  Data is then
+ * fetched in aligned blocks, each with a GET request carrying a
+ * <code>Range</code> header, and kept in an LRU block cache as described in
+ * {@link ReadaheadHandle}; seeking is free, so only the parts of the file
+ * that are actually read are transferred.  If the server ignores the
+ * <code>Range</code> header, each request falls back to reading and
+ * discarding the start of the file.
+ *
+ * @see ReadaheadHandle
+ * @see URLHandle
+ */
+public class RangeURLHandle extends ReadaheadHandle {
+
+  // -- Constructors --
+
+  /** Constructs a new RangeURLHandle with default settings. */
+  public RangeURLHandle(String url) throws IOException {
+    this(url, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_READAHEAD, DEFAULT_CACHE_BLOCKS);
+  }
+
+  /**
+   * Constructs a new RangeURLHandle.
+   * @see ReadaheadHandle#ReadaheadHandle(IRandomAccess, String, int, int, int)
+   */
+  public RangeURLHandle(String url, int blockSize, int maxReadahead,
+    int cacheBlocks) throws IOException
+  {
+    super(new RangeRequests(url), url, blockSize, maxReadahead, cacheBlocks);
+  }
+
+  // -- Helper classes --
+
+  /** Read-only handle which performs each read with one range request. */
+  private static class RangeRequests extends SharedHandle {
+
+    private static final Logger LOGGER =
+      LoggerFactory.getLogger(RangeURLHandle.class);
+
+    private URL url;
+
+    private long length;
+
+    /** Whether the server has been seen to ignore range requests. */
+    private volatile boolean rangesIgnored;
+
+    RangeRequests(String url) throws IOException {
+      super(null);
+      this.url = new URL(url);
+      length = requestLength();
+    }
+
+    /* @see IRandomAccess.close() */
+    public void close() {
+    }
+
+    /* @see IRandomAccess.length() */
+    public long length() {
+      return length;
+    }
+
+    /* @see IRandomAccess.read(long, ByteBuffer) */
+    public int read(long pos, ByteBuffer dst) throws IOException {
+      if (pos >= length) return -1;
+      int len = (int) Math.min(dst.remaining(), length - pos);
+      if (len == 0) return 0;
+
+      HttpURLConnection conn = openConnection();
+      conn.setRequestProperty("Range",
+        "bytes=" + pos + "-" + (pos + len - 1));
+      int code = conn.getResponseCode();
+      InputStream in = conn.getInputStream();
+      try {
+        if (code == HttpURLConnection.HTTP_OK) {
+          if (!rangesIgnored) {
+            LOGGER.warn("{} does not support range requests", url);
+            rangesIgnored = true;
+          }
+          skipFully(in, pos);
+        }
+        else if (code != HttpURLConnection.HTTP_PARTIAL) {
+          throw new HandleException(
+            "Unexpected HTTP response " + code + " from " + url);
+        }
+
+        byte[] b = new byte[Math.min(len, 65536)];
+        int total = 0;
+        while (total < len) {
+          int n = in.read(b, 0, Math.min(b.length, len - total));
+          if (n < 0) break;
+          dst.put(b, 0, n);
+          total += n;
+        }
+        return total;
+      }
+      finally {
+        in.close();
+      }
+    }
+
+    private HttpURLConnection openConnection() throws IOException {
+      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+      conn.setRequestProperty("Accept-Encoding", "identity");
+      return conn;
+    }
+
+    /**
+     * Gets the length of the file from a HEAD request, or failing that from
+     * the Content-Range header of a one-byte range request.
+     */
+    private long requestLength() throws IOException {
+      HttpURLConnection conn = openConnection();
+      conn.setRequestMethod("HEAD");
+      if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+        String header = conn.getHeaderField("Content-Length");
+        if (header != null) return parseLength(header);
+      }
+
+      conn = openConnection();
+      conn.setRequestProperty("Range", "bytes=0-0");
+      int code = conn.getResponseCode();
+      String header = code == HttpURLConnection.HTTP_PARTIAL ?
+        conn.getHeaderField("Content-Range") : null;
+      conn.getInputStream().close();
+      if (header != null && header.indexOf('/') > 0) {
+        return parseLength(header.substring(header.indexOf('/') + 1));
+      }
+      throw new HandleException("Could not determine length of " + url);
+    }
+
+    private long parseLength(String value) throws HandleException {
+      try {
+        return Long.parseLong(value.trim());
+      }
+      catch (NumberFormatException e) {
+        throw new HandleException("Invalid length for " + url, e);
+      }
+    }
+
+    private void skipFully(InputStream in, long bytes) throws IOException {
+      while (bytes > 0) {
+        long n = in.skip(bytes);
+        if (n <= 0) {
+          if (in.read() < 0) throw new HandleException(EOF_ERROR_MSG);
+          n = 1;
+        }
+        bytes -= n;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,382 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only IRandomAccess decorator which reads the underlying handle in
+ * fixed-size blocks, with adaptive readahead and a block cache shared by all
+ * open ReadaheadHandles for the same file.
+ *
+ * This is intended for files on network file systems, where each read that
+ * reaches the server costs a round trip regardless of its size.  Small reads
+ * are answered from cached blocks; a miss fetches the missing block plus a
+ * readahead window which doubles while reads are sequential (up to the
+ * configured maximum) and drops back to a single block after a seek.
+ * Consecutive missing blocks are always fetched with one request, and a
+ * reader that misses a block while another reader is fetching it waits for
+ * that fetch instead of issuing its own.  Reads at least as large as the
+ * maximum readahead bypass the cache.
+ *
+ * The underlying handle is only accessed with positional reads, so it is
+ * safe to call {@link #read(long, ByteBuffer)} from several threads.
+ * The counters returned by {@link #getBytesRead()}, {@link #getReadCount()}
+ * and {@link #getSeekDistance()} describe the requests made to the
+ * underlying handle.
+ *
+ * @see IRandomAccess#read(long, ByteBuffer)
+ */
+public class ReadaheadHandle extends SharedHandle {
+
+  // -- Constants --
+
+  /** Default block size, in bytes. */
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  /** Default maximum readahead window, in blocks. */
+  public static final int DEFAULT_MAX_READAHEAD = 16;
+
+  /** Default number of blocks held in each file's cache. */
+  public static final int DEFAULT_CACHE_BLOCKS = 256;
+
+  /** Block caches of all open handles, keyed by file ID and block size. */
+  private static final Map<String, BlockCache> CACHES =
+    new HashMap<String, BlockCache>();
+
+  // -- Fields --
+
+  /** Key of the shared cache, or null if the cache is private. */
+  private String cacheKey;
+
+  /** Block cache used by this handle. */
+  private BlockCache cache;
+
+  /** Size of a block, in bytes. */
+  private int blockSize;
+
+  /** Maximum readahead window, in blocks. */
+  private int maxReadahead;
+
+  /** Length of the underlying handle. */
+  private long length;
+
+  /** Current readahead window, in blocks. */
+  private int window = 1;
+
+  /** Position just past the most recent read. */
+  private long lastEnd = -1;
+
+  /** Position just past the most recent request to the underlying handle. */
+  private AtomicLong lastFetchEnd = new AtomicLong();
+
+  /** Number of bytes read from the underlying handle. */
+  private AtomicLong bytesRead = new AtomicLong();
+
+  /** Number of reads issued to the underlying handle. */
+  private AtomicLong readCount = new AtomicLong();
+
+  /** Total distance between consecutive underlying reads. */
+  private AtomicLong seekDistance = new AtomicLong();
+
+  /** Number of blocks found in the cache. */
+  private AtomicLong cacheHits = new AtomicLong();
+
+  // -- Constructors --
+
+  /** Creates a handle with default settings for reading the given file. */
+  public ReadaheadHandle(String file) throws IOException {
+    this(new NIOFileHandle(file, "r"), file);
+  }
+
+  /**
+   * Creates a handle with default settings which reads from the given
+   * handle.
+   *
+   * @param handle the handle from which to read; it is closed along with
+   *   this handle
+   * @param id identifies the file underlying the handle, so that handles to
+   *   the same file can share cached blocks; if null, the cache is private
+   */
+  public ReadaheadHandle(IRandomAccess handle, String id) throws IOException {
+    this(handle, id, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_READAHEAD,
+      DEFAULT_CACHE_BLOCKS);
+  }
+
+  /**
+   * Creates a handle which reads from the given handle.
+   *
+   * @param handle the handle from which to read; it is closed along with
+   *   this handle
+   * @param id identifies the file underlying the handle, so that handles to
+   *   the same file can share cached blocks; if null, the cache is private
+   * @param blockSize the size of a block, in bytes
+   * @param maxReadahead the maximum number of blocks fetched by one request
+   * @param cacheBlocks the number of blocks held in the cache; ignored if a
+   *   cache for the same file and block size already exists
+   */
+  public ReadaheadHandle(IRandomAccess handle, String id, int blockSize,
+    int maxReadahead, int cacheBlocks) throws IOException
+  {
+    super(handle);
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Invalid block size: " + blockSize);
+    }
+    if (maxReadahead < 1 || maxReadahead > cacheBlocks) {
+      throw new IllegalArgumentException(
+        "Invalid readahead: " + maxReadahead + " of " + cacheBlocks +
+        " cached blocks");
+    }
+    this.blockSize = blockSize;
+    this.maxReadahead = maxReadahead;
+    length = handle.length();
+    cacheKey = id == null ? null : id + "#" + blockSize;
+    cache = acquireCache(cacheKey, cacheBlocks);
+  }
+
+  // -- ReadaheadHandle API methods --
+
+  /** Gets the size of a block, in bytes. */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /** Gets the number of bytes read from the underlying handle. */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /** Gets the number of reads issued to the underlying handle. */
+  public long getReadCount() {
+    return readCount.get();
+  }
+
+  /**
+   * Gets the total distance, in bytes, between the end of each read issued
+   * to the underlying handle and the start of the next.
+   */
+  public long getSeekDistance() {
+    return seekDistance.get();
+  }
+
+  /**
+   * Gets the number of blocks that were found in the cache, including blocks
+   * fetched by other handles to the same file.
+   */
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  // -- HandleCapabilities API methods --
+
+  /* @see HandleCapabilities.supportsConcurrentReads() */
+  public boolean supportsConcurrentReads() {
+    return true;
+  }
+
+  /* @see HandleCapabilities.isMemoryMapped() */
+  public boolean isMemoryMapped() {
+    return false;
+  }
+
+  /* @see HandleCapabilities.getPreferredBlockSize() */
+  public int getPreferredBlockSize() {
+    return blockSize;
+  }
+
+  // -- IRandomAccess API methods --
+
+  /* @see IRandomAccess.close() */
+  public void close() throws IOException {
+    if (handle == null) return;
+    releaseCache(cacheKey, cache);
+    handle.close();
+    super.close();
+  }
+
+  /* @see IRandomAccess.length() */
+  public long length() throws IOException {
+    return length;
+  }
+
+  /* @see IRandomAccess.read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    if (pos >= length) return -1;
+    int count = updateWindow(pos, dst.remaining());
+    if (dst.remaining() >= (long) blockSize * maxReadahead) {
+      return fetch(pos, dst);
+    }
+
+    int total = 0;
+    while (dst.hasRemaining() && pos < length) {
+      long block = pos / blockSize;
+      byte[] data = cache.get(block);
+      if (data == null) data = load(block, count);
+      else cacheHits.incrementAndGet();
+      int offset = (int) (pos - block * blockSize);
+      int n = Math.min(dst.remaining(), data.length - offset);
+      if (n <= 0) break;
+      dst.put(data, offset, n);
+      pos += n;
+      total += n;
+    }
+    return total;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Records a read of the given length at the given position, and returns
+   * the number of blocks to fetch if the read misses the cache.
+   */
+  private synchronized int updateWindow(long pos, int len) {
+    if (pos == lastEnd) {
+      window = Math.min(window * 2, maxReadahead);
+    }
+    else if (Math.abs(pos - lastEnd) > blockSize) {
+      window = 1;
+    }
+    lastEnd = pos + len;
+    return window;
+  }
+
+  /**
+   * Fetches the given block from the underlying handle, along with up to
+   * count - 1 following blocks that are not yet cached, in one request.
+   * @return the contents of the given block
+   */
+  private byte[] load(long block, int count) throws IOException {
+    synchronized (cache.fetchLock) {
+      byte[] data = cache.get(block);
+      if (data != null) {
+        cacheHits.incrementAndGet();
+        return data;
+      }
+
+      long lastBlock = (length - 1) / blockSize;
+      int blocks = 1;
+      while (blocks < count && block + blocks <= lastBlock &&
+        !cache.contains(block + blocks))
+      {
+        blocks++;
+      }
+      long start = block * blockSize;
+      ByteBuffer buf = ByteBuffer.allocate(
+        (int) Math.min((long) blocks * blockSize, length - start));
+      int n = fetch(start, buf);
+      if (n <= 0) throw new EOFException(EOF_ERROR_MSG);
+
+      byte[] b = buf.array();
+      for (int i=blocks-1; i>=0; i--) {
+        int offset = i * blockSize;
+        if (offset >= n) continue;
+        int len = Math.min(blockSize, n - offset);
+        data = new byte[len];
+        System.arraycopy(b, offset, data, 0, len);
+        cache.put(block + i, data);
+      }
+      return data;
+    }
+  }
+
+  /** Reads from the underlying handle and updates the I/O counters. */
+  private int fetch(long pos, ByteBuffer dst) throws IOException {
+    int n = handle.read(pos, dst);
+    long end = pos + Math.max(n, 0);
+    readCount.incrementAndGet();
+    bytesRead.addAndGet(Math.max(n, 0));
+    seekDistance.addAndGet(Math.abs(pos - lastFetchEnd.getAndSet(end)));
+    return n;
+  }
+
+  private static BlockCache acquireCache(String key, int capacity) {
+    if (key == null) return new BlockCache(capacity);
+    synchronized (CACHES) {
+      BlockCache cache = CACHES.get(key);
+      if (cache == null) {
+        cache = new BlockCache(capacity);
+        CACHES.put(key, cache);
+      }
+      cache.references++;
+      return cache;
+    }
+  }
+
+  private static void releaseCache(String key, BlockCache cache) {
+    if (key == null) return;
+    synchronized (CACHES) {
+      if (--cache.references == 0) CACHES.remove(key);
+    }
+  }
+
+  // -- Helper classes --
+
+  /** LRU cache of blocks read from one file. */
+  private static class BlockCache {
+
+    /** Lock held while fetching blocks from the underlying file. */
+    final Object fetchLock = new Object();
+
+    /** Number of open handles using this cache. */
+    int references;
+
+    private Map<Long, byte[]> blocks;
+
+    BlockCache(final int capacity) {
+      blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    synchronized byte[] get(long block) {
+      return blocks.get(block);
+    }
+
+    synchronized boolean contains(long block) {
+      return blocks.containsKey(block);
+    }
+
+    synchronized void put(long block, byte[] data) {
+      blocks.put(block, data);
+    }
+
+  }
+
+}
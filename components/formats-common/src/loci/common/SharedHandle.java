@@ -0,0 +1,357 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Read-only IRandomAccess implementation with its own file pointer and byte
+ * order, which reads from another handle using positional reads only.
+ *
+ * Any number of SharedHandles may read from the same underlying handle at
+ * once, each from a different thread, without disturbing each other or the
+ * underlying handle's file pointer.  Closing a SharedHandle does not close
+ * the underlying handle.  All reads go through
+ * {@link #read(long, ByteBuffer)}, which subclasses may override to change
+ * how data is fetched.
+ *
+ * @see IRandomAccess#read(long, ByteBuffer)
+ * @see RandomAccessInputStream#duplicate()
+ */
+class SharedHandle extends AbstractNIOHandle implements HandleCapabilities {
+
+  // -- Fields --
+
+  /** The handle from which data is read. */
+  protected IRandomAccess handle;
+
+  /** Current position within the underlying handle. */
+  private long position;
+
+  /** Scratch buffer for reading primitive values. */
+  private ByteBuffer scratch = ByteBuffer.allocate(8);
+
+  // -- Constructors --
+
+  /** Creates a handle that reads from the given handle. */
+  SharedHandle(IRandomAccess handle) {
+    this.handle = handle;
+  }
+
+  // -- AbstractNIOHandle API methods --
+
+  /* @see AbstractNIOHandle.setLength(long) */
+  public void setLength(long length) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  // -- HandleCapabilities API methods --
+
+  /* @see HandleCapabilities.supportsConcurrentReads() */
+  public boolean supportsConcurrentReads() {
+    return handle instanceof HandleCapabilities &&
+      ((HandleCapabilities) handle).supportsConcurrentReads();
+  }
+
+  /* @see HandleCapabilities.isMemoryMapped() */
+  public boolean isMemoryMapped() {
+    return handle instanceof HandleCapabilities &&
+      ((HandleCapabilities) handle).isMemoryMapped();
+  }
+
+  /* @see HandleCapabilities.getPreferredBlockSize() */
+  public int getPreferredBlockSize() {
+    return handle instanceof HandleCapabilities ?
+      ((HandleCapabilities) handle).getPreferredBlockSize() : 0;
+  }
+
+  // -- IRandomAccess API methods --
+
+  /* @see IRandomAccess.close() */
+  public void close() throws IOException {
+    handle = null;
+  }
+
+  /* @see IRandomAccess.getFilePointer() */
+  public long getFilePointer() {
+    return position;
+  }
+
+  /* @see IRandomAccess.length() */
+  public long length() throws IOException {
+    return handle.length();
+  }
+
+  /* @see IRandomAccess.getOrder() */
+  public ByteOrder getOrder() {
+    return scratch.order();
+  }
+
+  /* @see IRandomAccess.setOrder(ByteOrder) */
+  public void setOrder(ByteOrder order) {
+    scratch.order(order);
+  }
+
+  /* @see IRandomAccess.read(byte[]) */
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  /* @see IRandomAccess.read(byte[], int, int) */
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = read(position, ByteBuffer.wrap(b, off, len));
+    if (n < 0) return 0;
+    position += n;
+    return n;
+  }
+
+  /* @see IRandomAccess.read(ByteBuffer) */
+  public int read(ByteBuffer buf) throws IOException {
+    return read(buf, 0, buf.capacity());
+  }
+
+  /* @see IRandomAccess.read(ByteBuffer, int, int) */
+  public int read(ByteBuffer buf, int off, int len) throws IOException {
+    buf.limit(off + len);
+    buf.position(off);
+    int n = read(position, buf);
+    if (n < 0) return 0;
+    position += n;
+    return n;
+  }
+
+  /* @see IRandomAccess.read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    return handle.read(pos, dst);
+  }
+
+  /* @see IRandomAccess.seek(long) */
+  public void seek(long pos) throws IOException {
+    position = pos;
+  }
+
+  /* @see java.io.DataInput.readBoolean() */
+  public boolean readBoolean() throws IOException {
+    return readByte() == 1;
+  }
+
+  /* @see java.io.DataInput.readByte() */
+  public byte readByte() throws IOException {
+    return fill(1).get(0);
+  }
+
+  /* @see java.io.DataInput.readChar() */
+  public char readChar() throws IOException {
+    return fill(2).getChar(0);
+  }
+
+  /* @see java.io.DataInput.readDouble() */
+  public double readDouble() throws IOException {
+    return fill(8).getDouble(0);
+  }
+
+  /* @see java.io.DataInput.readFloat() */
+  public float readFloat() throws IOException {
+    return fill(4).getFloat(0);
+  }
+
+  /* @see java.io.DataInput.readFully(byte[]) */
+  public void readFully(byte[] b) throws IOException {
+    readFully(b, 0, b.length);
+  }
+
+  /* @see java.io.DataInput.readFully(byte[], int, int) */
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    if (read(b, off, len) < len) {
+      throw new EOFException(EOF_ERROR_MSG);
+    }
+  }
+
+  /* @see java.io.DataInput.readInt() */
+  public int readInt() throws IOException {
+    return fill(4).getInt(0);
+  }
+
+  /* @see java.io.DataInput.readLine() */
+  public String readLine() throws IOException {
+    if (position >= length()) return null;
+    StringBuilder line = new StringBuilder();
+    while (position < length()) {
+      int c = readUnsignedByte();
+      if (c == '\n') break;
+      if (c == '\r') {
+        if (position < length() && fill(1).get(0) != '\n') position--;
+        break;
+      }
+      line.append((char) c);
+    }
+    return line.toString();
+  }
+
+  /* @see java.io.DataInput.readLong() */
+  public long readLong() throws IOException {
+    return fill(8).getLong(0);
+  }
+
+  /* @see java.io.DataInput.readShort() */
+  public short readShort() throws IOException {
+    return fill(2).getShort(0);
+  }
+
+  /* @see java.io.DataInput.readUnsignedByte() */
+  public int readUnsignedByte() throws IOException {
+    return readByte() & 0xFF;
+  }
+
+  /* @see java.io.DataInput.readUnsignedShort() */
+  public int readUnsignedShort() throws IOException {
+    return readShort() & 0xFFFF;
+  }
+
+  /* @see java.io.DataInput.readUTF() */
+  public String readUTF() throws IOException {
+    return DataInputStream.readUTF(this);
+  }
+
+  /* @see java.io.DataInput.skipBytes(int) */
+  public int skipBytes(int n) throws IOException {
+    int skipped = (int) Math.max(0, Math.min(n, length() - position));
+    position += skipped;
+    return skipped;
+  }
+
+  // -- DataOutput API methods --
+
+  /* @see java.io.DataOutput.write(byte[]) */
+  public void write(byte[] b) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.write(byte[], int, int) */
+  public void write(byte[] b, int off, int len) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see IRandomAccess.write(ByteBuffer) */
+  public void write(ByteBuffer buf) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see IRandomAccess.write(ByteBuffer, int, int) */
+  public void write(ByteBuffer buf, int off, int len) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.write(int b) */
+  public void write(int b) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeBoolean(boolean) */
+  public void writeBoolean(boolean v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeByte(int) */
+  public void writeByte(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeBytes(String) */
+  public void writeBytes(String s) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeChar(int) */
+  public void writeChar(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeChars(String) */
+  public void writeChars(String s) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeDouble(double) */
+  public void writeDouble(double v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeFloat(float) */
+  public void writeFloat(float v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeInt(int) */
+  public void writeInt(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeLong(long) */
+  public void writeLong(long v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeShort(int) */
+  public void writeShort(int v) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  /* @see java.io.DataOutput.writeUTF(String)  */
+  public void writeUTF(String str) throws IOException {
+    throw new HandleException("This handle is read-only.");
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Reads the given number of bytes at the current position into the
+   * scratch buffer, and advances the position.
+   * @throws EOFException if fewer than the given number of bytes remain.
+   */
+  private ByteBuffer fill(int bytes) throws IOException {
+    scratch.clear();
+    scratch.limit(bytes);
+    int n = read(position, scratch);
+    if (n < bytes) {
+      throw new EOFException(EOF_ERROR_MSG);
+    }
+    position += bytes;
+    return scratch;
+  }
+
+}
@@ -146,6 +146,26 @@ public abstract class StreamHandle implements IRandomAccess {
     return n;
   }
 
+  /**
+   * Emulates a positional read by seeking to the given offset, reading, and
+   * seeking back, while holding this handle's lock.
+   * @see IRandomAccess#read(long, ByteBuffer)
+   */
+  public synchronized int read(long pos, ByteBuffer dst) throws IOException {
+    if (pos >= length()) return -1;
+    long saved = getFilePointer();
+    try {
+      seek(pos);
+      byte[] b = new byte[(int) Math.min(dst.remaining(), length() - pos)];
+      int n = read(b, 0, b.length);
+      dst.put(b, 0, n);
+      return n;
+    }
+    finally {
+      seek(saved);
+    }
+  }
+
   /* @see IRandomAccess#seek(long) */
   public void seek(long pos) throws IOException {
     long diff = pos - fp;
@@ -36,6 +36,12 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -43,6 +49,15 @@ import java.util.zip.ZipInputStream;
  * StreamHandle implementation for reading from Zip-compressed files
  * or byte arrays.  Instances of ZipHandle are read-only.
  *
+ * Whenever possible, the backing entry is located using the archive's
+ * central directory.  Entries that are stored without compression are then
+ * read directly from the archive, with true random access.  Deflated
+ * entries are decompressed sequentially, and an index of checkpoints is
+ * built on the first backwards seek so that later seeks resume from the
+ * nearest checkpoint instead of the start of the entry
+ * (see {@link IndexedGZipHandle}).  Other entries are read with a
+ * ZipInputStream, as before.
+ *
  * <dl><dt><b>Source code:</b></dt>
  * <dd><a href="http://trac.openmicroscopy.org.uk/ome/browser/bioformats.git/components/common/src/loci/common/ZipHandle.java">Trac</a>,
  * <a href="http://git.openmicroscopy.org/?p=bioformats.git;a=blob;f=components/common/src/loci/common/ZipHandle.java;hb=HEAD">Gitweb</a></dd></dl>
@@ -53,6 +68,12 @@ import java.util.zip.ZipInputStream;
  */
 public class ZipHandle extends StreamHandle {
 
+  // -- Constants --
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int END_HEADER = 0x06054b50;
+
   // -- Fields --
 
   private RandomAccessInputStream in;
@@ -60,14 +81,23 @@ public class ZipHandle extends StreamHandle {
   private String entryName;
   private int entryCount;
 
+  /** Handle on the archive, if the entry's data can be read directly. */
+  private IRandomAccess data;
+
+  /** Location of the entry's data within the archive. */
+  private EntryLocation location;
+
+  /** Stream over the entry's data, if the entry is stored. */
+  private EntryInputStream entryStream;
+
+  /** Checkpoint index for deflated entries. */
+  private GZipIndex index;
+
   // -- Constructor --
 
   public ZipHandle(String file) throws IOException {
     super();
     this.file = file;
-
-    in = openStream(file);
-    zip = new ZipInputStream(in);
     entryName = null;
     entryCount = 0;
 
@@ -80,6 +110,30 @@ public class ZipHandle extends StreamHandle {
     // look for Zip entry with same prefix as the Zip file itself
     boolean matchFound = false;
     length = 0;
+
+    List<EntryLocation> entries = readCentralDirectory();
+    if (entries != null) {
+      for (EntryLocation entry : entries) {
+        if (entryName == null) entryName = entry.name;
+        if (!matchFound && entry.name.startsWith(innerFile)) {
+          entryName = entry.name;
+          matchFound = true;
+        }
+        entryCount++;
+        length += entry.size;
+      }
+      if (entryName != null && useDirectAccess(entries)) {
+        resetStream();
+        return;
+      }
+      length = 0;
+      entryName = null;
+      entryCount = 0;
+      matchFound = false;
+    }
+
+    in = openStream(file);
+    zip = new ZipInputStream(in);
     while (true) {
       ZipEntry ze = zip.getNextEntry();
       if (ze == null) break;
@@ -108,11 +162,18 @@ public class ZipHandle extends StreamHandle {
   public ZipHandle(String file, ZipEntry entry) throws IOException {
     super();
     this.file = file;
+    entryName = entry.getName();
+    entryCount = 1;
+
+    List<EntryLocation> entries = readCentralDirectory();
+    if (entries != null && useDirectAccess(entries)) {
+      length = location.size;
+      resetStream();
+      return;
+    }
 
     in = openStream(file);
     zip = new ZipInputStream(in);
-    entryName = entry.getName();
-    entryCount = 1;
 
     seekToEntry();
     resetStream();
@@ -161,14 +222,58 @@ public class ZipHandle extends StreamHandle {
     entryName = null;
     if (in != null) in.close();
     in = null;
+    if (data != null) data.close();
+    data = null;
+    location = null;
+    entryStream = null;
+    index = null;
     entryCount = 0;
   }
 
+  /* @see IRandomAccess#read(long, ByteBuffer) */
+  public int read(long pos, ByteBuffer dst) throws IOException {
+    if (entryStream == null) return super.read(pos, dst);
+    if (pos >= location.size) return -1;
+    int n = (int) Math.min(dst.remaining(), location.size - pos);
+    ByteBuffer view = dst.duplicate();
+    view.limit(view.position() + n);
+    int read = data.read(location.dataOffset + pos, view);
+    if (read > 0) dst.position(dst.position() + read);
+    return read;
+  }
+
+  /* @see IRandomAccess#seek(long) */
+  public void seek(long pos) throws IOException {
+    if (location == null) {
+      super.seek(pos);
+    }
+    else if (entryStream != null) {
+      entryStream.seek(pos);
+      fp = mark = pos;
+    }
+    else {
+      seekDeflated(pos);
+    }
+  }
+
   // -- StreamHandle API methods --
 
   /* @see StreamHandle#resetStream() */
   protected void resetStream() throws IOException {
     if (stream != null) stream.close();
+    if (location != null) {
+      InputStream entryData = new EntryInputStream(0);
+      if (location.method == ZipEntry.STORED) {
+        entryStream = (EntryInputStream) entryData;
+      }
+      else {
+        entryData = new BufferedInputStream(
+          new InflaterInputStream(entryData, new Inflater(true)),
+          RandomAccessInputStream.MAX_OVERHEAD);
+      }
+      stream = new DataInputStream(entryData);
+      return;
+    }
     if (in != null) {
       in.close();
       in = openStream(file);
@@ -183,6 +288,149 @@ public class ZipHandle extends StreamHandle {
 
   // -- Helper methods --
 
+  /**
+   * Seeks within a deflated entry, using the checkpoint index for backwards
+   * seeks and for forward seeks past the next checkpoint.
+   */
+  private void seekDeflated(long pos) throws IOException {
+    long spacing = IndexedGZipHandle.DEFAULT_CHECKPOINT_SPACING;
+    if (pos >= fp && (pos - fp < spacing || index == null)) {
+      super.seek(pos);
+      return;
+    }
+    if (index == null && length <= spacing) {
+      super.seek(pos);
+      return;
+    }
+    if (index == null) {
+      index = GZipIndex.buildDeflate(data, location.dataOffset, spacing);
+    }
+
+    int checkpoint = index.findCheckpoint(pos);
+    long offset = index.getOffset(checkpoint);
+    if (pos >= fp && offset <= fp) {
+      super.seek(pos);
+      return;
+    }
+
+    if (stream != null) stream.close();
+    stream =
+      new DataInputStream(new CheckpointInputStream(data, index, checkpoint));
+    fp = mark = offset;
+    super.seek(pos);
+  }
+
+  /**
+   * Prepares to read the current entry directly from the archive, if the
+   * entry is listed in the central directory and is stored or deflated.
+   */
+  private boolean useDirectAccess(List<EntryLocation> entries)
+    throws IOException
+  {
+    for (EntryLocation entry : entries) {
+      if (!entry.name.equals(entryName)) continue;
+      if (entry.dataOffset < 0) return false;
+      if (entry.method == ZipEntry.STORED) {
+        if (entry.compressedSize != entry.size) return false;
+      }
+      else if (entry.method != ZipEntry.DEFLATED) return false;
+      location = entry;
+      data = getHandle(file);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Reads the archive's central directory.  Returns null if the central
+   * directory cannot be found, or if the archive uses Zip64 extensions.
+   */
+  private List<EntryLocation> readCentralDirectory() throws IOException {
+    IRandomAccess handle = getHandle(file);
+    try {
+      long fileLength = handle.length();
+      int tail = (int) Math.min(fileLength, 65535 + 22);
+      if (tail < 22) return null;
+      byte[] b = new byte[tail];
+      handle.seek(fileLength - tail);
+      handle.readFully(b);
+
+      int end = -1;
+      for (int i=tail - 22; i>=0; i--) {
+        if (DataTools.bytesToInt(b, i, true) == END_HEADER) {
+          end = i;
+          break;
+        }
+      }
+      if (end < 0) return null;
+
+      int count = DataTools.bytesToShort(b, end + 10, true) & 0xffff;
+      long size = DataTools.bytesToInt(b, end + 12, true) & 0xffffffffL;
+      long offset = DataTools.bytesToInt(b, end + 16, true) & 0xffffffffL;
+      if (count == 0xffff || offset == 0xffffffffL ||
+        offset + size > fileLength)
+      {
+        return null;
+      }
+
+      byte[] directory = new byte[(int) size];
+      handle.seek(offset);
+      handle.readFully(directory);
+
+      List<EntryLocation> entries = new ArrayList<EntryLocation>();
+      int p = 0;
+      for (int i=0; i<count; i++) {
+        if (p + 46 > directory.length ||
+          DataTools.bytesToInt(directory, p, true) != CENTRAL_HEADER)
+        {
+          return null;
+        }
+        int flags = DataTools.bytesToShort(directory, p + 8, true);
+        int nameLength =
+          DataTools.bytesToShort(directory, p + 28, true) & 0xffff;
+        int extraLength =
+          DataTools.bytesToShort(directory, p + 30, true) & 0xffff;
+        int commentLength =
+          DataTools.bytesToShort(directory, p + 32, true) & 0xffff;
+
+        EntryLocation entry = new EntryLocation();
+        entry.method =
+          DataTools.bytesToShort(directory, p + 10, true) & 0xffff;
+        entry.compressedSize =
+          DataTools.bytesToInt(directory, p + 20, true) & 0xffffffffL;
+        entry.size =
+          DataTools.bytesToInt(directory, p + 24, true) & 0xffffffffL;
+        long localOffset =
+          DataTools.bytesToInt(directory, p + 42, true) & 0xffffffffL;
+        entry.name =
+          new String(directory, p + 46, nameLength, Constants.ENCODING);
+        entry.dataOffset = -1;
+
+        boolean encrypted = (flags & 1) != 0;
+        if (entry.compressedSize == 0xffffffffL ||
+          entry.size == 0xffffffffL || localOffset == 0xffffffffL)
+        {
+          return null;
+        }
+        if (!encrypted && localOffset + 30 <= fileLength) {
+          handle.seek(localOffset);
+          if (DataTools.swap(handle.readInt()) == LOCAL_HEADER) {
+            handle.seek(localOffset + 26);
+            int localName = DataTools.swap(handle.readShort()) & 0xffff;
+            int localExtra = DataTools.swap(handle.readShort()) & 0xffff;
+            entry.dataOffset = localOffset + 30 + localName + localExtra;
+          }
+        }
+        entries.add(entry);
+        p += 46 + nameLength + extraLength + commentLength;
+      }
+      return entries;
+    }
+    finally {
+      handle.close();
+    }
+  }
+
   private void seekToEntry() throws IOException {
     while (!entryName.equals(zip.getNextEntry().getName()));
   }
@@ -206,4 +454,58 @@ public class ZipHandle extends StreamHandle {
     return new RandomAccessInputStream(getHandle(file), file);
   }
 
+  // -- Helper classes --
+
+  /** Position and size of an entry's data, from the central directory. */
+  private static class EntryLocation {
+    String name;
+    int method;
+    long compressedSize;
+    long size;
+    long dataOffset;
+  }
+
+  /** InputStream over the compressed data of the current entry. */
+  private class EntryInputStream extends InputStream {
+    private long position;
+
+    EntryInputStream(long position) {
+      this.position = position;
+    }
+
+    void seek(long position) {
+      this.position = position;
+    }
+
+    public int read() throws IOException {
+      if (position >= location.compressedSize) return -1;
+      data.seek(location.dataOffset + position);
+      position++;
+      return data.readUnsignedByte();
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      long remaining = location.compressedSize - position;
+      if (remaining <= 0) return -1;
+      if (len > remaining) len = (int) remaining;
+      data.seek(location.dataOffset + position);
+      int n = data.read(b, off, len);
+      if (n <= 0) return -1;
+      position += n;
+      return n;
+    }
+
+    public long skip(long n) {
+      long remaining = location.compressedSize - position;
+      if (n > remaining) n = Math.max(remaining, 0);
+      position += n;
+      return n;
+    }
+
+    public int available() {
+      return (int) Math.min(location.compressedSize - position,
+        Integer.MAX_VALUE);
+    }
+  }
+
 }
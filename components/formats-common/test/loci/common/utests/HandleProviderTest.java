@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import loci.common.HandleCapabilities;
+import loci.common.HandleProvider;
+import loci.common.IRandomAccess;
+import loci.common.Location;
+import loci.common.NIOFileHandle;
+import loci.common.RandomAccessInputStream;
+import loci.common.ReadaheadHandle;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for handle provider registration in loci.common.Location, and
+ * for reads that adapt to the capabilities of the underlying handle.
+ *
+ * @see loci.common.HandleProvider
+ * @see loci.common.HandleCapabilities
+ */
+public class HandleProviderTest {
+
+  // -- Constants --
+
+  private static final String SCHEME = "test";
+
+  private static final int BLOCK_SIZE = 4096;
+
+  // -- Fields --
+
+  private byte[] data;
+
+  private String path;
+
+  private LocalProvider provider;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    data = new byte[200000];
+    new Random(12345).nextBytes(data);
+    File file = File.createTempFile("provider", ".dat");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+    path = file.getAbsolutePath();
+    provider = new LocalProvider();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Location.unregisterHandleProvider(provider);
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testSchemeProvider() throws IOException {
+    Location.registerHandleProvider(SCHEME, provider);
+    IRandomAccess handle = Location.getHandle("TEST://" + path);
+    assertTrue(handle instanceof ReadaheadHandle);
+    checkContents(handle);
+    handle.close();
+
+    Location.unregisterHandleProvider(provider);
+    handle = Location.getHandle(path);
+    assertTrue(handle instanceof NIOFileHandle);
+    handle.close();
+  }
+
+  @Test
+  public void testPredicateProvider() throws IOException {
+    Location.registerHandleProvider(provider);
+    IRandomAccess handle = Location.getHandle(path);
+    assertTrue(handle instanceof NIOFileHandle);
+    handle.close();
+
+    String id = path + ".remote";
+    Location.mapId(id, path);
+    try {
+      handle = Location.getHandle(id);
+      assertTrue(handle instanceof ReadaheadHandle);
+      checkContents(handle);
+      handle.close();
+    }
+    finally {
+      Location.mapId(id, null);
+    }
+  }
+
+  @Test
+  public void testCapabilities() throws IOException {
+    IRandomAccess handle = provider.getHandle(path, false);
+    HandleCapabilities capabilities = (HandleCapabilities) handle;
+    assertEquals(BLOCK_SIZE, capabilities.getPreferredBlockSize());
+    assertTrue(capabilities.supportsConcurrentReads());
+    assertFalse(capabilities.isMemoryMapped());
+
+    RandomAccessInputStream stream = new RandomAccessInputStream(handle);
+    assertEquals(BLOCK_SIZE, stream.getPreferredBlockSize());
+    RandomAccessInputStream duplicate = stream.duplicate();
+    assertEquals(BLOCK_SIZE, duplicate.getPreferredBlockSize());
+    duplicate.close();
+    stream.close();
+
+    stream = new RandomAccessInputStream(path);
+    assertEquals(0, stream.getPreferredBlockSize());
+    stream.close();
+  }
+
+  @Test
+  public void testReadRows() throws IOException {
+    RandomAccessInputStream local = new RandomAccessInputStream(path);
+    RandomAccessInputStream remote =
+      new RandomAccessInputStream(provider.getHandle(path, false));
+    checkRows(local, 3, 100, 70, 300);
+    checkRows(remote, 3, 100, 70, 300);
+    checkRows(remote, 5000, 37, 12, 1000);
+    checkRows(remote, 17, 8000, 3, 9000);
+    local.close();
+    remote.close();
+  }
+
+  // -- Helper methods --
+
+  private void checkContents(IRandomAccess handle) throws IOException {
+    assertEquals(data.length, handle.length());
+    byte[] buf = new byte[1000];
+    handle.seek(54321);
+    handle.readFully(buf);
+    for (int i=0; i<buf.length; i++) {
+      assertEquals(data[54321 + i], buf[i]);
+    }
+  }
+
+  private void checkRows(RandomAccessInputStream stream, int start,
+    int rowLength, int rows, int stride) throws IOException
+  {
+    int arrayStride = rowLength + 5;
+    byte[] buf = new byte[rows * arrayStride];
+    stream.seek(start);
+    stream.readRows(buf, 0, rowLength, rows, stride, arrayStride);
+    assertEquals(start + (rows - 1) * stride + rowLength,
+      stream.getFilePointer());
+    for (int row=0; row<rows; row++) {
+      for (int i=0; i<rowLength; i++) {
+        assertEquals(data[start + row * stride + i],
+          buf[row * arrayStride + i]);
+      }
+    }
+  }
+
+  // -- Helper classes --
+
+  /**
+   * Stand-in for a remote storage backend, which serves local files through
+   * a ReadaheadHandle.  Ids are accepted if they end in ".remote" or use the
+   * test scheme.
+   */
+  private static class LocalProvider implements HandleProvider {
+
+    public boolean isThisType(String id) {
+      return id.endsWith(".remote");
+    }
+
+    public IRandomAccess getHandle(String id, boolean writable)
+      throws IOException
+    {
+      int scheme = id.indexOf("://");
+      if (scheme >= 0) id = id.substring(scheme + 3);
+      return new ReadaheadHandle(new NIOFileHandle(id, "r"), id,
+        BLOCK_SIZE, 4, 16);
+    }
+
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import loci.common.IndexedGZipHandle;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the loci.common.IndexedGZipHandle class.
+ *
+ * @see loci.common.IndexedGZipHandle
+ */
+public class IndexedGZipHandleTest {
+
+  // -- Constants --
+
+  private static final int SPACING = 65536;
+
+  // -- Fields --
+
+  private byte[] data;
+  private File file;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    // mix of compressible and random data, so that the deflate stream
+    // contains dynamic, fixed and stored blocks
+    Random random = new Random(12345);
+    data = new byte[3 * 1024 * 1024];
+    for (int i=0; i<data.length; i++) {
+      if ((i / 100000) % 3 == 2) data[i] = (byte) random.nextInt();
+      else data[i] = (byte) ((i % 251) ^ (random.nextInt(4) == 0 ? i : 0));
+    }
+
+    file = File.createTempFile("indexed", ".gz");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+
+    // two concatenated members, the second stored without compression
+    int split = data.length / 2;
+    GZIPOutputStream first = new GZIPOutputStream(out) {
+      {
+        def.setLevel(Deflater.BEST_SPEED);
+      }
+      public void close() throws IOException {
+        finish();
+      }
+    };
+    first.write(data, 0, split);
+    first.close();
+    GZIPOutputStream second = new GZIPOutputStream(out) {
+      {
+        def.setLevel(Deflater.NO_COMPRESSION);
+      }
+    };
+    second.write(data, split, data.length - split);
+    second.close();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    file.delete();
+    new File(file.getAbsolutePath() + IndexedGZipHandle.INDEX_SUFFIX).delete();
+    IndexedGZipHandle.setPersistIndexes(false);
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testLength() throws IOException {
+    IndexedGZipHandle handle = new IndexedGZipHandle(file.getAbsolutePath());
+    assertEquals(data.length, handle.length());
+    handle.close();
+  }
+
+  @Test
+  public void testRandomSeeks() throws IOException {
+    IndexedGZipHandle handle = new IndexedGZipHandle(file.getAbsolutePath());
+    handle.setCheckpointSpacing(SPACING);
+    checkRandomSeeks(handle);
+    assertTrue(handle.isIndexed());
+    assertTrue(handle.getCheckpointCount() > data.length / SPACING / 2);
+    handle.close();
+  }
+
+  @Test
+  public void testBackwardsReads() throws IOException {
+    IndexedGZipHandle handle = new IndexedGZipHandle(file.getAbsolutePath());
+    handle.setCheckpointSpacing(SPACING);
+    byte[] buf = new byte[40000];
+    for (int pos=data.length - buf.length; pos >= 0; pos-=buf.length) {
+      handle.seek(pos);
+      handle.read(buf);
+      assertRange(buf, pos);
+    }
+    handle.close();
+  }
+
+  @Test
+  public void testPersistedIndex() throws IOException {
+    IndexedGZipHandle.setPersistIndexes(true);
+    IndexedGZipHandle handle = new IndexedGZipHandle(file.getAbsolutePath());
+    handle.setCheckpointSpacing(SPACING);
+    handle.buildIndex();
+    int checkpoints = handle.getCheckpointCount();
+    handle.close();
+
+    File index =
+      new File(file.getAbsolutePath() + IndexedGZipHandle.INDEX_SUFFIX);
+    assertTrue(index.exists());
+
+    handle = new IndexedGZipHandle(file.getAbsolutePath());
+    assertTrue(handle.isIndexed());
+    assertEquals(checkpoints, handle.getCheckpointCount());
+    assertEquals(data.length, handle.length());
+    checkRandomSeeks(handle);
+    handle.close();
+  }
+
+  // -- Helper methods --
+
+  private void checkRandomSeeks(IndexedGZipHandle handle) throws IOException {
+    Random random = new Random(54321);
+    byte[] buf = new byte[1000];
+    for (int i=0; i<50; i++) {
+      int pos = random.nextInt(data.length - buf.length);
+      handle.seek(pos);
+      assertEquals(pos, handle.getFilePointer());
+      handle.read(buf);
+      assertRange(buf, pos);
+    }
+  }
+
+  private void assertRange(byte[] buf, int pos) {
+    for (int i=0; i<buf.length; i++) {
+      assertEquals("offset " + (pos + i), data[pos + i], buf[i]);
+    }
+  }
+
+}
@@ -206,6 +206,46 @@ public class LocationTest {
     }
   }
 
+  @Test
+  public void testStatCache() throws IOException {
+    Location.reset();
+    Location.cacheDirectoryListings(true);
+    try {
+      Location directory = files[2];
+      String[] list = directory.list();
+
+      // existence of files in a listed directory is known without stat calls
+      long misses = Location.getStatCacheMisses();
+      for (String name : list) {
+        assertEquals(name, new Location(directory, name).exists(), true);
+      }
+      Location missing = new Location(directory, "missing");
+      assertEquals(missing.exists(), false);
+      assertEquals(missing.isDirectory(), false);
+      assertEquals(missing.length(), 0);
+      assertEquals(Location.getStatCacheMisses(), misses);
+      assertEquals(Location.getStatCacheHits() >= list.length + 1, true);
+
+      // other attributes are queried once, then cached
+      Location valid = new Location(files[0].getAbsolutePath());
+      assertEquals(valid.isFile(), true);
+      valid.length();
+      misses = Location.getStatCacheMisses();
+      assertEquals(new Location(files[0].getAbsolutePath()).isFile(), true);
+      assertEquals(valid.length(), files[0].length());
+      assertEquals(Location.getStatCacheMisses(), misses);
+
+      // creating or deleting a file invalidates its cached attributes
+      missing.createNewFile();
+      assertEquals(missing.exists(), true);
+      missing.delete();
+      assertEquals(missing.exists(), false);
+    }
+    finally {
+      Location.reset();
+    }
+  }
+
   @Test
   public void testToURL() throws IOException {
     for (Location file : files) {
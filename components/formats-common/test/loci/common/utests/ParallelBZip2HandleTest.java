@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import loci.common.ParallelBZip2Handle;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the loci.common.ParallelBZip2Handle class.
+ * Requires the bzip2 executable; the tests are skipped if it is missing.
+ *
+ * @see loci.common.ParallelBZip2Handle
+ */
+public class ParallelBZip2HandleTest {
+
+  // -- Fields --
+
+  private byte[] data;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() {
+    Random random = new Random(12345);
+    data = new byte[1500000];
+    for (int i=0; i<data.length; i++) {
+      if ((i / 50000) % 4 == 3) data[i] = (byte) random.nextInt();
+      else if ((i / 50000) % 4 == 2) data[i] = 7;
+      else data[i] = (byte) ((i % 249) ^ (random.nextInt(6) == 0 ? i : 0));
+    }
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testRandomSeeks() throws IOException {
+    File file = compress(data, 0, data.length);
+    ParallelBZip2Handle handle =
+      new ParallelBZip2Handle(file.getAbsolutePath(), 4);
+    assertTrue(handle.getBlockCount() > 10);
+    assertEquals(data.length, handle.length());
+    checkRandomSeeks(handle);
+    handle.close();
+  }
+
+  @Test
+  public void testConcatenatedStreams() throws IOException {
+    int split = data.length / 3;
+    File first = compress(data, 0, split);
+    File second = compress(data, split, data.length - split);
+
+    File file = File.createTempFile("concatenated", ".bz2");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    append(first, out);
+    append(second, out);
+    out.close();
+
+    ParallelBZip2Handle handle =
+      new ParallelBZip2Handle(file.getAbsolutePath());
+    assertEquals(data.length, handle.length());
+    checkRandomSeeks(handle);
+    handle.close();
+  }
+
+  // -- Helper methods --
+
+  private void checkRandomSeeks(ParallelBZip2Handle handle)
+    throws IOException
+  {
+    Random random = new Random(54321);
+    byte[] buf = new byte[150000];
+    for (int i=0; i<40; i++) {
+      int pos = random.nextInt(data.length - buf.length);
+      handle.seek(pos);
+      assertEquals(pos, handle.getFilePointer());
+      handle.readFully(buf);
+      for (int j=0; j<buf.length; j++) {
+        assertEquals("offset " + (pos + j), data[pos + j], buf[j]);
+      }
+    }
+  }
+
+  /** Compresses part of the given array with "bzip2 -1" (100k blocks). */
+  private File compress(byte[] b, int off, int len) throws IOException {
+    File file = File.createTempFile("blocks", ".dat");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(b, off, len);
+    out.close();
+
+    try {
+      Process p = Runtime.getRuntime().exec(
+        new String[] {"bzip2", "-1", "-f", file.getAbsolutePath()});
+      if (p.waitFor() != 0) throw new SkipException("bzip2 failed");
+    }
+    catch (IOException e) {
+      throw new SkipException("bzip2 is not installed");
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    File compressed = new File(file.getAbsolutePath() + ".bz2");
+    compressed.deleteOnExit();
+    return compressed;
+  }
+
+  private void append(File file, OutputStream out) throws IOException {
+    InputStream in = new FileInputStream(file);
+    byte[] buf = new byte[8192];
+    for (int n; (n = in.read(buf)) > 0;) {
+      out.write(buf, 0, n);
+    }
+    in.close();
+  }
+
+}
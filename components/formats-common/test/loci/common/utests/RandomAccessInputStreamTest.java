@@ -136,4 +136,28 @@ public class RandomAccessInputStreamTest {
     }
   }
 
+  @Test
+  public void testDuplicate() throws IOException {
+    stream.seek(5);
+    RandomAccessInputStream copy = stream.duplicate();
+    assertEquals(0, copy.getFilePointer());
+    assertEquals(PAGE.length, copy.length());
+    copy.seek(10);
+    assertEquals(PAGE[10], copy.readByte());
+    assertEquals(5, stream.getFilePointer());
+    assertEquals(PAGE[5], stream.readByte());
+    byte[] buf = new byte[4];
+    copy.readFully(buf);
+    for (int i=0; i<buf.length; i++) {
+      assertEquals(PAGE[11 + i], buf[i]);
+    }
+    assertEquals(15, copy.getFilePointer());
+    copy.order(true);
+    assertEquals(false, stream.isLittleEndian());
+    copy.seek(0);
+    assertEquals(0x0c080400, copy.readInt());
+    copy.close();
+    assertEquals(PAGE[6], stream.readByte());
+  }
+
 }
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import loci.common.IRandomAccess;
+import loci.common.Location;
+import loci.common.RangeURLHandle;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the loci.common.RangeURLHandle class, using an embedded
+ * HTTP server.
+ *
+ * @see loci.common.RangeURLHandle
+ */
+public class RangeURLHandleTest {
+
+  // -- Constants --
+
+  private static final int BLOCK_SIZE = 4096;
+
+  // -- Fields --
+
+  private StaticHttpServer server;
+
+  private byte[] data;
+
+  private String url;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    data = new byte[1000000];
+    new Random(12345).nextBytes(data);
+    server = new StaticHttpServer();
+    url = server.addFile("pyramid.tif", data);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    server.stop();
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testLengthFromHead() throws IOException {
+    RangeURLHandle handle = open();
+    assertEquals(data.length, handle.length());
+    List<String> requests = server.getRequests();
+    assertEquals(1, requests.size());
+    assertTrue(requests.get(0).startsWith("HEAD "));
+    assertEquals(0, server.getBytesServed());
+    handle.close();
+  }
+
+  @Test
+  public void testOnlyTouchedBlocksAreFetched() throws IOException {
+    RangeURLHandle handle = open();
+    server.resetCounters();
+    Random random = new Random(54321);
+    byte[] tile = new byte[1000];
+    int tiles = 20;
+    for (int i=0; i<tiles; i++) {
+      int pos = random.nextInt(data.length - tile.length);
+      handle.seek(pos);
+      handle.readFully(tile);
+      for (int j=0; j<tile.length; j++) {
+        assertEquals(data[pos + j], tile[j]);
+      }
+    }
+    assertTrue(server.getBytesServed() <= tiles * 2 * BLOCK_SIZE);
+    for (String request : server.getRequests()) {
+      String range = request.substring(request.indexOf("bytes=") + 6);
+      long start = Long.parseLong(range.substring(0, range.indexOf('-')));
+      assertEquals(0, start % BLOCK_SIZE);
+    }
+
+    // re-reading a block that is still cached needs no request
+    long requests = server.getRequests().size();
+    handle.seek(0);
+    handle.readInt();
+    handle.seek(0);
+    handle.readInt();
+    assertEquals(requests + 1, server.getRequests().size());
+    handle.close();
+  }
+
+  @Test
+  public void testRangesIgnored() throws IOException {
+    server.setRangesSupported(false);
+    RangeURLHandle handle = open();
+    assertEquals(data.length, handle.length());
+    handle.seek(500000);
+    byte[] b = new byte[100];
+    handle.readFully(b);
+    for (int i=0; i<b.length; i++) {
+      assertEquals(data[500000 + i], b[i]);
+    }
+    handle.close();
+  }
+
+  @Test
+  public void testLocationHandle() throws IOException {
+    IRandomAccess handle = Location.getHandle(url);
+    assertTrue(handle instanceof RangeURLHandle);
+    handle.seek(data.length - 4);
+    assertEquals(data[data.length - 1], (byte) (handle.readInt() & 0xff));
+    handle.close();
+  }
+
+  // -- Helper methods --
+
+  private RangeURLHandle open() throws IOException {
+    return new RangeURLHandle(url, BLOCK_SIZE, 4, 64);
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.common.IRandomAccess;
+import loci.common.utests.providers.IRandomAccessProvider;
+import loci.common.utests.providers.IRandomAccessProviderFactory;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for positional reads from a loci.common.IRandomAccess.
+ *
+ * @see loci.common.IRandomAccess#read(long, ByteBuffer)
+ */
+@Test(groups="readTests")
+public class ReadPositionalTest {
+
+  private static final byte[] PAGE = new byte[] {
+    (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04,
+    (byte) 0x05, (byte) 0x06, (byte) 0x07, (byte) 0x08,
+    (byte) 0x09, (byte) 0x0A, (byte) 0x0B, (byte) 0x0C,
+    (byte) 0x0D, (byte) 0x0E, (byte) 0xFF, (byte) 0xFE
+  };
+
+  private static final String MODE = "r";
+
+  private static final int BUFFER_SIZE = 2;
+
+  private IRandomAccess fileHandle;
+
+  @Parameters({"provider"})
+  @BeforeMethod
+  public void setUp(String provider) throws IOException {
+    IRandomAccessProviderFactory factory = new IRandomAccessProviderFactory();
+    IRandomAccessProvider instance = factory.getInstance(provider);
+    fileHandle = instance.createMock(PAGE, MODE, BUFFER_SIZE);
+  }
+
+  @Test
+  public void testReadAtOffset() throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(4);
+    int length = fileHandle.read(5, b);
+    assertEquals(4, length);
+    assertEquals(4, b.position());
+    assertEquals(0, fileHandle.getFilePointer());
+    b.flip();
+    assertEquals(0x06, b.get());
+    assertEquals(0x07, b.get());
+    assertEquals(0x08, b.get());
+    assertEquals(0x09, b.get());
+  }
+
+  @Test
+  public void testFilePointerUnchanged() throws IOException {
+    fileHandle.seek(3);
+    ByteBuffer b = ByteBuffer.allocate(2);
+    assertEquals(2, fileHandle.read(12, b));
+    assertEquals(3, fileHandle.getFilePointer());
+    assertEquals(0x04, fileHandle.readByte());
+    assertEquals(0x0D, b.get(0));
+    assertEquals(0x0E, b.get(1));
+    b.clear();
+    assertEquals(2, fileHandle.read(0, b));
+    assertEquals(4, fileHandle.getFilePointer());
+    assertEquals(0x01, b.get(0));
+    assertEquals(0x02, b.get(1));
+  }
+
+  @Test
+  public void testReadIntoBufferOffset() throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(8);
+    b.position(3);
+    b.limit(5);
+    assertEquals(2, fileHandle.read(14, b));
+    assertEquals(5, b.position());
+    assertEquals((byte) 0xFF, b.get(3));
+    assertEquals((byte) 0xFE, b.get(4));
+    b.limit(8);
+    assertEquals(0, b.get(5));
+  }
+
+  @Test
+  public void testPartialReadAtEnd() throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(8);
+    assertEquals(3, fileHandle.read(13, b));
+    assertEquals(3, b.position());
+    assertEquals(0x0E, b.get(0));
+    assertEquals((byte) 0xFF, b.get(1));
+    assertEquals((byte) 0xFE, b.get(2));
+  }
+
+  @Test
+  public void testReadAtEnd() throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(2);
+    assertEquals(-1, fileHandle.read(16, b));
+    assertEquals(-1, fileHandle.read(100, b));
+    assertEquals(0, b.position());
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final Throwable[] failure = new Throwable[1];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t=0; t<4; t++) {
+      final int start = t;
+      Thread thread = new Thread() {
+        public void run() {
+          try {
+            for (int i=0; i<200; i++) {
+              int pos = (start + i) % PAGE.length;
+              ByteBuffer b = ByteBuffer.allocate(PAGE.length - pos);
+              fileHandle.read(pos, b);
+              for (int j=0; j<b.limit(); j++) {
+                assertEquals(PAGE[pos + j], b.get(j));
+              }
+            }
+          }
+          catch (Throwable e) {
+            synchronized (failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure[0] != null) {
+      throw new AssertionError(failure[0]);
+    }
+  }
+
+}
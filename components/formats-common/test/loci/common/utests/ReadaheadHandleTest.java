@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import loci.common.NIOFileHandle;
+import loci.common.ReadaheadHandle;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the loci.common.ReadaheadHandle class.
+ *
+ * @see loci.common.ReadaheadHandle
+ */
+public class ReadaheadHandleTest {
+
+  // -- Constants --
+
+  private static final int BLOCK_SIZE = 4096;
+
+  private static final int MAX_READAHEAD = 8;
+
+  // -- Fields --
+
+  private byte[] data;
+
+  private String path;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    data = new byte[1000000];
+    new Random(12345).nextBytes(data);
+    File file = File.createTempFile("readahead", ".dat");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+    path = file.getAbsolutePath();
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testSequentialReadsAreCoalesced() throws IOException {
+    ReadaheadHandle handle = open(null);
+    ByteBuffer expected = ByteBuffer.wrap(data);
+    int blocks = 64;
+    for (int i=0; i<blocks*BLOCK_SIZE; i+=4) {
+      assertEquals(expected.getInt(i), handle.readInt());
+    }
+    assertTrue(handle.getBytesRead() >= blocks * BLOCK_SIZE);
+    assertTrue(handle.getBytesRead() <= (blocks + MAX_READAHEAD) * BLOCK_SIZE);
+    assertTrue(handle.getReadCount() <= blocks / MAX_READAHEAD + 4);
+    assertEquals(0, handle.getSeekDistance());
+    handle.close();
+  }
+
+  @Test
+  public void testRandomReadsFetchSingleBlocks() throws IOException {
+    ReadaheadHandle handle = open(null);
+    Random random = new Random(54321);
+    for (int i=0; i<50; i++) {
+      int pos = random.nextInt(data.length - 1);
+      handle.seek(pos);
+      assertEquals(data[pos], handle.readByte());
+    }
+    assertTrue(handle.getReadCount() > 0);
+    assertEquals(handle.getReadCount() * BLOCK_SIZE, handle.getBytesRead());
+    assertTrue(handle.getSeekDistance() > 0);
+    handle.close();
+  }
+
+  @Test
+  public void testLargeReadsBypassCache() throws IOException {
+    ReadaheadHandle handle = open(null);
+    byte[] buf = new byte[BLOCK_SIZE * MAX_READAHEAD + 17];
+    handle.seek(1234);
+    handle.readFully(buf);
+    for (int i=0; i<buf.length; i++) {
+      assertEquals(data[1234 + i], buf[i]);
+    }
+    assertEquals(1, handle.getReadCount());
+    assertEquals(buf.length, handle.getBytesRead());
+    handle.close();
+  }
+
+  @Test
+  public void testCacheIsShared() throws IOException {
+    ReadaheadHandle first = open(path);
+    ReadaheadHandle second = open(path);
+    byte[] a = new byte[BLOCK_SIZE];
+    byte[] b = new byte[BLOCK_SIZE];
+    first.seek(10000);
+    first.readFully(a);
+    second.seek(10000);
+    second.readFully(b);
+    for (int i=0; i<a.length; i++) {
+      assertEquals(data[10000 + i], b[i]);
+    }
+    assertEquals(0, second.getReadCount());
+    assertTrue(second.getCacheHits() > 0);
+    first.close();
+    second.close();
+
+    ReadaheadHandle third = open(path);
+    third.seek(10000);
+    third.readFully(b);
+    assertTrue(third.getReadCount() > 0);
+    third.close();
+  }
+
+  @Test
+  public void testPositionalReadAtEnd() throws IOException {
+    ReadaheadHandle handle = open(null);
+    ByteBuffer buf = ByteBuffer.allocate(100);
+    assertEquals(40, handle.read(data.length - 40, buf));
+    for (int i=0; i<40; i++) {
+      assertEquals(data[data.length - 40 + i], buf.get(i));
+    }
+    assertEquals(-1, handle.read(data.length, buf));
+    handle.close();
+  }
+
+  // -- Helper methods --
+
+  private ReadaheadHandle open(String id) throws IOException {
+    return new ReadaheadHandle(new NIOFileHandle(path, "r"), id,
+      BLOCK_SIZE, MAX_READAHEAD, 64);
+  }
+
+}
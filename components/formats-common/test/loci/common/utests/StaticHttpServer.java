@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common.utests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal embedded HTTP server which serves byte arrays, with optional
+ * support for range requests, and records the requests it receives.
+ */
+public class StaticHttpServer implements HttpHandler {
+
+  // -- Fields --
+
+  private HttpServer server;
+
+  private Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+
+  private volatile boolean rangesSupported = true;
+
+  /** Requests received, as "METHOD path range". */
+  private List<String> requests = new ArrayList<String>();
+
+  private long bytesServed;
+
+  // -- Constructor --
+
+  /** Starts a server on an ephemeral port of the loopback interface. */
+  public StaticHttpServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  // -- StaticHttpServer API methods --
+
+  /** Serves the given data under the given name, and returns its URL. */
+  public String addFile(String name, byte[] data) {
+    files.put("/" + name, data);
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + name;
+  }
+
+  public void setRangesSupported(boolean supported) {
+    rangesSupported = supported;
+  }
+
+  public synchronized List<String> getRequests() {
+    return new ArrayList<String>(requests);
+  }
+
+  public synchronized long getBytesServed() {
+    return bytesServed;
+  }
+
+  public synchronized void resetCounters() {
+    requests.clear();
+    bytesServed = 0;
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  // -- HttpHandler API methods --
+
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath();
+      String method = exchange.getRequestMethod();
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      synchronized (this) {
+        requests.add(method + " " + path + " " + range);
+      }
+
+      byte[] data = files.get(path);
+      if (data == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      Headers headers = exchange.getResponseHeaders();
+      if (rangesSupported) headers.set("Accept-Ranges", "bytes");
+      if (method.equals("HEAD")) {
+        headers.set("Content-Length", String.valueOf(data.length));
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+
+      int start = 0;
+      int end = data.length - 1;
+      int code = 200;
+      if (rangesSupported && range != null && range.startsWith("bytes=")) {
+        String[] bounds = range.substring(6).split("-");
+        start = Integer.parseInt(bounds[0]);
+        if (bounds.length > 1) {
+          end = Math.min(end, Integer.parseInt(bounds[1]));
+        }
+        code = 206;
+        headers.set("Content-Range",
+          "bytes " + start + "-" + end + "/" + data.length);
+      }
+      int len = Math.max(0, end - start + 1);
+      exchange.sendResponseHeaders(code, len == 0 ? -1 : len);
+      OutputStream out = exchange.getResponseBody();
+      out.write(data, start, len);
+      out.close();
+      synchronized (this) {
+        bytesServed += len;
+      }
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import loci.common.ZipHandle;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for random access to stored and deflated entries in
+ * loci.common.ZipHandle.
+ *
+ * @see loci.common.ZipHandle
+ */
+public class ZipHandleTest {
+
+  // -- Fields --
+
+  private byte[] stored;
+  private byte[] deflated;
+  private File file;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    Random random = new Random(12345);
+    stored = new byte[1024 * 1024];
+    random.nextBytes(stored);
+    deflated = new byte[10 * 1024 * 1024];
+    for (int i=0; i<deflated.length; i++) {
+      deflated[i] = (byte) ((i % 253) ^ (random.nextInt(8) == 0 ? i : 0));
+    }
+
+    file = File.createTempFile("entries", ".zip");
+    file.deleteOnExit();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+
+    ZipEntry entry = new ZipEntry("stored.bin");
+    CRC32 crc = new CRC32();
+    crc.update(stored);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(stored.length);
+    entry.setCompressedSize(stored.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(stored);
+
+    out.putNextEntry(new ZipEntry("deflated.bin"));
+    out.write(deflated);
+    out.close();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    file.delete();
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testStoredEntry() throws IOException {
+    ZipHandle handle =
+      new ZipHandle(file.getAbsolutePath(), new ZipEntry("stored.bin"));
+    assertEquals(stored.length, handle.length());
+    checkRandomSeeks(handle, stored);
+    handle.close();
+  }
+
+  @Test
+  public void testDeflatedEntry() throws IOException {
+    ZipHandle handle =
+      new ZipHandle(file.getAbsolutePath(), new ZipEntry("deflated.bin"));
+    assertEquals(deflated.length, handle.length());
+    checkRandomSeeks(handle, deflated);
+    handle.close();
+  }
+
+  @Test
+  public void testDefaultEntry() throws IOException {
+    ZipHandle handle = new ZipHandle(file.getAbsolutePath());
+    assertEquals("stored.bin", handle.getEntryName());
+    assertEquals(2, handle.getEntryCount());
+    byte[] buf = new byte[1000];
+    handle.seek(5000);
+    handle.read(buf);
+    assertRange(stored, buf, 5000);
+    handle.close();
+  }
+
+  // -- Helper methods --
+
+  private void checkRandomSeeks(ZipHandle handle, byte[] data)
+    throws IOException
+  {
+    Random random = new Random(54321);
+    byte[] buf = new byte[1000];
+    for (int i=0; i<30; i++) {
+      int pos = random.nextInt(data.length - buf.length);
+      handle.seek(pos);
+      assertEquals(pos, handle.getFilePointer());
+      handle.read(buf);
+      assertRange(data, buf, pos);
+    }
+  }
+
+  private void assertRange(byte[] data, byte[] buf, int pos) {
+    for (int i=0; i<buf.length; i++) {
+      assertEquals("offset " + (pos + i), data[pos + i], buf[i]);
+    }
+  }
+
+}
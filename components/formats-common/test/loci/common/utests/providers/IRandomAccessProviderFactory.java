@@ -56,7 +56,13 @@ public class IRandomAccessProviderFactory {
     providers.put("ByteArrayHandle", new ByteArrayHandleProvider());
     providers.put("BZip2Handle", new BZip2HandleProvider());
     providers.put("GZipHandle", new GZipHandleProvider());
+    providers.put("IndexedGZipHandle", new IndexedGZipHandleProvider());
+    providers.put("MappedFileHandle", new MappedFileHandleProvider());
     providers.put("NIOFileHandle", new NIOFileHandleProvider());
+    providers.put("ParallelBZip2Handle", new ParallelBZip2HandleProvider());
+    providers.put("RangeURLHandle", new RangeURLHandleProvider());
+    providers.put("ReadaheadHandle", new ReadaheadHandleProvider());
+    providers.put("StoredZipHandle", new StoredZipHandleProvider());
     providers.put("URLHandle", new URLHandleProvider());
     providers.put("ZipHandle", new ZipHandleProvider());
   }
@@ -177,6 +177,14 @@ public class TileStitcher extends ReaderWrapper {
     return buf;
   }
 
+  /* @see IFormatReader#openBytes(int, int, int, byte[], int, int, int, int) */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, series, resolution, no, buf,
+      x, y, w, h);
+  }
+
   /* @see IFormatReader#setId(String) */
   public void setId(String id) throws FormatException, IOException {
     super.setId(id);
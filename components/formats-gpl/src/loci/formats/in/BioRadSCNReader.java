@@ -35,6 +35,7 @@ import loci.common.xml.XMLTools;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -77,6 +78,7 @@ public class BioRadSCNReader extends FormatReader {
     super("Bio-Rad SCN", "scn");
     domains = new String[] {FormatTools.GEL_DOMAIN};
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.search(64, MAGIC)};
   }
 
   // -- IFormatReader API methods --
@@ -37,6 +37,7 @@ import loci.common.DataTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.ImageTools;
 import loci.formats.MetadataTools;
@@ -91,6 +92,7 @@ public class DNGReader extends BaseTiffReader {
     super("DNG",
       new String[] {"cr2", "crw", "jpg", "thm", "wav", "tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.TIFF};
     domains = new String[] {FormatTools.GRAPHICS_DOMAIN};
   }
 
@@ -31,6 +31,7 @@ import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -59,6 +60,8 @@ public class FEIReader extends FormatReader {
   public FEIReader() {
     super("FEI/Philips", "img");
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.magic(0, FEI_MAGIC_STRING)};
     domains = new String[] {FormatTools.SEM_DOMAIN};
   }
 
@@ -39,6 +39,7 @@ import loci.common.RandomAccessInputStream;
 import loci.common.xml.BaseHandler;
 import loci.common.xml.XMLTools;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -84,6 +85,8 @@ public class FEITiffReader extends BaseTiffReader {
   public FEITiffReader() {
     super("FEI TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.tiff(SFEG_TAG, HELIOS_TAG)};
     domains = new String[] {FormatTools.SEM_DOMAIN};
   }
 
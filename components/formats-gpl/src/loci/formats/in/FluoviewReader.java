@@ -31,6 +31,7 @@ import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -122,6 +123,7 @@ public class FluoviewReader extends BaseTiffReader {
   public FluoviewReader() {
     super("Olympus Fluoview/ABD TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.TIFF};
     domains = new String[] {FormatTools.LM_DOMAIN};
     datasetDescription =
       "One or more .tif/.tiff files, and an optional .txt file";
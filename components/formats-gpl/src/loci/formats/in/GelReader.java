@@ -31,6 +31,7 @@ import loci.common.DataTools;
 import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -85,6 +86,7 @@ public class GelReader extends BaseTiffReader {
   public GelReader() {
     super("Amersham Biosciences GEL", new String[] {"gel"});
     domains = new String[] {FormatTools.GEL_DOMAIN};
+    signatures = new FormatSignature[] {FormatSignature.tiff(MD_FILETAG)};
   }
 
   // -- IFormatReader API methods --
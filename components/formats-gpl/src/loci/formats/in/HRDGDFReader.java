@@ -32,6 +32,7 @@ import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -73,6 +74,7 @@ public class HRDGDFReader extends FormatReader {
     super("NOAA-HRD Gridded Data Format", "");
     domains = new String[] {FormatTools.UNKNOWN_DOMAIN};
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.magic(0, MAGIC_STRING)};
     suffixNecessary = false;
   }
 
@@ -32,6 +32,7 @@ import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -61,6 +62,8 @@ public class IPLabReader extends FormatReader {
     super("IPLab", "ipl");
     suffixNecessary = false; // allow extensionless IPLab files
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.magic(0, "iiii", "mmmm")};
     domains = new String[] {FormatTools.UNKNOWN_DOMAIN};
   }
 
@@ -33,6 +33,7 @@ import loci.common.xml.BaseHandler;
 import loci.common.xml.XMLTools;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -73,6 +74,7 @@ public class ImaconReader extends BaseTiffReader {
   public ImaconReader() {
     super("Imacon", new String[] {"fff"});
     domains = new String[] {FormatTools.GRAPHICS_DOMAIN};
+    signatures = new FormatSignature[] {FormatSignature.tiff(XML_TAG)};
   }
 
   // -- IFormatReader API methods --
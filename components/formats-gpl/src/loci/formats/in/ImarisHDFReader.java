@@ -37,6 +37,7 @@ import loci.common.services.ServiceFactory;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.MissingLibraryException;
@@ -80,6 +81,8 @@ public class ImarisHDFReader extends FormatReader {
   public ImarisHDFReader() {
     super("Bitplane Imaris 5.5 (HDF)", "ims");
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.search(8, HDF_MAGIC_STRING)};
     domains = new String[] {FormatTools.UNKNOWN_DOMAIN};
   }
 
@@ -31,6 +31,7 @@ import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -69,6 +70,8 @@ public class ImarisReader extends FormatReader {
   public ImarisReader() {
     super("Bitplane Imaris", "ims");
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.magic(0, new byte[] {0x00, 0x4c, (byte) 0xa1, 0x0c})};
     domains = new String[] {FormatTools.UNKNOWN_DOMAIN};
   }
 
@@ -32,6 +32,7 @@ import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -78,6 +79,8 @@ public class ImspectorReader extends FormatReader {
     super("Lavision Imspector", "msr");
     domains = new String[] {FormatTools.FLIM_DOMAIN};
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.search(32, MAGIC_STRING)};
   }
 
   // -- IFormatReader API methods --
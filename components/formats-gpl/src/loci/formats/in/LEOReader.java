@@ -30,6 +30,7 @@ import java.io.IOException;
 import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -66,6 +67,7 @@ public class LEOReader extends BaseTiffReader {
     super("LEO", new String[] {"sxm", "tif", "tiff"});
     domains = new String[] {FormatTools.EM_DOMAIN};
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.tiff(LEO_TAG)};
   }
 
   // -- IFormatReader API methods --
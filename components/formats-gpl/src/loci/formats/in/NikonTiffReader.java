@@ -30,6 +30,7 @@ import java.util.Vector;
 
 import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -71,6 +72,7 @@ public class NikonTiffReader extends BaseTiffReader {
   public NikonTiffReader() {
     super("Nikon TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.TIFF};
     domains = new String[] {FormatTools.LM_DOMAIN};
   }
 
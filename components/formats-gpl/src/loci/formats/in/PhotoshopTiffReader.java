@@ -32,6 +32,7 @@ import loci.common.ByteArrayHandle;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.codec.Codec;
@@ -76,6 +77,8 @@ public class PhotoshopTiffReader extends BaseTiffReader {
   public PhotoshopTiffReader() {
     super("Adobe Photoshop TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {
+      FormatSignature.tiff(IMAGE_SOURCE_DATA)};
     domains = new String[] {FormatTools.GRAPHICS_DOMAIN};
   }
 
@@ -37,6 +37,7 @@ import loci.common.IniTable;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -76,6 +77,7 @@ public class SISReader extends BaseTiffReader {
   public SISReader() {
     super("Olympus SIS TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.TIFF};
     suffixNecessary = true;
     domains = new String[] {FormatTools.UNKNOWN_DOMAIN};
   }
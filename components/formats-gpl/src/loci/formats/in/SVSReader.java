@@ -89,6 +89,7 @@ public class SVSReader extends BaseTiffReader {
     domains = new String[] {FormatTools.HISTOLOGY_DOMAIN};
     suffixNecessary = true;
     noSubresolutions = true;
+    concurrentReads = true;
   }
 
   // -- IFormatReader API methods --
@@ -170,6 +171,28 @@ public class SVSReader extends BaseTiffReader {
     return buf;
   }
 
+  /**
+   * @see loci.formats.IFormatReader#openBytes(int, int, int, byte[], int, int,
+   *   int, int)
+   */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    if (core.size() == 1 || !concurrentReads) {
+      return super.openBytes(series, resolution, no, buf, x, y, w, h);
+    }
+    int coreIndex = getCoreIndex(series, resolution);
+    checkPlaneParameters(coreIndex, no, buf.length, x, y, w, h);
+    TiffParser parser = tiffParser.duplicate();
+    try {
+      parser.getSamples(ifds.get(ifdmap[coreIndex]), buf, x, y, w, h);
+    }
+    finally {
+      parser.getStream().close();
+    }
+    return buf;
+  }
+
   /* @see loci.formats.IFormatReader#openThumbBytes(int) */
   public byte[] openThumbBytes(int no) throws FormatException, IOException {
     if (core.size() == 1 || getSeries() >= getSeriesCount() - 2) {
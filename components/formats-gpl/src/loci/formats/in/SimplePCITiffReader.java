@@ -38,6 +38,7 @@ import loci.common.IniTable;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.ImageTools;
 import loci.formats.MetadataTools;
@@ -82,6 +83,7 @@ public class SimplePCITiffReader extends BaseTiffReader {
   public SimplePCITiffReader() {
     super("SimplePCI TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.TIFF};
     domains = new String[] {FormatTools.LM_DOMAIN};
   }
 
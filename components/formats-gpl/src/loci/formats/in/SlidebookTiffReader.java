@@ -34,6 +34,7 @@ import loci.common.Location;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatSignature;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -72,6 +73,7 @@ public class SlidebookTiffReader extends BaseTiffReader {
   public SlidebookTiffReader() {
     super("Slidebook TIFF", new String[] {"tif", "tiff"});
     suffixSufficient = false;
+    signatures = new FormatSignature[] {FormatSignature.TIFF};
     domains = new String[] {FormatTools.LM_DOMAIN};
   }
 
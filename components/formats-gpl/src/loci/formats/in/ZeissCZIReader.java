@@ -29,7 +29,10 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Stack;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -104,6 +107,9 @@ public class ZeissCZIReader extends FormatReader {
   private static final int GRAY32 = 12;
   private static final int GRAY_DOUBLE = 13;
 
+  /** Downsampling factor of full resolution SubBlocks. */
+  private static final int FULL_RESOLUTION = 1;
+
   // -- Fields --
 
   private MetadataStore store;
@@ -112,6 +118,19 @@ public class ZeissCZIReader extends FormatReader {
 
   private ArrayList<Segment> segments;
   private ArrayList<SubBlock> planes;
+
+  /**
+   * SubBlocks grouped by series, plane index and resolution, in the same
+   * order as in the plane list.  Built on demand by
+   * {@link #getSubBlocks(int, int, int)}.
+   */
+  private transient HashMap<PlaneKey, List<SubBlock>> planeIndex;
+
+  /**
+   * Positions of the full resolution tiles of each prestitched plane.
+   * Built on demand by {@link #getTileIndex(int, int)}.
+   */
+  private transient HashMap<PlaneKey, TileIndex> tileIndex;
   private int rotations = 1;
   private int positions = 1;
   private int illuminations = 1;
@@ -296,12 +315,34 @@ public class ZeissCZIReader extends FormatReader {
     boolean validScanDim =
       scanDim == (getImageCount() / getSizeC()) && scanDim > 1;
 
-    for (SubBlock plane : planes) {
+    // line scans may combine SubBlocks from several series,
+    // so only use the per-plane index when that is not the case;
+    // the tiles of a prestitched plane are looked up by position,
+    // so that only the tiles within the requested region are visited
+    List<SubBlock> blocks;
+    Region[] tiles = null;
+    if (validScanDim) {
+      blocks = planes;
+    }
+    else if (prestitched != null && prestitched) {
+      TileIndex index = getTileIndex(currentSeries, no);
+      int[] found = index.find(image);
+      blocks = new ArrayList<SubBlock>(found.length);
+      tiles = new Region[found.length];
+      for (int i=0; i<found.length; i++) {
+        blocks.add(index.tiles[found[i]]);
+        tiles[i] = index.regions[found[i]];
+      }
+    }
+    else {
+      blocks = getSubBlocks(currentSeries, no, FULL_RESOLUTION);
+    }
+
+    for (int b=0; b<blocks.size(); b++) {
+      SubBlock plane = blocks.get(b);
       if ((plane.seriesIndex == currentSeries && plane.planeIndex == no) ||
         (plane.planeIndex == previousChannel && validScanDim))
       {
-        byte[] rawData = new SubBlock(plane).readPixelData();
-
         if ((prestitched != null && prestitched) || validScanDim) {
           int realX = plane.x;
           int realY = plane.y;
@@ -310,7 +351,7 @@ public class ZeissCZIReader extends FormatReader {
             currentY = 0;
           }
 
-          Region tile =
+          Region tile = tiles != null ? tiles[b] :
             new Region(currentX, getSizeY() - currentY - realY, realX, realY);
           if (validScanDim) {
             tile.y += (no / getSizeC());
@@ -318,6 +359,7 @@ public class ZeissCZIReader extends FormatReader {
           }
 
           if (tile.intersects(image)) {
+            byte[] rawData = plane.readPixelData();
             Region intersection = tile.intersection(image);
             int intersectionX = 0;
 
@@ -327,7 +369,13 @@ public class ZeissCZIReader extends FormatReader {
 
             int rowLen = pixel * (int) Math.min(intersection.width, realX);
             int outputOffset = outputRow * outputRowLen + outputCol;
-            for (int trow=0; trow<intersection.height; trow++) {
+            if (rawData == null) {
+              // leave this tile blank, but keep the position of the others
+              LOGGER.debug("Skipping invalid SubBlock at {} in {}",
+                plane.startingPosition, plane.filename);
+            }
+            for (int trow=0; rawData!=null && trow<intersection.height; trow++)
+            {
               int realRow = trow + intersection.y - tile.y;
               if (validScanDim) {
                 realRow += tile.y;
@@ -352,6 +400,12 @@ public class ZeissCZIReader extends FormatReader {
           }
         }
         else {
+          byte[] rawData = plane.readPixelData();
+          if (rawData == null) {
+            LOGGER.debug("Skipping invalid SubBlock at {} in {}",
+              plane.startingPosition, plane.filename);
+            continue;
+          }
           RandomAccessInputStream s = new RandomAccessInputStream(rawData);
           try {
             readPlane(s, x, y, w, h, buf);
@@ -373,6 +427,8 @@ public class ZeissCZIReader extends FormatReader {
       pixels = null;
       segments = null;
       planes = null;
+      planeIndex = null;
+      tileIndex = null;
       rotations = 1;
       positions = 1;
       illuminations = 1;
@@ -472,28 +528,51 @@ public class ZeissCZIReader extends FormatReader {
     convertPixelType(planes.get(0).directoryEntry.pixelType);
 
     // remove any invalid SubBlocks
+    // SubBlocks that were found through the directory are only checked
+    // against their directory entries, apart from the first valid one,
+    // which is read to find the number of lines in each SubBlock; the
+    // others are read when their pixels are first needed
 
     int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    boolean sizeChecked = false;
     for (int i=0; i<planes.size(); i++) {
-      long planeSize = (long) planes.get(i).x * planes.get(i).y * bpp;
-      if (planes.get(i).directoryEntry.compression == UNCOMPRESSED) {
-        long size = planes.get(i).dataSize;
-        if (size < planeSize || planeSize >= Integer.MAX_VALUE || size < 0) {
+      SubBlock plane = planes.get(i);
+      long planeSize = (long) plane.x * plane.y * bpp;
+      if (planeSize >= Integer.MAX_VALUE) {
+        planes.remove(i);
+        i--;
+        continue;
+      }
+      if (sizeChecked && !plane.isHeaderRead()) {
+        continue;
+      }
+      if (!plane.readHeader()) {
+        LOGGER.debug("Invalid SubBlock at {} in {}",
+          plane.startingPosition, plane.filename);
+        planes.remove(i);
+        i--;
+        continue;
+      }
+      if (plane.directoryEntry.compression == UNCOMPRESSED) {
+        long size = plane.dataSize;
+        if (size < planeSize || size < 0) {
           planes.remove(i);
           i--;
         }
         else {
           scanDim = (int) (size / planeSize);
+          sizeChecked = true;
         }
       }
       else {
-        byte[] pixels = planes.get(i).readPixelData();
-        if (pixels.length < planeSize || planeSize >= Integer.MAX_VALUE) {
+        byte[] pixels = plane.readPixelData();
+        if (pixels == null || pixels.length < planeSize) {
           planes.remove(i);
           i--;
         }
         else {
           scanDim = (int) (pixels.length / planeSize);
+          sizeChecked = true;
         }
       }
     }
@@ -614,6 +693,10 @@ public class ZeissCZIReader extends FormatReader {
 
     assignPlaneIndices();
 
+    if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
+      readPlaneMetadata();
+    }
+
     if (channels.size() > 0 && channels.get(0).color != null) {
       for (int i=0; i<seriesCount; i++) {
         core.get(i).indexed = true;
@@ -639,7 +722,9 @@ public class ZeissCZIReader extends FormatReader {
       if (acquiredDate != null) {
         store.setImageAcquisitionDate(new Timestamp(acquiredDate), i);
       }
-      else if (planes.get(0).timestamp != null) {
+      else if (planes.get(0).readMetadata() &&
+        planes.get(0).timestamp != null)
+      {
         long timestamp = (long) (planes.get(0).timestamp * 1000);
         String date =
           DateTools.convertDate(timestamp, DateTools.UNIX);
@@ -690,51 +775,54 @@ public class ZeissCZIReader extends FormatReader {
           startTime = t.asInstant().getMillis() / 1000d;
       }
       for (int plane=0; plane<getImageCount(); plane++) {
-        for (SubBlock p : planes) {
-          if (p.seriesIndex == i && p.planeIndex == plane) {
-            if (startTime == null) {
-              startTime = p.timestamp;
-            }
+        // the metadata of the other SubBlocks in the plane (e.g. the other
+        // tiles of a mosaic) is not read
+        List<SubBlock> blocks = getSubBlocks(i, plane, FULL_RESOLUTION);
+        if (blocks.size() == 0) {
+          continue;
+        }
+        SubBlock p = blocks.get(0);
+        if (startTime == null) {
+          startTime = p.timestamp;
+        }
 
-            if (p.stageX != null) {
-              store.setPlanePositionX(p.stageX, i, plane);
-            }
-            else if (positionsX != null && i < positionsX.length) {
-              store.setPlanePositionX(positionsX[i], i, plane);
-            }
+        if (p.stageX != null) {
+          store.setPlanePositionX(p.stageX, i, plane);
+        }
+        else if (positionsX != null && i < positionsX.length) {
+          store.setPlanePositionX(positionsX[i], i, plane);
+        }
 
-            if (p.stageY != null) {
-              store.setPlanePositionY(p.stageY, i, plane);
-            }
-            else if (positionsY != null && i < positionsY.length) {
-              store.setPlanePositionY(positionsY[i], i, plane);
-            }
+        if (p.stageY != null) {
+          store.setPlanePositionY(p.stageY, i, plane);
+        }
+        else if (positionsY != null && i < positionsY.length) {
+          store.setPlanePositionY(positionsY[i], i, plane);
+        }
 
-            if (p.stageZ != null) {
-              store.setPlanePositionZ(p.stageZ, i, plane);
-            }
-            else if (positionsZ != null && i < positionsZ.length) {
-              store.setPlanePositionZ(positionsZ[i], i, plane);
-            }
+        if (p.stageZ != null) {
+          store.setPlanePositionZ(p.stageZ, i, plane);
+        }
+        else if (positionsZ != null && i < positionsZ.length) {
+          store.setPlanePositionZ(positionsZ[i], i, plane);
+        }
 
-            if (p.timestamp != null) {
-              store.setPlaneDeltaT(p.timestamp - startTime, i, plane);
-            }
-            else if (plane < timestamps.size()) {
-              store.setPlaneDeltaT(timestamps.get(plane), i, plane);
-            }
-            if (p.exposureTime != null) {
-              store.setPlaneExposureTime(p.exposureTime, i, plane);
-            }
-            else {
-              int channel = getZCTCoords(plane)[1];
-              if (channel < channels.size() &&
-                channels.get(channel).exposure != null)
-              {
-                store.setPlaneExposureTime(
-                  channels.get(channel).exposure, i, plane);
-              }
-            }
+        if (p.timestamp != null) {
+          store.setPlaneDeltaT(p.timestamp - startTime, i, plane);
+        }
+        else if (plane < timestamps.size()) {
+          store.setPlaneDeltaT(timestamps.get(plane), i, plane);
+        }
+        if (p.exposureTime != null) {
+          store.setPlaneExposureTime(p.exposureTime, i, plane);
+        }
+        else {
+          int channel = getZCTCoords(plane)[1];
+          if (channel < channels.size() &&
+            channels.get(channel).exposure != null)
+          {
+            store.setPlaneExposureTime(
+              channels.get(channel).exposure, i, plane);
           }
         }
       }
@@ -821,6 +909,13 @@ public class ZeissCZIReader extends FormatReader {
     }
     in = new RandomAccessInputStream(id);
     in.order(isLittleEndian());
+
+    if (readDirectory(id)) {
+      return;
+    }
+    LOGGER.debug("Could not use directory in {}; scanning all segments", id);
+
+    in.seek(0);
     while (in.getFilePointer() < in.length()) {
       Segment segment = readSegment(id);
       segments.add(segment);
@@ -831,6 +926,199 @@ public class ZeissCZIReader extends FormatReader {
     }
   }
 
+  /**
+   * Finds the SubBlocks in the given file using the directory segment
+   * referenced by the file header, so that only the segments which are
+   * actually needed are read.  SubBlocks are created from their directory
+   * entries; the SubBlock segments themselves are not read until their
+   * sizes, metadata or pixel data are needed.  Nothing is added to the
+   * segment or plane lists unless the directory is complete and consistent.
+   *
+   * @return true if the file was read using its directory
+   */
+  private boolean readDirectory(String id) throws IOException {
+    Segment header = readSegment(0, id);
+    if (!(header instanceof FileHeader)) {
+      return false;
+    }
+    FileHeader fileHeader = (FileHeader) header;
+    if (fileHeader.updatePending) {
+      // the directory may not reflect the most recent changes
+      return false;
+    }
+
+    Segment directory = readSegment(fileHeader.directoryPosition, id);
+    if (!(directory instanceof Directory)) {
+      return false;
+    }
+
+    ArrayList<Segment> found = new ArrayList<Segment>();
+    found.add(fileHeader);
+    found.add(directory);
+
+    Segment metadata = readSegment(fileHeader.metadataPosition, id);
+    if (metadata instanceof Metadata) {
+      found.add(metadata);
+    }
+
+    Segment attachments =
+      readSegment(fileHeader.attachmentDirectoryPosition, id);
+    if (attachments instanceof AttachmentDirectory) {
+      for (AttachmentEntry entry : ((AttachmentDirectory) attachments).entries)
+      {
+        Segment attachment = readSegment(entry.filePosition, id);
+        if (attachment instanceof Attachment) {
+          found.add(attachment);
+        }
+      }
+      found.add(attachments);
+    }
+
+    // read the SubBlocks in file order, so that the plane list is the same
+    // as if the whole file had been scanned
+    DirectoryEntry[] entries = ((Directory) directory).entries.clone();
+    Arrays.sort(entries, new Comparator<DirectoryEntry>() {
+      public int compare(DirectoryEntry a, DirectoryEntry b) {
+        return Long.valueOf(a.filePosition).compareTo(b.filePosition);
+      }
+    });
+    for (DirectoryEntry entry : entries) {
+      if (entry.filePosition < 0 ||
+        entry.filePosition + HEADER_SIZE > in.length() ||
+        (entry.filePosition % ALIGNMENT) != 0)
+      {
+        return false;
+      }
+      found.add(new SubBlock(entry, id));
+    }
+
+    Collections.sort(found, new Comparator<Segment>() {
+      public int compare(Segment a, Segment b) {
+        return Long.valueOf(a.startingPosition).compareTo(b.startingPosition);
+      }
+    });
+    for (Segment segment : found) {
+      segments.add(segment);
+      if (segment instanceof SubBlock) {
+        planes.add((SubBlock) segment);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the metadata of the first SubBlock in each plane, opening each
+   * file only once.  The other SubBlocks in a plane, such as the remaining
+   * tiles of a mosaic, are not read.
+   */
+  private void readPlaneMetadata() throws IOException {
+    List<SubBlock> blocks = new ArrayList<SubBlock>();
+    for (int series=0; series<getSeriesCount(); series++) {
+      for (int no=0; no<getImageCount(); no++) {
+        List<SubBlock> plane = getSubBlocks(series, no, FULL_RESOLUTION);
+        if (plane.size() > 0) {
+          blocks.add(plane.get(0));
+        }
+      }
+    }
+    Collections.sort(blocks, new Comparator<SubBlock>() {
+      public int compare(SubBlock a, SubBlock b) {
+        int file = a.filename.compareTo(b.filename);
+        if (file != 0) {
+          return file;
+        }
+        return Long.valueOf(a.startingPosition).compareTo(b.startingPosition);
+      }
+    });
+
+    RandomAccessInputStream s = null;
+    String file = null;
+    try {
+      for (SubBlock plane : blocks) {
+        if (s == null || !plane.filename.equals(file)) {
+          if (s != null) {
+            s.close();
+          }
+          file = plane.filename;
+          s = new RandomAccessInputStream(file);
+          s.order(isLittleEndian());
+        }
+        if (!plane.readMetadata(s)) {
+          LOGGER.debug("Invalid SubBlock at {} in {}",
+            plane.startingPosition, plane.filename);
+        }
+      }
+    }
+    finally {
+      if (s != null) {
+        s.close();
+      }
+    }
+  }
+
+  /**
+   * Retrieves the SubBlocks that belong to the given plane of the given
+   * series at the given resolution, without iterating over the SubBlocks of
+   * every other plane.
+   *
+   * @param resolution the downsampling factor of the SubBlocks
+   */
+  private List<SubBlock> getSubBlocks(int series, int no, int resolution) {
+    if (planeIndex == null) {
+      planeIndex = new HashMap<PlaneKey, List<SubBlock>>();
+      for (SubBlock plane : planes) {
+        PlaneKey key = new PlaneKey(
+          plane.seriesIndex, plane.planeIndex, plane.getResolution());
+        List<SubBlock> blocks = planeIndex.get(key);
+        if (blocks == null) {
+          blocks = new ArrayList<SubBlock>();
+          planeIndex.put(key, blocks);
+        }
+        blocks.add(plane);
+      }
+    }
+    List<SubBlock> blocks =
+      planeIndex.get(new PlaneKey(series, no, resolution));
+    if (blocks == null) {
+      return Collections.emptyList();
+    }
+    return blocks;
+  }
+
+  /**
+   * Retrieves the positions of the full resolution tiles in the given plane
+   * of the given series.  Tiles are placed in the order in which they are
+   * stored, from left to right, starting a new row whenever the width of the
+   * image is reached.
+   */
+  private TileIndex getTileIndex(int series, int no) {
+    if (tileIndex == null) {
+      tileIndex = new HashMap<PlaneKey, TileIndex>();
+    }
+    PlaneKey key = new PlaneKey(series, no, FULL_RESOLUTION);
+    TileIndex index = tileIndex.get(key);
+    if (index == null) {
+      List<SubBlock> blocks = getSubBlocks(series, no, FULL_RESOLUTION);
+      Region[] regions = new Region[blocks.size()];
+      int currentX = 0;
+      int currentY = 0;
+      for (int i=0; i<regions.length; i++) {
+        SubBlock tile = blocks.get(i);
+        regions[i] = new Region(
+          currentX, getSizeY() - currentY - tile.y, tile.x, tile.y);
+        currentX += tile.x;
+        if (currentX >= getSizeX()) {
+          currentX = 0;
+          currentY += tile.y;
+        }
+      }
+      index = new TileIndex(
+        blocks.toArray(new SubBlock[blocks.size()]), regions);
+      tileIndex.put(key, index);
+    }
+    return index;
+  }
+
   private void calculateDimensions() {
     // calculate the dimensions
     CoreMetadata ms0 = core.get(0);
@@ -2149,6 +2437,22 @@ public class ZeissCZIReader extends FormatReader {
     nameStack.pop();
   }
 
+  /**
+   * Reads the segment at the given position.
+   * @return the segment, or null if the position is not within the file
+   */
+  private Segment readSegment(long position, String filename)
+    throws IOException
+  {
+    if (position < 0 || position + HEADER_SIZE > in.length() ||
+      (position % ALIGNMENT) != 0)
+    {
+      return null;
+    }
+    in.seek(position);
+    return readSegment(filename);
+  }
+
   private Segment readSegment(String filename) throws IOException {
     // align the stream to a multiple of 32 bytes
     int skip =
@@ -2189,7 +2493,7 @@ public class ZeissCZIReader extends FormatReader {
     segment.id = segmentID;
     segment.filename = filename;
 
-    segment.fillInData();
+    segment.fillInData(in);
 
     long pos = segment.startingPosition + segment.allocatedSize + HEADER_SIZE;
     if (pos < in.length()) {
@@ -2341,56 +2645,57 @@ public class ZeissCZIReader extends FormatReader {
       RandomAccessInputStream s = new RandomAccessInputStream(filename);
       try {
         s.order(isLittleEndian());
-        s.seek(startingPosition + 16);
-        // read the segment header
-        allocatedSize = s.readLong();
-        usedSize = s.readLong();
-
-        if (usedSize == 0) {
-          usedSize = allocatedSize;
-        }
+        fillInData(s);
       }
       finally {
         s.close();
       }
     }
+
+    /**
+     * Reads the segment from the given stream, which must be open on
+     * this segment's file.  The stream's file pointer is not preserved.
+     */
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      s.seek(startingPosition + 16);
+      // read the segment header
+      allocatedSize = s.readLong();
+      usedSize = s.readLong();
+
+      if (usedSize == 0) {
+        usedSize = allocatedSize;
+      }
+    }
   }
 
   /** Segment with ID "ZISRAWFILE". */
   class FileHeader extends Segment {
     public int majorVersion;
     public int minorVersion;
-    public long primaryFileGUID;
-    public long fileGUID;
+    public byte[] primaryFileGUID = new byte[16];
+    public byte[] fileGUID = new byte[16];
     public int filePart;
     public long directoryPosition;
     public long metadataPosition;
     public boolean updatePending;
     public long attachmentDirectoryPosition;
 
-    public void fillInData() throws IOException {
-      super.fillInData();
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      super.fillInData(s);
 
-      RandomAccessInputStream s = new RandomAccessInputStream(filename);
-      try {
-        s.order(isLittleEndian());
-        s.seek(startingPosition + HEADER_SIZE);
-        majorVersion = s.readInt();
-        minorVersion = s.readInt();
-        s.skipBytes(4); // reserved 1
-        s.skipBytes(4); // reserved 2
-        primaryFileGUID = s.readLong(); // 16
-        fileGUID = s.readLong(); // 16
-        filePart = s.readInt();
-
-        directoryPosition = s.readLong();
-        metadataPosition = s.readLong();
-        updatePending = s.readInt() != 0;
-        attachmentDirectoryPosition = s.readLong();
-      }
-      finally {
-        s.close();
-      }
+      s.seek(startingPosition + HEADER_SIZE);
+      majorVersion = s.readInt();
+      minorVersion = s.readInt();
+      s.skipBytes(4); // reserved 1
+      s.skipBytes(4); // reserved 2
+      s.read(primaryFileGUID);
+      s.read(fileGUID);
+      filePart = s.readInt();
+
+      directoryPosition = s.readLong();
+      metadataPosition = s.readLong();
+      updatePending = s.readInt() != 0;
+      attachmentDirectoryPosition = s.readLong();
     }
   }
 
@@ -2399,29 +2704,181 @@ public class ZeissCZIReader extends FormatReader {
     public String xml;
     public byte[] attachment;
 
-    public void fillInData() throws IOException {
-      super.fillInData();
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      super.fillInData(s);
 
-      RandomAccessInputStream s = new RandomAccessInputStream(filename);
-      try {
-        s.order(isLittleEndian());
-        s.seek(startingPosition + HEADER_SIZE);
-        int xmlSize = s.readInt();
-        int attachmentSize = s.readInt();
+      s.seek(startingPosition + HEADER_SIZE);
+      int xmlSize = s.readInt();
+      int attachmentSize = s.readInt();
 
-        s.skipBytes(248);
+      s.skipBytes(248);
 
-        xml = s.readString(xmlSize);
-        attachment = new byte[attachmentSize];
-        s.read(attachment);
+      xml = s.readString(xmlSize);
+      attachment = new byte[attachmentSize];
+      s.read(attachment);
+    }
+  }
+
+  /** Segment with ID "ZISRAWSUBBLOCK". */
+  /** Identifies the SubBlocks of one plane at one resolution. */
+  private static class PlaneKey {
+    private final int series;
+    private final int no;
+    private final int resolution;
+
+    public PlaneKey(int series, int no, int resolution) {
+      this.series = series;
+      this.no = no;
+      this.resolution = resolution;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof PlaneKey)) {
+        return false;
       }
-      finally {
-        s.close();
+      PlaneKey key = (PlaneKey) o;
+      return series == key.series && no == key.no &&
+        resolution == key.resolution;
+    }
+
+    public int hashCode() {
+      return (series * 31 + no) * 31 + resolution;
+    }
+  }
+
+  /**
+   * Uniform grid over the tiles of one plane, so that the tiles within a
+   * region can be found without checking every tile in the plane.  Each
+   * cell lists the tiles that overlap it, in tile order.
+   */
+  private static class TileIndex {
+    private final SubBlock[] tiles;
+    private final Region[] regions;
+
+    private int minX, minY;
+    private int cellWidth, cellHeight;
+    private int columns, rows;
+    private int[][] cells;
+
+    public TileIndex(SubBlock[] tiles, Region[] regions) {
+      this.tiles = tiles;
+      this.regions = regions;
+
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+      minX = Integer.MAX_VALUE;
+      minY = Integer.MAX_VALUE;
+      for (Region r : regions) {
+        if (r.width > 0 && r.height > 0) {
+          minX = Math.min(minX, r.x);
+          minY = Math.min(minY, r.y);
+          maxX = Math.max(maxX, r.x + r.width);
+          maxY = Math.max(maxY, r.y + r.height);
+          if (cellWidth == 0) {
+            cellWidth = r.width;
+            cellHeight = r.height;
+          }
+        }
+      }
+      if (cellWidth == 0) {
+        cells = new int[0][];
+        return;
+      }
+
+      // grow the cells until there are at most a few per tile, so that
+      // tiles of very different sizes cannot make the grid too large
+      long maxCells = 4L * regions.length;
+      while (true) {
+        columns = (int) (((long) maxX - minX + cellWidth - 1) / cellWidth);
+        rows = (int) (((long) maxY - minY + cellHeight - 1) / cellHeight);
+        if ((long) columns * rows <= maxCells) {
+          break;
+        }
+        cellWidth = (int) Math.min(2L * cellWidth, Integer.MAX_VALUE);
+        cellHeight = (int) Math.min(2L * cellHeight, Integer.MAX_VALUE);
+      }
+
+      int[] counts = new int[columns * rows];
+      for (int pass=0; pass<2; pass++) {
+        for (int t=0; t<regions.length; t++) {
+          Region r = regions[t];
+          if (r.width <= 0 || r.height <= 0) {
+            continue;
+          }
+          int lastColumn = getColumn(r.x + r.width - 1);
+          int lastRow = getRow(r.y + r.height - 1);
+          for (int row=getRow(r.y); row<=lastRow; row++) {
+            for (int col=getColumn(r.x); col<=lastColumn; col++) {
+              int cell = row * columns + col;
+              if (pass == 0) {
+                counts[cell]++;
+              }
+              else {
+                cells[cell][cells[cell].length - counts[cell]--] = t;
+              }
+            }
+          }
+        }
+        if (pass == 0) {
+          cells = new int[counts.length][];
+          for (int cell=0; cell<counts.length; cell++) {
+            cells[cell] = new int[counts[cell]];
+          }
+        }
       }
     }
+
+    /**
+     * Returns the indices of the tiles that intersect the given region,
+     * in tile order.
+     */
+    public int[] find(Region region) {
+      if (cells.length == 0 || region.width <= 0 || region.height <= 0) {
+        return new int[0];
+      }
+      int firstColumn = getColumn(Math.max(region.x, minX));
+      int firstRow = getRow(Math.max(region.y, minY));
+      int lastColumn = getColumn(region.x + region.width - 1);
+      int lastRow = getRow(region.y + region.height - 1);
+
+      int[] found = new int[16];
+      int count = 0;
+      for (int row=firstRow; row<=lastRow; row++) {
+        for (int col=firstColumn; col<=lastColumn; col++) {
+          for (int t : cells[row * columns + col]) {
+            // a tile that covers several cells is only reported from the
+            // first of those cells that is within the region
+            Region r = regions[t];
+            if (col != Math.max(firstColumn, getColumn(r.x)) ||
+              row != Math.max(firstRow, getRow(r.y)) ||
+              !r.intersects(region))
+            {
+              continue;
+            }
+            if (count == found.length) {
+              found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = t;
+          }
+        }
+      }
+      found = Arrays.copyOf(found, count);
+      Arrays.sort(found);
+      return found;
+    }
+
+    /** Gets the grid column containing the given X coordinate. */
+    private int getColumn(int x) {
+      long col = ((long) x - minX) / cellWidth;
+      return (int) Math.max(0, Math.min(col, columns - 1));
+    }
+
+    /** Gets the grid row containing the given Y coordinate. */
+    private int getRow(int y) {
+      long row = ((long) y - minY) / cellHeight;
+      return (int) Math.max(0, Math.min(row, rows - 1));
+    }
   }
 
-  /** Segment with ID "ZISRAWSUBBLOCK". */
   class SubBlock extends Segment {
     public int metadataSize;
     public int attachmentSize;
@@ -2434,6 +2891,12 @@ public class ZeissCZIReader extends FormatReader {
 
     private long dataOffset;
 
+    /** Whether the sizes and data offset have been read from the file. */
+    private boolean headerRead;
+
+    /** Whether the metadata has been read from the file. */
+    private boolean metadataRead;
+
     private Double stageX, stageY, timestamp, exposureTime, stageZ;
 
     public int x, y;
@@ -2442,6 +2905,18 @@ public class ZeissCZIReader extends FormatReader {
       super();
     }
 
+    /**
+     * Constructs a SubBlock from its directory entry, without reading the
+     * SubBlock segment.
+     */
+    public SubBlock(DirectoryEntry entry, String filename) {
+      super();
+      this.filename = filename;
+      this.startingPosition = entry.filePosition;
+      this.id = "ZISRAWSUBBLOCK";
+      this.directoryEntry = entry;
+    }
+
     public SubBlock(SubBlock model) {
       super(model);
       this.metadataSize = model.metadataSize;
@@ -2452,6 +2927,8 @@ public class ZeissCZIReader extends FormatReader {
       this.seriesIndex = model.seriesIndex;
       this.planeIndex = model.planeIndex;
       this.dataOffset = model.dataOffset;
+      this.headerRead = model.headerRead;
+      this.metadataRead = model.metadataRead;
       this.stageX = model.stageX;
       this.stageY = model.stageY;
       this.timestamp = model.timestamp;
@@ -2461,40 +2938,167 @@ public class ZeissCZIReader extends FormatReader {
       this.y = model.y;
     }
 
-    public void fillInData() throws IOException {
-      super.fillInData();
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      super.fillInData(s);
+
+      s.seek(startingPosition + HEADER_SIZE);
+      long fp = s.getFilePointer();
+      metadataSize = s.readInt();
+      attachmentSize = s.readInt();
+      dataSize = s.readLong();
+      directoryEntry = new DirectoryEntry(s);
+      s.skipBytes((int) Math.max(256 - (s.getFilePointer() - fp), 0));
+
+      metadata = s.readString(metadataSize).trim();
+      dataOffset = s.getFilePointer();
+      headerRead = true;
+      metadataRead = true;
+
+      if (s.getFilePointer() + dataSize + attachmentSize < s.length()) {
+        s.seek(s.getFilePointer() + dataSize + attachmentSize);
+        parseMetadata();
+      }
+    }
+
+    // -- SubBlock API methods --
 
+    /**
+     * Reads the sizes of the metadata, pixel data and attachment from the
+     * SubBlock header, if they have not been read yet.  The directory entry
+     * is not read again.
+     *
+     * @return false if there is no valid SubBlock at this position
+     */
+    public boolean readHeader(RandomAccessInputStream s) throws IOException {
+      if (headerRead) {
+        return true;
+      }
+      if (startingPosition + HEADER_SIZE + 16 > s.length()) {
+        return false;
+      }
+      s.seek(startingPosition);
+      if (!s.readString(16).trim().equals(id)) {
+        return false;
+      }
+      super.fillInData(s);
+
+      s.seek(startingPosition + HEADER_SIZE);
+      metadataSize = s.readInt();
+      attachmentSize = s.readInt();
+      dataSize = s.readLong();
+
+      // the fixed part of the header is padded to 256 bytes
+      int entrySize = 32 + 20 * directoryEntry.dimensionCount;
+      dataOffset = startingPosition + HEADER_SIZE +
+        Math.max(256, 16 + entrySize) + metadataSize;
+      headerRead = true;
+      return true;
+    }
+
+    /**
+     * Reads the SubBlock header, opening the file if it has not been read
+     * yet.
+     *
+     * @return false if there is no valid SubBlock at this position
+     */
+    public boolean readHeader() throws IOException {
+      if (headerRead) {
+        return true;
+      }
       RandomAccessInputStream s = new RandomAccessInputStream(filename);
       try {
         s.order(isLittleEndian());
-        s.seek(startingPosition + HEADER_SIZE);
-        long fp = s.getFilePointer();
-        metadataSize = s.readInt();
-        attachmentSize = s.readInt();
-        dataSize = s.readLong();
-        directoryEntry = new DirectoryEntry(s);
-        s.skipBytes((int) Math.max(256 - (s.getFilePointer() - fp), 0));
-
-        metadata = s.readString(metadataSize).trim();
-        dataOffset = s.getFilePointer();
+        return readHeader(s);
+      }
+      finally {
+        s.close();
+      }
+    }
 
-        if (s.getFilePointer() + dataSize + attachmentSize < s.length()) {
-          s.seek(s.getFilePointer() + dataSize + attachmentSize);
-          parseMetadata();
+    /**
+     * Returns the factor by which this SubBlock is downsampled, which is
+     * {@link #FULL_RESOLUTION} for SubBlocks that are not part of a pyramid.
+     */
+    public int getResolution() {
+      for (DimensionEntry dimension : directoryEntry.dimensionEntries) {
+        if (dimension != null && dimension.dimension.startsWith("X") &&
+          dimension.storedSize > 0 && dimension.storedSize < dimension.size)
+        {
+          return Math.round((float) dimension.size / dimension.storedSize);
         }
       }
+      return FULL_RESOLUTION;
+    }
+
+    /** Returns whether the SubBlock header has been read. */
+    public boolean isHeaderRead() {
+      return headerRead;
+    }
+
+    /**
+     * Reads and parses the SubBlock metadata, opening the file if it has not
+     * been read yet.
+     *
+     * @return false if the SubBlock header is not valid
+     */
+    public boolean readMetadata() throws IOException {
+      if (metadataRead) {
+        return true;
+      }
+      RandomAccessInputStream s = new RandomAccessInputStream(filename);
+      try {
+        s.order(isLittleEndian());
+        return readMetadata(s);
+      }
       finally {
         s.close();
       }
     }
 
-    // -- SubBlock API methods --
+    /**
+     * Reads and parses the SubBlock metadata from the given stream, if it
+     * has not been read yet.
+     *
+     * @return false if the SubBlock header is not valid
+     */
+    public boolean readMetadata(RandomAccessInputStream s) throws IOException {
+      if (metadataRead) {
+        return true;
+      }
+      if (!readHeader(s)) {
+        return false;
+      }
+      s.seek(dataOffset - metadataSize);
+      metadata = s.readString(metadataSize).trim();
+      metadataRead = true;
 
+      if (dataOffset + dataSize + attachmentSize < s.length()) {
+        parseMetadata();
+      }
+      return true;
+    }
+
+    /**
+     * Reads and decompresses the pixel data, reading the header first if
+     * necessary.
+     *
+     * @return the pixel data, or null if the SubBlock header is not valid or
+     *   there is not enough uncompressed pixel data
+     */
     public byte[] readPixelData() throws FormatException, IOException {
-      byte[] data = new byte[(int) dataSize];
       RandomAccessInputStream s = new RandomAccessInputStream(filename);
       try {
         s.order(isLittleEndian());
+        if (!readHeader(s)) {
+          return null;
+        }
+        if (directoryEntry.compression == UNCOMPRESSED &&
+          (dataSize < (long) x * y * FormatTools.getBytesPerPixel(
+          getPixelType()) || dataSize > s.length() - dataOffset))
+        {
+          return null;
+        }
+        byte[] data = new byte[(int) dataSize];
         s.seek(dataOffset);
         s.read(data);
 
@@ -2515,12 +3119,11 @@ public class ZeissCZIReader extends FormatReader {
             throw new UnsupportedCompressionException(
               "JPEG-XR not yet supported");
         }
+        return data;
       }
       finally {
         s.close();
       }
-
-      return data;
     }
 
     // -- Helper methods --
@@ -2602,23 +3205,16 @@ public class ZeissCZIReader extends FormatReader {
   class Directory extends Segment {
     public DirectoryEntry[] entries;
 
-    public void fillInData() throws IOException {
-      super.fillInData();
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      super.fillInData(s);
 
-      RandomAccessInputStream s = new RandomAccessInputStream(filename);
-      try {
-        s.order(isLittleEndian());
-        s.seek(startingPosition + HEADER_SIZE);
+      s.seek(startingPosition + HEADER_SIZE);
 
-        int entryCount = s.readInt();
-        s.skipBytes(124);
-        entries = new DirectoryEntry[entryCount];
-        for (int i=0; i<entryCount; i++) {
-          entries[i] = new DirectoryEntry(s);
-        }
-      }
-      finally {
-        s.close();
+      int entryCount = s.readInt();
+      s.skipBytes(124);
+      entries = new DirectoryEntry[entryCount];
+      for (int i=0; i<entryCount; i++) {
+        entries[i] = new DirectoryEntry(s);
       }
     }
   }
@@ -2627,23 +3223,16 @@ public class ZeissCZIReader extends FormatReader {
   class AttachmentDirectory extends Segment {
     public AttachmentEntry[] entries;
 
-    public void fillInData() throws IOException {
-      super.fillInData();
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      super.fillInData(s);
 
-      RandomAccessInputStream s = new RandomAccessInputStream(filename);
-      try {
-        s.order(isLittleEndian());
-        s.seek(startingPosition + HEADER_SIZE);
+      s.seek(startingPosition + HEADER_SIZE);
 
-        int entryCount = s.readInt();
-        s.skipBytes(252);
-        entries = new AttachmentEntry[entryCount];
-        for (int i=0; i<entryCount; i++) {
-          entries[i] = new AttachmentEntry(s);
-        }
-      }
-      finally {
-        s.close();
+      int entryCount = s.readInt();
+      s.skipBytes(252);
+      entries = new AttachmentEntry[entryCount];
+      for (int i=0; i<entryCount; i++) {
+        entries[i] = new AttachmentEntry(s);
       }
     }
   }
@@ -2654,23 +3243,16 @@ public class ZeissCZIReader extends FormatReader {
     public AttachmentEntry attachment;
     public byte[] attachmentData;
 
-    public void fillInData() throws IOException {
-      super.fillInData();
+    public void fillInData(RandomAccessInputStream s) throws IOException {
+      super.fillInData(s);
 
-      RandomAccessInputStream s = new RandomAccessInputStream(filename);
-      try {
-        s.order(isLittleEndian());
-        s.seek(startingPosition + HEADER_SIZE);
-        dataSize = s.readInt();
-        s.skipBytes(12); // reserved
-        attachment = new AttachmentEntry(s);
-        s.skipBytes(112); // reserved
-        attachmentData = new byte[dataSize];
-        s.read(attachmentData);
-      }
-      finally {
-        s.close();
-      }
+      s.seek(startingPosition + HEADER_SIZE);
+      dataSize = s.readInt();
+      s.skipBytes(12); // reserved
+      attachment = new AttachmentEntry(s);
+      s.skipBytes(112); // reserved
+      attachmentData = new byte[dataSize];
+      s.read(attachmentData);
     }
   }
 
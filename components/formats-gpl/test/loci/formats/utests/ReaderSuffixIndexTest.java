@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.util.Arrays;
+
+import loci.formats.ClassList;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.ReaderSuffixIndex;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the precomputed reader suffix index (reader-suffixes.txt)
+ * matches the readers in readers.txt, so that a lazy {@link ImageReader}
+ * detects the same files as one that instantiates every reader.
+ */
+public class ReaderSuffixIndexTest {
+
+  @Test
+  public void testDefaultIndexIsCurrent() {
+    ClassList<IFormatReader> classes = ImageReader.getDefaultReaderClasses();
+    ReaderSuffixIndex current = new ReaderSuffixIndex(classes);
+    ReaderSuffixIndex stored = ReaderSuffixIndex.getDefaultIndex();
+    for (Class<? extends IFormatReader> c : classes.getClasses()) {
+      String[] suffixes = current.getSuffixes(c);
+      if (suffixes == null) {
+        // the reader cannot be instantiated
+        continue;
+      }
+      String message = c.getName() +
+        " has changed; regenerate reader-suffixes.txt";
+      assertNotNull(message, stored.getSuffixes(c));
+      assertEquals(message, Arrays.asList(suffixes),
+        Arrays.asList(stored.getSuffixes(c)));
+      assertEquals(message, current.isSuffixRequired(c),
+        stored.isSuffixRequired(c));
+    }
+  }
+
+  @Test
+  public void testLazyDetection() {
+    ClassList<IFormatReader> classes = ImageReader.getDefaultReaderClasses();
+    ImageReader eager = new ImageReader(classes);
+    ImageReader lazy = new ImageReader(classes, true);
+    for (String suffix : eager.getSuffixes()) {
+      String[] names = {"test." + suffix, "TEST." + suffix.toUpperCase(),
+        "test." + suffix + ".gz", "test." + suffix + ".tmp"};
+      for (String name : names) {
+        assertEquals(name, eager.isThisType(name, false),
+          lazy.isThisType(name, false));
+      }
+    }
+  }
+
+}
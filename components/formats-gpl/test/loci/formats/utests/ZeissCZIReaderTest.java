@@ -0,0 +1,473 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Constants;
+import loci.common.Location;
+import loci.formats.in.DefaultMetadataOptions;
+import loci.formats.in.MetadataLevel;
+import loci.formats.in.ZeissCZIReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ZeissCZIReader} finds the SubBlocks of a synthetic CZI
+ * file through its directory, without reading the SubBlock metadata unless
+ * it is needed, and that it falls back to scanning the whole file when the
+ * directory cannot be used.  Every plane of every series is read back, so
+ * that each plane's SubBlocks must be found in the per-plane index.
+ */
+public class ZeissCZIReaderTest {
+
+  private static final String ID = "ZeissCZIReaderTest.czi";
+
+  private static final int SIZE_X = 8;
+
+  private static final int SIZE_Y = 4;
+
+  private static final int SIZE_Z = 3;
+
+  private static final int SIZE_C = 2;
+
+  private static final int SCENES = 3;
+
+  private static final int TILE_X = 4;
+
+  private static final int TILE_Y = 2;
+
+  private static final int COLUMNS = 5;
+
+  private static final int ROWS = 3;
+
+  private static final String PLANE_METADATA = "<METADATA><Tags>" +
+    "<ExposureTime>1.0</ExposureTime></Tags></METADATA>";
+
+  private ZeissCZIReader reader;
+
+  private SeekRecordingHandle handle;
+
+  /** Offsets of each SubBlock in the synthetic file. */
+  private List<Long> blockOffsets;
+
+  /** Offsets of the metadata of each SubBlock in the synthetic file. */
+  private List<Long> metadataOffsets;
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (reader != null) {
+      reader.close();
+    }
+    Location.mapFile(ID, null);
+  }
+
+  @Test
+  public void testDirectory() throws Exception {
+    open(createFile(1, false, false), MetadataLevel.ALL);
+    checkPlanes();
+    for (Long offset : metadataOffsets) {
+      assertTrue(handle.seeks.contains(offset));
+    }
+  }
+
+  @Test
+  public void testMinimumMetadata() throws Exception {
+    open(createFile(1, false, false), MetadataLevel.MINIMUM);
+
+    // only the first SubBlock is read during initialization, to check the
+    // size of its pixel data and for the acquisition date
+    assertTrue(handle.seeks.contains(blockOffsets.get(0)));
+    for (Long offset : blockOffsets.subList(1, blockOffsets.size())) {
+      assertFalse(handle.seeks.contains(offset));
+    }
+
+    checkPlanes();
+
+    // the other SubBlock headers are read with the pixels, but not
+    // their metadata
+    assertTrue(handle.seeks.contains(metadataOffsets.get(0)));
+    for (int i=1; i<blockOffsets.size(); i++) {
+      assertTrue(handle.seeks.contains(blockOffsets.get(i)));
+      assertFalse(handle.seeks.contains(metadataOffsets.get(i)));
+    }
+  }
+
+  @Test
+  public void testInvalidSubBlock() throws Exception {
+    open(createFile(1, false, false, true), MetadataLevel.ALL);
+    int last = reader.getImageCount() - 1;
+    for (int i=0; i<last; i++) {
+      assertTrue(Arrays.equals(getPlane(0, i / SIZE_C, i % SIZE_C),
+        reader.openBytes(i)));
+    }
+    assertTrue(Arrays.equals(new byte[SIZE_X * SIZE_Y],
+      reader.openBytes(last)));
+  }
+
+  @Test
+  public void testUpdatePending() throws Exception {
+    open(createFile(1, true, false), MetadataLevel.MINIMUM);
+    checkPlanes();
+  }
+
+  @Test
+  public void testMisalignedDirectoryEntry() throws Exception {
+    open(createFile(1, false, true), MetadataLevel.MINIMUM);
+    checkPlanes();
+  }
+
+  @Test
+  public void testScenes() throws Exception {
+    open(createFile(SCENES, false, false), MetadataLevel.ALL);
+    checkPlanes();
+  }
+
+  @Test
+  public void testScenesUpdatePending() throws Exception {
+    open(createFile(SCENES, true, false), MetadataLevel.MINIMUM);
+    checkPlanes();
+  }
+
+  @Test
+  public void testMosaic() throws Exception {
+    open(createMosaicFile(), MetadataLevel.MINIMUM);
+    int width = TILE_X * COLUMNS;
+    int height = TILE_Y * ROWS;
+    assertEquals(width, reader.getSizeX());
+    assertEquals(height, reader.getSizeY());
+    assertEquals(2, reader.getImageCount());
+
+    byte[] mosaic = getMosaic(0, 0, width, height);
+    assertTrue(Arrays.equals(mosaic, reader.openBytes(0)));
+    byte[] overview = new byte[width * height];
+    Arrays.fill(overview, (byte) 0xff);
+    assertTrue(Arrays.equals(overview, reader.openBytes(1)));
+
+    int x = TILE_X / 2;
+    int w = width - TILE_X;
+    assertTrue(Arrays.equals(getMosaic(x, 0, w, height),
+      reader.openBytes(0, x, 0, w, height)));
+
+    // only the tiles in the first column are read
+    handle.seeks.clear();
+    assertTrue(Arrays.equals(getMosaic(0, 0, TILE_X, height),
+      reader.openBytes(0, 0, 0, TILE_X, height)));
+    for (int tile=0; tile<COLUMNS * ROWS; tile++) {
+      long offset = metadataOffsets.get(tile + 1) + PLANE_METADATA.length();
+      assertEquals(tile % COLUMNS == 0, handle.seeks.contains(offset));
+    }
+  }
+
+  // -- Helper methods --
+
+  private void open(byte[] file, MetadataLevel level) throws Exception {
+    handle = new SeekRecordingHandle(file);
+    Location.mapFile(ID, handle);
+    reader = new ZeissCZIReader();
+    reader.setMetadataOptions(new DefaultMetadataOptions(level));
+    reader.setId(ID);
+  }
+
+  private void checkPlanes() throws Exception {
+    int scenes = reader.getSeriesCount();
+    assertEquals(metadataOffsets.size(), scenes * SIZE_Z * SIZE_C);
+    for (int s=0; s<scenes; s++) {
+      reader.setSeries(s);
+      assertEquals(SIZE_X, reader.getSizeX());
+      assertEquals(SIZE_Y, reader.getSizeY());
+      assertEquals(SIZE_Z, reader.getSizeZ());
+      assertEquals(SIZE_C, reader.getSizeC());
+      assertEquals(SIZE_Z * SIZE_C, reader.getImageCount());
+      for (int z=0; z<SIZE_Z; z++) {
+        for (int c=0; c<SIZE_C; c++) {
+          byte[] plane = reader.openBytes(reader.getIndex(z, c, 0));
+          assertTrue(Arrays.equals(getPlane(s, z, c), plane));
+        }
+      }
+    }
+  }
+
+  /** Gets the pixels stored for the given scene, Z and C. */
+  private byte[] getPlane(int s, int z, int c) {
+    byte[] plane = new byte[SIZE_X * SIZE_Y];
+    Arrays.fill(plane, (byte) ((s * SIZE_Z + z) * SIZE_C + c + 1));
+    return plane;
+  }
+
+  /**
+   * Gets the pixels of the given region of the mosaic created by
+   * {@link #createMosaicFile()}.
+   */
+  private byte[] getMosaic(int x, int y, int w, int h) {
+    byte[] region = new byte[w * h];
+    for (int row=0; row<h; row++) {
+      for (int col=0; col<w; col++) {
+        region[row * w + col] = getMosaicPixel(x + col, y + row);
+      }
+    }
+    return region;
+  }
+
+  private byte getMosaicPixel(int x, int y) {
+    return (byte) (y * TILE_X * COLUMNS + x);
+  }
+
+  /**
+   * Creates a CZI file containing a prestitched mosaic of
+   * {@link #COLUMNS} by {@link #ROWS} tiles in the first channel, stored
+   * row by row.  The second channel is stored as a single SubBlock that
+   * covers the whole mosaic, and is the first SubBlock in the file so that
+   * it sets the image size.
+   */
+  private byte[] createMosaicFile() throws IOException {
+    ByteBuffer file = ByteBuffer.allocate(65536);
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    blockOffsets = new ArrayList<Long>();
+    metadataOffsets = new ArrayList<Long>();
+
+    writeSegment(file, "ZISRAWFILE", new byte[512]);
+
+    int width = TILE_X * COLUMNS;
+    int height = TILE_Y * ROWS;
+    byte[] overview = new byte[width * height];
+    Arrays.fill(overview, (byte) 0xff);
+    List<byte[]> entries = new ArrayList<byte[]>();
+    entries.add(writeSubBlock(file, 0, 0, 1, width, height, overview));
+    for (int tile=0; tile<COLUMNS * ROWS; tile++) {
+      int x = (tile % COLUMNS) * TILE_X;
+      int y = (tile / COLUMNS) * TILE_Y;
+      entries.add(writeSubBlock(file, 0, 0, 0, TILE_X, TILE_Y,
+        getMosaic(x, y, TILE_X, TILE_Y)));
+    }
+    return finishFile(file, entries, false);
+  }
+
+  /**
+   * Creates a CZI file containing one uncompressed SubBlock per plane,
+   * followed by a directory that lists the SubBlocks.
+   *
+   * @param scenes the number of scenes, each of which is a series
+   * @param updatePending whether the file header marks the directory as
+   *   out of date; if so, each directory entry points to the SubBlock of
+   *   the next plane, so that the planes are only correct if the whole
+   *   file is scanned
+   * @param misaligned whether the directory entry of the last SubBlock
+   *   has an invalid file position
+   */
+  private byte[] createFile(int scenes, boolean updatePending,
+    boolean misaligned)
+    throws IOException
+  {
+    return createFile(scenes, updatePending, misaligned, false);
+  }
+
+  /**
+   * Creates a CZI file as above.
+   *
+   * @param invalid whether the directory entry of the last SubBlock points
+   *   to the file header instead of a SubBlock
+   */
+  private byte[] createFile(int scenes, boolean updatePending,
+    boolean misaligned, boolean invalid)
+    throws IOException
+  {
+    ByteBuffer file = ByteBuffer.allocate(65536);
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    blockOffsets = new ArrayList<Long>();
+    metadataOffsets = new ArrayList<Long>();
+
+    // the file header is written once the directory position is known
+    writeSegment(file, "ZISRAWFILE", new byte[512]);
+
+    List<byte[]> entries = new ArrayList<byte[]>();
+    for (int s=0; s<scenes; s++) {
+      for (int z=0; z<SIZE_Z; z++) {
+        for (int c=0; c<SIZE_C; c++) {
+          entries.add(writeSubBlock(
+            file, s, z, c, SIZE_X, SIZE_Y, getPlane(s, z, c)));
+        }
+      }
+    }
+    if (updatePending) {
+      long first = ByteBuffer.wrap(entries.get(0))
+        .order(ByteOrder.LITTLE_ENDIAN).getLong(6);
+      for (int i=0; i<entries.size(); i++) {
+        long next = i < entries.size() - 1 ? ByteBuffer.wrap(
+          entries.get(i + 1)).order(ByteOrder.LITTLE_ENDIAN).getLong(6) :
+          first;
+        ByteBuffer.wrap(entries.get(i)).order(ByteOrder.LITTLE_ENDIAN)
+          .putLong(6, next);
+      }
+    }
+    if (misaligned) {
+      ByteBuffer last = ByteBuffer.wrap(entries.get(entries.size() - 1));
+      last.order(ByteOrder.LITTLE_ENDIAN);
+      last.putLong(6, last.getLong(6) + 1);
+    }
+    if (invalid) {
+      ByteBuffer last = ByteBuffer.wrap(entries.get(entries.size() - 1));
+      last.order(ByteOrder.LITTLE_ENDIAN);
+      last.putLong(6, 0);
+    }
+    return finishFile(file, entries, updatePending);
+  }
+
+  /**
+   * Writes an uncompressed GRAY8 SubBlock with the given scene, Z, C and
+   * size, and returns its directory entry.
+   */
+  private byte[] writeSubBlock(ByteBuffer file, int s, int z, int c,
+    int sizeX, int sizeY, byte[] pixels)
+    throws IOException
+  {
+    byte[] metadata = PLANE_METADATA.getBytes(Constants.ENCODING);
+    long position = align(file.position());
+    byte[] entry = createDirectoryEntry(position, s, z, c, sizeX, sizeY);
+
+    ByteBuffer block = ByteBuffer.allocate(256 + metadata.length +
+      pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+    block.putInt(metadata.length);
+    block.putInt(0);
+    block.putLong(pixels.length);
+    block.put(entry);
+    block.position(256);
+    block.put(metadata);
+    block.put(pixels);
+    writeSegment(file, "ZISRAWSUBBLOCK", block.array());
+    blockOffsets.add(position);
+    metadataOffsets.add(position + 32 + 256);
+    return entry;
+  }
+
+  /**
+   * Writes the directory listing the given entries and the file header,
+   * and returns the contents of the file.
+   */
+  private byte[] finishFile(ByteBuffer file, List<byte[]> entries,
+    boolean updatePending)
+  {
+    long directoryPosition = align(file.position());
+    ByteBuffer directory = ByteBuffer.allocate(128 +
+      entries.size() * entries.get(0).length).order(ByteOrder.LITTLE_ENDIAN);
+    directory.putInt(entries.size());
+    directory.position(128);
+    for (byte[] entry : entries) {
+      directory.put(entry);
+    }
+    writeSegment(file, "ZISRAWDIRECTORY", directory.array());
+    int length = file.position();
+
+    file.position(32);
+    file.putInt(1); // major version
+    file.putInt(0); // minor version
+    file.position(file.position() + 8 + 32 + 4);
+    file.putLong(directoryPosition);
+    file.putLong(0); // no metadata segment
+    file.putInt(updatePending ? 1 : 0);
+    file.putLong(0); // no attachment directory
+
+    return Arrays.copyOf(file.array(), length);
+  }
+
+  /**
+   * Creates a directory entry for a GRAY8 plane with the given scene, Z,
+   * C and size.
+   */
+  private byte[] createDirectoryEntry(long position, int s, int z, int c,
+    int sizeX, int sizeY)
+  {
+    String[] names = {"X", "Y", "C", "Z", "S"};
+    int[] starts = {0, 0, c, z, s};
+    int[] sizes = {sizeX, sizeY, 1, 1, 1};
+
+    ByteBuffer entry = ByteBuffer.allocate(32 + 20 * names.length);
+    entry.order(ByteOrder.LITTLE_ENDIAN);
+    entry.put((byte) 'D').put((byte) 'V');
+    entry.putInt(0); // GRAY8
+    entry.putLong(position);
+    entry.putInt(0); // file part
+    entry.putInt(0); // uncompressed
+    entry.position(28);
+    entry.putInt(names.length);
+    for (int i=0; i<names.length; i++) {
+      entry.put((byte) names[i].charAt(0));
+      entry.position(entry.position() + 3);
+      entry.putInt(starts[i]);
+      entry.putInt(sizes[i]);
+      entry.putFloat(starts[i]);
+      entry.putInt(sizes[i]);
+    }
+    return entry.array();
+  }
+
+  /** Writes a segment at the next 32 byte boundary. */
+  private void writeSegment(ByteBuffer file, String id, byte[] data) {
+    file.position((int) align(file.position()));
+    byte[] segmentID = new byte[16];
+    for (int i=0; i<id.length(); i++) {
+      segmentID[i] = (byte) id.charAt(i);
+    }
+    file.put(segmentID);
+    file.putLong(align(data.length));
+    file.putLong(data.length);
+    file.put(data);
+  }
+
+  private long align(long position) {
+    return (position + 31) & ~31L;
+  }
+
+  // -- Helper classes --
+
+  /** Handle that records every position that is seeked to. */
+  private static class SeekRecordingHandle extends ByteArrayHandle {
+    private final Set<Long> seeks = new HashSet<Long>();
+
+    public SeekRecordingHandle(byte[] bytes) {
+      super(bytes);
+    }
+
+    public void seek(long pos) throws IOException {
+      seeks.add(pos);
+      super.seek(pos);
+    }
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Location;
+import loci.formats.in.ZeissCZIReader;
+
+/**
+ * Measures how long ZeissCZIReader takes to build the tile index of a
+ * prestitched mosaic, and to read single tiles once the index exists,
+ * using a synthetic in-memory CZI file.
+ *
+ * The first read of a plane builds its index, so the difference between
+ * the first read and the average of the later reads is the build time.
+ * Later reads should not depend on the number of tiles in the plane.
+ *
+ * Usage: CZITileIndexBenchmark [columns rows tileSize reads]
+ */
+public class CZITileIndexBenchmark {
+
+  private static final String ID = "CZITileIndexBenchmark.czi";
+
+  public static void main(String[] args) throws Exception {
+    int columns = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    int rows = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+    int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    int reads = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+    Location.mapFile(ID, new ByteArrayHandle(
+      createFile(columns, rows, tileSize)));
+    ZeissCZIReader reader = new ZeissCZIReader();
+    try {
+      long start = System.nanoTime();
+      reader.setId(ID);
+      long initialized = System.nanoTime();
+      reader.openBytes(0, 0, 0, tileSize, tileSize);
+      long firstRead = System.nanoTime();
+
+      Random r = new Random(reads);
+      for (int i=0; i<reads; i++) {
+        int x = r.nextInt(columns) * tileSize;
+        int y = r.nextInt(rows) * tileSize;
+        reader.openBytes(0, x, y, tileSize, tileSize);
+      }
+      long end = System.nanoTime();
+
+      System.out.println(columns * rows + " tiles of " + tileSize + "x" +
+        tileSize + ": setId " + getMillis(initialized - start) + " ms, " +
+        "first read " + getMillis(firstRead - initialized) + " ms, " +
+        "later reads " + (end - firstRead) / reads / 1000 + " us each");
+    }
+    finally {
+      reader.close();
+      Location.mapFile(ID, null);
+    }
+  }
+
+  private static long getMillis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  /**
+   * Creates a CZI file whose first channel is a mosaic of GRAY8 tiles,
+   * stored row by row.  The second channel is a single SubBlock covering
+   * the whole mosaic, which is stored first so that it sets the image size.
+   */
+  private static byte[] createFile(int columns, int rows, int tileSize) {
+    int tiles = columns * rows;
+    int width = columns * tileSize;
+    int height = rows * tileSize;
+    long length = 32 + 512 + (tiles + 1) * (32 + 256 + 32L) +
+      (long) tileSize * tileSize * tiles + (long) width * height +
+      32 + 128 + (tiles + 1) * 132L;
+    ByteBuffer file = ByteBuffer.allocate((int) length + 1024);
+    file.order(ByteOrder.LITTLE_ENDIAN);
+
+    writeSegment(file, "ZISRAWFILE", new byte[512]);
+
+    byte[][] entries = new byte[tiles + 1][];
+    entries[0] = writeSubBlock(file, 1, width, height);
+    for (int t=0; t<tiles; t++) {
+      entries[t + 1] = writeSubBlock(file, 0, tileSize, tileSize);
+    }
+
+    long directoryPosition = align(file.position());
+    ByteBuffer directory = ByteBuffer.allocate(
+      128 + entries.length * entries[0].length);
+    directory.order(ByteOrder.LITTLE_ENDIAN);
+    directory.putInt(entries.length);
+    directory.position(128);
+    for (byte[] entry : entries) {
+      directory.put(entry);
+    }
+    writeSegment(file, "ZISRAWDIRECTORY", directory.array());
+    int end = file.position();
+
+    file.position(32);
+    file.putInt(1); // major version
+    file.putInt(0); // minor version
+    file.position(file.position() + 8 + 32 + 4);
+    file.putLong(directoryPosition);
+    file.putLong(0); // no metadata segment
+    file.putInt(0); // directory is up to date
+    file.putLong(0); // no attachment directory
+
+    byte[] bytes = new byte[end];
+    file.position(0);
+    file.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Writes an uncompressed GRAY8 SubBlock without metadata, and returns
+   * its directory entry.
+   */
+  private static byte[] writeSubBlock(ByteBuffer file, int c,
+    int sizeX, int sizeY)
+  {
+    long position = align(file.position());
+    String[] names = {"X", "Y", "C"};
+    int[] starts = {0, 0, c};
+    int[] sizes = {sizeX, sizeY, 1};
+
+    ByteBuffer entry = ByteBuffer.allocate(32 + 20 * names.length);
+    entry.order(ByteOrder.LITTLE_ENDIAN);
+    entry.put((byte) 'D').put((byte) 'V');
+    entry.putInt(0); // GRAY8
+    entry.putLong(position);
+    entry.putInt(0); // file part
+    entry.putInt(0); // uncompressed
+    entry.position(28);
+    entry.putInt(names.length);
+    for (int i=0; i<names.length; i++) {
+      entry.put((byte) names[i].charAt(0));
+      entry.position(entry.position() + 3);
+      entry.putInt(starts[i]);
+      entry.putInt(sizes[i]);
+      entry.putFloat(starts[i]);
+      entry.putInt(sizes[i]);
+    }
+
+    int dataSize = sizeX * sizeY;
+    ByteBuffer block = ByteBuffer.allocate(256 + dataSize);
+    block.order(ByteOrder.LITTLE_ENDIAN);
+    block.putInt(0); // no metadata
+    block.putInt(0); // no attachment
+    block.putLong(dataSize);
+    block.put(entry.array());
+    writeSegment(file, "ZISRAWSUBBLOCK", block.array());
+    return entry.array();
+  }
+
+  /** Writes a segment at the next 32 byte boundary. */
+  private static void writeSegment(ByteBuffer file, String id, byte[] data) {
+    file.position((int) align(file.position()));
+    byte[] segmentID = new byte[16];
+    for (int i=0; i<id.length(); i++) {
+      segmentID[i] = (byte) id.charAt(i);
+    }
+    file.put(segmentID);
+    file.putLong(align(data.length));
+    file.putLong(data.length);
+    file.put(data);
+  }
+
+  private static long align(long position) {
+    return (position + 31) & ~31L;
+  }
+
+}
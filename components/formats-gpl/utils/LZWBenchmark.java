@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.codec.CodecOptions;
+import loci.formats.codec.LZWCodec;
+
+/**
+ * Compares the speed of LZWCodec's decoder with that of the original
+ * stream-based decoder, using synthetic 16-bit planes.
+ *
+ * Usage: LZWBenchmark [planeWidth planeHeight planeCount iterations]
+ */
+public class LZWBenchmark {
+
+  private static final int CLEAR_CODE = 256;
+  private static final int EOI_CODE = 257;
+  private static final int FIRST_CODE = 258;
+
+  private static final int[] DECOMPR_MASKS =
+    {0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f};
+
+  public static void main(String[] args) throws Exception {
+    int width = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+    int height = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+    int planeCount = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    LZWCodec codec = new LZWCodec();
+    int planeSize = width * height * 2;
+    CodecOptions options = new CodecOptions();
+    options.maxBytes = planeSize;
+
+    // smooth gradients with a little noise compress roughly like real
+    // 16-bit microscopy data
+    Random r = new Random(planeCount);
+    byte[][] compressed = new byte[planeCount][];
+    byte[][] expected = new byte[planeCount][];
+    long totalCompressed = 0;
+    for (int p=0; p<planeCount; p++) {
+      byte[] plane = new byte[planeSize];
+      for (int y=0; y<height; y++) {
+        for (int x=0; x<width; x++) {
+          int v = 1000 + x + y + p * 10 + r.nextInt(16);
+          int index = 2 * (y * width + x);
+          plane[index] = (byte) (v >> 8);
+          plane[index + 1] = (byte) v;
+        }
+      }
+      expected[p] = plane;
+      compressed[p] = codec.compress(plane, options);
+      totalCompressed += compressed[p].length;
+    }
+    System.out.println(planeCount + " planes of " + width + "x" + height +
+      " (16-bit), compression ratio " +
+      ((float) planeCount * planeSize / totalCompressed));
+
+    byte[] dst = new byte[planeSize];
+    for (int p=0; p<planeCount; p++) {
+      codec.decompress(compressed[p], 0, compressed[p].length, dst, 0, options);
+      if (!Arrays.equals(dst, expected[p]) ||
+        !Arrays.equals(decodeReference(compressed[p], planeSize), expected[p]))
+      {
+        throw new IllegalStateException("Decoded plane " + p + " is wrong");
+      }
+    }
+
+    for (int i=0; i<iterations; i++) {
+      long start = System.nanoTime();
+      for (int p=0; p<planeCount; p++) {
+        decodeReference(compressed[p], planeSize);
+      }
+      long reference = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int p=0; p<planeCount; p++) {
+        codec.decompress(compressed[p], 0, compressed[p].length, dst, 0,
+          options);
+      }
+      long current = System.nanoTime() - start;
+
+      System.out.println("Iteration " + i + ": reference " +
+        getThroughput(planeCount * planeSize, reference) + " MB/s, " +
+        "LZWCodec " + getThroughput(planeCount * planeSize, current) +
+        " MB/s");
+    }
+  }
+
+  private static long getThroughput(long bytes, long nanos) {
+    return (bytes * 1000) / Math.max(nanos, 1);
+  }
+
+  /**
+   * The original LZWCodec decoder, which reads one byte at a time from a
+   * RandomAccessInputStream and allocates its table and output on every call.
+   */
+  private static byte[] decodeReference(byte[] data, int maxBytes)
+    throws Exception
+  {
+    RandomAccessInputStream in = new RandomAccessInputStream(data);
+
+    // Output buffer
+    byte[] output = new byte[maxBytes];
+    // Position in output buffer to write next byte to
+    int currOutPos = 0;
+
+    // Table mapping codes to strings.
+    // Its structure is based on the fact that a string for a code has form:
+    // (string for another code) + (new byte).
+    // Thus, at index 'code': first array contains 'another code', second array
+    // contains 'new byte', and third array contains length of the string.
+    // The length is needed to make retrieving the string faster.
+    int[] anotherCodes = new int[4096];
+    byte[] newBytes = new byte[4096];
+    int[] lengths = new int[4096];
+    // We need to initialize only firt 256 entries in the table
+    for (int i=0; i<256; i++) {
+      newBytes[i] = (byte) i;
+      lengths[i] = 1;
+    }
+
+    // Length of the code to be read from input
+    int currCodeLength = 9;
+    // Next code to be added to the table
+    int nextCode = FIRST_CODE;
+
+    // Variables to handle reading bit stream:
+    // Byte from 'input[curr_in_pos-1]' -- only 'bits_read' bits on the right
+    // are non-zero
+    int currRead = 0;
+    // Number of bits in 'curr_read' that were not consumed yet
+    int bitsRead = 0;
+
+    // Current code being processed by decompressor.
+    int currCode;
+    // Previous code processed by decompressor.
+    int oldCode = 0;   // without initializer, Java reports error later
+
+    try {
+      do {
+        // read next code
+        {
+          int bitsLeft = currCodeLength - bitsRead;
+          if (bitsLeft > 8) {
+            currRead = (currRead << 8) | (in.read() & 0xff);
+            bitsLeft -= 8;
+          }
+          bitsRead = 8 - bitsLeft;
+          int nextByte = in.read() & 0xff;
+          currCode = (currRead << bitsLeft) | (nextByte >> bitsRead);
+          currRead = nextByte & DECOMPR_MASKS[bitsRead];
+        }
+
+        if (currCode == EOI_CODE) break;
+
+        if (currCode == CLEAR_CODE) {
+          // initialize table -- nothing to do
+          nextCode = FIRST_CODE;
+          currCodeLength = 9;
+          // read next code
+          {
+            int bitsLeft = currCodeLength - bitsRead;
+            if (bitsLeft > 8) {
+              currRead = (currRead << 8) | (in.read() & 0xff);
+              bitsLeft -= 8;
+            }
+            bitsRead = 8 - bitsLeft;
+
+            int nextByte = in.read() & 0xff;
+            currCode = (currRead << bitsLeft) | (nextByte >> bitsRead);
+            currRead = nextByte & DECOMPR_MASKS[bitsRead];
+          }
+          if (currCode == EOI_CODE) break;
+            // write string[curr_code] to output
+            // -- but here we are sure that string consists of a single byte
+            if (currOutPos >= output.length - 1) break;
+            output[currOutPos++] = newBytes[currCode];
+            oldCode = currCode;
+        }
+        else if (currCode < nextCode) {
+          // Code is already in the table
+          // 1) Write strin[curr_code] to output
+          int outLength = lengths[currCode];
+          int i = currOutPos + outLength;
+          int tablePos = currCode;
+          if (i > output.length) break;
+          while (i > currOutPos) {
+            output[--i] = newBytes[tablePos];
+            tablePos = anotherCodes[tablePos];
+          }
+          currOutPos += outLength;
+          // 2) Add string[old_code]+firstByte(string[curr_code]) to the table
+          if (nextCode >= anotherCodes.length) break;
+          anotherCodes[nextCode] = oldCode;
+          newBytes[nextCode] = output[i];
+          lengths[nextCode] = lengths[oldCode] + 1;
+          oldCode = currCode;
+          nextCode++;
+        }
+        else {
+          // Special case: code is not in the table
+          // 1) Write string[old_code] to output
+          int outLength = lengths[oldCode];
+          int i = currOutPos + outLength;
+          int tablePos = oldCode;
+          if (i > output.length) break;
+          while (i > currOutPos) {
+            output[--i] = newBytes[tablePos];
+            tablePos = anotherCodes[tablePos];
+          }
+          currOutPos += outLength;
+          // 2) Write firstByte(string[old_code]) to output
+          if (currOutPos >= output.length - 1) break;
+          output[currOutPos++] = output[i];
+          // 3) Add string[old_code]+firstByte(string[old_code]) to the table
+          anotherCodes[nextCode] = oldCode;
+          newBytes[nextCode] = output[i];
+          lengths[nextCode] = outLength + 1;
+          oldCode = currCode;
+          nextCode++;
+        }
+        // Increase length of code if needed
+        switch (nextCode) {
+          case 511:
+            currCodeLength = 10;
+            break;
+          case 1023:
+            currCodeLength = 11;
+            break;
+          case 2047:
+            currCodeLength = 12;
+            break;
+        }
+      } while (currOutPos < output.length && in.getFilePointer() < in.length());
+    }
+    catch (ArrayIndexOutOfBoundsException e) {
+      throw new IllegalStateException("Invalid LZW data", e);
+    }
+    catch (EOFException e) { }
+    in.close();
+    return output;
+    }
+
+}
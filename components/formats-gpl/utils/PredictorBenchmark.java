@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.common.DataTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+
+/**
+ * Compares the speed of TiffCompression's horizontal differencing
+ * predictor with that of the original per-sample implementation, and
+ * reports the speed of the floating point predictor.
+ *
+ * Usage: PredictorBenchmark [width height iterations]
+ */
+public class PredictorBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int width = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+    int height = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    int[] bits = {8, 16, 32};
+    for (int b=0; b<bits.length; b++) {
+      int bytes = bits[b] / 8;
+      byte[] plane = new byte[width * height * bytes];
+      new Random(bytes).nextBytes(plane);
+
+      IFD ifd = new IFD();
+      ifd.put(IFD.IMAGE_WIDTH, width);
+      ifd.put(IFD.IMAGE_LENGTH, height);
+      ifd.put(IFD.BITS_PER_SAMPLE, new int[] {bits[b]});
+      ifd.put(IFD.SAMPLES_PER_PIXEL, 1);
+      ifd.put(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+      ifd.put(IFD.PREDICTOR, 2);
+
+      byte[] reference = plane.clone();
+      undifferenceReference(reference, bytes, width, false);
+      byte[] current = plane.clone();
+      TiffCompression.undifference(current, ifd);
+      if (!Arrays.equals(reference, current)) {
+        throw new IllegalStateException(bits[b] + "-bit results differ");
+      }
+
+      for (int i=0; i<iterations; i++) {
+        long start = System.nanoTime();
+        undifferenceReference(plane, bytes, width, false);
+        long referenceTime = System.nanoTime() - start;
+
+        ifd.put(IFD.PREDICTOR, 2);
+        start = System.nanoTime();
+        TiffCompression.undifference(plane, ifd);
+        long horizontalTime = System.nanoTime() - start;
+
+        String floatingPoint = "";
+        if (bytes > 1) {
+          ifd.put(IFD.PREDICTOR, 3);
+          ifd.put(IFD.SAMPLE_FORMAT, 3);
+          start = System.nanoTime();
+          TiffCompression.undifference(plane, ifd);
+          long floatTime = System.nanoTime() - start;
+          floatingPoint = ", floating point " +
+            getThroughput(plane.length, floatTime) + " MB/s";
+        }
+
+        System.out.println(bits[b] + "-bit iteration " + i + ": reference " +
+          getThroughput(plane.length, referenceTime) + " MB/s, " +
+          "horizontal " + getThroughput(plane.length, horizontalTime) +
+          " MB/s" + floatingPoint);
+      }
+    }
+  }
+
+  private static long getThroughput(long bytes, long nanos) {
+    return (bytes * 1000) / Math.max(nanos, 1);
+  }
+
+  /** The original implementation of horizontal differencing reversal. */
+  private static void undifferenceReference(byte[] input, int bytes,
+    long width, boolean little)
+  {
+    for (int b=0; b<=input.length-bytes; b+=bytes) {
+      if (b / bytes % width == 0) continue;
+      int value = DataTools.bytesToInt(input, b, bytes, little);
+      value += DataTools.bytesToInt(input, b - bytes, bytes, little);
+      DataTools.unpackBytes(value, input, b, bytes, little);
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2013 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+import loci.formats.ImageReader;
+
+/**
+ * Measures the time from constructing an ImageReader to the end of the
+ * first setId call, with readers instantiated either up front ("eager")
+ * or only when needed ("lazy").
+ *
+ * The first iteration includes class loading, which dominates the start-up
+ * time of short-lived processes, so each mode should be compared in a
+ * fresh JVM, e.g.:
+ *
+ *   java ReaderStartupBenchmark eager test.fake 1
+ *   java ReaderStartupBenchmark lazy test.fake 1
+ *
+ * Usage: ReaderStartupBenchmark [eager|lazy] [file iterations]
+ */
+public class ReaderStartupBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    boolean lazy = args.length > 0 && args[0].equals("lazy");
+    String id = args.length > 1 ? args[1] : "test&sizeX=512&sizeY=512.fake";
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    for (int i=0; i<iterations; i++) {
+      long start = System.nanoTime();
+      ImageReader reader =
+        new ImageReader(ImageReader.getDefaultReaderClasses(), lazy);
+      long constructed = System.nanoTime();
+      reader.setId(id);
+      long initialized = System.nanoTime();
+      String format = reader.getFormat();
+      reader.close();
+
+      System.out.println((lazy ? "lazy" : "eager") + " iteration " + i +
+        ": constructor " + getMillis(constructed - start) + " ms, " +
+        "setId " + getMillis(initialized - constructed) + " ms, " +
+        "total " + getMillis(initialized - start) + " ms (" + format + ")");
+    }
+  }
+
+  private static long getMillis(long nanos) {
+    return nanos / 1000000;
+  }
+
+}